@@ -34,7 +34,11 @@ import bdv.ui.appearance.AppearanceManager;
 import bdv.ui.keymap.KeymapManager;
 import bdv.viewer.ViewerOptions;
 import bdv.viewer.animate.MessageOverlayAnimator;
+import bvv.core.blockmath.LodSelector;
+import bvv.core.blockmath.MipmapSizes;
+import bvv.core.cache.EvictionPolicy;
 import java.awt.event.KeyListener;
+import java.util.function.Supplier;
 import org.scijava.ui.behaviour.KeyPressedManager;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 
@@ -175,8 +179,9 @@ public class VolumeViewerOptions
 	}
 
 	/**
-	 * Sets the max memory to use for the GPU cache texture in MB.
-	 * The size of the GPU cache texture will match this as close as possible with the given tile size.
+	 * Sets the max memory to use for the GPU cache textures in MB.
+	 * The 8-bit and 16-bit cache textures share this budget, according to the demand of the visible sources.
+	 * The size of the GPU cache textures will match this as close as possible with the given tile size.
 	 *
 	 * @param s
 	 * 		the GPU cache size in MB.
@@ -188,6 +193,265 @@ public class VolumeViewerOptions
 		return this;
 	}
 
+	/**
+	 * Sets the number of PBOs used for staging uploads to the GPU cache
+	 * texture. (The maximum number, if {@link #adaptivePboChain(boolean)} is
+	 * enabled.)
+	 *
+	 * @param n
+	 * 		the number of PBOs.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions numPbos( final int n )
+	{
+		values.numPbos = n;
+		return this;
+	}
+
+	/**
+	 * Sets the size of each PBO used for staging uploads to the GPU cache
+	 * texture, in cache tiles. (The maximum size, if
+	 * {@link #adaptivePboChain(boolean)} is enabled.)
+	 *
+	 * @param n
+	 * 		the number of cache tiles per PBO.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions blocksPerPbo( final int n )
+	{
+		values.blocksPerPbo = n;
+		return this;
+	}
+
+	/**
+	 * Sets whether the number and size of PBOs used for staging uploads are
+	 * adapted to the number of tiles loaded per frame and to upload stalls.
+	 *
+	 * @param b
+	 * 		whether to adapt the PBO chain.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions adaptivePboChain( final boolean b )
+	{
+		values.adaptivePboChain = b;
+		return this;
+	}
+
+	/**
+	 * Sets whether fill threads claim and commit PBO upload buffers without
+	 * locking (with atomic counters). This reduces lock contention when many
+	 * threads fill cache tiles in parallel.
+	 *
+	 * @param b
+	 * 		whether to use the lock-free PBO chain.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions lockFreePboChain( final boolean b )
+	{
+		values.lockFreePboChain = b;
+		return this;
+	}
+
+	/**
+	 * Sets the size of the staging memory (for each cache texture) for blocks
+	 * that are prefetched in the background, based on the predicted camera
+	 * motion. Set to {@code 0} to disable prefetching.
+	 *
+	 * @param s
+	 * 		the prefetch staging memory size in MB.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions prefetchSizeInMB( final int s )
+	{
+		values.prefetchSizeInMB = s;
+		return this;
+	}
+
+	/**
+	 * Sets the time budget for filling cache tiles in one frame. If it runs
+	 * out, the remaining blocks are filled in subsequent repaints (most
+	 * important blocks first), so that frame times stay bounded when many
+	 * blocks are missing. Set to {@code 0} to fill all blocks required for a
+	 * frame at once.
+	 *
+	 * @param millis
+	 * 		the fill time budget in milliseconds.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions maxFillMillis( final int millis )
+	{
+		values.maxFillMillis = millis;
+		return this;
+	}
+
+	/**
+	 * Sets the size of the host memory cache (for each cache texture) of
+	 * already padded tiles. Tiles that are evicted from the GPU cache and
+	 * needed again are copied from there, instead of being assembled from the
+	 * image data again. Set to {@code 0} to disable the host memory cache.
+	 *
+	 * @param s
+	 * 		the host tile cache size in MB.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions hostTileCacheSizeInMB( final int s )
+	{
+		values.hostTileCacheSizeInMB = s;
+		return this;
+	}
+
+	/**
+	 * Sets the directory of the persistent on-disk store of already padded
+	 * tiles. Tiles are written to a memory-mapped file there, and read back
+	 * in later sessions instead of being assembled from the image data again.
+	 * This requires sources with persistent ids (see
+	 * {@code ResolutionLevel3D.getPersistentId()}). Set to {@code null} to
+	 * disable the tile spill store.
+	 *
+	 * @param dir
+	 * 		the tile spill store directory.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions tileSpillDirectory( final String dir )
+	{
+		values.tileSpillDirectory = dir;
+		return this;
+	}
+
+	/**
+	 * Sets the size of the persistent on-disk store of tiles (for each cache
+	 * texture), see {@link #tileSpillDirectory(String)}.
+	 *
+	 * @param s
+	 * 		the tile spill store size in MB.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions tileSpillSizeInMB( final int s )
+	{
+		values.tileSpillSizeInMB = s;
+		return this;
+	}
+
+	/**
+	 * Sets how many of the coarsest resolution levels of each visible source
+	 * are kept resident in the cache texture. These levels are loaded
+	 * completely and are never evicted, so that there is always a (coarse)
+	 * fallback to render every block from. Set to {@code 0} to disable
+	 * pinning.
+	 *
+	 * @param n
+	 * 		the number of pinned resolution levels.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions numPinnedLevels( final int n )
+	{
+		values.numPinnedLevels = n;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum size of the pinned resolution levels of each source,
+	 * see {@link #numPinnedLevels(int)}. If the coarsest levels don't fit,
+	 * fewer levels are pinned. Set to {@code 0} for no limit (pinned levels
+	 * are always limited to a quarter of the cache texture).
+	 *
+	 * @param s
+	 * 		the maximum size of pinned levels in MB.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions maxPinnedSizeInMB( final int s )
+	{
+		values.maxPinnedSizeInMB = s;
+		return this;
+	}
+
+	/**
+	 * Set whether partially loaded blocks are uploaded. Such incomplete blocks
+	 * remember which source cells they contain, and when they are completed
+	 * later, only the missing parts are copied and uploaded. If {@code false},
+	 * only blocks that can be loaded completely are uploaded.
+	 *
+	 * @param p
+	 *            whether to upload and incrementally patch incomplete blocks.
+	 */
+	public VolumeViewerOptions patchIncompleteTiles( final boolean p )
+	{
+		values.patchIncompleteTiles = p;
+		return this;
+	}
+
+	/**
+	 * Set whether the blocks required for rendering are updated incrementally
+	 * from frame to frame. Blocks that are resident and complete at the
+	 * required resolution since the previous frame are not re-evaluated, and
+	 * only the changed region of the lookup textures is uploaded. This saves
+	 * CPU time per frame when the camera moves slowly.
+	 *
+	 * @param b
+	 * 		whether to update required blocks incrementally.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions incrementalBlockUpdates( final boolean b )
+	{
+		values.incrementalBlockUpdates = b;
+		return this;
+	}
+
+	/**
+	 * Sets how the level-of-detail selector of each source is created. It
+	 * selects the resolution level at which each block is rendered, e.g.,
+	 * {@code MipmapSizes::new} (the default) interpolates the pixel size
+	 * between near and far plane, {@code () -> new ScreenSpaceErrorLod( 1.0 )}
+	 * projects the voxel size at the nearest point of each block to screen
+	 * pixels, and {@code FoveatedLod} additionally tolerates a larger error
+	 * away from a focus point (such as the mouse cursor).
+	 *
+	 * @param f
+	 * 		creates the level-of-detail selector.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions lodSelector( final Supplier< LodSelector > f )
+	{
+		values.lodSelector = f;
+		return this;
+	}
+
+	/**
+	 * Sets the directory where the block requests of each cache texture are
+	 * recorded (together with observed loading latencies), for replaying them
+	 * against different eviction policies with {@code EvictionSimulator}. Set
+	 * to {@code null} (the default) to disable recording.
+	 *
+	 * @param dir
+	 * 		the eviction trace directory.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions evictionTraceDirectory( final String dir )
+	{
+		values.evictionTraceDirectory = dir;
+		return this;
+	}
+
+	/**
+	 * Sets how the eviction policy of each cache texture is created. The
+	 * policy selects which cached blocks are replaced by new blocks, e.g.,
+	 * {@code EvictionPolicy::lru} (the default), or
+	 * {@code () -> EvictionPolicy.levelWeightedLru( 0.25 )} to keep blocks of
+	 * coarse resolution levels longer. Use {@code EvictionSimulator} (in the
+	 * test sources) on a recorded trace (see
+	 * {@link #evictionTraceDirectory(String)}) to compare policies for a
+	 * dataset.
+	 *
+	 * @param f
+	 * 		creates the eviction policy.
+	 * @return this instance.
+	 */
+	public VolumeViewerOptions evictionPolicy( final Supplier< EvictionPolicy > f )
+	{
+		values.evictionPolicy = f;
+		return this;
+	}
+
 	/**
 	 * Sets the distance from the camera to the z=0 plane. In units of screen pixel width.
 	 *
@@ -339,6 +603,22 @@ public class VolumeViewerOptions
 		private int numDitherSamples = 8;
 		private final int[] cacheBlockSize = new int[] { 32, 32, 32 };
 		private int maxCacheSizeInMB = 300;
+		private int numPbos = 5;
+		private int blocksPerPbo = 100;
+		private boolean adaptivePboChain = false;
+		private boolean lockFreePboChain = false;
+		private int prefetchSizeInMB = 0;
+		private int maxFillMillis = 0;
+		private int hostTileCacheSizeInMB = 0;
+		private String tileSpillDirectory = null;
+		private int tileSpillSizeInMB = 1024;
+		private int numPinnedLevels = 0;
+		private int maxPinnedSizeInMB = 0;
+		private boolean patchIncompleteTiles = false;
+		private boolean incrementalBlockUpdates = false;
+		private Supplier< LodSelector > lodSelector = MipmapSizes::new;
+		private String evictionTraceDirectory = null;
+		private Supplier< EvictionPolicy > evictionPolicy = EvictionPolicy::lru;
 		private double dCam = 2000;
 		private double dClipNear = 1000;
 		private double dClipFar = 1000;
@@ -364,6 +644,22 @@ public class VolumeViewerOptions
 					numDitherSamples( numDitherSamples ).
 					cacheBlockSize( cacheBlockSize ).
 					maxCacheSizeInMB( maxCacheSizeInMB ).
+					numPbos( numPbos ).
+					blocksPerPbo( blocksPerPbo ).
+					adaptivePboChain( adaptivePboChain ).
+					lockFreePboChain( lockFreePboChain ).
+					prefetchSizeInMB( prefetchSizeInMB ).
+					maxFillMillis( maxFillMillis ).
+					hostTileCacheSizeInMB( hostTileCacheSizeInMB ).
+					tileSpillDirectory( tileSpillDirectory ).
+					tileSpillSizeInMB( tileSpillSizeInMB ).
+					numPinnedLevels( numPinnedLevels ).
+					maxPinnedSizeInMB( maxPinnedSizeInMB ).
+					patchIncompleteTiles( patchIncompleteTiles ).
+					incrementalBlockUpdates( incrementalBlockUpdates ).
+					lodSelector( lodSelector ).
+					evictionTraceDirectory( evictionTraceDirectory ).
+					evictionPolicy( evictionPolicy ).
 					dCam( dCam ).
 					dClipNear( dClipNear ).
 					dClipFar( dClipFar ).
@@ -422,6 +718,86 @@ public class VolumeViewerOptions
 			return maxCacheSizeInMB;
 		}
 
+		public int getNumPbos()
+		{
+			return numPbos;
+		}
+
+		public int getBlocksPerPbo()
+		{
+			return blocksPerPbo;
+		}
+
+		public boolean isAdaptivePboChain()
+		{
+			return adaptivePboChain;
+		}
+
+		public boolean isLockFreePboChain()
+		{
+			return lockFreePboChain;
+		}
+
+		public int getPrefetchSizeInMB()
+		{
+			return prefetchSizeInMB;
+		}
+
+		public int getMaxFillMillis()
+		{
+			return maxFillMillis;
+		}
+
+		public int getHostTileCacheSizeInMB()
+		{
+			return hostTileCacheSizeInMB;
+		}
+
+		public String getTileSpillDirectory()
+		{
+			return tileSpillDirectory;
+		}
+
+		public int getTileSpillSizeInMB()
+		{
+			return tileSpillSizeInMB;
+		}
+
+		public int getNumPinnedLevels()
+		{
+			return numPinnedLevels;
+		}
+
+		public int getMaxPinnedSizeInMB()
+		{
+			return maxPinnedSizeInMB;
+		}
+
+		public boolean isPatchIncompleteTiles()
+		{
+			return patchIncompleteTiles;
+		}
+
+		public boolean isIncrementalBlockUpdates()
+		{
+			return incrementalBlockUpdates;
+		}
+
+		public Supplier< LodSelector > getLodSelector()
+		{
+			return lodSelector;
+		}
+
+		public String getEvictionTraceDirectory()
+		{
+			return evictionTraceDirectory;
+		}
+
+		public Supplier< EvictionPolicy > getEvictionPolicy()
+		{
+			return evictionPolicy;
+		}
+
 		public double getDCam()
 		{
 			return dCam;
@@ -47,12 +47,16 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
@@ -103,10 +107,12 @@ import bdv.viewer.overlay.ScaleBarOverlayRenderer;
 import bdv.viewer.overlay.SourceInfoOverlayRenderer;
 import bdv.viewer.render.PainterThread;
 import bdv.viewer.state.XmlIoViewerState;
+import bvv.core.blockmath.ClipRegion;
 import bvv.core.multires.SourceStacks;
 import bvv.core.multires.Stack3D;
 import bvv.core.offscreen.OffScreenFrameBuffer;
 import bvv.core.offscreen.OffScreenFrameBufferWithDepth;
+import bvv.core.render.BlockCacheOptions;
 import bvv.core.render.RenderData;
 import bvv.core.render.VolumeRenderer;
 import bvv.core.render.VolumeRenderer.RepaintType;
@@ -330,7 +336,23 @@ public class VolumeViewerPanel
 				getDitherStep( options.getDitherWidth() ),
 				options.getNumDitherSamples(),
 				options.getCacheBlockSize(),
-				options.getMaxCacheSizeInMB() );
+				options.getMaxCacheSizeInMB(),
+				new BlockCacheOptions()
+						.numPbos( options.getNumPbos() )
+						.blocksPerPbo( options.getBlocksPerPbo() )
+						.adaptivePboChain( options.isAdaptivePboChain() )
+						.lockFreePboChain( options.isLockFreePboChain() )
+						.prefetchSizeInMB( options.getPrefetchSizeInMB() )
+						.maxFillMillis( options.getMaxFillMillis() )
+						.hostTileCacheSizeInMB( options.getHostTileCacheSizeInMB() )
+						.tileSpillStore( options.getTileSpillDirectory() == null ? null : Paths.get( options.getTileSpillDirectory() ), options.getTileSpillSizeInMB() )
+						.pinnedLevels( options.getNumPinnedLevels(), options.getMaxPinnedSizeInMB() )
+						.patchIncompleteTiles( options.isPatchIncompleteTiles() )
+						.evictionPolicy( options.getEvictionPolicy() )
+						.evictionTraceDirectory( options.getEvictionTraceDirectory() == null ? null : Paths.get( options.getEvictionTraceDirectory() ) )
+						.incrementalBlockUpdates( options.isIncrementalBlockUpdates() )
+						.lodSelector( options.getLodSelector() ) );
+		renderer.setErrorListener( this::showError );
 
 		dCam = options.getDCam();
 		dClipNear = options.getDClipNear();
@@ -835,6 +857,16 @@ public class VolumeViewerPanel
 		getDisplayComponent().repaint();
 	}
 
+	/**
+	 * Print {@code msg} to {@code System.err} and show it in the fade-out
+	 * overlay.
+	 */
+	private void showError( final String msg )
+	{
+		System.err.println( msg );
+		showMessage( msg );
+	}
+
 	/**
 	 * Add a new {@link OverlayAnimator} to the list of animators. The animation
 	 * is immediately started. The new {@link OverlayAnimator} will remain in
@@ -930,6 +962,7 @@ public class VolumeViewerPanel
 	// ... RenderState ...
 	private final List< Stack3D< ? > > renderStacks = new ArrayList<>();
 	private final List< ConverterSetup > renderConverters = new ArrayList<>();
+	private final List< ClipRegion > renderClipRegions = new ArrayList<>();
 	private final Matrix4f pv = new Matrix4f();
 	private double dCam;
 	private double dClipNear;
@@ -955,6 +988,99 @@ public class VolumeViewerPanel
 		this.maxAllowedStepInVoxels = maxAllowedStepInVoxels;
 	}
 
+	/**
+	 * Set the total GPU memory for the cache textures, e.g., to use memory
+	 * that became available after the viewer was started. The cache textures
+	 * are resized with the next frame. Cached blocks are kept (as far as they
+	 * fit), they are moved to the resized textures over the next frames.
+	 *
+	 * @param maxCacheSizeInMB
+	 *            total size of the cache textures in MB
+	 */
+	public void setMaxCacheSizeInMB( final int maxCacheSizeInMB )
+	{
+		renderer.setMaxCacheSizeInMB( maxCacheSizeInMB );
+		requestRepaint();
+	}
+
+	/**
+	 * Get the total GPU memory for the cache textures in MB.
+	 */
+	public int getMaxCacheSizeInMB()
+	{
+		return renderer.getMaxCacheSizeInMB();
+	}
+
+	/**
+	 * Global clip region, applies to all sources.
+	 */
+	private volatile ClipRegion clipRegion = ClipRegion.NONE;
+
+	/**
+	 * Per-source clip regions, in addition to the global {@link #clipRegion}.
+	 */
+	private final Map< Source< ? >, ClipRegion > sourceClipRegions = new ConcurrentHashMap<>();
+
+	/**
+	 * Restrict rendering of all sources to {@code clipRegion} (in world
+	 * coordinates). Blocks outside the clip region are not loaded.
+	 *
+	 * @param clipRegion
+	 *            the clip region, or {@link ClipRegion#NONE} for no clipping.
+	 * @throws IllegalArgumentException
+	 *             if a source clip region combined with {@code clipRegion}
+	 *             would have more than {@link ClipRegion#MAX_PLANES} planes.
+	 */
+	public void setClipRegion( final ClipRegion clipRegion )
+	{
+		// fail early if a combined clip region has too many planes
+		sourceClipRegions.values().forEach( clipRegion::intersect );
+		this.clipRegion = clipRegion;
+		requestRepaint();
+	}
+
+	/**
+	 * Get the global clip region (see {@link #setClipRegion(ClipRegion)}).
+	 */
+	public ClipRegion getClipRegion()
+	{
+		return clipRegion;
+	}
+
+	/**
+	 * Restrict rendering of {@code source} to {@code clipRegion} (in world
+	 * coordinates), in addition to the global {@link #setClipRegion(ClipRegion)
+	 * clip region}. Blocks outside the clip region are not loaded.
+	 *
+	 * @param source
+	 *            the source to clip
+	 * @param clipRegion
+	 *            the clip region, or {@link ClipRegion#NONE} for no clipping.
+	 * @throws IllegalArgumentException
+	 *             if {@code clipRegion} combined with the global clip region
+	 *             would have more than {@link ClipRegion#MAX_PLANES} planes.
+	 */
+	public void setClipRegion( final SourceAndConverter< ? > source, final ClipRegion clipRegion )
+	{
+		// fail early if the combined clip region has too many planes
+		this.clipRegion.intersect( clipRegion );
+		if ( clipRegion.numPlanes() == 0 )
+			sourceClipRegions.remove( source.getSpimSource() );
+		else
+			sourceClipRegions.put( source.getSpimSource(), clipRegion );
+		requestRepaint();
+	}
+
+	/**
+	 * Get the clip region of {@code source} (see
+	 * {@link #setClipRegion(SourceAndConverter, ClipRegion)}), not including
+	 * the global clip region.
+	 */
+	public ClipRegion getClipRegion( final SourceAndConverter< ? > source )
+	{
+		return sourceClipRegions.getOrDefault( source.getSpimSource(), ClipRegion.NONE );
+	}
+
 	@Override
 	public void setCanvasSize( final int width, final int height )
 	{
@@ -983,15 +1109,18 @@ public class VolumeViewerPanel
 
 			renderStacks.clear();
 			renderConverters.clear();
+			renderClipRegions.clear();
 
 			for ( SourceAndConverter< ? > source : visibleSources )
 			{
 				final ConverterSetup converter = setups.getConverterSetup( source );
+				final ClipRegion sourceClipRegion = sourceClipRegions.getOrDefault( source.getSpimSource(), ClipRegion.NONE );
 				if ( source.asVolatile() != null )
 					source = source.asVolatile();
 				final Stack3D< ? > stack3D = SourceStacks.getStack3D( source.getSpimSource(), currentTimepoint );
 				renderStacks.add( stack3D );
 				renderConverters.add( converter );
+				renderClipRegions.add( clipRegion.intersect( sourceClipRegion ) );
 			}
 			renderData = new RenderData( pv, currentTimepoint, renderTransformWorldToScreen, dCam, dClipNear, dClipFar, screenWidth, screenHeight );
 		}
@@ -1016,6 +1145,7 @@ public class VolumeViewerPanel
 			if ( type == FULL )
 			{
 				setRenderState();
+				renderer.updateCameraMotion( renderData );
 				renderTransformListeners.list.forEach( l -> l.transformChanged( renderData.getRenderTransformWorldToScreen() ) );
 			}
 
@@ -1039,7 +1169,7 @@ public class VolumeViewerPanel
 			offscreen.bind( gl, false );
 			gl.glDisable( GL_DEPTH_TEST );
 			sceneBuf.drawQuad( gl );
-			final RepaintType rerender = renderer.draw( gl, type, sceneBuf, renderStacks, renderConverters, pv, maxRenderMillis, maxAllowedStepInVoxels );
+			final RepaintType rerender = renderer.draw( gl, type, sceneBuf, renderStacks, renderConverters, renderClipRegions, pv, maxRenderMillis, maxAllowedStepInVoxels );
 			repaint.request( rerender );
 			offscreen.unbind( gl, false );
 			offscreen.drawQuad( gl );
@@ -1116,6 +1246,14 @@ public class VolumeViewerPanel
 		{
 			e.printStackTrace();
 		}
+		try
+		{
+			renderer.close();
+		}
+		catch ( final IOException e )
+		{
+			showError( "Closing the block cache failed: " + e.getMessage() );
+		}
 		state.clearGroups();
 		state.clearSources();
 	}
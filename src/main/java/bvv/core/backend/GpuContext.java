@@ -82,10 +82,21 @@ public interface GpuContext
 	// used to redefine a texture that has changed size
 	void delete( Texture texture );
 
+	// delete a staging buffer (if it has already been allocated)
+	// used to release staging buffers that are no longer needed
+	void delete( StagingBuffer stagingBuffer );
+
 	// upload texture block from staging buffer
 	// previous staging buffer binding is restored when done
 	void texSubImage3D( StagingBuffer stagingBuffer, Texture3D texture, int xoffset, int yoffset, int zoffset, int width, int height, int depth, long pixels_buffer_offset );
 
 	// upload texture block from Buffer
 	void texSubImage3D( Texture3D texture, int xoffset, int yoffset, int zoffset, int width, int height, int depth, Buffer pixels );
+
+	// copy a box of texels from one 3D texture to another (of the same format)
+	// previous texture bindings are restored when done
+	void copyTexSubImage3D( Texture3D src, int srcX, int srcY, int srcZ, Texture3D dst, int dstX, int dstY, int dstZ, int width, int height, int depth );
+
+	// maximum width, height, and depth of a 3D texture
+	int getMax3DTextureSize();
 }
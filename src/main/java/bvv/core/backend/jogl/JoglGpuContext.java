@@ -45,9 +45,12 @@ import bvv.core.backend.Texture3D;
 
 import static com.jogamp.opengl.GL.GL_ACTIVE_TEXTURE;
 import static com.jogamp.opengl.GL.GL_CLAMP_TO_EDGE;
+import static com.jogamp.opengl.GL.GL_COLOR_ATTACHMENT0;
 import static com.jogamp.opengl.GL.GL_FLOAT;
 import static com.jogamp.opengl.GL.GL_LINEAR;
 import static com.jogamp.opengl.GL.GL_NEAREST;
+import static com.jogamp.opengl.GL.GL_READ_FRAMEBUFFER;
+import static com.jogamp.opengl.GL.GL_READ_FRAMEBUFFER_BINDING;
 import static com.jogamp.opengl.GL.GL_R32F;
 import static com.jogamp.opengl.GL.GL_R8;
 import static com.jogamp.opengl.GL.GL_REPEAT;
@@ -65,6 +68,7 @@ import static com.jogamp.opengl.GL.GL_UNSIGNED_SHORT;
 import static com.jogamp.opengl.GL.GL_WRITE_ONLY;
 import static com.jogamp.opengl.GL2ES2.GL_CLAMP_TO_BORDER;
 import static com.jogamp.opengl.GL2ES2.GL_FRAGMENT_SHADER;
+import static com.jogamp.opengl.GL2ES2.GL_MAX_3D_TEXTURE_SIZE;
 import static com.jogamp.opengl.GL2ES2.GL_RED;
 import static com.jogamp.opengl.GL2ES2.GL_STREAM_DRAW;
 import static com.jogamp.opengl.GL2ES2.GL_TEXTURE_3D;
@@ -211,6 +215,14 @@ public class JoglGpuContext implements GpuContext
 			gl.glDeleteTextures( 1, new int[] { texId.id }, 0 );
 	}
 
+	@Override
+	public void delete( final StagingBuffer stagingBuffer )
+	{
+		final Integer pboId = pbos.remove( stagingBuffer );
+		if ( pboId != null )
+			gl.glDeleteBuffers( 1, new int[] { pboId }, 0 );
+	}
+
 	@Override
 	public void texSubImage3D( final StagingBuffer stagingBuffer, final Texture3D texture, final int xoffset, final int yoffset, final int zoffset, final int width, final int height, final int depth, final long pixels_buffer_offset )
 	{
@@ -257,6 +269,46 @@ public class JoglGpuContext implements GpuContext
 			gl.glBindTexture( GL_TEXTURE_3D, restoreTextureId );
 	}
 
+	@Override
+	public void copyTexSubImage3D( final Texture3D src, final int srcX, final int srcY, final int srcZ, final Texture3D dst, final int dstX, final int dstY, final int dstZ, final int width, final int height, final int depth )
+	{
+		final int srcId = getTextureId( src ).id;
+		final int dstId = getTextureId( dst ).id;
+
+		if ( hasCopyImage() )
+		{
+			gl.glCopyImageSubData( srcId, GL_TEXTURE_3D, 0, srcX, srcY, srcZ, dstId, GL_TEXTURE_3D, 0, dstX, dstY, dstZ, width, height, depth );
+			return;
+		}
+
+		// without ARB_copy_image, read src slice by slice through a framebuffer
+		final int[] tmp = new int[ 1 ];
+		gl.glGetIntegerv( GL_READ_FRAMEBUFFER_BINDING, tmp, 0 );
+		final int restoreFramebufferId = tmp[ 0 ];
+		gl.glGetIntegerv( GL_TEXTURE_BINDING_3D, tmp, 0 );
+		final int restoreTextureId = tmp[ 0 ];
+
+		gl.glBindFramebuffer( GL_READ_FRAMEBUFFER, getCopyFramebufferId() );
+		gl.glBindTexture( GL_TEXTURE_3D, dstId );
+		for ( int z = 0; z < depth; ++z )
+		{
+			gl.glFramebufferTextureLayer( GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, srcId, 0, srcZ + z );
+			gl.glCopyTexSubImage3D( GL_TEXTURE_3D, 0, dstX, dstY, dstZ + z, srcX, srcY, width, height );
+		}
+		gl.glFramebufferTextureLayer( GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, 0, 0, 0 );
+
+		gl.glBindTexture( GL_TEXTURE_3D, restoreTextureId );
+		gl.glBindFramebuffer( GL_READ_FRAMEBUFFER, restoreFramebufferId );
+	}
+
+	@Override
+	public int getMax3DTextureSize()
+	{
+		final int[] tmp = new int[ 1 ];
+		gl.glGetIntegerv( GL_MAX_3D_TEXTURE_SIZE, tmp, 0 );
+		return tmp[ 0 ];
+	}
+
 	public static JoglGpuContext get( final GL3 gl )
 	{
 		return contexts.computeIfAbsent( gl, JoglGpuContext::new );
@@ -295,6 +347,12 @@ public class JoglGpuContext implements GpuContext
 
 	private final Map< Texture, TexId > textures = new WeakHashMap<>();
 
+	// whether glCopyImageSubData is available, or null if not checked yet
+	private Boolean copyImage;
+
+	// framebuffer for copying between textures without glCopyImageSubData, or 0 if not created yet
+	private int copyFramebufferId;
+
 	private JoglGpuContext( final GL3 gl )
 	{
 		this.gl = gl;
@@ -326,6 +384,24 @@ public class JoglGpuContext implements GpuContext
 		} );
 	}
 
+	private boolean hasCopyImage()
+	{
+		if ( copyImage == null )
+			copyImage = gl.isExtensionAvailable( "GL_ARB_copy_image" );
+		return copyImage;
+	}
+
+	private int getCopyFramebufferId()
+	{
+		if ( copyFramebufferId == 0 )
+		{
+			final int[] tmp = new int[ 1 ];
+			gl.glGenFramebuffers( 1, tmp, 0 );
+			copyFramebufferId = tmp[ 0 ];
+		}
+		return copyFramebufferId;
+	}
+
 	private static class TexId
 	{
 		int id;
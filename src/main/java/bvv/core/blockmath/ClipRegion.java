@@ -0,0 +1,226 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import java.util.Arrays;
+
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+
+import org.joml.Vector4f;
+
+/**
+ * A convex region in world coordinates, given as the intersection of
+ * half-spaces. A half-space {@code (a, b, c, d)} contains the points {@code p}
+ * with {@code a*px + b*py + c*pz + d >= 0}. Plane normals {@code (a, b, c)}
+ * are normalized, so that {@code a*px + b*py + c*pz + d} is the distance of
+ * {@code p} to the plane.
+ * <p>
+ * Rendering is restricted to the clip region: Blocks that do not overlap the
+ * region are not loaded (see {@link
+ * FindRequiredBlocks#getRequiredLevelBlocksFrustum(org.joml.Matrix4fc,
+ * org.joml.Matrix4fc, ClipRegion, int[], long[], long[])}), and samples
+ * outside the region are not accumulated.
+ * <p>
+ * Clip regions are immutable. They are combined by {@link #intersect}, e.g.,
+ * <pre>{@code
+ * ClipRegion slab = ClipRegion.slab( new double[] { 0, 0, 100 }, new double[] { 0, 0, 1 }, 20 );
+ * ClipRegion roi = ClipRegion.box( new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 500, 500, 500 } ), boxToWorld );
+ * panel.setClipRegion( slab.intersect( roi ) );
+ * }</pre>
+ */
+public final class ClipRegion
+{
+	/**
+	 * Maximum number of planes of a clip region. (This is the size of the
+	 * clip plane arrays in the volume shader.)
+	 */
+	public static final int MAX_PLANES = 16;
+
+	/**
+	 * The unbounded region (no clipping).
+	 */
+	public static final ClipRegion NONE = new ClipRegion( new float[ 0 ] );
+
+	/**
+	 * Plane {@code i} is {@code (a,b,c,d) = planes[4*i ... 4*i+3]}.
+	 */
+	private final float[] planes;
+
+	private ClipRegion( final float[] planes )
+	{
+		if ( planes.length > 4 * MAX_PLANES )
+			throw new IllegalArgumentException( "Clip region has more than " + MAX_PLANES + " planes." );
+		this.planes = planes;
+	}
+
+	/**
+	 * Create the half-space {@code a*x + b*y + c*z + d >= 0}.
+	 */
+	public static ClipRegion halfSpace( final double a, final double b, final double c, final double d )
+	{
+		final double[] plane = { a, b, c, d };
+		final float[] planes = new float[ 4 ];
+		normalize( plane, planes, 0 );
+		return new ClipRegion( planes );
+	}
+
+	/**
+	 * Create the half-space bounded by the plane through {@code point} with
+	 * {@code normal}, on the side that {@code normal} points to.
+	 */
+	public static ClipRegion halfSpace( final double[] point, final double[] normal )
+	{
+		return halfSpace( normal[ 0 ], normal[ 1 ], normal[ 2 ],
+				-( normal[ 0 ] * point[ 0 ] + normal[ 1 ] * point[ 1 ] + normal[ 2 ] * point[ 2 ] ) );
+	}
+
+	/**
+	 * Create the slab of the given {@code thickness}, centered at the plane
+	 * through {@code center} with {@code normal}.
+	 */
+	public static ClipRegion slab( final double[] center, final double[] normal, final double thickness )
+	{
+		final double len = Math.sqrt( normal[ 0 ] * normal[ 0 ] + normal[ 1 ] * normal[ 1 ] + normal[ 2 ] * normal[ 2 ] );
+		final double d = -( normal[ 0 ] * center[ 0 ] + normal[ 1 ] * center[ 1 ] + normal[ 2 ] * center[ 2 ] ) / len;
+		final double h = 0.5 * thickness;
+		return halfSpace( normal[ 0 ] / len, normal[ 1 ] / len, normal[ 2 ] / len, d + h ).intersect(
+				halfSpace( -normal[ 0 ] / len, -normal[ 1 ] / len, -normal[ 2 ] / len, h - d ) );
+	}
+
+	/**
+	 * Create the axis-aligned box {@code interval} (in world coordinates).
+	 */
+	public static ClipRegion box( final RealInterval interval )
+	{
+		return box( interval, new AffineTransform3D() );
+	}
+
+	/**
+	 * Create an oriented box: {@code interval} is in box coordinates, which
+	 * are transformed to world coordinates by {@code boxToWorld}.
+	 */
+	public static ClipRegion box( final RealInterval interval, final AffineTransform3D boxToWorld )
+	{
+		final AffineTransform3D worldToBox = boxToWorld.inverse();
+		final float[] planes = new float[ 6 * 4 ];
+		final double[] boxPlane = new double[ 4 ];
+		final double[] worldPlane = new double[ 4 ];
+		for ( int d = 0; d < 3; ++d )
+		{
+			for ( int side = 0; side < 2; ++side )
+			{
+				// x[d] - min >= 0, or max - x[d] >= 0 (in box coordinates)
+				Arrays.fill( boxPlane, 0 );
+				boxPlane[ d ] = side == 0 ? 1 : -1;
+				boxPlane[ 3 ] = side == 0 ? -interval.realMin( d ) : interval.realMax( d );
+
+				// plane(worldToBox * x) >= 0 (in world coordinates)
+				for ( int c = 0; c < 4; ++c )
+				{
+					double sum = 0;
+					for ( int r = 0; r < 3; ++r )
+						sum += boxPlane[ r ] * worldToBox.get( r, c );
+					worldPlane[ c ] = sum;
+				}
+				worldPlane[ 3 ] += boxPlane[ 3 ];
+				normalize( worldPlane, planes, 2 * d + side );
+			}
+		}
+		return new ClipRegion( planes );
+	}
+
+	/**
+	 * Get the intersection of this region and {@code other}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the intersection would have more than {@link #MAX_PLANES}
+	 *             planes.
+	 */
+	public ClipRegion intersect( final ClipRegion other )
+	{
+		if ( other.planes.length == 0 )
+			return this;
+		if ( planes.length == 0 )
+			return other;
+		final float[] intersection = Arrays.copyOf( planes, planes.length + other.planes.length );
+		System.arraycopy( other.planes, 0, intersection, planes.length, other.planes.length );
+		return new ClipRegion( intersection );
+	}
+
+	/**
+	 * Get the number of planes bounding the region. {@code 0} means that the
+	 * region is unbounded (no clipping).
+	 */
+	public int numPlanes()
+	{
+		return planes.length / 4;
+	}
+
+	/**
+	 * Get plane {@code i} as {@code (a, b, c, d)}.
+	 */
+	public Vector4f getPlane( final int i, final Vector4f dest )
+	{
+		return dest.set( planes[ 4 * i ], planes[ 4 * i + 1 ], planes[ 4 * i + 2 ], planes[ 4 * i + 3 ] );
+	}
+
+	/**
+	 * Write the planes into {@code dest} (plane {@code i} is put at {@code
+	 * dest[4*i ... 4*i+3]}).
+	 */
+	public void getPlanes( final float[] dest )
+	{
+		System.arraycopy( planes, 0, dest, 0, planes.length );
+	}
+
+	/**
+	 * Whether the point {@code (x, y, z)} (in world coordinates) is in the
+	 * region.
+	 */
+	public boolean contains( final double x, final double y, final double z )
+	{
+		for ( int i = 0; i < planes.length; i += 4 )
+			if ( planes[ i ] * x + planes[ i + 1 ] * y + planes[ i + 2 ] * z + planes[ i + 3 ] < 0 )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Normalize {@code plane} and store it as plane {@code i} in {@code dest}.
+	 */
+	private static void normalize( final double[] plane, final float[] dest, final int i )
+	{
+		final double len = Math.sqrt( plane[ 0 ] * plane[ 0 ] + plane[ 1 ] * plane[ 1 ] + plane[ 2 ] * plane[ 2 ] );
+		if ( !( len > 0 ) )
+			throw new IllegalArgumentException( "Clip plane normal must be non-zero." );
+		for ( int d = 0; d < 4; ++d )
+			dest[ 4 * i + d ] = ( float ) ( plane[ d ] / len );
+	}
+}
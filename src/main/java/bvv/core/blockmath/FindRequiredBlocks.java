@@ -30,11 +30,11 @@ package bvv.core.blockmath;
 
 import bvv.core.util.MatrixMath;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import net.imglib2.algorithm.kdtree.ConvexPolytope;
 import net.imglib2.algorithm.kdtree.HyperPlane;
-import net.imglib2.iterator.IntervalIterator;
-import net.imglib2.iterator.LocalizingIntervalIterator;
 import net.imglib2.util.LinAlgHelpers;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
@@ -115,6 +115,13 @@ public class FindRequiredBlocks
 	/**
 	 * Given an interval split into regular blocks of size {@code blockSize}.
 	 * Which blocks are contained in the specified clipping volume?
+	 * <p>
+	 * The grid interval is recursively split (along all but the first
+	 * dimension), rejecting sub-intervals that are completely outside one of
+	 * the clipping planes. For each remaining row of cells (along the first
+	 * dimension), the range of contained cells is computed analytically. The
+	 * result is the same as checking each cell of the grid interval, in the
+	 * same order.
 	 *
 	 * @param clip in voxel coordinates
 	 * @param blockSize
@@ -132,21 +139,156 @@ public class FindRequiredBlocks
 		final RequiredBlocks required = new RequiredBlocks( n );
 
 		final ConvexPolytope shrunkClip = shrinkClippingPolytope( clip, blockSize );
-//		System.out.println( "shrunkClip = " + GeomUtils.toString( shrunkClip ) );
 		final ConvexPolytope gridClip = scaleClippingPolytope( shrunkClip, blockSize );
-//		System.out.println( "gridClip = " + GeomUtils.toString( gridClip ) );
 
-		// stupid implementation for now: check all planes for all cells...
-		// TODO: make this more clever -- clip nTree
-		final IntervalIterator gridIter = new LocalizingIntervalIterator( gridMin, gridMax );
-		while( gridIter.hasNext() )
+		for ( int d = 0; d < n; ++d )
+			if ( gridMin[ d ] > gridMax[ d ] )
+				return required;
+
+		new GridClipper( gridClip, required ).clip( gridMin, gridMax );
+		return required;
+	}
+
+	/**
+	 * Finds the cells of a grid interval that are inside a clipping polytope
+	 * (in grid coordinates), for {@link #getRequiredBlocks}.
+	 */
+	private static class GridClipper
+	{
+		private final int n;
+
+		private final int numPlanes;
+
+		private final double[][] normals;
+
+		private final double[] distances;
+
+		private final RequiredBlocks required;
+
+		/** current cell */
+		private final long[] pos;
+
+		GridClipper( final ConvexPolytope gridClip, final RequiredBlocks required )
 		{
-			gridIter.fwd();
-			if ( GeomUtils.isInside( gridClip, gridIter ) )
-				required.add( gridIter );
+			n = gridClip.numDimensions();
+			numPlanes = gridClip.getHyperplanes().size();
+			normals = new double[ numPlanes ][];
+			distances = new double[ numPlanes ];
+			int i = 0;
+			for ( final HyperPlane plane : gridClip.getHyperplanes() )
+			{
+				normals[ i ] = plane.getNormal();
+				distances[ i ] = plane.getDistance();
+				++i;
+			}
+			this.required = required;
+			pos = new long[ n ];
 		}
 
-		return required;
+		/**
+		 * Add all cells in {@code min ... max} that are inside, in flattened
+		 * order (first dimension fastest).
+		 */
+		void clip( final long[] min, final long[] max )
+		{
+			// reject if all corners are outside one of the planes
+			for ( int i = 0; i < numPlanes; ++i )
+			{
+				final double[] normal = normals[ i ];
+				double maxDistance = -distances[ i ];
+				for ( int d = 0; d < n; ++d )
+					maxDistance += normal[ d ] * ( normal[ d ] > 0 ? max[ d ] : min[ d ] );
+				if ( maxDistance < 0 )
+					return;
+			}
+
+			// split the slowest dimension that has more than one cell
+			for ( int d = n - 1; d > 0; --d )
+			{
+				if ( max[ d ] > min[ d ] )
+				{
+					final long split = ( min[ d ] + max[ d ] ) >> 1;
+					final long[] lowerMax = max.clone();
+					lowerMax[ d ] = split;
+					clip( min, lowerMax );
+					final long[] upperMin = min.clone();
+					upperMin[ d ] = split + 1;
+					clip( upperMin, max );
+					return;
+				}
+			}
+
+			addRow( min, max[ 0 ] );
+		}
+
+		/**
+		 * Add the cells {@code (x, min[1], ..., min[n-1])} for
+		 * {@code x = min[0] ... max0} that are inside.
+		 */
+		private void addRow( final long[] min, final long max0 )
+		{
+			// cell x is inside plane i, if normal[0] * x + offset >= 0
+			double lo = min[ 0 ];
+			double hi = max0;
+			for ( int i = 0; i < numPlanes; ++i )
+			{
+				final double[] normal = normals[ i ];
+				double offset = -distances[ i ];
+				for ( int d = 1; d < n; ++d )
+					offset += normal[ d ] * min[ d ];
+				final double a = normal[ 0 ];
+				if ( a > 0 )
+					lo = Math.max( lo, Math.ceil( -offset / a ) );
+				else if ( a < 0 )
+					hi = Math.min( hi, Math.floor( -offset / a ) );
+				else if ( offset < 0 )
+					return;
+			}
+			if ( lo > hi )
+				return;
+
+			// the analytic range may be off by one due to rounding: fix
+			// endpoints to agree exactly with the per-cell test
+			System.arraycopy( min, 0, pos, 0, n );
+			long x0 = ( long ) lo;
+			long x1 = ( long ) hi;
+			while ( x0 <= x1 && !isInside( x0 ) )
+				++x0;
+			while ( x0 > min[ 0 ] && isInside( x0 - 1 ) )
+				--x0;
+			while ( x1 >= x0 && !isInside( x1 ) )
+				--x1;
+			while ( x1 < max0 && isInside( x1 + 1 ) )
+				++x1;
+
+			for ( long x = x0; x <= x1; ++x )
+			{
+				final int[] p = new int[ n ];
+				p[ 0 ] = ( int ) x;
+				for ( int d = 1; d < n; ++d )
+					p[ d ] = ( int ) pos[ d ];
+				required.add( p );
+			}
+		}
+
+		/**
+		 * Whether cell {@code (x, pos[1], ..., pos[n-1])} is inside, computed
+		 * like {@link GeomUtils#isInside(ConvexPolytope, net.imglib2.RealLocalizable)}.
+		 */
+		private boolean isInside( final long x )
+		{
+			pos[ 0 ] = x;
+			for ( int i = 0; i < numPlanes; ++i )
+			{
+				final double[] normal = normals[ i ];
+				double sum = 0;
+				for ( int d = 0; d < n; ++d )
+					sum += normal[ d ] * pos[ d ];
+				if ( sum - distances[ i ] < 0 )
+					return false;
+			}
+			return true;
+		}
 	}
 
 	private static HyperPlane sourceHyperPlane( Matrix4fc sourceToNDCTransposed, double nx, double ny, double nz, double d )
@@ -171,17 +313,56 @@ public class FindRequiredBlocks
 			final long[] gridMin,
 			final long[] gridMax )
 	{
-		final Matrix4f T = levelToNDC.transpose( new Matrix4f() );
+		return getRequiredBlocks( new ConvexPolytope( frustumHyperPlanes( levelToNDC ) ), blockSize, gridMin, gridMax );
+	}
+
+	/**
+	 * Backproject NDC {@code (-1,-1,-1) ... (1,1,1)} to source image and find
+	 * blocks that overlap both the view frustum and the {@code clip} region.
+	 *
+	 * @param levelToNDC
+	 * 		Projection * View * Model * Upscale matrix
+	 * @param levelToWorld
+	 * 		Model * Upscale matrix
+	 * @param clip
+	 * 		clip region in world coordinates
+	 * @param blockSize
+	 * @param gridMin
+	 * @param gridMax
+	 *
+	 * @return
+	 */
+	public static RequiredBlocks getRequiredLevelBlocksFrustum(
+			final Matrix4fc levelToNDC,
+			final Matrix4fc levelToWorld,
+			final ClipRegion clip,
+			final int[] blockSize,
+			final long[] gridMin,
+			final long[] gridMax )
+	{
+		final List< HyperPlane > planes = frustumHyperPlanes( levelToNDC );
+
+		// clip planes, transformed to source coordinates
+		final Matrix4f T = levelToWorld.transpose( new Matrix4f() );
+		final Vector4f plane = new Vector4f();
+		for ( int i = 0; i < clip.numPlanes(); ++i )
+			planes.add( MatrixMath.hyperPlane( clip.getPlane( i, plane ).mul( T ).normalize3() ) );
 
-		// planes bounding the view frustum, normals facing inwards, transformed to source coordinates
-		final ConvexPolytope sourceRegion = new ConvexPolytope(
+		return getRequiredBlocks( new ConvexPolytope( planes ), blockSize, gridMin, gridMax );
+	}
+
+	/**
+	 * Get the planes bounding the view frustum, normals facing inwards, transformed to source coordinates.
+	 */
+	private static List< HyperPlane > frustumHyperPlanes( final Matrix4fc levelToNDC )
+	{
+		final Matrix4f T = levelToNDC.transpose( new Matrix4f() );
+		return new ArrayList<>( Arrays.asList(
 				sourceHyperPlane( T,  1,  0,  0, -1 ),
 				sourceHyperPlane( T, -1,  0,  0, -1 ),
 				sourceHyperPlane( T,  0,  1,  0, -1 ),
 				sourceHyperPlane( T,  0, -1,  0, -1 ),
 				sourceHyperPlane( T,  0,  0,  1, -1 ),
-				sourceHyperPlane( T,  0,  0, -1, -1 ) );
-
-		return getRequiredBlocks( sourceRegion, blockSize, gridMin, gridMax );
+				sourceHyperPlane( T,  0,  0, -1, -1 ) ) );
 	}
 }
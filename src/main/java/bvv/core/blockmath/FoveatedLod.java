@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * Selects resolution levels by {@link ScreenSpaceErrorLod projected
+ * screen-space error}, with full resolution only around a {@link Focus} point
+ * (e.g., the mouse cursor). Within {@code radius} (in NDC, where the viewport
+ * spans {@code -1 ... 1}) around the focus point, the error is at most
+ * {@code maxError} pixels. Beyond that, the tolerated error grows by
+ * {@code falloff * maxError} per NDC unit.
+ * <p>
+ * The {@link Focus} is typically shared by the {@code FoveatedLod}s of all
+ * sources, and updated from a mouse listener, e.g.,
+ * <pre>{@code
+ * FoveatedLod.Focus focus = new FoveatedLod.Focus();
+ * options.lodSelector( () -> new FoveatedLod( focus, 1.0, 0.25, 4.0 ) );
+ * ...
+ * panel.getDisplay().addHandler( new MouseMotionAdapter() {
+ *     public void mouseMoved( MouseEvent e ) {
+ *         focus.setDisplayCoordinates( e.getX(), e.getY(), panel.getDisplay().getWidth(), panel.getDisplay().getHeight() );
+ *         panel.requestRepaint();
+ *     }
+ * } );
+ * }</pre>
+ */
+public class FoveatedLod extends ScreenSpaceErrorLod
+{
+	/**
+	 * Focus point in NDC. Can be modified while rendering (from another
+	 * thread).
+	 */
+	public static class Focus
+	{
+		private volatile float x;
+
+		private volatile float y;
+
+		/**
+		 * Set focus point in NDC.
+		 */
+		public void set( final float x, final float y )
+		{
+			this.x = x;
+			this.y = y;
+		}
+
+		/**
+		 * Set focus point in display coordinates (pixels, origin at the top
+		 * left).
+		 */
+		public void setDisplayCoordinates( final double x, final double y, final int width, final int height )
+		{
+			set( ( float ) ( 2 * x / width - 1 ), ( float ) ( 1 - 2 * y / height ) );
+		}
+
+		public float x()
+		{
+			return x;
+		}
+
+		public float y()
+		{
+			return y;
+		}
+	}
+
+	private final Focus focus;
+
+	private final double radius;
+
+	private final double falloff;
+
+	/**
+	 * @param focus
+	 * 		focus point (may be shared by several {@code FoveatedLod}s)
+	 * @param maxError
+	 * 		maximum size of projected voxels around the focus point, in screen pixels
+	 * @param radius
+	 * 		radius (in NDC) around the focus point with error at most {@code maxError}
+	 * @param falloff
+	 * 		how much the tolerated error grows (relative to {@code maxError}) per NDC unit beyond {@code radius}
+	 */
+	public FoveatedLod( final Focus focus, final double maxError, final double radius, final double falloff )
+	{
+		super( maxError );
+		this.focus = focus;
+		this.radius = radius;
+		this.falloff = falloff;
+	}
+
+	/**
+	 * The error grows with the distance between the focus point and the
+	 * screen-space bounding box of the block.
+	 */
+	@Override
+	protected double maxError( final Vector3fc blockMin, final Vector3fc blockMax, final Vector3f temp )
+	{
+		float xmin = Float.POSITIVE_INFINITY;
+		float xmax = Float.NEGATIVE_INFINITY;
+		float ymin = Float.POSITIVE_INFINITY;
+		float ymax = Float.NEGATIVE_INFINITY;
+		for ( int i = 0; i < 8; ++i )
+		{
+			temp.set(
+					( i & 1 ) == 0 ? blockMin.x() : blockMax.x(),
+					( i & 2 ) == 0 ? blockMin.y() : blockMax.y(),
+					( i & 4 ) == 0 ? blockMin.z() : blockMax.z() );
+			final float w = sourceToNDC.m03() * temp.x() + sourceToNDC.m13() * temp.y() + sourceToNDC.m23() * temp.z() + sourceToNDC.m33();
+			if ( w <= 0 )
+				return getMaxError(); // block extends behind the camera
+			sourceToNDC.transformProject( temp );
+			xmin = Math.min( xmin, temp.x() );
+			xmax = Math.max( xmax, temp.x() );
+			ymin = Math.min( ymin, temp.y() );
+			ymax = Math.max( ymax, temp.y() );
+		}
+		final float focusX = focus.x();
+		final float focusY = focus.y();
+		final float dx = Math.max( 0, Math.max( xmin - focusX, focusX - xmax ) );
+		final float dy = Math.max( 0, Math.max( ymin - focusY, focusY - ymax ) );
+		final double distance = Math.sqrt( dx * dx + dy * dy );
+		return getMaxError() * ( 1 + falloff * Math.max( 0, distance - radius ) );
+	}
+}
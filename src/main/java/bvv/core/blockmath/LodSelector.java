@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import java.util.List;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import bvv.core.multires.ResolutionLevel3D;
+
+/**
+ * Selects the resolution level at which blocks of a multi-resolution source
+ * should be rendered.
+ * <p>
+ * For every frame, {@link #init} is called with the current transformation
+ * from source to NDC coordinates, then {@link #bestLevel} is queried for every
+ * block that is (potentially) visible. An instance is used for one source.
+ * It is not required to be thread-safe.
+ * <p>
+ * Implementations: {@link MipmapSizes} (the default) interpolates the pixel
+ * size between near and far plane, {@link ScreenSpaceErrorLod} projects the
+ * voxel size at the nearest point of each block to pixels, and
+ * {@link FoveatedLod} additionally tolerates a larger error away from a
+ * focus point.
+ */
+public interface LodSelector
+{
+	/**
+	 * Prepare for querying best resolution levels in a new frame.
+	 *
+	 * @param sourceToNDC
+	 * 		{@code Projection * View * Model} matrix
+	 * @param viewportWidth
+	 * 		width of the surface to be rendered
+	 * @param resolutions
+	 * 		resolution levels of the source
+	 */
+	void init( Matrix4fc sourceToNDC, int viewportWidth, List< ? extends ResolutionLevel3D< ? > > resolutions );
+
+	/**
+	 * Is any part of the volume visible?
+	 */
+	boolean isVisible();
+
+	/**
+	 * Highest required resolution (lowest level) for any visible block. That
+	 * is, {@link #bestLevel} does not return levels {@code < getBaseLevel()}
+	 * for visible blocks.
+	 */
+	int getBaseLevel();
+
+	/**
+	 * Get best resolution level for the block with bounding box
+	 * {@code blockMin ... blockMax} (in full resolution source coordinates).
+	 *
+	 * @param temp
+	 * 		temporary vector that may be used by the implementation
+	 */
+	int bestLevel( Vector3fc blockMin, Vector3fc blockMax, Vector3f temp );
+}
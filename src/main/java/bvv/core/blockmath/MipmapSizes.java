@@ -28,30 +28,21 @@
  */
 package bvv.core.blockmath;
 
-import bvv.core.util.MatrixMath;
-import java.util.ArrayList;
 import java.util.List;
 
-import net.imglib2.algorithm.kdtree.ConvexPolytope;
-import net.imglib2.algorithm.kdtree.HyperPlane;
-
-import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.optim.linear.LinearConstraint;
-import org.apache.commons.math3.optim.linear.LinearConstraintSet;
-import org.apache.commons.math3.optim.linear.LinearObjectiveFunction;
-import org.apache.commons.math3.optim.linear.NoFeasibleSolutionException;
-import org.apache.commons.math3.optim.linear.Relationship;
-import org.apache.commons.math3.optim.linear.SimplexSolver;
-import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
-import org.joml.Vector4f;
 
 import bvv.core.multires.ResolutionLevel3D;
 
-public class MipmapSizes
+/**
+ * Selects resolution levels by interpolating the size of a screen pixel
+ * linearly between near and far plane (along the view axis), and comparing it
+ * to the voxel size of each resolution level at the block center.
+ */
+public class MipmapSizes implements LodSelector
 {
 	final Vector3f pNear = new Vector3f();
 	final Vector3f pFarMinusNear = new Vector3f();
@@ -69,21 +60,34 @@ public class MipmapSizes
 
 	private final Vector3f dir = new Vector3f();
 
+	// temporaries for init(), to avoid allocations per frame
+	private final Matrix4f NDCtoSource = new Matrix4f();
+	private final Vector3f pFar = new Vector3f();
+	private final Vector3f tmp = new Vector3f();
+	private final long[] imgSize = new long[ 3 ];
+
+	/**
+	 * Intersection of the source box and the view frustum, for finding the
+	 * closest visible source point.
+	 */
+	private final SourceFrustumIntersection visibleRegion = new SourceFrustumIntersection();
+
 	/**
 	 * @param sourceToNDC
 	 * 		{@code Projection * View * Model} matrix
 	 * @param viewportWidth
 	 * @param resolutions
 	 */
+	@Override
 	public void init( final Matrix4fc sourceToNDC, final int viewportWidth, final List< ? extends ResolutionLevel3D< ? > > resolutions )
 	{
-		final Matrix4f NDCtoSource = sourceToNDC.invert( new Matrix4f() );
+		sourceToNDC.invert( NDCtoSource );
 		final float w = 2f / viewportWidth;
 		// viewport pixel width on near and far plane (in source coordinates)
 		NDCtoSource.transformProject( 0, 0, -1, pNear );
-		final Vector3f pFar = NDCtoSource.transformProject( 0, 0, 1, new Vector3f() );
-		sn = NDCtoSource.transformProject( w, 0, -1, new Vector3f() ).sub( pNear ).length();
-		sf = NDCtoSource.transformProject( w, 0, 1, new Vector3f() ).sub( pFar ).length();
+		NDCtoSource.transformProject( 0, 0, 1, pFar );
+		sn = NDCtoSource.transformProject( w, 0, -1, tmp ).sub( pNear ).length();
+		sf = NDCtoSource.transformProject( w, 0, 1, tmp ).sub( pFar ).length();
 
 		pFar.sub( pNear, pFarMinusNear );
 		pFarMinusNear.normalize( dir );
@@ -96,67 +100,48 @@ public class MipmapSizes
 		v0z = ( float ) Math.sqrt( 1.0 - dir.dot( 0, 0, 1 ) );
 
 		// voxel size (max of x,y,z) on near plane for each resolution level
-		sls = new float[ resolutions.size() ];
+		if ( sls == null || sls.length != resolutions.size() )
+			sls = new float[ resolutions.size() ];
 		for ( int i = 0; i < resolutions.size(); i++ )
 			sls[ i ] = sl( resolutions.get( i ).getR() );
 
-		/*
-		 * Closest visible source point to near clipping plane.
-		 * TODO: Solving this with LP simplex seems a bit insane. Is there a more closed-form solution???
-		 */
-		final long[] imgSize = new long[ 3 ];
+		// closest visible source point to near clipping plane
 		resolutions.get( 0 ).getImage().dimensions( imgSize );
-		final Matrix4f T = sourceToNDC.transpose( new Matrix4f() );
-		final ConvexPolytope sourceRegion = new ConvexPolytope(
-				// planes bounding the view frustum, normals facing inwards, transformed to source coordinates
-				sourceHyperPlane( T, 1, 0, 0, -1 ),
-				sourceHyperPlane( T, -1, 0, 0, -1 ),
-				sourceHyperPlane( T, 0, 1, 0, -1 ),
-				sourceHyperPlane( T, 0, -1, 0, -1 ),
-				sourceHyperPlane( T, 0, 0, 1, -1 ),
-				sourceHyperPlane( T, 0, 0, -1, -1 ),
-				// planes bounding the source, normals facing inwards
-				new HyperPlane( 1, 0, 0, 0 ), // TODO: 0.5 offsets?
-				new HyperPlane( 0, 1, 0, 0 ), // TODO: 0.5 offsets?
-				new HyperPlane( 0, 0, 1, 0 ), // TODO: 0.5 offsets?
-				new HyperPlane( -1, 0, 0, -imgSize[ 0 ] ), // TODO: 0.5 offsets?
-				new HyperPlane( 0, -1, 0, -imgSize[ 1 ] ), // TODO: 0.5 offsets?
-				new HyperPlane( 0, 0, -1, -imgSize[ 2 ] ) ); // TODO: 0.5 offsets?
-
-		pFarMinusNear.mul( drels, dir );
-		final LinearObjectiveFunction f = new LinearObjectiveFunction( new double[] { dir.x(), dir.y(), dir.z() }, -dir.dot( pNear ) );
-		final List< LinearConstraint > constraints = new ArrayList<>();
-		for ( final HyperPlane plane : sourceRegion.getHyperplanes() )
-			constraints.add( new LinearConstraint( plane.getNormal(), Relationship.GEQ, plane.getDistance() ) );
-		try
-		{
-			final PointValuePair sln = new SimplexSolver().optimize( f, new LinearConstraintSet( constraints ), GoalType.MINIMIZE );
-			drelClosestSourcePoint = Math.max( Math.min( sln.getValue().floatValue(), 1.0f ), 0.0f );
-		}
-		catch ( final NoFeasibleSolutionException e )
-		{
+		final double drel = closestVisibleDrel( sourceToNDC );
+		if ( Double.isNaN( drel ) )
 			isVisible = false;
+		else
+		{
+			isVisible = true;
+			drelClosestSourcePoint = Math.max( Math.min( ( float ) drel, 1.0f ), 0.0f );
 		}
 
 		baseLevel = bestLevel( drelClosestSourcePoint );
 	}
 
-	private static HyperPlane sourceHyperPlane( final Matrix4fc sourceToNDCTransposed, final double nx, final double ny, final double nz, final double d )
+	/**
+	 * Find the minimum relative depth (see {@link #getDrel}) of any point in
+	 * the intersection of the source box {@code [0, imgSize]} and the view
+	 * frustum.
+	 *
+	 * @return minimum relative depth, or {@code NaN} if the intersection is empty.
+	 */
+	private double closestVisibleDrel( final Matrix4fc sourceToNDC )
 	{
-		return MatrixMath.hyperPlane( new Vector4f( ( float ) nx, ( float ) ny, ( float ) nz, ( float ) -d ).mul( sourceToNDCTransposed ).normalize3() );
+		visibleRegion.init( sourceToNDC, imgSize );
+		final double dx = pFarMinusNear.x() * drels;
+		final double dy = pFarMinusNear.y() * drels;
+		final double dz = pFarMinusNear.z() * drels;
+		return visibleRegion.min( dx, dy, dz, -( pNear.x() * dx + pNear.y() * dy + pNear.z() * dz ) );
 	}
 
-	/**
-	 * Is any part of the volume visible?
-	 */
+	@Override
 	public boolean isVisible()
 	{
 		return isVisible;
 	}
 
-	/**
-	 * Highest required resolution (lowest level) for any visible block
-	 */
+	@Override
 	public int getBaseLevel()
 	{
 		return baseLevel;
@@ -174,6 +159,16 @@ public class MipmapSizes
 		return Math.max( x * v0x, Math.max( y * v0y, z * v0z ) );
 	}
 
+	/**
+	 * Get best resolution level at the block center.
+	 */
+	@Override
+	public int bestLevel( final Vector3fc blockMin, final Vector3fc blockMax, final Vector3f temp )
+	{
+		final Vector3f center = blockMin.add( blockMax, temp ).mul( 0.5f );
+		return bestLevel( center, temp );
+	}
+
 	/**
 	 * Get best resolution level at source coordinates {@code x}.
 	 * (Queried for block centers.)
@@ -209,6 +204,11 @@ public class MipmapSizes
 		return drel;
 	}
 
+	public float getDrelClosestSourcePoint()
+	{
+		return drelClosestSourcePoint;
+	}
+
 	public float getSn()
 	{
 		return sn;
@@ -0,0 +1,253 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.joml.Vector4f;
+
+import bvv.core.multires.ResolutionLevel3D;
+
+/**
+ * Selects resolution levels by projected screen-space error: For each block,
+ * the voxel size of each resolution level is projected to screen pixels at the
+ * point of the block that is nearest to the camera. The coarsest level whose
+ * voxels are at most {@link #getMaxError() maxError} pixels large is chosen.
+ * <p>
+ * In contrast to {@link MipmapSizes}, this takes into account the perspective
+ * per block (the nearest point instead of the center, and the viewing ray
+ * through that point instead of the view axis).
+ */
+public class ScreenSpaceErrorLod implements LodSelector
+{
+	private final double maxError;
+
+	/**
+	 * {@code w} (homogeneous clip coordinate) of a source point {@code p} is
+	 * {@code wx * px + wy * py + wz * pz + w0}.
+	 */
+	private float wx, wy, wz, w0;
+
+	/**
+	 * Minimum {@code w} of any visible source point.
+	 */
+	private float wMin;
+
+	/**
+	 * Width of a screen pixel (in source coordinates) is {@code pixelSizePerW * w}.
+	 */
+	private float pixelSizePerW;
+
+	/**
+	 * Camera position in homogeneous source coordinates. (For orthographic
+	 * projection, {@code ew == 0}, and {@code (ex, ey, ez)} is the viewing
+	 * direction.)
+	 */
+	private float ex, ey, ez, ew;
+
+	/**
+	 * {@code levelScales[ 3 * l + d ]} is the voxel size of resolution level
+	 * {@code l} in dimension {@code d}.
+	 */
+	private float[] levelScales;
+
+	private int numLevels;
+
+	private int baseLevel;
+
+	private boolean isVisible;
+
+	/**
+	 * {@code Projection * View * Model} matrix of the current frame.
+	 */
+	final Matrix4f sourceToNDC = new Matrix4f();
+
+	// temporaries for init(), to avoid allocations per frame
+	private final Matrix4f NDCtoSource = new Matrix4f();
+	private final Vector3f pNear = new Vector3f();
+	private final Vector3f tmp = new Vector3f();
+	private final Vector4f eye = new Vector4f();
+	private final long[] imgSize = new long[ 3 ];
+
+	private final SourceFrustumIntersection visibleRegion = new SourceFrustumIntersection();
+
+	/**
+	 * Select levels with at most 1 pixel error.
+	 */
+	public ScreenSpaceErrorLod()
+	{
+		this( 1.0 );
+	}
+
+	/**
+	 * @param maxError
+	 * 		maximum size of projected voxels, in screen pixels
+	 */
+	public ScreenSpaceErrorLod( final double maxError )
+	{
+		this.maxError = maxError;
+	}
+
+	/**
+	 * Maximum size of projected voxels, in screen pixels.
+	 */
+	public double getMaxError()
+	{
+		return maxError;
+	}
+
+	@Override
+	public void init( final Matrix4fc sourceToNDC, final int viewportWidth, final List< ? extends ResolutionLevel3D< ? > > resolutions )
+	{
+		this.sourceToNDC.set( sourceToNDC );
+		wx = sourceToNDC.m03();
+		wy = sourceToNDC.m13();
+		wz = sourceToNDC.m23();
+		w0 = sourceToNDC.m33();
+
+		// viewport pixel width on near plane (in source coordinates), and w on near plane
+		// (measured over half the viewport, because the difference of nearby
+		// points loses too much precision far from the source origin)
+		sourceToNDC.invert( NDCtoSource );
+		NDCtoSource.transformProject( 0, 0, -1, pNear );
+		final float sn = NDCtoSource.transformProject( 1, 0, -1, tmp ).sub( pNear ).length() * 2 / viewportWidth;
+		final float wNear = w( pNear );
+		pixelSizePerW = sn / wNear;
+
+		// camera position: x, y, w are zero in clip coordinates
+		NDCtoSource.transform( eye.set( 0, 0, 1, 0 ) );
+		ex = eye.x();
+		ey = eye.y();
+		ez = eye.z();
+		ew = eye.w();
+		if ( Math.abs( ew ) < 1e-6f * ( Math.abs( ex ) + Math.abs( ey ) + Math.abs( ez ) ) )
+			ew = 0; // orthographic projection
+
+		numLevels = resolutions.size();
+		if ( levelScales == null || levelScales.length != 3 * numLevels )
+			levelScales = new float[ 3 * numLevels ];
+		for ( int l = 0; l < numLevels; ++l )
+		{
+			final int[] r = resolutions.get( l ).getR();
+			for ( int d = 0; d < 3; ++d )
+				levelScales[ 3 * l + d ] = r[ d ];
+		}
+
+		// closest visible source point
+		resolutions.get( 0 ).getImage().dimensions( imgSize );
+		visibleRegion.init( sourceToNDC, imgSize );
+		final double wClosest = visibleRegion.min( wx, wy, wz, w0 );
+		isVisible = !Double.isNaN( wClosest );
+		wMin = isVisible ? Math.max( ( float ) wClosest, wNear ) : wNear;
+
+		// (assuming that voxels are seen face-on at the closest point, which
+		// is the worst case)
+		baseLevel = bestLevel( wMin, 1, 1, 1, maxError );
+	}
+
+	@Override
+	public boolean isVisible()
+	{
+		return isVisible;
+	}
+
+	@Override
+	public int getBaseLevel()
+	{
+		return baseLevel;
+	}
+
+	@Override
+	public int bestLevel( final Vector3fc blockMin, final Vector3fc blockMax, final Vector3f temp )
+	{
+		// nearest point of the block (minimum w)
+		final float px = wx > 0 ? blockMin.x() : blockMax.x();
+		final float py = wy > 0 ? blockMin.y() : blockMax.y();
+		final float pz = wz > 0 ? blockMin.z() : blockMax.z();
+		final float w = Math.max( wx * px + wy * py + wz * pz + w0, wMin );
+
+		// viewing ray through nearest point
+		final Vector3f ray = ew == 0
+				? temp.set( ex, ey, ez )
+				: temp.set( px * ew - ex, py * ew - ey, pz * ew - ez );
+		final float len = ray.length();
+		if ( len > 0 )
+			ray.div( len );
+
+		// voxel edges along dimension d appear foreshortened by sqrt(1 - ray_d^2)
+		final float fx = ( float ) Math.sqrt( Math.max( 0, 1 - ray.x() * ray.x() ) );
+		final float fy = ( float ) Math.sqrt( Math.max( 0, 1 - ray.y() * ray.y() ) );
+		final float fz = ( float ) Math.sqrt( Math.max( 0, 1 - ray.z() * ray.z() ) );
+		return bestLevel( w, fx, fy, fz, maxError( blockMin, blockMax, temp ) );
+	}
+
+	/**
+	 * Get the maximum size of projected voxels (in screen pixels) for the
+	 * block with bounding box {@code blockMin ... blockMax}. Override this to
+	 * vary the error over the screen. It must be {@code >= }{@link #getMaxError()},
+	 * so that no block needs a resolution higher than {@link #getBaseLevel()}.
+	 *
+	 * @param temp
+	 * 		temporary vector that may be used by the implementation
+	 */
+	protected double maxError( final Vector3fc blockMin, final Vector3fc blockMax, final Vector3f temp )
+	{
+		return maxError;
+	}
+
+	/**
+	 * Get the coarsest level whose voxels, foreshortened by {@code fx, fy, fz},
+	 * are at most {@code maxError} pixels large at clip coordinate {@code w}.
+	 */
+	private int bestLevel( final float w, final float fx, final float fy, final float fz, final double maxError )
+	{
+		final double maxSize = maxError * pixelSizePerW * w;
+		int best = 0;
+		for ( int l = 1; l < numLevels; ++l )
+		{
+			final float size = Math.max(
+					levelScales[ 3 * l ] * fx, Math.max(
+					levelScales[ 3 * l + 1 ] * fy,
+					levelScales[ 3 * l + 2 ] * fz ) );
+			if ( size > maxSize )
+				break;
+			best = l;
+		}
+		return best;
+	}
+
+	private float w( final Vector3fc p )
+	{
+		return wx * p.x() + wy * p.y() + wz * p.z() + w0;
+	}
+}
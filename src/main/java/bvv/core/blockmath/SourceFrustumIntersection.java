@@ -0,0 +1,255 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import org.joml.Matrix4d;
+import org.joml.Matrix4fc;
+import org.joml.Vector3d;
+
+/**
+ * The intersection of the source box {@code [0, imgSize]} and the view
+ * frustum, for finding the minimum of linear functions (e.g., depth) over the
+ * visible part of a source.
+ * <p>
+ * The intersection is a convex polytope, so the minimum of a linear function
+ * is attained at one of its vertices. Every vertex lies on the boundary, that
+ * is, on a face of the box clipped to the frustum, or on a face of the
+ * frustum clipped to the box. {@link #init} clips all these faces and
+ * collects the vertices of the clipped polygons.
+ */
+class SourceFrustumIntersection
+{
+	/**
+	 * Planes bounding the view frustum, in source coordinates. Plane {@code i}
+	 * is {@code (a,b,c,d) = frustumPlanes[4*i ... 4*i+3]}. Points {@code p}
+	 * with {@code a*px + b*py + c*pz + d >= 0} are inside.
+	 */
+	private final double[] frustumPlanes = new double[ 6 * 4 ];
+
+	/**
+	 * Corners of the view frustum, in source coordinates. Corner {@code i}
+	 * is the NDC point with {@code x = (i & 1) == 0 ? -1 : 1}, {@code y =
+	 * (i & 2) == 0 ? -1 : 1}, {@code z = (i & 4) == 0 ? -1 : 1}.
+	 */
+	private final double[] frustumCorners = new double[ 8 * 3 ];
+
+	/**
+	 * Corners of the source box, in source coordinates. Indexed like
+	 * {@link #frustumCorners}.
+	 */
+	private final double[] boxCorners = new double[ 8 * 3 ];
+
+	/**
+	 * Faces of a box as indices of (cyclically ordered) corners.
+	 */
+	private static final int[][] FACES = {
+			{ 0, 2, 6, 4 }, { 1, 3, 7, 5 },
+			{ 0, 1, 5, 4 }, { 2, 3, 7, 6 },
+			{ 0, 1, 3, 2 }, { 4, 5, 7, 6 } };
+
+	/**
+	 * A quad clipped by 6 planes has at most 10 vertices.
+	 */
+	private static final int MAX_POLYGON_SIZE = 16;
+
+	// polygon buffers for clipping
+	private final double[] polygon = new double[ 3 * MAX_POLYGON_SIZE ];
+	private final double[] clippedPolygon = new double[ 3 * MAX_POLYGON_SIZE ];
+
+	/**
+	 * Vertices of all clipped faces (with duplicates).
+	 */
+	private final double[] vertices = new double[ 2 * FACES.length * 3 * MAX_POLYGON_SIZE ];
+
+	private int numVertices;
+
+	private final long[] imgSize = new long[ 3 ];
+
+	// temporaries for init(), to avoid allocations per frame
+	private final Matrix4d NDCtoSourceD = new Matrix4d();
+	private final Vector3d tmpD = new Vector3d();
+
+	/**
+	 * @param sourceToNDC
+	 * 		{@code Projection * View * Model} matrix
+	 * @param imgSize
+	 * 		dimensions of the full resolution source
+	 */
+	public void init( final Matrix4fc sourceToNDC, final long[] imgSize )
+	{
+		System.arraycopy( imgSize, 0, this.imgSize, 0, 3 );
+
+		// frustum planes: x >= -1, x <= 1, y >= -1, ... in NDC, transformed to source coordinates
+		for ( int d = 0; d < 3; ++d )
+		{
+			for ( int s = 0; s < 2; ++s )
+			{
+				final int o = 4 * ( 2 * d + s );
+				final double sign = s == 0 ? 1 : -1;
+				for ( int j = 0; j < 4; ++j )
+					frustumPlanes[ o + j ] = sign * sourceToNDC.getRowColumn( d, j ) + sourceToNDC.getRowColumn( 3, j );
+			}
+		}
+
+		// (inverting in double precision, because projection matrices are often ill-conditioned)
+		NDCtoSourceD.set( sourceToNDC ).invert();
+		for ( int i = 0; i < 8; ++i )
+		{
+			NDCtoSourceD.transformProject(
+					( i & 1 ) == 0 ? -1 : 1,
+					( i & 2 ) == 0 ? -1 : 1,
+					( i & 4 ) == 0 ? -1 : 1,
+					tmpD );
+			frustumCorners[ 3 * i ] = tmpD.x();
+			frustumCorners[ 3 * i + 1 ] = tmpD.y();
+			frustumCorners[ 3 * i + 2 ] = tmpD.z();
+			boxCorners[ 3 * i ] = ( i & 1 ) == 0 ? 0 : imgSize[ 0 ]; // TODO: 0.5 offsets?
+			boxCorners[ 3 * i + 1 ] = ( i & 2 ) == 0 ? 0 : imgSize[ 1 ];
+			boxCorners[ 3 * i + 2 ] = ( i & 4 ) == 0 ? 0 : imgSize[ 2 ];
+		}
+
+		numVertices = 0;
+		for ( final int[] face : FACES )
+		{
+			addClippedFace( boxCorners, face, false );
+			addClippedFace( frustumCorners, face, true );
+		}
+	}
+
+	/**
+	 * Is any part of the source visible?
+	 */
+	public boolean isEmpty()
+	{
+		return numVertices == 0;
+	}
+
+	/**
+	 * Get the minimum of {@code a*x + b*y + c*z + d} over the intersection.
+	 *
+	 * @return the minimum, or {@code NaN} if the intersection is empty.
+	 */
+	public double min( final double a, final double b, final double c, final double d )
+	{
+		if ( numVertices == 0 )
+			return Double.NaN;
+		double min = Double.POSITIVE_INFINITY;
+		for ( int i = 0; i < numVertices; ++i )
+			min = Math.min( min, a * vertices[ 3 * i ] + b * vertices[ 3 * i + 1 ] + c * vertices[ 3 * i + 2 ] + d );
+		return min;
+	}
+
+	/**
+	 * Clip a face of the box or frustum to the other one, and add the vertices
+	 * of the clipped polygon to {@link #vertices}.
+	 *
+	 * @param corners
+	 * 		box or frustum corners
+	 * @param face
+	 * 		indices into {@code corners}
+	 * @param clipToBox
+	 * 		whether to clip to the source box (otherwise, to the frustum)
+	 */
+	private void addClippedFace( final double[] corners, final int[] face, final boolean clipToBox )
+	{
+		int n = face.length;
+		for ( int i = 0; i < n; ++i )
+			System.arraycopy( corners, 3 * face[ i ], polygon, 3 * i, 3 );
+
+		for ( int p = 0; p < 6 && n > 0; ++p )
+		{
+			final double a, b, c, d;
+			if ( clipToBox )
+			{
+				// p_i >= 0, or p_i <= imgSize_i
+				final int i = p >> 1;
+				final double sign = ( p & 1 ) == 0 ? 1 : -1;
+				a = i == 0 ? sign : 0;
+				b = i == 1 ? sign : 0;
+				c = i == 2 ? sign : 0;
+				d = ( p & 1 ) == 0 ? 0 : imgSize[ i ];
+			}
+			else
+			{
+				a = frustumPlanes[ 4 * p ];
+				b = frustumPlanes[ 4 * p + 1 ];
+				c = frustumPlanes[ 4 * p + 2 ];
+				d = frustumPlanes[ 4 * p + 3 ];
+			}
+			n = clip( polygon, n, a, b, c, d, clippedPolygon );
+			System.arraycopy( clippedPolygon, 0, polygon, 0, 3 * n );
+		}
+
+		System.arraycopy( polygon, 0, vertices, 3 * numVertices, 3 * n );
+		numVertices += n;
+	}
+
+	/**
+	 * Clip the convex polygon {@code src} with {@code n} vertices to the
+	 * half-space {@code a*x + b*y + c*z + d >= 0}
+	 * (Sutherland-Hodgman).
+	 *
+	 * @return number of vertices of the clipped polygon in {@code dst}
+	 */
+	private static int clip( final double[] src, final int n, final double a, final double b, final double c, final double d, final double[] dst )
+	{
+		int m = 0;
+		double px = src[ 3 * ( n - 1 ) ];
+		double py = src[ 3 * ( n - 1 ) + 1 ];
+		double pz = src[ 3 * ( n - 1 ) + 2 ];
+		double pdist = a * px + b * py + c * pz + d;
+		for ( int i = 0; i < n; ++i )
+		{
+			final double qx = src[ 3 * i ];
+			final double qy = src[ 3 * i + 1 ];
+			final double qz = src[ 3 * i + 2 ];
+			final double qdist = a * qx + b * qy + c * qz + d;
+			if ( ( pdist >= 0 ) != ( qdist >= 0 ) && m < MAX_POLYGON_SIZE )
+			{
+				final double t = pdist / ( pdist - qdist );
+				dst[ 3 * m ] = px + t * ( qx - px );
+				dst[ 3 * m + 1 ] = py + t * ( qy - py );
+				dst[ 3 * m + 2 ] = pz + t * ( qz - pz );
+				++m;
+			}
+			if ( qdist >= 0 && m < MAX_POLYGON_SIZE )
+			{
+				dst[ 3 * m ] = qx;
+				dst[ 3 * m + 1 ] = qy;
+				dst[ 3 * m + 2 ] = qz;
+				++m;
+			}
+			px = qx;
+			py = qy;
+			pz = qz;
+			pdist = qdist;
+		}
+		return m;
+	}
+}
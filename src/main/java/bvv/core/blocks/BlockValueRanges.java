@@ -0,0 +1,250 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of the (unsigned) value ranges of blocks, per image (typically
+ * {@code ResolutionLevel3D}). The index is filled lazily, whenever the range
+ * of a block becomes known (see
+ * {@link TileAccess#getLoadedValueRange()}).
+ * <p>
+ * Images are compared by {@code equals()}, like in
+ * {@link bvv.core.cache.ImageBlockKey ImageBlockKey}. The index holds at most
+ * a given number of blocks. If it grows larger, the least recently used
+ * images are removed.
+ * <p>
+ * Ranges are {@link #pack(int, int) packed} into {@code long}s.
+ * <p>
+ * This class is thread-safe. The blocks of each image are split into
+ * {@link #NUM_STRIPES} stripes with separate locks, so that concurrent
+ * fillers rarely contend.
+ */
+public class BlockValueRanges
+{
+	/**
+	 * Packed range of blocks whose range is not known.
+	 */
+	public static final long UNKNOWN = -1;
+
+	/**
+	 * Maximum grid coordinate (in each dimension) that can be indexed.
+	 */
+	private static final int MAX_GRID_POS = ( 1 << 21 ) - 1;
+
+	/**
+	 * Number of independently locked parts of the index of each image.
+	 */
+	static final int NUM_STRIPES = 16;
+
+	private final int maxNumBlocks;
+
+	private final Map< Object, ImageRanges > images = new ConcurrentHashMap<>();
+
+	private final AtomicInteger numBlocks = new AtomicInteger();
+
+	/**
+	 * Incremented whenever a block is added, or another image than the last
+	 * one is used. Images remember the value at their last use, to find the
+	 * least recently used image.
+	 */
+	private final AtomicLong clock = new AtomicLong();
+
+	private static class ImageRanges
+	{
+		final TLongLongHashMap[] stripes = new TLongLongHashMap[ NUM_STRIPES ];
+
+		volatile long lastUsed;
+
+		ImageRanges()
+		{
+			for ( int i = 0; i < NUM_STRIPES; ++i )
+				stripes[ i ] = new TLongLongHashMap( 16, 0.5f, -1, UNKNOWN );
+		}
+
+		TLongLongHashMap stripe( final long key )
+		{
+			return stripes[ ( int ) ( ( key * 0x9e3779b97f4a7c15L ) >>> 60 ) ];
+		}
+
+		int size()
+		{
+			int size = 0;
+			for ( final TLongLongHashMap stripe : stripes )
+			{
+				synchronized ( stripe )
+				{
+					size += stripe.size();
+				}
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * @param maxNumBlocks
+	 *            maximum number of blocks (of all images) in the index
+	 */
+	public BlockValueRanges( final int maxNumBlocks )
+	{
+		this.maxNumBlocks = maxNumBlocks;
+	}
+
+	/**
+	 * Get the value range of the block at {@code gridPos} of {@code image}.
+	 *
+	 * @return the {@link #pack(int, int) packed} range, or {@link #UNKNOWN}.
+	 */
+	public long get( final Object image, final int[] gridPos )
+	{
+		if ( !isIndexable( gridPos ) )
+			return UNKNOWN;
+		final ImageRanges ranges = images.get( image );
+		if ( ranges == null )
+			return UNKNOWN;
+		if ( ranges.lastUsed != clock.get() )
+			ranges.lastUsed = clock.incrementAndGet();
+		final long key = key( gridPos );
+		final TLongLongHashMap stripe = ranges.stripe( key );
+		synchronized ( stripe )
+		{
+			return stripe.get( key );
+		}
+	}
+
+	/**
+	 * Record the {@link #pack(int, int) packed} value {@code range} of the
+	 * block at {@code gridPos} of {@code image}. {@link #UNKNOWN} ranges are
+	 * ignored.
+	 */
+	public void put( final Object image, final int[] gridPos, final long range )
+	{
+		if ( range == UNKNOWN || !isIndexable( gridPos ) )
+			return;
+		final ImageRanges ranges = images.computeIfAbsent( image, k -> new ImageRanges() );
+		ranges.lastUsed = clock.incrementAndGet();
+		final long key = key( gridPos );
+		final TLongLongHashMap stripe = ranges.stripe( key );
+		final boolean added;
+		synchronized ( stripe )
+		{
+			added = stripe.put( key, range ) == UNKNOWN;
+		}
+		if ( added && numBlocks.incrementAndGet() > maxNumBlocks )
+			removeLeastRecentlyUsed( ranges );
+	}
+
+	/**
+	 * Remove least recently used images until the index holds at most
+	 * {@code maxNumBlocks}. The image that was just added to ({@code keep})
+	 * is not removed.
+	 */
+	private synchronized void removeLeastRecentlyUsed( final ImageRanges keep )
+	{
+		while ( numBlocks.get() > maxNumBlocks )
+		{
+			Object eldest = null;
+			long eldestLastUsed = Long.MAX_VALUE;
+			for ( final Map.Entry< Object, ImageRanges > entry : images.entrySet() )
+			{
+				final ImageRanges ranges = entry.getValue();
+				if ( ranges != keep && ranges.lastUsed < eldestLastUsed )
+				{
+					eldest = entry.getKey();
+					eldestLastUsed = ranges.lastUsed;
+				}
+			}
+			if ( eldest == null )
+				return;
+			final ImageRanges removed = images.remove( eldest );
+			if ( removed != null )
+				numBlocks.addAndGet( -removed.size() );
+		}
+	}
+
+	/**
+	 * Remove all blocks from the index.
+	 */
+	public synchronized void clear()
+	{
+		for ( final Object image : images.keySet() )
+		{
+			final ImageRanges removed = images.remove( image );
+			if ( removed != null )
+				numBlocks.addAndGet( -removed.size() );
+		}
+	}
+
+	/**
+	 * @return the number of blocks in the index
+	 */
+	public int size()
+	{
+		return numBlocks.get();
+	}
+
+	/**
+	 * Pack unsigned value range {@code [min, max]} into a {@code long}.
+	 */
+	public static long pack( final int min, final int max )
+	{
+		return ( ( long ) min << 32 ) | ( max & 0xffffffffL );
+	}
+
+	/**
+	 * Get the minimum from a {@link #pack(int, int) packed} range.
+	 */
+	public static int min( final long range )
+	{
+		return ( int ) ( range >>> 32 );
+	}
+
+	/**
+	 * Get the maximum from a {@link #pack(int, int) packed} range.
+	 */
+	public static int max( final long range )
+	{
+		return ( int ) range;
+	}
+
+	static boolean isIndexable( final int[] gridPos )
+	{
+		return ( ( gridPos[ 0 ] | gridPos[ 1 ] | gridPos[ 2 ] ) & ~MAX_GRID_POS ) == 0;
+	}
+
+	private static long key( final int[] gridPos )
+	{
+		return ( ( long ) gridPos[ 0 ] << 42 ) | ( ( long ) gridPos[ 1 ] << 21 ) | gridPos[ 2 ];
+	}
+}
@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * {@link MemoryAccess} using only public {@link ByteBuffer} API. Copies use
+ * bulk {@code put()} from arrays (which the JVM implements as a memcpy into
+ * direct buffers), fills use bulk {@code put()} from small constant arrays.
+ * <p>
+ * This works with strong encapsulation and does not need any
+ * {@code --add-opens}. All buffers must be {@link ByteBuffer}s.
+ */
+final class BufferMemoryAccess implements MemoryAccess
+{
+	private static final int FILL_CHUNK_SIZE = 4096;
+
+	private static final byte[] ZEROS = new byte[ FILL_CHUNK_SIZE ];
+
+	/**
+	 * Native-order view of the whole {@code buffer}.
+	 */
+	private static ByteBuffer view( final Buffer buffer )
+	{
+		final ByteBuffer bytes = ( ( ByteBuffer ) buffer ).duplicate().order( ByteOrder.nativeOrder() );
+		bytes.clear();
+		return bytes;
+	}
+
+	@Override
+	public Destination destination( final Buffer dst )
+	{
+		return new BufferDestination( view( dst ) );
+	}
+
+	@Override
+	public void copyMemory( final Buffer src, final long srcOffset, final Buffer dst, final long dstOffset, final long numBytes )
+	{
+		final ByteBuffer from = view( src );
+		from.limit( ( int ) ( srcOffset + numBytes ) ).position( ( int ) srcOffset );
+		final ByteBuffer to = view( dst );
+		to.position( ( int ) dstOffset );
+		to.put( from );
+	}
+
+	private static final class BufferDestination implements Destination
+	{
+		private final ByteBuffer bytes;
+
+		/** short view of {@code bytes} (created on first use) */
+		private ShortBuffer shorts;
+
+		BufferDestination( final ByteBuffer bytes )
+		{
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Short view of {@code bytes} starting at byte offset
+		 * {@code dstOffset}.
+		 */
+		private ShortBuffer shorts( final long dstOffset )
+		{
+			if ( ( dstOffset & 1 ) != 0 )
+			{
+				// unaligned: make a one-off view
+				bytes.position( ( int ) dstOffset );
+				return bytes.slice().order( ByteOrder.nativeOrder() ).asShortBuffer();
+			}
+			if ( shorts == null )
+			{
+				bytes.clear();
+				shorts = bytes.asShortBuffer();
+			}
+			shorts.position( ( int ) ( dstOffset >> 1 ) );
+			return shorts;
+		}
+
+		@Override
+		public void copyShorts( final short[] src, final int srcPos, final long dstOffset, final int length )
+		{
+			shorts( dstOffset ).put( src, srcPos, length );
+		}
+
+		@Override
+		public void copyBytes( final byte[] src, final int srcPos, final long dstOffset, final int length )
+		{
+			bytes.position( ( int ) dstOffset );
+			bytes.put( src, srcPos, length );
+		}
+
+		@Override
+		public void setShorts( final short value, final long dstOffset, final long length )
+		{
+			final byte lo = ( byte ) value;
+			if ( lo == ( byte ) ( value >> 8 ) )
+			{
+				// both bytes are the same (e.g., zero fill)
+				setBytes( lo, dstOffset, 2 * length );
+				return;
+			}
+
+			final short[] values = new short[ ( int ) Math.min( length, FILL_CHUNK_SIZE ) ];
+			Arrays.fill( values, value );
+			final ShortBuffer shorts = shorts( dstOffset );
+			for ( long remaining = length; remaining > 0; )
+			{
+				final int n = ( int ) Math.min( values.length, remaining );
+				shorts.put( values, 0, n );
+				remaining -= n;
+			}
+		}
+
+		@Override
+		public void setBytes( final byte value, final long dstOffset, final long length )
+		{
+			final byte[] values;
+			if ( value == 0 )
+				values = ZEROS;
+			else
+			{
+				values = new byte[ ( int ) Math.min( length, FILL_CHUNK_SIZE ) ];
+				Arrays.fill( values, value );
+			}
+			bytes.position( ( int ) dstOffset );
+			for ( long remaining = length; remaining > 0; )
+			{
+				final int n = ( int ) Math.min( values.length, remaining );
+				bytes.put( values, 0, n );
+				remaining -= n;
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "buffer";
+	}
+}
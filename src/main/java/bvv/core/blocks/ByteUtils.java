@@ -28,79 +28,180 @@
  */
 package bvv.core.blocks;
 
-import java.lang.reflect.Field;
 import java.nio.Buffer;
-import java.security.AccessController;
-import java.security.PrivilegedExceptionAction;
+import java.util.function.Supplier;
 
-import sun.misc.Unsafe;
-
-@SuppressWarnings( "restriction" )
+/**
+ * Static access to the {@link MemoryAccess} implementation selected at
+ * runtime.
+ * <p>
+ * The implementation can be chosen by setting the system property
+ * {@code bvv.memoryaccess} to {@code "unsafe"} or {@code "buffer"}. By
+ * default, {@code sun.misc.Unsafe} is used if it is accessible, otherwise the
+ * implementation falls back to (slightly slower) {@code ByteBuffer} bulk
+ * operations.
+ */
 public class ByteUtils
 {
-	private static final Unsafe UNSAFE;
+	private static final MemoryAccess ACCESS = createMemoryAccess( System.getProperty( "bvv.memoryaccess" ), UnsafeMemoryAccess::new );
 
-	private static final long BUFFER_ADDRESS_OFFSET;
-	private static final long BYTE_ARRAY_OFFSET;
-	private static final long SHORT_ARRAY_OFFSET;
-
-	static
+	/**
+	 * Select the {@code MemoryAccess} implementation for the
+	 * {@code bvv.memoryaccess} property value {@code name}.
+	 *
+	 * @param name
+	 *            {@code "unsafe"}, {@code "buffer"}, or {@code null} (or any
+	 *            other value) for the default
+	 * @param unsafe
+	 *            creates the {@code Unsafe} implementation. This may throw if
+	 *            {@code Unsafe} is not accessible.
+	 */
+	static MemoryAccess createMemoryAccess( final String name, final Supplier< MemoryAccess > unsafe )
 	{
+		if ( "buffer".equals( name ) )
+			return new BufferMemoryAccess();
 		try
 		{
-			final PrivilegedExceptionAction< Unsafe > action = new PrivilegedExceptionAction< Unsafe >()
-			{
-				@Override
-				public Unsafe run() throws Exception
-				{
-					final Field field = Unsafe.class.getDeclaredField( "theUnsafe" );
-					field.setAccessible( true );
-					return ( Unsafe ) field.get( null );
-				}
-			};
-
-			UNSAFE = AccessController.doPrivileged( action );
-
-			final Field bufferAddressField = Buffer.class.getDeclaredField( "address" );
-			BUFFER_ADDRESS_OFFSET = UNSAFE.objectFieldOffset( bufferAddressField );
-
-			BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset( byte[].class );
-			SHORT_ARRAY_OFFSET = UNSAFE.arrayBaseOffset( short[].class );
+			return unsafe.get();
 		}
-		catch ( final Exception ex )
+		catch ( final Throwable t )
 		{
-			throw new RuntimeException( ex );
+			if ( "unsafe".equals( name ) )
+				throw new RuntimeException( "sun.misc.Unsafe is not accessible", t );
+			return new BufferMemoryAccess();
 		}
 	}
 
+	/**
+	 * @return the {@code MemoryAccess} implementation used by {@code ByteUtils}
+	 */
+	public static MemoryAccess memoryAccess()
+	{
+		return ACCESS;
+	}
+
+	/**
+	 * @return a {@link MemoryAccess.Destination} for repeated copies into
+	 *         {@code dst} by the calling thread
+	 */
+	public static MemoryAccess.Destination destination( final Buffer dst )
+	{
+		return ACCESS.destination( dst );
+	}
+
+	public static void copyShorts( final short[] src, final int srcPos, final Buffer dst, final long dstOffset, final int length )
+	{
+		ACCESS.destination( dst ).copyShorts( src, srcPos, dstOffset, length );
+	}
+
+	public static void copyBytes( final byte[] src, final int srcPos, final Buffer dst, final long dstOffset, final int length )
+	{
+		ACCESS.destination( dst ).copyBytes( src, srcPos, dstOffset, length );
+	}
+
+	public static void setShorts( final short value, final Buffer dst, final long dstOffset, final long length )
+	{
+		ACCESS.destination( dst ).setShorts( value, dstOffset, length );
+	}
+
+	public static void setBytes( final byte value, final Buffer dst, final long dstOffset, final long length )
+	{
+		ACCESS.destination( dst ).setBytes( value, dstOffset, length );
+	}
+
+	public static void copyMemory( final Buffer src, final long srcOffset, final Buffer dst, final long dstOffset, final long numBytes )
+	{
+		ACCESS.copyMemory( src, srcOffset, dst, dstOffset, numBytes );
+	}
+
+	/*
+	 * Raw address access. These always use sun.misc.Unsafe.
+	 */
+
+	/**
+	 * @deprecated requires {@code sun.misc.Unsafe}. Use the {@code Buffer}
+	 *             based methods instead.
+	 */
+	@Deprecated
 	public static long addressOf( final Buffer buffer )
 	{
-		return UNSAFE.getLong( buffer, BUFFER_ADDRESS_OFFSET );
+		return UnsafeMemoryAccess.addressOf( buffer );
 	}
 
+	/**
+	 * @deprecated requires {@code sun.misc.Unsafe}. Use
+	 *             {@link #copyShorts(short[], int, Buffer, long, int)} instead.
+	 */
+	@Deprecated
 	public static void copyShorts( final short[] src, final long dst, final long sox, final long csx )
 	{
-		UNSAFE.copyMemory( src, SHORT_ARRAY_OFFSET + 2 * sox, null, dst, 2 * csx );
+		UnsafeMemoryAccess.copyShorts( src, dst, sox, csx );
 	}
 
+	/**
+	 * @deprecated requires {@code sun.misc.Unsafe}. Use
+	 *             {@link #setShorts(short, Buffer, long, long)} instead.
+	 */
+	@Deprecated
 	public static void setShorts( final short src, final long dst, final long csx )
 	{
-		for ( int i = 0; i < csx; ++i )
-			UNSAFE.putShort( dst + 2 * i, src );
+		UnsafeMemoryAccess.setShorts( src, dst, csx );
 	}
 
+	/**
+	 * @deprecated requires {@code sun.misc.Unsafe}. Use
+	 *             {@link #setBytes(byte, Buffer, long, long)} instead.
+	 */
+	@Deprecated
 	public static void setBytes( final byte src, final long dst, final long csx )
 	{
-		UNSAFE.setMemory( dst, csx, src );
+		UnsafeMemoryAccess.setBytes( src, dst, csx );
 	}
 
+	/**
+	 * @deprecated requires {@code sun.misc.Unsafe}. Use
+	 *             {@link #copyBytes(byte[], int, Buffer, long, int)} instead.
+	 */
+	@Deprecated
 	public static void copyBytes( final byte[] src, final long dst, final long sox, final long csx )
 	{
-		UNSAFE.copyMemory( src, BYTE_ARRAY_OFFSET + sox, null, dst, csx );
+		UnsafeMemoryAccess.copyBytes( src, dst, sox, csx );
+	}
+
+	/**
+	 * @deprecated requires {@code sun.misc.Unsafe}. Use
+	 *             {@link #copyMemory(Buffer, long, Buffer, long, long)}
+	 *             instead.
+	 */
+	@Deprecated
+	public static void copyMemory( final long src, final long dst, final long numBytes )
+	{
+		UnsafeMemoryAccess.copyMemory( src, dst, numBytes );
 	}
 
+	/**
+	 * A location in a direct buffer.
+	 */
 	public interface Address
 	{
-		long getAddress();
+		/**
+		 * @return a direct buffer
+		 */
+		Buffer getBuffer();
+
+		/**
+		 * @return offset in bytes into {@link #getBuffer()}
+		 */
+		int getOffset();
+
+		/**
+		 * @deprecated requires {@code sun.misc.Unsafe}. Use
+		 *             {@link #getBuffer()} and {@link #getOffset()} instead.
+		 */
+		@Deprecated
+		default long getAddress()
+		{
+			return addressOf( getBuffer() ) + getOffset();
+		}
 	}
 }
@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+/**
+ * Destination for {@link CopyGridBlock#copy} that does not store anything,
+ * but checks whether all values written to it are the same. Cleared
+ * (out-of-bounds or missing) regions count as value {@code 0}.
+ * <p>
+ * Used with {@link CopySubArrayImp.ShortToConstantCheck} or
+ * {@link CopySubArrayImp.ByteToConstantCheck} to detect blocks that can share
+ * a constant texture tile instead of being uploaded.
+ */
+public class ConstantCheck
+{
+	private boolean empty;
+
+	private boolean constant;
+
+	private int value;
+
+	public ConstantCheck()
+	{
+		reset();
+	}
+
+	/**
+	 * Forget all values seen so far.
+	 */
+	public void reset()
+	{
+		empty = true;
+		constant = true;
+		value = 0;
+	}
+
+	/**
+	 * Record that {@code v} was written.
+	 *
+	 * @return {@code true}, if all values written so far are equal to {@code v}
+	 */
+	public boolean accept( final int v )
+	{
+		if ( empty )
+		{
+			empty = false;
+			value = v;
+		}
+		else if ( v != value )
+			constant = false;
+		return constant;
+	}
+
+	/**
+	 * @return {@code true}, if all values written so far are equal.
+	 */
+	public boolean isConstant()
+	{
+		return constant;
+	}
+
+	/**
+	 * @return the value written so far, if {@link #isConstant()}.
+	 */
+	public int value()
+	{
+		return value;
+	}
+}
@@ -28,8 +28,21 @@
  */
 package bvv.core.blocks;
 
+import java.util.Arrays;
+
 public class CopyGridBlock
 {
+	/**
+	 * Maximum number of source cells overlapping a block, for which
+	 * {@link #getValidCells() valid cells} can be tracked.
+	 */
+	public static final int MAX_TRACKED_CELLS = 64;
+
+	/**
+	 * Returned by {@link #getValidCells()} if valid source cells are not tracked.
+	 */
+	public static final long UNKNOWN_CELLS = -1;
+
 	private final int[][] spans = new int[ 3 ][ 6 ];
 	private final int[] ls = new int[ 3 ];
 	private final int[] gmin = new int[ 3 ];
@@ -38,6 +51,11 @@ public class CopyGridBlock
 	private final int css[] = new int[ 3 ];
 	private final int[] doo = new int[ 3 ];
 	private final int[] doo2 = new int[ 3 ];
+	private final int[] cmin = new int[ 3 ];
+	private final int[] cmax = new int[ 3 ];
+
+	/** valid source cells of the last copy, see {@link #getValidCells()} */
+	private long validCells;
 
 	/**
 	 * Copy (non-aligned) block from cell grid.
@@ -77,6 +95,7 @@ public class CopyGridBlock
 			if ( min[ d ] >= srca.imgSize( d ) || min[ d ] + dim[ d ] <= 0 )
 			{
 				copy.clearsubarray3d( dst, 0,0,0, dim[ 0 ], dim[ 1 ], dim[ 0 ], dim[ 1 ], dim[ 2 ] );
+				validCells = 0;
 				return true;
 			}
 
@@ -134,30 +153,10 @@ public class CopyGridBlock
 			final CopySubArray< S, T > copy )
 	{
 		boolean complete = true;
-		for ( int d = 0; d < 3; ++d )
-		{
-			final int cellsize = srca.cellSize( d );
-			final int g0 = min[ d ] / cellsize;
-			final int g1 = ( min[ d ] + dim[ d ] - 1 ) / cellsize;
-			gmin[ d ] = g0;
-			ls[ d ] = g1 - g0 + 1;
-			final int spanreq = 3 * ls[ d ];
-			if ( spans[ d ].length < spanreq )
-				spans[ d ] = new int[ spanreq ];
-			final int[] span = spans[ d ];
-			int i = 0;
-			int o = min[ d ] - g0 * cellsize;
-			for ( int g = g0; g < g1; ++g )
-			{
-				span[ i++ ] = o;
-				span[ i++ ] = cellsize - o;
-				span[ i++ ] = cellsize;
-				o = 0;
-			}
-			span[ i++ ] = o;
-			span[ i++ ] = min[ d ] + dim[ d ] - g1 * cellsize - o;
-			span[ i ] = srca.cellSize( d, g1 );
-		}
+		initSpans( min, dim, srca );
+		final boolean tracked = numCells() <= MAX_TRACKED_CELLS;
+		validCells = 0;
+		int cell = 0;
 
 		srca.setPosition( gmin );
 		final int gsx = ls[ 0 ];
@@ -192,7 +191,12 @@ public class CopyGridBlock
 						copy.clearsubarray3d( dst, dox, doy, doz, dsx, dsy, sx, sy, sz );
 					}
 					else
+					{
 						copy.copysubarray3d( src, ox, oy, oz, ssx, ssy, dst, dox, doy, doz, dsx, dsy, sx, sy, sz );
+						if ( tracked )
+							validCells |= 1L << cell;
+					}
+					++cell;
 					dox += sx;
 					if ( gx < gsx - 1 )
 						srca.fwd( 0 );
@@ -210,9 +214,252 @@ public class CopyGridBlock
 				srca.fwd( 2 );
 		}
 
+		if ( !tracked )
+			validCells = UNKNOWN_CELLS;
 		return complete;
 	}
 
+	/**
+	 * Copy the parts of a (non-aligned) block that are covered by source cells
+	 * which are valid now, but were missing when the block was last copied.
+	 * This is used to incrementally complete a block that was copied while
+	 * some source cells were not valid yet, without copying it completely
+	 * again.
+	 * <p>
+	 * The smallest box containing the newly valid parts is copied into
+	 * {@code dst}, densely, i.e., {@code dst} has dimensions {@code patchDim}.
+	 * (Parts of the box that are covered by missing source cells are
+	 * cleared.) If no new source cells are valid, {@code patchDim} is set to
+	 * {@code 0}. If the source cells of the block cannot be
+	 * {@link #getValidCells() tracked}, or {@code knownCells ==}
+	 * {@link #UNKNOWN_CELLS}, the whole block is copied, i.e., the box is the
+	 * whole block.
+	 *
+	 * @param min
+	 *            min coordinate of block to copy
+	 * @param dim
+	 *            size of block to copy
+	 * @param knownCells
+	 *            source cells that were valid when the block was last copied,
+	 *            see {@link #getValidCells()}.
+	 * @param patchMin
+	 *            is set to the min of the copied box, relative to {@code min}
+	 * @param patchDim
+	 *            is set to the size of the copied box
+	 *
+	 * @return {@code true}, if the block is complete after the copied box is
+	 *         applied
+	 */
+	public < S, T > boolean patch(
+			final int[] min,
+			final int[] dim,
+			final long knownCells,
+			final T dst,
+			final GridDataAccess< S > srca,
+			final CopySubArray< S, T > copy,
+			final int[] patchMin,
+			final int[] patchDim )
+	{
+		// find the part of the block inside the source (the rest was cleared
+		// when the block was copied initially)
+		boolean inside = knownCells != UNKNOWN_CELLS;
+		for ( int d = 0; d < 3 && inside; ++d )
+		{
+			nmin[ d ] = Math.max( min[ d ], 0 );
+			ndim[ d ] = Math.min( min[ d ] + dim[ d ], srca.imgSize( d ) ) - nmin[ d ];
+			inside = ndim[ d ] > 0;
+		}
+		if ( inside )
+			initSpans( nmin, ndim, srca );
+		if ( !inside || numCells() > MAX_TRACKED_CELLS )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				patchMin[ d ] = 0;
+				patchDim[ d ] = dim[ d ];
+			}
+			return copy( min, dim, dst, srca, copy );
+		}
+
+		// find the range of source cells that became valid
+		final int gsx = ls[ 0 ];
+		final int gsy = ls[ 1 ];
+		final int gsz = ls[ 2 ];
+		for ( int d = 0; d < 3; ++d )
+		{
+			cmin[ d ] = Integer.MAX_VALUE;
+			cmax[ d ] = -1;
+		}
+		srca.setPosition( gmin );
+		int cell = 0;
+		for ( int gz = 0; gz < gsz; ++gz )
+		{
+			for ( int gy = 0; gy < gsy; ++gy )
+			{
+				for ( int gx = 0; gx < gsx; ++gx )
+				{
+					if ( ( knownCells & ( 1L << cell ) ) == 0 && srca.get() != null )
+					{
+						cmin[ 0 ] = Math.min( cmin[ 0 ], gx );
+						cmin[ 1 ] = Math.min( cmin[ 1 ], gy );
+						cmin[ 2 ] = Math.min( cmin[ 2 ], gz );
+						cmax[ 0 ] = Math.max( cmax[ 0 ], gx );
+						cmax[ 1 ] = Math.max( cmax[ 1 ], gy );
+						cmax[ 2 ] = Math.max( cmax[ 2 ], gz );
+					}
+					++cell;
+					if ( gx < gsx - 1 )
+						srca.fwd( 0 );
+				}
+				if ( gsx > 1 )
+					srca.setPosition( gmin[ 0 ], 0 );
+				if ( gy < gsy - 1 )
+					srca.fwd( 1 );
+			}
+			if ( gsy > 1 )
+				srca.setPosition( gmin[ 1 ], 1 );
+			if ( gz < gsz - 1 )
+				srca.fwd( 2 );
+		}
+
+		final long allCells = cell == 64 ? -1L : ( 1L << cell ) - 1;
+		if ( cmax[ 0 ] < 0 )
+		{
+			Arrays.fill( patchMin, 0 );
+			Arrays.fill( patchDim, 0 );
+			validCells = knownCells;
+			return knownCells == allCells;
+		}
+
+		// copy all cells in that range (cells that were copied before are
+		// copied again, cells that are still missing are cleared)
+		for ( int d = 0; d < 3; ++d )
+		{
+			final int o = spanOffset( d, cmin[ d ] );
+			patchMin[ d ] = nmin[ d ] - min[ d ] + o;
+			patchDim[ d ] = spanOffset( d, cmax[ d ] + 1 ) - o;
+			doo[ d ] = gmin[ d ] + cmin[ d ];
+		}
+		long valid = knownCells;
+		final int[] spanx = spans[ 0 ];
+		final int[] spany = spans[ 1 ];
+		final int[] spanz = spans[ 2 ];
+		final int dsx = patchDim[ 0 ];
+		final int dsy = patchDim[ 1 ];
+		srca.setPosition( doo );
+		int doz = 0;
+		for ( int gz = cmin[ 2 ]; gz <= cmax[ 2 ]; ++gz )
+		{
+			final int oz = spanz[ 3 * gz ];
+			final int sz = spanz[ 3 * gz + 1 ];
+			int doy = 0;
+			for ( int gy = cmin[ 1 ]; gy <= cmax[ 1 ]; ++gy )
+			{
+				final int oy = spany[ 3 * gy ];
+				final int sy = spany[ 3 * gy + 1 ];
+				final int ssy = spany[ 3 * gy + 2 ];
+				int dox = 0;
+				for ( int gx = cmin[ 0 ]; gx <= cmax[ 0 ]; ++gx )
+				{
+					final int ox = spanx[ 3 * gx ];
+					final int sx = spanx[ 3 * gx + 1 ];
+					final int ssx = spanx[ 3 * gx + 2 ];
+					final long bit = 1L << ( gx + gsx * ( gy + gsy * gz ) );
+					final S src = srca.get();
+					if ( src == null )
+					{
+						valid &= ~bit;
+						copy.clearsubarray3d( dst, dox, doy, doz, dsx, dsy, sx, sy, sz );
+					}
+					else
+					{
+						valid |= bit;
+						copy.copysubarray3d( src, ox, oy, oz, ssx, ssy, dst, dox, doy, doz, dsx, dsy, sx, sy, sz );
+					}
+					dox += sx;
+					if ( gx < cmax[ 0 ] )
+						srca.fwd( 0 );
+				}
+				doy += sy;
+				srca.setPosition( doo[ 0 ], 0 );
+				if ( gy < cmax[ 1 ] )
+					srca.fwd( 1 );
+			}
+			doz += sz;
+			srca.setPosition( doo[ 1 ], 1 );
+			if ( gz < cmax[ 2 ] )
+				srca.fwd( 2 );
+		}
+
+		validCells = valid;
+		return valid == allCells;
+	}
+
+	/**
+	 * Get the source cells that were valid in the last {@link #copy} or
+	 * {@link #patch}, as a bit mask. Bits are assigned to the source cells
+	 * overlapping the part of the block inside the source, in flattened
+	 * (x,y,z) order. This is only possible if there are at most
+	 * {@link #MAX_TRACKED_CELLS} such cells, otherwise {@link #UNKNOWN_CELLS}
+	 * is returned.
+	 */
+	public long getValidCells()
+	{
+		return validCells;
+	}
+
+	/**
+	 * Set up {@link #spans}, {@link #gmin}, and {@link #ls} for copying the
+	 * block {@code (min, dim)}, which must be inside the source.
+	 */
+	private void initSpans( final int[] min, final int[] dim, final GridDataAccess< ? > srca )
+	{
+		for ( int d = 0; d < 3; ++d )
+		{
+			final int cellsize = srca.cellSize( d );
+			final int g0 = min[ d ] / cellsize;
+			final int g1 = ( min[ d ] + dim[ d ] - 1 ) / cellsize;
+			gmin[ d ] = g0;
+			ls[ d ] = g1 - g0 + 1;
+			final int spanreq = 3 * ls[ d ];
+			if ( spans[ d ].length < spanreq )
+				spans[ d ] = new int[ spanreq ];
+			final int[] span = spans[ d ];
+			int i = 0;
+			int o = min[ d ] - g0 * cellsize;
+			for ( int g = g0; g < g1; ++g )
+			{
+				span[ i++ ] = o;
+				span[ i++ ] = cellsize - o;
+				span[ i++ ] = cellsize;
+				o = 0;
+			}
+			span[ i++ ] = o;
+			span[ i++ ] = min[ d ] + dim[ d ] - g1 * cellsize - o;
+			span[ i ] = srca.cellSize( d, g1 );
+		}
+	}
+
+	/**
+	 * @return number of source cells overlapping the block of the last {@link #initSpans}.
+	 */
+	private int numCells()
+	{
+		return ls[ 0 ] * ls[ 1 ] * ls[ 2 ];
+	}
+
+	/**
+	 * @return offset in dimension {@code d} of the {@code g}-th source cell
+	 *         (of the last {@link #initSpans}) relative to the block min.
+	 */
+	private int spanOffset( final int d, final int g )
+	{
+		int o = 0;
+		for ( int i = 0; i < g; ++i )
+			o += spans[ d ][ 3 * i + 1 ];
+		return o;
+	}
+
 	public boolean canLoadCompletely(
 			final int[] min,
 			final int[] dim,
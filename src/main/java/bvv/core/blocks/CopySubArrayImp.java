@@ -38,14 +38,18 @@ public class CopySubArrayImp
 		@Override
 		public void clearsubarray3d( final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
 		{
-			final ArrayFill fill = ( o, l ) -> ByteUtils.setShorts( ( short ) 0, dst.getAddress() + 2 * o, l );
+			final MemoryAccess.Destination d = ByteUtils.destination( dst.getBuffer() );
+			final int offset = dst.getOffset();
+			final ArrayFill fill = ( o, l ) -> d.setShorts( ( short ) 0, offset + 2L * o, l );
 			fillsubarray3dn( fill, dox, doy, doz, dsx, dsy, csx, csy, csz );
 		}
 
 		@Override
 		public void copysubarray3d( final short[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
 		{
-			final ArrayCopy copy = ( so, o, l ) -> ByteUtils.copyShorts( src, dst.getAddress() + 2 * o, so, l );
+			final MemoryAccess.Destination d = ByteUtils.destination( dst.getBuffer() );
+			final int offset = dst.getOffset();
+			final ArrayCopy copy = ( so, o, l ) -> d.copyShorts( src, so, offset + 2L * o, l );
 			copysubarray3dn( copy, sox, soy, soz, ssx, ssy, dox, doy, doz, dsx, dsy, csx, csy, csz );
 		}
 	}
@@ -55,18 +59,153 @@ public class CopySubArrayImp
 		@Override
 		public void clearsubarray3d( final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
 		{
-			final ArrayFill fill = ( o, l ) -> ByteUtils.setBytes( ( byte ) 0, dst.getAddress() + o, l );
+			final MemoryAccess.Destination d = ByteUtils.destination( dst.getBuffer() );
+			final int offset = dst.getOffset();
+			final ArrayFill fill = ( o, l ) -> d.setBytes( ( byte ) 0, offset + ( long ) o, l );
 			fillsubarray3dn( fill, dox, doy, doz, dsx, dsy, csx, csy, csz );
 		}
 
 		@Override
 		public void copysubarray3d( final byte[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ByteUtils.Address dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
 		{
-			final ArrayCopy copy = ( so, o, l ) -> ByteUtils.copyBytes( src, dst.getAddress() + o, so, l );
+			final MemoryAccess.Destination d = ByteUtils.destination( dst.getBuffer() );
+			final int offset = dst.getOffset();
+			final ArrayCopy copy = ( so, o, l ) -> d.copyBytes( src, so, offset + ( long ) o, l );
 			copysubarray3dn( copy, sox, soy, soz, ssx, ssy, dox, doy, doz, dsx, dsy, csx, csy, csz );
 		}
 	}
 
+	// -------------------------------------------------------------
+	// short[] to constant check
+
+	public static class ShortToConstantCheck implements CopySubArray< short[], ConstantCheck >
+	{
+		@Override
+		public void clearsubarray3d( final ConstantCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			if ( csx > 0 && csy > 0 && csz > 0 )
+				dst.accept( 0 );
+		}
+
+		@Override
+		public void copysubarray3d( final short[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ConstantCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			for ( int z = 0; z < csz; ++z )
+				for ( int y = 0; y < csy; ++y )
+				{
+					final int o = sox + ( soy + y + ( soz + z ) * ssy ) * ssx;
+					for ( int x = 0; x < csx; ++x )
+						if ( !dst.accept( src[ o + x ] & 0xffff ) )
+							return;
+				}
+		}
+	}
+
+	// -------------------------------------------------------------
+	// byte[] to constant check
+
+	public static class ByteToConstantCheck implements CopySubArray< byte[], ConstantCheck >
+	{
+		@Override
+		public void clearsubarray3d( final ConstantCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			if ( csx > 0 && csy > 0 && csz > 0 )
+				dst.accept( 0 );
+		}
+
+		@Override
+		public void copysubarray3d( final byte[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ConstantCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			for ( int z = 0; z < csz; ++z )
+				for ( int y = 0; y < csy; ++y )
+				{
+					final int o = sox + ( soy + y + ( soz + z ) * ssy ) * ssx;
+					for ( int x = 0; x < csx; ++x )
+						if ( !dst.accept( src[ o + x ] & 0xff ) )
+							return;
+				}
+		}
+	}
+
+	// -------------------------------------------------------------
+	// short[] to value range check
+
+	public static class ShortToValueRangeCheck implements CopySubArray< short[], ValueRangeCheck >
+	{
+		@Override
+		public void clearsubarray3d( final ValueRangeCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			if ( csx > 0 && csy > 0 && csz > 0 )
+				dst.accept( 0 );
+		}
+
+		@Override
+		public void copysubarray3d( final short[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ValueRangeCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			int min = 0xffff;
+			int max = 0;
+			for ( int z = 0; z < csz; ++z )
+				for ( int y = 0; y < csy; ++y )
+				{
+					final int o = sox + ( soy + y + ( soz + z ) * ssy ) * ssx;
+					for ( int x = 0; x < csx; ++x )
+					{
+						final int v = src[ o + x ] & 0xffff;
+						min = Math.min( min, v );
+						max = Math.max( max, v );
+					}
+				}
+			if ( csx > 0 && csy > 0 && csz > 0 )
+			{
+				dst.accept( min );
+				dst.accept( max );
+			}
+		}
+	}
+
+	// -------------------------------------------------------------
+	// byte[] to value range check
+
+	public static class ByteToValueRangeCheck implements CopySubArray< byte[], ValueRangeCheck >
+	{
+		@Override
+		public void clearsubarray3d( final ValueRangeCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			if ( csx > 0 && csy > 0 && csz > 0 )
+				dst.accept( 0 );
+		}
+
+		@Override
+		public void copysubarray3d( final byte[] src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final ValueRangeCheck dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+		{
+			int min = 0xff;
+			int max = 0;
+			for ( int z = 0; z < csz; ++z )
+				for ( int y = 0; y < csy; ++y )
+				{
+					final int o = sox + ( soy + y + ( soz + z ) * ssy ) * ssx;
+					for ( int x = 0; x < csx; ++x )
+					{
+						final int v = src[ o + x ] & 0xff;
+						min = Math.min( min, v );
+						max = Math.max( max, v );
+					}
+				}
+			if ( csx > 0 && csy > 0 && csz > 0 )
+			{
+				dst.accept( min );
+				dst.accept( max );
+			}
+		}
+	}
+
+	/*
+	 * The n-dimensional copy and fill helpers collapse contiguous runs: If a
+	 * sub-array spans full rows of both source and destination, each plane is
+	 * copied with one call. If it also spans full planes, the whole sub-array
+	 * is copied with one call.
+	 */
+
 	static void copysubarray3dn(
 			ArrayCopy copysubarray1dn,
 			final int sox,
@@ -83,8 +222,11 @@ public class CopySubArrayImp
 			final int csy,
 			final int csz )
 	{
-		for ( int z = 0; z < csz; ++z )
-			copysubarray2dn( copysubarray1dn, sox, soy + soz * ssy + z * ssy, ssx, dox, doy + doz * dsy + z * dsy, dsx, csx, csy );
+		if ( csx == ssx && csx == dsx && ( csy == ssy && csy == dsy || csz == 1 ) )
+			copysubarray1dn.copy( ( soz * ssy + soy ) * ssx, ( doz * dsy + doy ) * dsx, csx * csy * csz );
+		else
+			for ( int z = 0; z < csz; ++z )
+				copysubarray2dn( copysubarray1dn, sox, soy + soz * ssy + z * ssy, ssx, dox, doy + doz * dsy + z * dsy, dsx, csx, csy );
 	}
 
 	static void copysubarray2dn(
@@ -98,8 +240,11 @@ public class CopySubArrayImp
 			final int csx,
 			final int csy )
 	{
-		for ( int y = 0; y < csy; ++y )
-			copysubarray1dn.copy( sox + soy * ssx + y * ssx, dox + doy * dsx + y * dsx, csx );
+		if ( csx == ssx && csx == dsx )
+			copysubarray1dn.copy( soy * ssx, doy * dsx, csx * csy );
+		else
+			for ( int y = 0; y < csy; ++y )
+				copysubarray1dn.copy( sox + soy * ssx + y * ssx, dox + doy * dsx + y * dsx, csx );
 	}
 
 	@FunctionalInterface
@@ -119,8 +264,11 @@ public class CopySubArrayImp
 			final int csy,
 			final int csz )
 	{
-		for ( int z = 0; z < csz; ++z )
-			fillsubarray2dn( fillsubarray1dn, dox, doy + doz * dsy + z * dsy, dsx, csx, csy );
+		if ( csx == dsx && ( csy == dsy || csz == 1 ) )
+			fillsubarray1dn.fill( ( doz * dsy + doy ) * dsx, csx * csy * csz );
+		else
+			for ( int z = 0; z < csz; ++z )
+				fillsubarray2dn( fillsubarray1dn, dox, doy + doz * dsy + z * dsy, dsx, csx, csy );
 	}
 
 	static void fillsubarray2dn(
@@ -131,8 +279,11 @@ public class CopySubArrayImp
 			final int csx,
 			final int csy )
 	{
-		for ( int y = 0; y < csy; ++y )
-			fillsubarray1dn.fill( dox + doy * dsx + y * dsx, csx );
+		if ( csx == dsx )
+			fillsubarray1dn.fill( doy * dsx, csx * csy );
+		else
+			for ( int y = 0; y < csy; ++y )
+				fillsubarray1dn.fill( dox + doy * dsx + y * dsx, csx );
 	}
 
 	@FunctionalInterface
@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import java.nio.Buffer;
+
+/**
+ * Bulk copies and fills from Java arrays into direct {@link Buffer}s.
+ * <p>
+ * This is used to fill staging memory (mapped PBOs etc.) with block data.
+ * Multi-byte values are stored in native byte order. Offsets are in bytes.
+ * <p>
+ * The implementation used by {@link ByteUtils} is selected at runtime, see
+ * {@link ByteUtils}.
+ */
+public interface MemoryAccess
+{
+	/**
+	 * Get a {@code Destination} for copying and filling into {@code dst}.
+	 * <p>
+	 * A {@code Destination} is meant for many small copies (e.g., one per row
+	 * of a block) into the same buffer. It is cheap to create, but must only
+	 * be used by one thread.
+	 */
+	Destination destination( Buffer dst );
+
+	/**
+	 * Copy {@code numBytes} bytes from {@code src} (starting at byte offset
+	 * {@code srcOffset}) to {@code dst} (starting at byte offset
+	 * {@code dstOffset}).
+	 */
+	void copyMemory( Buffer src, long srcOffset, Buffer dst, long dstOffset, long numBytes );
+
+	/**
+	 * A direct buffer to copy into.
+	 */
+	interface Destination
+	{
+		/**
+		 * Copy {@code length} elements of {@code src}, starting at
+		 * {@code srcPos}, to byte offset {@code dstOffset}.
+		 */
+		void copyShorts( short[] src, int srcPos, long dstOffset, int length );
+
+		/**
+		 * Copy {@code length} elements of {@code src}, starting at
+		 * {@code srcPos}, to byte offset {@code dstOffset}.
+		 */
+		void copyBytes( byte[] src, int srcPos, long dstOffset, int length );
+
+		/**
+		 * Set {@code length} shorts, starting at byte offset
+		 * {@code dstOffset}, to {@code value}.
+		 */
+		void setShorts( short value, long dstOffset, long length );
+
+		/**
+		 * Set {@code length} bytes, starting at byte offset
+		 * {@code dstOffset}, to {@code value}.
+		 */
+		void setBytes( byte value, long dstOffset, long length );
+	}
+}
@@ -31,6 +31,7 @@ package bvv.core.blocks;
 import bdv.util.volatiles.VolatileView;
 import bvv.core.backend.Texture;
 import bvv.core.cache.CacheSpec;
+import bvv.core.cache.FillTask;
 import bvv.core.cache.UploadBuffer;
 import bvv.core.multires.ResolutionLevel3D;
 import net.imglib2.RandomAccessible;
@@ -42,6 +43,8 @@ import net.imglib2.type.NativeType;
 import net.imglib2.type.PrimitiveType;
 import net.imglib2.util.Fraction;
 
+import java.util.Arrays;
+
 import static net.imglib2.type.PrimitiveType.BYTE;
 import static net.imglib2.type.PrimitiveType.SHORT;
 
@@ -63,19 +66,73 @@ public class TileAccess< S >
 	// ?
 	private final CopySubArray< S, ByteUtils.Address > copySubArray;
 
+	// checks whether source data is constant, or null if this is not supported
+	private final CopySubArray< S, ConstantCheck > constantCheckSubArray;
+
+	// copies source data and computes its value range, or null if this is not supported
+	private final CopySubArray< S, ByteUtils.Address > valueRangeCopySubArray;
+
 	// ?
 	private final CopyGridBlock gcopy = new CopyGridBlock();
 
+	private final ConstantCheck constantCheck = new ConstantCheck();
+
+	private final ValueRangeCheck valueRangeCheck = new ValueRangeCheck();
+
+	/** value range of the tile copied by the last {@link #loadTile(int[], UploadBuffer, boolean)} */
+	private long loadedValueRange = BlockValueRanges.UNKNOWN;
+
 	/** temporary to store block min (computed from gridPos) */
 	private final int[] min = new int[ 3 ];
 
+	/** temporaries to store the box copied by {@link #patchTile} */
+	private final int[] patchMin = new int[ 3 ];
+	private final int[] patchDim = new int[ 3 ];
+
+	public TileAccess(
+			final GridDataAccess< S > dataAccess,
+			final CopySubArray< S, ByteUtils.Address > copySubArray,
+			final CacheSpec cacheSpec )
+	{
+		this( dataAccess, copySubArray, null, null, cacheSpec );
+	}
+
+	/**
+	 * @param constantCheckSubArray
+	 *            used by {@link #getConstantValue(int[])} to scan source data.
+	 *            If {@code null}, tiles are never detected as constant.
+	 */
+	public TileAccess(
+			final GridDataAccess< S > dataAccess,
+			final CopySubArray< S, ByteUtils.Address > copySubArray,
+			final CopySubArray< S, ConstantCheck > constantCheckSubArray,
+			final CacheSpec cacheSpec )
+	{
+		this( dataAccess, copySubArray, constantCheckSubArray, null, cacheSpec );
+	}
+
+	/**
+	 * @param constantCheckSubArray
+	 *            used by {@link #getConstantValue(int[])} to scan source data.
+	 *            If {@code null}, tiles are never detected as constant.
+	 * @param valueRangeSubArray
+	 *            used by {@link #loadTile(int[], UploadBuffer, boolean)} to
+	 *            compute the value range of source data while copying it. If
+	 *            {@code null}, value ranges of tiles are never known.
+	 */
 	public TileAccess(
 			final GridDataAccess< S > dataAccess,
 			final CopySubArray< S, ByteUtils.Address > copySubArray,
+			final CopySubArray< S, ConstantCheck > constantCheckSubArray,
+			final CopySubArray< S, ValueRangeCheck > valueRangeSubArray,
 			final CacheSpec cacheSpec )
 	{
 		this.dataAccess = dataAccess;
 		this.copySubArray = copySubArray;
+		this.constantCheckSubArray = constantCheckSubArray;
+		this.valueRangeCopySubArray = valueRangeSubArray == null
+				? null
+				: new ValueRangeTrackingCopy<>( copySubArray, valueRangeSubArray, valueRangeCheck );
 		this.cacheSpec = cacheSpec;
 	}
 
@@ -96,12 +153,93 @@ public class TileAccess< S >
 	/**
 	 * Load data for the tile at {@code gridPos} into {@code buffer}.
 	 * The tile is a padded block according to the {@code CacheSpec}.
+	 * The source cells that were valid are recorded in
+	 * {@link UploadBuffer#setValidCells(long) buffer.setValidCells()}.
 	 */
 	public boolean loadTile( final int[] gridPos, final UploadBuffer buffer )
 	{
+		return loadTile( gridPos, buffer, false );
+	}
+
+	/**
+	 * Load data for the tile at {@code gridPos} into {@code buffer}, see
+	 * {@link #loadTile(int[], UploadBuffer)}. If {@code computeValueRange},
+	 * the value range of the tile is computed while copying, and can be
+	 * retrieved with {@link #getLoadedValueRange()}.
+	 */
+	public boolean loadTile( final int[] gridPos, final UploadBuffer buffer, final boolean computeValueRange )
+	{
+		for ( int d = 0; d < 3; ++d )
+			min[ d ] = gridPos[ d ] * cacheSpec.blockSize()[ d ] - cacheSpec.padOffset()[ d ];
+		final boolean trackRange = computeValueRange && valueRangeCopySubArray != null;
+		valueRangeCheck.reset();
+		final boolean complete = gcopy.copy( min, cacheSpec.paddedBlockSize(), buffer, dataAccess, trackRange ? valueRangeCopySubArray : copySubArray );
+		buffer.setValidCells( gcopy.getValidCells() );
+		loadedValueRange = trackRange && complete && !valueRangeCheck.isEmpty()
+				? BlockValueRanges.pack( valueRangeCheck.min(), valueRangeCheck.max() )
+				: BlockValueRanges.UNKNOWN;
+		return complete;
+	}
+
+	/**
+	 * Get the (unsigned) value range of the tile copied by the last
+	 * {@link #loadTile(int[], UploadBuffer, boolean)} (including padding).
+	 * Out-of-bounds voxels count as value {@code 0}. The range of tiles with
+	 * missing data is not known.
+	 *
+	 * @return the {@link BlockValueRanges#pack(int, int) packed} range of the
+	 *         tile, or {@link BlockValueRanges#UNKNOWN} if the tile was not
+	 *         completely loaded, or its range was not computed.
+	 */
+	public long getLoadedValueRange()
+	{
+		return loadedValueRange;
+	}
+
+	/**
+	 * Load only the parts of the tile at {@code gridPos} that are covered by
+	 * source cells which became valid since the tile was loaded (see
+	 * {@link UploadBuffer#getValidCells()}) into {@code buffer}. The smallest
+	 * box containing these parts is stored as a
+	 * {@link UploadBuffer#setPatch(int[], int[]) patch}. If the valid cells of
+	 * the tile are not known, the whole tile is loaded.
+	 *
+	 * @return whether the tile is complete after the patch is applied
+	 */
+	public boolean patchTile( final int[] gridPos, final UploadBuffer buffer )
+	{
+		final int[] dim = cacheSpec.paddedBlockSize();
+		for ( int d = 0; d < 3; ++d )
+			min[ d ] = gridPos[ d ] * cacheSpec.blockSize()[ d ] - cacheSpec.padOffset()[ d ];
+		final boolean complete = gcopy.patch( min, dim, buffer.getValidCells(), buffer, dataAccess, copySubArray, patchMin, patchDim );
+		if ( !Arrays.equals( patchDim, dim ) )
+			buffer.setPatch( patchMin, patchDim );
+		buffer.setValidCells( gcopy.getValidCells() );
+		loadedValueRange = BlockValueRanges.UNKNOWN;
+		return complete;
+	}
+
+	/**
+	 * Check whether the tile at {@code gridPos} (including padding) has the
+	 * same value everywhere. Out-of-bounds voxels count as value {@code 0}.
+	 * Tiles with missing data are never constant.
+	 * <p>
+	 * Scanning stops at the first value that differs, so this is cheap for
+	 * most non-constant tiles.
+	 *
+	 * @return the (unsigned) value of the tile, or
+	 *         {@link FillTask#NOT_CONSTANT} if the tile is not constant or not
+	 *         completely loaded.
+	 */
+	public int getConstantValue( final int[] gridPos )
+	{
+		if ( constantCheckSubArray == null )
+			return FillTask.NOT_CONSTANT;
 		for ( int d = 0; d < 3; ++d )
 			min[ d ] = gridPos[ d ] * cacheSpec.blockSize()[ d ] - cacheSpec.padOffset()[ d ];
-		return gcopy.copy( min, cacheSpec.paddedBlockSize(), buffer, dataAccess, copySubArray );
+		constantCheck.reset();
+		final boolean complete = gcopy.copy( min, cacheSpec.paddedBlockSize(), constantCheck, dataAccess, constantCheckSubArray );
+		return complete && constantCheck.isConstant() ? constantCheck.value() : FillTask.NOT_CONSTANT;
 	}
 
 	@SuppressWarnings( { "rawtypes", "unchecked" } )
@@ -124,6 +262,8 @@ public class TileAccess< S >
 								? new GridDataAccessImp.VolatileCells<>( ( AbstractCellImg ) img )
 								: new GridDataAccessImp.Cells<>( ( AbstractCellImg ) img ),
 						new CopySubArrayImp.ShortToAddress(),
+						new CopySubArrayImp.ShortToConstantCheck(),
+						new CopySubArrayImp.ShortToValueRangeCheck(),
 						cacheSpec
 				);
 			}
@@ -134,6 +274,8 @@ public class TileAccess< S >
 								? new GridDataAccessImp.VolatileCells<>( ( AbstractCellImg ) img )
 								: new GridDataAccessImp.Cells<>( ( AbstractCellImg ) img ),
 						new CopySubArrayImp.ByteToAddress(),
+						new CopySubArrayImp.ByteToConstantCheck(),
+						new CopySubArrayImp.ByteToValueRangeCheck(),
 						cacheSpec
 				);
 			}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+/**
+ * Destination for {@link CopyGridBlock#copy} that does not store anything,
+ * but records the minimum and maximum of all values written to it. Cleared
+ * (out-of-bounds or missing) regions count as value {@code 0}.
+ * <p>
+ * Used with {@link CopySubArrayImp.ShortToValueRangeCheck} or
+ * {@link CopySubArrayImp.ByteToValueRangeCheck} to compute
+ * {@link BlockValueRanges value ranges} of blocks.
+ */
+public class ValueRangeCheck
+{
+	private int min;
+
+	private int max;
+
+	public ValueRangeCheck()
+	{
+		reset();
+	}
+
+	/**
+	 * Forget all values seen so far.
+	 */
+	public void reset()
+	{
+		min = Integer.MAX_VALUE;
+		max = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Record that {@code v} was written.
+	 */
+	public void accept( final int v )
+	{
+		if ( v < min )
+			min = v;
+		if ( v > max )
+			max = v;
+	}
+
+	/**
+	 * @return {@code true}, if no values were written so far.
+	 */
+	public boolean isEmpty()
+	{
+		return min > max;
+	}
+
+	/**
+	 * @return the minimum value written so far.
+	 */
+	public int min()
+	{
+		return min;
+	}
+
+	/**
+	 * @return the maximum value written so far.
+	 */
+	public int max()
+	{
+		return max;
+	}
+}
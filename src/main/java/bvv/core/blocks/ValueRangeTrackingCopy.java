@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+/**
+ * {@link CopySubArray} that copies (and clears) sub-arrays with a wrapped
+ * {@code CopySubArray}, and at the same time records the value range of the
+ * copied data in a {@link ValueRangeCheck}. This computes the value range of
+ * a block while its source data is copied anyway, without looking up the
+ * source cells a second time.
+ *
+ * @param <S>
+ *            source primitive array type
+ * @param <T>
+ *            destination type
+ */
+class ValueRangeTrackingCopy< S, T > implements CopySubArray< S, T >
+{
+	private final CopySubArray< S, T > copy;
+
+	private final CopySubArray< S, ValueRangeCheck > rangeCopy;
+
+	private final ValueRangeCheck range;
+
+	/**
+	 * @param copy
+	 *            copies sub-arrays to the destination
+	 * @param rangeCopy
+	 *            records the value range of sub-arrays in {@code range}
+	 * @param range
+	 *            value range of all sub-arrays copied (or cleared) so far
+	 */
+	ValueRangeTrackingCopy( final CopySubArray< S, T > copy, final CopySubArray< S, ValueRangeCheck > rangeCopy, final ValueRangeCheck range )
+	{
+		this.copy = copy;
+		this.rangeCopy = rangeCopy;
+		this.range = range;
+	}
+
+	@Override
+	public void clearsubarray3d( final T dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+	{
+		copy.clearsubarray3d( dst, dox, doy, doz, dsx, dsy, csx, csy, csz );
+		rangeCopy.clearsubarray3d( range, dox, doy, doz, dsx, dsy, csx, csy, csz );
+	}
+
+	@Override
+	public void copysubarray3d( final S src, final int sox, final int soy, final int soz, final int ssx, final int ssy, final T dst, final int dox, final int doy, final int doz, final int dsx, final int dsy, final int csx, final int csy, final int csz )
+	{
+		copy.copysubarray3d( src, sox, soy, soz, ssx, ssy, dst, dox, doy, doz, dsx, dsy, csx, csy, csz );
+		rangeCopy.copysubarray3d( src, sox, soy, soz, ssx, ssy, range, dox, doy, doz, dsx, dsy, csx, csy, csz );
+	}
+}
@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import bvv.core.backend.GpuContext;
+
+/**
+ * Adapts the number of PBOs and the size of each PBO of a {@link PboChain} to
+ * the number of blocks that are filled per batch and the time that fillers
+ * stall waiting for a mapped PBO.
+ * <p>
+ * The configured number of PBOs and blocks per PBO are upper bounds. The PBO
+ * size follows a moving average of the number of blocks filled per batch
+ * (split over the PBOs), so that little staging memory is used when only a few
+ * blocks are loaded per frame. The number of PBOs is increased if fillers
+ * stalled on a batch that did not fit into the chain, and decreased again
+ * after a number of batches without stalls.
+ */
+public class AdaptivePboChainSize
+{
+	private static final int MIN_NUM_BUFS = 2;
+
+	private static final int MIN_BUF_SIZE = 8;
+
+	private static final long STALL_THRESHOLD_NANOS = 1_000_000;
+
+	private static final int SHRINK_AFTER_NUM_BATCHES = 100;
+
+	private static final double SMOOTHING = 0.1;
+
+	private final int maxNumBufs;
+
+	private final int maxBufSize;
+
+	private int numBufs;
+
+	private int bufSize;
+
+	/** moving average of the number of blocks uploaded per batch */
+	private double avgNumUploadedBlocks;
+
+	private int numBatchesWithoutStall;
+
+	/** batch index of the {@code PboChain} when last adapted */
+	private int lastBatch;
+
+	/**
+	 * @param maxNumBufs
+	 *            maximum number of PBOs
+	 * @param maxBufSize
+	 *            maximum size in blocks of each PBO
+	 */
+	public AdaptivePboChainSize( final int maxNumBufs, final int maxBufSize )
+	{
+		this.maxNumBufs = maxNumBufs;
+		this.maxBufSize = maxBufSize;
+		numBufs = maxNumBufs;
+		bufSize = maxBufSize;
+		avgNumUploadedBlocks = maxNumBufs * maxBufSize;
+		numBatchesWithoutStall = 0;
+		lastBatch = 0;
+	}
+
+	/**
+	 * Update statistics with the last batch of {@code pboChain} (if there was
+	 * a new batch since the last call) and resize {@code pboChain} if
+	 * necessary. Must be called between batches, i.e., when {@code pboChain}
+	 * is {@link PboChain#ready() ready}.
+	 *
+	 * @param pboChain
+	 *            the chain to adapt
+	 * @param context
+	 *            used to delete PBOs that are no longer needed
+	 */
+	public void adapt( final PboChain pboChain, final GpuContext context )
+	{
+		final int batch = pboChain.getNumBatches();
+		if ( batch == lastBatch )
+			return;
+		lastBatch = batch;
+
+		update( pboChain.getNumUploadedBlocks(), pboChain.getStallNanos() );
+		if ( numBufs != pboChain.getNumBufs() || bufSize != pboChain.getBufSize() )
+			pboChain.resize( numBufs, bufSize, context );
+	}
+
+	/**
+	 * Update statistics with a batch that uploaded {@code numUploadedBlocks}
+	 * blocks, with fillers waiting {@code stallNanos} for mapped PBOs, and
+	 * choose the new number and size of PBOs.
+	 */
+	void update( final int numUploadedBlocks, final long stallNanos )
+	{
+		// follow increasing load immediately, decreasing load slowly
+		if ( numUploadedBlocks > avgNumUploadedBlocks )
+			avgNumUploadedBlocks = numUploadedBlocks;
+		else
+			avgNumUploadedBlocks += SMOOTHING * ( numUploadedBlocks - avgNumUploadedBlocks );
+
+		final boolean stalled = stallNanos > STALL_THRESHOLD_NANOS && numUploadedBlocks > numBufs * bufSize;
+		if ( stalled )
+		{
+			numBatchesWithoutStall = 0;
+			numBufs = Math.min( numBufs + 1, maxNumBufs );
+		}
+		else if ( ++numBatchesWithoutStall >= SHRINK_AFTER_NUM_BATCHES )
+		{
+			numBatchesWithoutStall = 0;
+			numBufs = Math.max( numBufs - 1, Math.min( MIN_NUM_BUFS, maxNumBufs ) );
+		}
+
+		// round to multiples of MIN_BUF_SIZE to avoid resizing on every batch
+		final int size = MIN_BUF_SIZE * ( int ) Math.ceil( avgNumUploadedBlocks / numBufs / MIN_BUF_SIZE );
+		bufSize = Math.max( Math.min( size, maxBufSize ), Math.min( MIN_BUF_SIZE, maxBufSize ) );
+	}
+
+	/**
+	 * @return current number of PBOs
+	 */
+	public int getNumBufs()
+	{
+		return numBufs;
+	}
+
+	/**
+	 * @return current size in blocks of each PBO
+	 */
+	public int getBufSize()
+	{
+		return bufSize;
+	}
+}
@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import gnu.trove.list.array.TIntArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Slot bookkeeping for tile stores with a fixed number of equally sized
+ * slots ({@link HostTileCache}, {@link TileSpillStore}). Maps keys to slots,
+ * and finds slots for new keys, evicting old ones with the CLOCK algorithm
+ * (second chance): Each slot has a reference bit that is set when the slot is
+ * read. When a slot is needed, the clock hand sweeps the slots, clearing
+ * reference bits, and evicts the first slot whose bit was already cleared.
+ * <p>
+ * Slots are pinned while they are copied from or to, and pinned slots are
+ * never evicted. This allows to copy without holding a lock.
+ * <p>
+ * Not thread-safe. Callers must synchronize.
+ *
+ * @param <K>
+ *            key type
+ */
+class ClockSlots< K >
+{
+	private final int numSlots;
+
+	/** maps keys to slot index */
+	private final Map< K, Integer > slots = new HashMap<>();
+
+	/** key stored in each slot, or {@code null} */
+	private final Object[] keys;
+
+	/** CLOCK reference bit of each slot */
+	private final boolean[] referenced;
+
+	/** number of ongoing copies from or to each slot */
+	private final int[] pinned;
+
+	private final TIntArrayList freeSlots;
+
+	/** CLOCK hand, index of the next slot to consider for eviction */
+	private int hand;
+
+	private long numEvicted;
+
+	ClockSlots( final int numSlots )
+	{
+		this.numSlots = numSlots;
+		keys = new Object[ numSlots ];
+		referenced = new boolean[ numSlots ];
+		pinned = new int[ numSlots ];
+		freeSlots = new TIntArrayList( numSlots );
+		for ( int i = numSlots - 1; i >= 0; --i )
+			freeSlots.add( i );
+	}
+
+	int numSlots()
+	{
+		return numSlots;
+	}
+
+	int size()
+	{
+		return slots.size();
+	}
+
+	boolean contains( final K key )
+	{
+		return slots.containsKey( key );
+	}
+
+	/**
+	 * Pin the slot storing {@code key} for reading, and set its reference bit.
+	 *
+	 * @return index of the slot, or {@code -1} if {@code key} is not stored.
+	 */
+	int pinForRead( final K key )
+	{
+		final Integer slot = slots.get( key );
+		if ( slot == null )
+			return -1;
+		referenced[ slot ] = true;
+		++pinned[ slot ];
+		return slot;
+	}
+
+	/**
+	 * Unpin a slot that was {@link #pinForRead pinned for reading}.
+	 */
+	void unpin( final int slot )
+	{
+		--pinned[ slot ];
+	}
+
+	/**
+	 * Get a free slot (evicting a stored key if necessary), and pin it for
+	 * writing {@code key}. When writing is done, call
+	 * {@link #commit(Object, int, boolean)}.
+	 *
+	 * @return index of the slot, or {@code -1} if {@code key} is already
+	 *         stored, or all slots are pinned.
+	 */
+	int pinForWrite( final K key )
+	{
+		if ( numSlots == 0 || slots.containsKey( key ) )
+			return -1;
+		final int slot = freeSlots.isEmpty() ? evict() : freeSlots.removeAt( freeSlots.size() - 1 );
+		if ( slot >= 0 )
+			++pinned[ slot ];
+		return slot;
+	}
+
+	/**
+	 * Unpin a slot that was {@link #pinForWrite pinned for writing}. If
+	 * {@code written}, map {@code key} to the slot. Otherwise, the slot
+	 * becomes free.
+	 */
+	void commit( final K key, final int slot, final boolean written )
+	{
+		--pinned[ slot ];
+		if ( written && !slots.containsKey( key ) )
+		{
+			slots.put( key, slot );
+			keys[ slot ] = key;
+			referenced[ slot ] = false;
+		}
+		else
+			freeSlots.add( slot );
+	}
+
+	/**
+	 * Remove {@code key}, e.g., because the slot content turned out to be
+	 * invalid. Nothing is removed while the slot is pinned.
+	 */
+	void remove( final K key )
+	{
+		final Integer slot = slots.get( key );
+		if ( slot != null && pinned[ slot ] == 0 )
+		{
+			slots.remove( key );
+			keys[ slot ] = null;
+			freeSlots.add( slot );
+		}
+	}
+
+	/**
+	 * Advance the clock hand to the next evictable slot, and remove its key.
+	 *
+	 * @return index of the evicted slot, or {@code -1} if all slots are pinned.
+	 */
+	private int evict()
+	{
+		for ( int i = 0; i < 2 * numSlots; ++i )
+		{
+			final int slot = hand;
+			hand = ( hand + 1 ) % numSlots;
+			if ( pinned[ slot ] > 0 || keys[ slot ] == null )
+				continue;
+			if ( referenced[ slot ] )
+				referenced[ slot ] = false;
+			else
+			{
+				slots.remove( keys[ slot ] );
+				keys[ slot ] = null;
+				++numEvicted;
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a copy of the key-to-slot mapping
+	 */
+	Map< K, Integer > entries()
+	{
+		return new HashMap<>( slots );
+	}
+
+	/**
+	 * Replace the current content by {@code entries} (for example, restored
+	 * from disk). No slot may be pinned.
+	 */
+	void restore( final Map< K, Integer > entries )
+	{
+		slots.clear();
+		Arrays.fill( keys, null );
+		for ( final Map.Entry< K, Integer > entry : entries.entrySet() )
+		{
+			final int slot = entry.getValue();
+			if ( slot >= 0 && slot < numSlots && keys[ slot ] == null )
+			{
+				slots.put( entry.getKey(), slot );
+				keys[ slot ] = entry.getKey();
+			}
+		}
+		freeSlots.clear();
+		for ( int i = numSlots - 1; i >= 0; --i )
+			if ( keys[ i ] == null )
+				freeSlots.add( i );
+	}
+
+	long numEvicted()
+	{
+		return numEvicted;
+	}
+}
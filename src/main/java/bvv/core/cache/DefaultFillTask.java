@@ -29,6 +29,7 @@
 package bvv.core.cache;
 
 import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
 import java.util.function.Predicate;
 
 import static bvv.core.cache.TextureCache.ContentState.COMPLETE;
@@ -42,15 +43,56 @@ public class DefaultFillTask implements FillTask
 
 	final BooleanSupplier containsData;
 
+	final IntSupplier constantValue;
+
+	final int level;
+
+	final float screenDistance;
+
 	/**
 	 * {@code fill.test()} fills buffer and returns whether block data was
 	 * complete
 	 */
 	public DefaultFillTask( final ImageBlockKey< ? > key, final Predicate< UploadBuffer > fill, final BooleanSupplier containsData )
+	{
+		this( key, fill, containsData, 0, 0 );
+	}
+
+	/**
+	 * {@code fill.test()} fills buffer and returns whether block data was
+	 * complete
+	 *
+	 * @param level
+	 *            resolution level of the block (hint for {@link FillTaskPriority})
+	 * @param screenDistance
+	 *            distance of the block from the screen center (hint for {@link FillTaskPriority})
+	 */
+	public DefaultFillTask( final ImageBlockKey< ? > key, final Predicate< UploadBuffer > fill, final BooleanSupplier containsData, final int level, final float screenDistance )
+	{
+		this( key, fill, containsData, null, level, screenDistance );
+	}
+
+	/**
+	 * {@code fill.test()} fills buffer and returns whether block data was
+	 * complete
+	 *
+	 * @param constantValue
+	 *            supplies the {@link #getConstantValue() constant value} of the
+	 *            block, or {@link #NOT_CONSTANT}. May be {@code null}, if blocks
+	 *            should never share a constant tile.
+	 * @param level
+	 *            resolution level of the block (hint for {@link FillTaskPriority})
+	 * @param screenDistance
+	 *            distance of the block from the screen center (hint for {@link FillTaskPriority})
+	 */
+	public DefaultFillTask( final ImageBlockKey< ? > key, final Predicate< UploadBuffer > fill, final BooleanSupplier containsData, final IntSupplier constantValue, final int level, final float screenDistance )
 	{
 		this.key = key;
 		this.fill = fill;
 		this.containsData = containsData;
+		this.constantValue = constantValue;
+		this.level = level;
+		this.screenDistance = screenDistance;
 	}
 
 	@Override
@@ -71,4 +113,22 @@ public class DefaultFillTask implements FillTask
 		final boolean complete = fill.test( buffer );
 		buffer.setContentState( complete ? COMPLETE : INCOMPLETE );
 	}
+
+	@Override
+	public int getConstantValue()
+	{
+		return constantValue == null ? NOT_CONSTANT : constantValue.getAsInt();
+	}
+
+	@Override
+	public int getLevel()
+	{
+		return level;
+	}
+
+	@Override
+	public float getScreenDistance()
+	{
+		return screenDistance;
+	}
 }
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.List;
+
+import bvv.core.cache.TextureCache.Tile;
+
+/**
+ * Decides which tiles of a {@link TextureCache} are evicted (reused) when new
+ * blocks are staged (see {@link TextureCache#setEvictionPolicy(EvictionPolicy)}).
+ * <p>
+ * Implementations are called sequentially, from the thread that stages and
+ * uploads tiles, so they don't need to be thread-safe. As they may keep state
+ * per {@code TextureCache}, instances should not be shared between caches.
+ */
+public interface EvictionPolicy
+{
+	/**
+	 * Select {@code size} tiles to evict, i.e., to fill with the blocks staged
+	 * in the current batch.
+	 *
+	 * @param candidates
+	 *            tiles that may be evicted, from least to most recently used.
+	 *            (Tiles that are pinned, constant, or updated in the current
+	 *            batch are not included.)
+	 * @param size
+	 *            number of tiles to select
+	 * @param timestamp
+	 *            timestamp of the current batch. Candidates whose
+	 *            {@link Tile#lastRequested()} equals {@code timestamp} contain
+	 *            blocks that were requested (and found complete) in the
+	 *            current batch.
+	 * @param victims
+	 *            selected tiles are added to this list. If fewer than
+	 *            {@code size} tiles are added, the batch fails.
+	 */
+	void selectVictims( Iterable< Tile > candidates, int size, int timestamp, List< Tile > victims );
+
+	/**
+	 * Called when a block of resolution {@code level} was completely loaded,
+	 * {@code latencyNanos} after it was first staged.
+	 */
+	default void blockLoaded( final int level, final long latencyNanos )
+	{
+	}
+
+	/**
+	 * Evict least recently used tiles first.
+	 */
+	static EvictionPolicy lru()
+	{
+		return new LruEvictionPolicy();
+	}
+
+	/**
+	 * Evict least recently used tiles first, but keep tiles of coarser
+	 * resolution levels longer (see {@link LevelWeightedEvictionPolicy}).
+	 *
+	 * @param levelWeight
+	 *            how much longer tiles of coarser levels are kept, as a
+	 *            fraction of the cache per level.
+	 */
+	static EvictionPolicy levelWeightedLru( final double levelWeight )
+	{
+		return new LevelWeightedEvictionPolicy( levelWeight );
+	}
+
+	/**
+	 * Evict tiles that are cheap to reload first, aging tiles that are not
+	 * used (see {@link GreedyDualSizeEvictionPolicy}).
+	 */
+	static EvictionPolicy greedyDualSize()
+	{
+		return new GreedyDualSizeEvictionPolicy();
+	}
+}
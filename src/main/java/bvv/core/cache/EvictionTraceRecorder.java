@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the block requests of a {@link TextureCache} to a file, for
+ * comparing {@link EvictionPolicy EvictionPolicies} offline.
+ * <p>
+ * A trace is a sequence of records:
+ * <ul>
+ * <li>the number of tiles of the cache (whenever the recorder is attached to
+ * a cache),</li>
+ * <li>the blocks requested by each {@link TextureCache#stage} call (image id,
+ * resolution level, and grid position of each block), and</li>
+ * <li>the observed latency each time a block was completely loaded (see
+ * {@link EvictionPolicy#blockLoaded(int, long)}).</li>
+ * </ul>
+ * Images are identified by small integers, in order of appearance.
+ * <p>
+ * If writing fails, recording stops and the error is available from
+ * {@link #getFailure()}. Not thread-safe.
+ */
+public class EvictionTraceRecorder implements Closeable
+{
+	static final int MAGIC = 0x42565654;
+
+	static final int VERSION = 1;
+
+	static final byte CAPACITY = 1;
+
+	static final byte STAGE = 2;
+
+	static final byte LOADED = 3;
+
+	private final Map< Object, Integer > imageIds = new HashMap<>();
+
+	private DataOutputStream out;
+
+	private IOException failure;
+
+	public EvictionTraceRecorder( final Path file ) throws IOException
+	{
+		out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( file ) ) );
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+	}
+
+	void capacity( final int numTiles )
+	{
+		if ( out == null )
+			return;
+		try
+		{
+			out.writeByte( CAPACITY );
+			out.writeInt( numTiles );
+		}
+		catch ( final IOException e )
+		{
+			failed( e );
+		}
+	}
+
+	void stage( final Collection< ? extends FillTask > tasks )
+	{
+		if ( out == null )
+			return;
+		try
+		{
+			out.writeByte( STAGE );
+			out.writeInt( tasks.size() );
+			for ( final FillTask task : tasks )
+			{
+				final ImageBlockKey< ? > key = task.getKey();
+				out.writeInt( imageIds.computeIfAbsent( key.image(), image -> imageIds.size() ) );
+				out.writeInt( task.getLevel() );
+				out.writeInt( key.x() );
+				out.writeInt( key.y() );
+				out.writeInt( key.z() );
+			}
+		}
+		catch ( final IOException e )
+		{
+			failed( e );
+		}
+	}
+
+	void loaded( final int level, final long latencyNanos )
+	{
+		if ( out == null )
+			return;
+		try
+		{
+			out.writeByte( LOADED );
+			out.writeInt( level );
+			out.writeLong( latencyNanos );
+		}
+		catch ( final IOException e )
+		{
+			failed( e );
+		}
+	}
+
+	private void failed( final IOException e )
+	{
+		failure = e;
+		try
+		{
+			close();
+		}
+		catch ( final IOException suppressed )
+		{
+			e.addSuppressed( suppressed );
+		}
+	}
+
+	/**
+	 * @return the error that stopped recording, or {@code null} if writing
+	 *         has not failed.
+	 */
+	public IOException getFailure()
+	{
+		return failure;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if ( out != null )
+		{
+			final DataOutputStream o = out;
+			out = null;
+			o.close();
+		}
+	}
+}
@@ -30,9 +30,48 @@ package bvv.core.cache;
 
 public interface FillTask
 {
+	/**
+	 * Returned by {@link #getConstantValue()} for blocks that do not have the
+	 * same value everywhere.
+	 */
+	int NOT_CONSTANT = -1;
+
 	ImageBlockKey< ? > getKey();
 
 	boolean containsData();
 
 	void fill( UploadBuffer buffer );
+
+	/**
+	 * Resolution level of the block to fill. This is only a hint for
+	 * {@link FillTaskPriority}.
+	 */
+	default int getLevel()
+	{
+		return 0;
+	}
+
+	/**
+	 * Distance of the block to fill from the screen center (in normalized
+	 * device coordinates). This is only a hint for {@link FillTaskPriority}.
+	 */
+	default float getScreenDistance()
+	{
+		return 0;
+	}
+
+	/**
+	 * If the block to fill (including padding) has the same value everywhere,
+	 * return that (unsigned) value. Such blocks are not filled and uploaded,
+	 * but share a constant tile in the {@link TextureCache}.
+	 * <p>
+	 * This is called (by a filler thread) before {@link #fill}, and only if
+	 * {@link #containsData()}.
+	 *
+	 * @return the value of the block, or {@link #NOT_CONSTANT}.
+	 */
+	default int getConstantValue()
+	{
+		return NOT_CONSTANT;
+	}
 }
@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.Comparator;
+
+/**
+ * Determines the order in which {@link FillTask}s are processed in a batch of
+ * tile uploads (see {@link TextureCache#setFillTaskPriority(FillTaskPriority)}).
+ * Tasks that compare lower are filled first.
+ * <p>
+ * When filling is cut short (or the cache cannot hold all requested blocks),
+ * the tasks at the start of the order are the ones that make it into the
+ * cache.
+ */
+@FunctionalInterface
+public interface FillTaskPriority extends Comparator< FillTask >
+{
+	/**
+	 * Blocks closer to the screen center first. Blocks at the same distance
+	 * are ordered coarse-to-fine.
+	 */
+	FillTaskPriority SCREEN_CENTER_DISTANCE = ( t1, t2 ) -> {
+		final int c = Float.compare( t1.getScreenDistance(), t2.getScreenDistance() );
+		return c != 0 ? c : Integer.compare( t2.getLevel(), t1.getLevel() );
+	};
+
+	/**
+	 * Coarse-to-fine resolution levels first. Blocks of the same level are
+	 * ordered by distance to the screen center.
+	 */
+	FillTaskPriority COARSE_TO_FINE = ( t1, t2 ) -> {
+		final int c = Integer.compare( t2.getLevel(), t1.getLevel() );
+		return c != 0 ? c : Float.compare( t1.getScreenDistance(), t2.getScreenDistance() );
+	};
+}
@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.Arrays;
+
+import bvv.core.cache.TextureCache.Tile;
+
+/**
+ * GreedyDual-Size eviction, where the cost of a tile is the observed latency
+ * of (re-)loading blocks of its resolution level (see
+ * {@link #blockLoaded(int, long)}).
+ * <p>
+ * Every tile has a value {@code H = L + cost}, where {@code L} is an
+ * "inflation" value that is set to the {@code H} of the last evicted tile. As
+ * all tiles have the same size, the size term of GreedyDual-Size is constant
+ * and omitted. Tiles with the lowest {@code H} are evicted first, so tiles
+ * that are expensive to reload are kept longer, and tiles that are not used
+ * age as {@code L} increases.
+ * <p>
+ * {@code H} is reset when a tile is used. Instead of tracking every use, the
+ * value of {@code L} at each batch is recorded, and {@code H} is computed from
+ * the value at the {@link Tile#lastUsed() last use} of a tile.
+ * <p>
+ * The cost of a level is an exponential moving average of the observed
+ * latencies, in milliseconds. Levels without observations are assumed to cost
+ * the average of the other levels.
+ */
+public class GreedyDualSizeEvictionPolicy extends ScoredEvictionPolicy
+{
+	/**
+	 * Weight of a new observation in the moving average of latencies.
+	 */
+	private static final double ALPHA = 0.1;
+
+	// moving average of observed latency (in ms) per level, or 0 if not observed
+	private double[] levelCosts = new double[ 0 ];
+
+	private double defaultCost = 1;
+
+	private double inflation = 0;
+
+	// value of inflation starting at timestamp historyTimestamps[i]
+	private int[] historyTimestamps = new int[ 16 ];
+
+	private double[] historyInflation = new double[ 16 ];
+
+	private int historySize = 0;
+
+	// minimum lastUsed() of the candidates in the current batch
+	private int minLastUsed;
+
+	@Override
+	public void blockLoaded( final int level, final long latencyNanos )
+	{
+		if ( level < 0 )
+			return;
+		if ( level >= levelCosts.length )
+			levelCosts = Arrays.copyOf( levelCosts, level + 1 );
+		final double ms = latencyNanos / 1e6;
+		levelCosts[ level ] = levelCosts[ level ] == 0 ? ms : ( 1 - ALPHA ) * levelCosts[ level ] + ALPHA * ms;
+
+		double sum = 0;
+		int n = 0;
+		for ( final double cost : levelCosts )
+			if ( cost > 0 )
+			{
+				sum += cost;
+				++n;
+			}
+		defaultCost = n > 0 ? sum / n : 1;
+	}
+
+	/**
+	 * @return estimated cost (latency in ms) of reloading a block of resolution {@code level}.
+	 */
+	public double cost( final int level )
+	{
+		return level >= 0 && level < levelCosts.length && levelCosts[ level ] > 0
+				? levelCosts[ level ]
+				: defaultCost;
+	}
+
+	@Override
+	protected void beginScoring( final int numCandidates )
+	{
+		minLastUsed = Integer.MAX_VALUE;
+	}
+
+	@Override
+	protected double score( final Tile tile, final int rank )
+	{
+		minLastUsed = Math.min( minLastUsed, tile.lastUsed() );
+		return inflationAt( tile.lastUsed() ) + cost( tile.level() );
+	}
+
+	@Override
+	protected void victimsSelected( final int timestamp, final double maxVictimScore )
+	{
+		if ( maxVictimScore > inflation )
+			inflation = maxVictimScore;
+
+		pruneHistory();
+		if ( historySize == historyTimestamps.length )
+		{
+			historyTimestamps = Arrays.copyOf( historyTimestamps, 2 * historySize );
+			historyInflation = Arrays.copyOf( historyInflation, 2 * historySize );
+		}
+		historyTimestamps[ historySize ] = timestamp;
+		historyInflation[ historySize ] = inflation;
+		++historySize;
+	}
+
+	/**
+	 * Get the value of {@code L} at {@code timestamp}.
+	 */
+	private double inflationAt( final int timestamp )
+	{
+		final int i = Arrays.binarySearch( historyTimestamps, 0, historySize, timestamp );
+		final int j = i >= 0 ? i : -i - 2;
+		return j >= 0 ? historyInflation[ j ] : 0;
+	}
+
+	/**
+	 * Remove history entries that are older than needed for the least
+	 * recently used candidate. (For tiles that were not candidates, e.g.,
+	 * because they were pinned, this may overestimate {@code H}.)
+	 */
+	private void pruneHistory()
+	{
+		if ( minLastUsed == Integer.MAX_VALUE )
+			return;
+		final int i = Arrays.binarySearch( historyTimestamps, 0, historySize, minLastUsed );
+		final int j = i >= 0 ? i : -i - 2;
+		if ( j > 0 )
+		{
+			System.arraycopy( historyTimestamps, j, historyTimestamps, 0, historySize - j );
+			System.arraycopy( historyInflation, j, historyInflation, 0, historySize - j );
+			historySize -= j;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import bvv.core.blocks.ByteUtils;
+import java.nio.ByteBuffer;
+import net.imglib2.util.Intervals;
+
+/**
+ * Off-heap second-level cache of padded tiles, backing a
+ * {@link TextureCache}. Complete tiles are copied in when they are filled, and
+ * copied back (with a single memcpy) when the same block has to be filled
+ * again after it was evicted from the {@code TextureCache}. This avoids
+ * re-running block lookup and padded copying for blocks that are needed
+ * repeatedly, e.g. when rotating the view back and forth.
+ * <p>
+ * Tiles are evicted with the CLOCK algorithm (see {@link ClockSlots}).
+ * <p>
+ * This class is thread-safe.
+ */
+public class HostTileCache
+{
+	/**
+	 * Maximum size of each of the {@code ByteBuffer}s storing the tiles.
+	 */
+	private static final int MAX_CHUNK_SIZE_IN_BYTES = 1 << 30;
+
+	private final int tileSizeInBytes;
+
+	private final int tilesPerChunk;
+
+	private final ByteBuffer[] chunks;
+
+	private final ClockSlots< ImageBlockKey< ? > > slots;
+
+	private long numHits;
+
+	private long numMisses;
+
+	/**
+	 * @param spec
+	 *            cache spec of the {@link TextureCache} that tiles are
+	 *            uploaded to
+	 * @param maxSizeInMB
+	 *            memory budget
+	 */
+	public HostTileCache( final CacheSpec spec, final int maxSizeInMB )
+	{
+		this( spec, maxSizeInMB, MAX_CHUNK_SIZE_IN_BYTES );
+	}
+
+	/**
+	 * @param maxChunkSizeInBytes
+	 *            maximum size of each of the {@code ByteBuffer}s storing the
+	 *            tiles (smaller than the default only for testing)
+	 */
+	HostTileCache( final CacheSpec spec, final int maxSizeInMB, final int maxChunkSizeInBytes )
+	{
+		tileSizeInBytes = spec.format().getBytesPerElement() * ( int ) Intervals.numElements( spec.paddedBlockSize() );
+		final int maxNumTiles = ( int ) Math.min( ( long ) maxSizeInMB * 1024 * 1024 / tileSizeInBytes, Integer.MAX_VALUE );
+		tilesPerChunk = Math.max( 1, maxChunkSizeInBytes / tileSizeInBytes );
+		final int numChunks = ( maxNumTiles + tilesPerChunk - 1 ) / tilesPerChunk;
+		chunks = new ByteBuffer[ numChunks ];
+		for ( int i = 0; i < numChunks; ++i )
+		{
+			final int n = Math.min( tilesPerChunk, maxNumTiles - i * tilesPerChunk );
+			chunks[ i ] = ByteBuffer.allocateDirect( n * tileSizeInBytes );
+		}
+		slots = new ClockSlots<>( maxNumTiles );
+	}
+
+	/**
+	 * @return whether the tile for {@code key} is stored.
+	 */
+	public synchronized boolean contains( final ImageBlockKey< ? > key )
+	{
+		return slots.contains( key );
+	}
+
+	/**
+	 * If the tile for {@code key} is stored, pin it, so that it stays stored
+	 * until it is copied by {@link #fill(int, UploadBuffer)} or released by
+	 * {@link #unpin(int)}.
+	 *
+	 * @return the pinned slot of the tile, or {@code -1} if it is not stored.
+	 */
+	public synchronized int pin( final ImageBlockKey< ? > key )
+	{
+		final int slot = slots.pinForRead( key );
+		if ( slot < 0 )
+			++numMisses;
+		else
+			++numHits;
+		return slot;
+	}
+
+	/**
+	 * Release a slot that was {@link #pin pinned} without copying it.
+	 */
+	public synchronized void unpin( final int slot )
+	{
+		slots.unpin( slot );
+	}
+
+	/**
+	 * Copy the tile in a {@link #pin pinned} {@code slot} into
+	 * {@code buffer}, and unpin the slot.
+	 */
+	public void fill( final int slot, final UploadBuffer buffer )
+	{
+		try
+		{
+			ByteUtils.copyMemory( chunk( slot ), offset( slot ), buffer.getBuffer(), buffer.getOffset(), tileSizeInBytes );
+		}
+		finally
+		{
+			unpin( slot );
+		}
+	}
+
+	/**
+	 * If the tile for {@code key} is stored, copy it into {@code buffer}.
+	 *
+	 * @return whether the tile was stored (and {@code buffer} was filled).
+	 */
+	public boolean fill( final ImageBlockKey< ? > key, final UploadBuffer buffer )
+	{
+		final int slot = pin( key );
+		if ( slot < 0 )
+			return false;
+		fill( slot, buffer );
+		return true;
+	}
+
+	/**
+	 * Store a copy of the tile for {@code key} from {@code buffer}. If
+	 * necessary, the least recently used tile is evicted to make room.
+	 *
+	 * @return {@code true} if the tile was added. {@code false} if it was
+	 *         already present, or no slot could be evicted.
+	 */
+	public boolean put( final ImageBlockKey< ? > key, final UploadBuffer buffer )
+	{
+		final int slot;
+		synchronized ( this )
+		{
+			slot = slots.pinForWrite( key );
+			if ( slot < 0 )
+				return false;
+		}
+
+		boolean copied = false;
+		try
+		{
+			ByteUtils.copyMemory( buffer.getBuffer(), buffer.getOffset(), chunk( slot ), offset( slot ), tileSizeInBytes );
+			copied = true;
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				slots.commit( key, slot, copied );
+			}
+		}
+		return copied;
+	}
+
+	int getNumChunks()
+	{
+		return chunks.length;
+	}
+
+	private ByteBuffer chunk( final int slot )
+	{
+		return chunks[ slot / tilesPerChunk ];
+	}
+
+	private long offset( final int slot )
+	{
+		return ( long ) ( slot % tilesPerChunk ) * tileSizeInBytes;
+	}
+
+	/**
+	 * @return maximum number of tiles that can be stored
+	 */
+	public int getMaxNumTiles()
+	{
+		return slots.numSlots();
+	}
+
+	/**
+	 * @return number of tiles currently stored
+	 */
+	public synchronized int getNumTiles()
+	{
+		return slots.size();
+	}
+
+	/**
+	 * @return total number of lookups ({@link #pin} calls) that found the tile
+	 */
+	public synchronized long getNumHits()
+	{
+		return numHits;
+	}
+
+	/**
+	 * @return total number of lookups ({@link #pin} calls) that did not find
+	 *         the tile
+	 */
+	public synchronized long getNumMisses()
+	{
+		return numMisses;
+	}
+
+	/**
+	 * @return total number of tiles that were evicted to make room for new ones
+	 */
+	public synchronized long getNumEvicted()
+	{
+		return slots.numEvicted();
+	}
+}
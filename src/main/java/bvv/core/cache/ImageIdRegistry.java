@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import gnu.trove.list.array.TIntArrayList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns small integer ids to the images (typically {@code ResolutionLevel3D})
+ * of {@link ImageBlockKey}s, so that tiles can be indexed by a packed
+ * {@code long} key (see {@link #pack(int, int, int, int)}).
+ * <p>
+ * Images are compared by {@code equals()}, like in {@link ImageBlockKey}. Ids
+ * are reference counted: an image has an id while at least one tile contains a
+ * block of it. Ids of released images are recycled, so ids stay small and
+ * stable as long as the image has resident tiles.
+ * <p>
+ * Not thread-safe.
+ */
+class ImageIdRegistry
+{
+	/**
+	 * Maximum number of images with resident tiles.
+	 */
+	static final int MAX_IDS = 1 << 16;
+
+	/**
+	 * Maximum grid coordinate (in each dimension) that can be packed. (Blocks
+	 * with larger coordinates must be indexed by their {@code ImageBlockKey}.)
+	 */
+	static final int MAX_GRID_POS = ( 1 << 16 ) - 1;
+
+	private static class Entry
+	{
+		final Object image;
+
+		final int id;
+
+		int refCount;
+
+		Entry( final Object image, final int id )
+		{
+			this.image = image;
+			this.id = id;
+		}
+	}
+
+	private final Map< Object, Entry > imageToEntry = new HashMap<>();
+
+	private final ArrayList< Entry > idToEntry = new ArrayList<>();
+
+	private final TIntArrayList freeIds = new TIntArrayList();
+
+	/**
+	 * Get the id of {@code image}.
+	 *
+	 * @return id of {@code image}, or {@code -1} if no tile contains a block of {@code image}.
+	 */
+	int idOf( final Object image )
+	{
+		final Entry entry = imageToEntry.get( image );
+		return entry == null ? -1 : entry.id;
+	}
+
+	/**
+	 * Get the image with the given {@code id}.
+	 *
+	 * @return image with the given {@code id}, or {@code null} if no image has that id.
+	 */
+	Object imageOf( final int id )
+	{
+		final Entry entry = id >= 0 && id < idToEntry.size() ? idToEntry.get( id ) : null;
+		return entry == null ? null : entry.image;
+	}
+
+	/**
+	 * Get the id of {@code image}, assigning a new one if necessary, and
+	 * increment its reference count.
+	 */
+	int acquire( final Object image )
+	{
+		Entry entry = imageToEntry.get( image );
+		if ( entry == null )
+		{
+			final int id;
+			if ( !freeIds.isEmpty() )
+			{
+				id = freeIds.removeAt( freeIds.size() - 1 );
+				entry = new Entry( image, id );
+				idToEntry.set( id, entry );
+			}
+			else
+			{
+				id = idToEntry.size();
+				if ( id >= MAX_IDS )
+					throw new IllegalStateException( "Too many images with resident tiles." );
+				entry = new Entry( image, id );
+				idToEntry.add( entry );
+			}
+			imageToEntry.put( image, entry );
+		}
+		++entry.refCount;
+		return entry.id;
+	}
+
+	/**
+	 * Decrement the reference count of image {@code id}. The id is recycled if
+	 * it is not referenced anymore.
+	 */
+	void release( final int id )
+	{
+		final Entry entry = idToEntry.get( id );
+		if ( --entry.refCount == 0 )
+		{
+			imageToEntry.remove( entry.image );
+			idToEntry.set( id, null );
+			freeIds.add( id );
+		}
+	}
+
+	/**
+	 * Pack image id and block grid coordinates into a {@code long} key.
+	 * Coordinates must be in range {@code 0 ... MAX_GRID_POS}.
+	 * <p>
+	 * The packed bits are scrambled (bijectively), because the trove hash of a
+	 * {@code long} XORs its upper and lower halves, which would make keys of
+	 * nearby blocks collide.
+	 */
+	static long pack( final int id, final int x, final int y, final int z )
+	{
+		final long packed = ( ( long ) id << 48 ) | ( ( long ) x << 32 ) | ( ( long ) y << 16 ) | z;
+		return packed * SCRAMBLE;
+	}
+
+	/**
+	 * Get the image id from a {@link #pack(int, int, int, int) packed} key.
+	 */
+	static int unpackId( final long key )
+	{
+		return ( int ) ( ( key * UNSCRAMBLE ) >>> 48 );
+	}
+
+	private static final long SCRAMBLE = 0x9e3779b97f4a7c15L;
+
+	// multiplicative inverse of SCRAMBLE modulo 2^64
+	private static final long UNSCRAMBLE = 0xf1de83e19937733dL;
+
+	/**
+	 * Whether grid coordinates {@code (x, y, z)} can be {@link #pack(int, int, int, int) packed}.
+	 */
+	static boolean isPackable( final int x, final int y, final int z )
+	{
+		return ( ( x | y | z ) & ~MAX_GRID_POS ) == 0;
+	}
+}
@@ -0,0 +1,67 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import bvv.core.cache.TextureCache.Tile;
+
+/**
+ * LRU eviction that keeps tiles of coarser resolution levels longer. A tile of
+ * a coarse level covers many tiles of the finer levels, so losing it is more
+ * expensive.
+ * <p>
+ * The score of a tile is its recency (position in LRU order, divided by the
+ * number of candidates), plus {@code levelWeight * level}. That is, with
+ * {@code levelWeight = 0.25}, a level-1 tile is evicted as if it had been
+ * used after a quarter of the cache more recent tiles, a level-2 tile as if
+ * after half of the cache, and so on. With {@code levelWeight = 0}, this is
+ * plain LRU.
+ */
+public class LevelWeightedEvictionPolicy extends ScoredEvictionPolicy
+{
+	private final double levelWeight;
+
+	private double rankScale;
+
+	public LevelWeightedEvictionPolicy( final double levelWeight )
+	{
+		this.levelWeight = levelWeight;
+	}
+
+	@Override
+	protected void beginScoring( final int numCandidates )
+	{
+		rankScale = 1.0 / Math.max( numCandidates, 1 );
+	}
+
+	@Override
+	protected double score( final Tile tile, final int rank )
+	{
+		return rank * rankScale + levelWeight * tile.level();
+	}
+}
@@ -30,7 +30,7 @@ package bvv.core.cache;
 
 import java.nio.Buffer;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
@@ -40,6 +40,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import net.imglib2.util.Intervals;
 import bvv.core.backend.GpuContext;
 import bvv.core.backend.StagingBuffer;
+import bvv.core.backend.Texture3D;
 
 import static bvv.core.cache.PboChain.PboChainState.FILL;
 import static bvv.core.cache.PboChain.PboChainState.FLUSH;
@@ -47,15 +48,28 @@ import static bvv.core.cache.PboChain.PboState.CLEAN;
 import static bvv.core.cache.PboChain.PboState.MAPPED;
 import static bvv.core.cache.PboChain.PboState.UNMAPPED;
 
+/**
+ * A chain of PBOs that are filled with tile data by multiple threads and
+ * uploaded to a {@link TextureCache} by the GPU thread.
+ * <p>
+ * By default, fillers {@link #take take} and {@link #commit commit} upload
+ * buffers under a single lock. In lock-free fill mode, fillers claim buffer
+ * slots in the active PBO with an atomic counter, and commit through an atomic
+ * per-PBO countdown. Then, the lock is only taken when a PBO is exhausted or
+ * becomes ready for upload, i.e., when PBOs rotate.
+ */
 public class PboChain
 {
-	private final int numBufs; // number of PBOs to create
-	private final int bufSize; // size in blocks of each PBO
+	private int numBufs; // number of PBOs to create
+	private int bufSize; // size in blocks of each PBO
 	private final int blockSize; // size in bytes of each block
+	private final int[] blockDimensions;
+	private final TextureCache cache;
+	private final boolean lockFree; // claim and commit buffers without locking
 
 	private final Queue< Pbo > cleanPbos;
 	private final Queue< Pbo > readyForUploadPbos;
-	private Pbo activePbo;
+	private volatile Pbo activePbo;
 
 
 	/** Main lock guarding all access */
@@ -81,7 +95,16 @@ public class PboChain
 	private AtomicInteger ti = new AtomicInteger();
 
 	/** index of next tile in {@code reusableTiles} */
-	private int rti;
+	private final AtomicInteger rti = new AtomicInteger();
+
+	/** number of batches started with {@link #init} */
+	private int numBatches;
+
+	/** number of blocks uploaded in current batch */
+	private int numUploadedBlocks;
+
+	/** time fillers spent waiting for a mapped Pbo in current batch (summed over fillers) */
+	private long stallNanos;
 
 	/**
 	 *
@@ -93,11 +116,28 @@ public class PboChain
 			final int numBufs,
 			final int bufSize,
 			final TextureCache cache )
+	{
+		this( numBufs, bufSize, cache, false );
+	}
+
+	/**
+	 *
+	 * @param numBufs number of PBOs to create
+	 * @param bufSize size in blocks of each PBO
+	 * @param cache texture to upload to
+	 * @param lockFree whether fillers claim and commit buffers without locking
+	 */
+	public PboChain(
+			final int numBufs,
+			final int bufSize,
+			final TextureCache cache,
+			final boolean lockFree )
 	{
 		this( numBufs, bufSize,
 				cache.spec().format().getBytesPerElement() * ( int ) Intervals.numElements( cache.spec().paddedBlockSize() ),
 				cache.spec().paddedBlockSize(),
-				cache );
+				cache,
+				lockFree );
 	}
 
 	/**
@@ -107,6 +147,7 @@ public class PboChain
 	 * @param blockSize size in bytes of each block
 	 * @param blockDimensions dimensions of each block
 	 * @param cache texture to upload to
+	 * @param lockFree whether fillers claim and commit buffers without locking
 	 */
 	// TODO: remove? (inline into other constructor)
 	PboChain(
@@ -114,11 +155,15 @@ public class PboChain
 			final int bufSize,
 			final int blockSize,
 			final int[] blockDimensions,
-			final TextureCache cache )
+			final TextureCache cache,
+			final boolean lockFree )
 	{
 		this.numBufs = numBufs;
 		this.bufSize = bufSize;
 		this.blockSize = blockSize;
+		this.blockDimensions = blockDimensions;
+		this.cache = cache;
+		this.lockFree = lockFree;
 
 		cleanPbos = new ArrayDeque<>( numBufs );
 		for ( int i = 0; i < numBufs; i++ )
@@ -164,6 +209,11 @@ public class PboChain
 	 *             if there is no current batch of tasks.
 	 */
 	PboUploadBuffer take( final TextureCache.TileFillTask task ) throws InterruptedException, NoSuchElementException, IllegalStateException
+	{
+		return lockFree ? takeLockFree( task ) : takeLocking( task );
+	}
+
+	private PboUploadBuffer takeLocking( final TextureCache.TileFillTask task ) throws InterruptedException, NoSuchElementException, IllegalStateException
 	{
 		final ReentrantLock lock = this.lock;
 		lock.lockInterruptibly();
@@ -172,20 +222,20 @@ public class PboChain
 			if ( chainState != FILL )
 				throw new IllegalStateException();
 
-			while ( !activePbo.hasRemainingBuffers() )
-				notEmpty.await();
-
-			if ( task.getTile() == null )
+			if ( !activePbo.hasRemainingBuffers() )
 			{
-				if ( rti >= reusableTiles.size() )
-					throw new NoSuchElementException();
-
-				task.setTile( reusableTiles.get( rti++ ) );
+				final long t0 = System.nanoTime();
+				while ( !activePbo.hasRemainingBuffers() )
+					notEmpty.await();
+				stallNanos += System.nanoTime() - t0;
 			}
 
-			final PboUploadBuffer buffer = activePbo.takeBuffer();
+			assignReusableTile( task );
+
+			final Pbo pbo = activePbo;
+			final PboUploadBuffer buffer = pbo.takeBuffer( pbo.claimSlot() );
 			buffer.setTask( task );
-			if ( !activePbo.hasRemainingBuffers() )
+			if ( !pbo.hasRemainingBuffers() )
 			{
 //				System.out.println( "take() last buffer --> gpu.signal() to trigger activate" );
 				gpu.signal();
@@ -199,6 +249,79 @@ public class PboChain
 		}
 	}
 
+	/**
+	 * Claim a slot in the active Pbo with an atomic counter. The lock is only
+	 * taken when the active Pbo is exhausted, to signal the GPU thread and to
+	 * wait for the next Pbo to be activated.
+	 */
+	private PboUploadBuffer takeLockFree( final TextureCache.TileFillTask task ) throws InterruptedException, NoSuchElementException, IllegalStateException
+	{
+		if ( chainState != FILL )
+			throw new IllegalStateException();
+
+		assignReusableTile( task );
+
+		while ( true )
+		{
+			final Pbo pbo = activePbo;
+			final int slot = pbo.claimSlot();
+			if ( slot < pbo.bufSize )
+			{
+				final PboUploadBuffer buffer = pbo.takeBuffer( slot );
+				buffer.setTask( task );
+				if ( slot == pbo.bufSize - 1 )
+					signalGpu(); // took last buffer --> trigger activate
+				return buffer;
+			}
+
+			final ReentrantLock lock = this.lock;
+			lock.lockInterruptibly();
+			try
+			{
+				if ( chainState != FILL )
+					throw new IllegalStateException();
+
+				final long t0 = System.nanoTime();
+				while ( !activePbo.hasRemainingBuffers() )
+				{
+					gpu.signal();
+					notEmpty.await();
+				}
+				stallNanos += System.nanoTime() - t0;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	private void assignReusableTile( final TextureCache.TileFillTask task ) throws NoSuchElementException
+	{
+		if ( task.getTile() == null )
+		{
+			final int i = rti.getAndIncrement();
+			if ( i >= reusableTiles.size() )
+				throw new NoSuchElementException();
+
+			task.setTile( reusableTiles.get( i ) );
+		}
+	}
+
+	private void signalGpu()
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			gpu.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Commit {@code buffer}. When committing the last UploadBuffer of a Pbo,
 	 * {@code gpu.signal()} to upload the Pbo.
@@ -208,6 +331,17 @@ public class PboChain
 	 */
 	void commit( final PboUploadBuffer buffer )
 	{
+		if ( lockFree )
+		{
+			if ( chainState != FILL )
+				throw new IllegalStateException();
+
+			// only lock if this makes the Pbo ready for upload
+			if ( buffer.pbo.commitBuffer() )
+				enqueueForUpload( buffer.pbo );
+			return;
+		}
+
 		final ReentrantLock lock = this.lock;
 		lock.lock();
 		try
@@ -216,9 +350,7 @@ public class PboChain
 				throw new IllegalStateException();
 
 			final Pbo pbo = buffer.pbo;
-			pbo.commitBuffer();
-
-			if ( pbo.isReadyForUpload() )
+			if ( pbo.commitBuffer() )
 			{
 				readyForUploadPbos.add( pbo );
 //				System.out.println( "commit() makes pbo.isReadyForUpload -> gpu.signal() to trigger upload" );
@@ -231,6 +363,21 @@ public class PboChain
 		}
 	}
 
+	private void enqueueForUpload( final Pbo pbo )
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			readyForUploadPbos.add( pbo );
+			gpu.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
 
 	/*
 	 * ====================================================
@@ -244,7 +391,7 @@ public class PboChain
 		FILL
 	}
 
-	private PboChainState chainState = FLUSH;
+	private volatile PboChainState chainState = FLUSH;
 
 	/**
 	 * Finalize a batch of cache tile uploads.
@@ -261,7 +408,6 @@ public class PboChain
 			chainState = FLUSH;
 
 //			System.out.println( "flush()" );
-//			System.out.println( "  activePbo.nextIndex = " + activePbo.nextIndex + " / " + activePbo.bufSize + "  uncommitted = " + activePbo.uncommitted );
 
 			if ( activePbo.flush() )
 			{
@@ -314,7 +460,10 @@ public class PboChain
 			this.tileFillTasks = stagedTasks.tasks;
 			this.reusableTiles = stagedTasks.reusableTiles;
 			this.ti.set( 0 );
-			this.rti = 0;
+			this.rti.set( 0 );
+			++numBatches;
+			numUploadedBlocks = 0;
+			stallNanos = 0;
 			chainState = FILL;
 		}
 		finally
@@ -324,6 +473,118 @@ public class PboChain
 	}
 
 
+	/**
+	 * Change the number of PBOs and the size in blocks of each PBO. This is
+	 * only possible between batches, i.e., if the chain is {@link #ready()}.
+	 * PBOs that are no longer needed are deleted from {@code context}.
+	 *
+	 * @param numBufs number of PBOs
+	 * @param bufSize size in blocks of each PBO
+	 * @param context used to delete PBOs
+	 *
+	 * @throws IllegalStateException
+	 *             if the chain is not {@link #ready()}
+	 */
+	public void resize( final int numBufs, final int bufSize, final GpuContext context ) throws IllegalStateException
+	{
+		if ( numBufs < 1 || bufSize < 1 )
+			throw new IllegalArgumentException();
+
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			if ( !ready() )
+				throw new IllegalStateException();
+
+			while ( cleanPbos.size() > numBufs )
+				context.delete( cleanPbos.poll() );
+			if ( bufSize != this.bufSize )
+				for ( final Pbo pbo : cleanPbos )
+					pbo.setBufSize( bufSize );
+			while ( cleanPbos.size() < numBufs )
+				cleanPbos.add( new Pbo( bufSize, blockSize, blockDimensions, cache ) );
+			activePbo = cleanPbos.peek();
+
+			this.numBufs = numBufs;
+			this.bufSize = bufSize;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Delete all PBOs from {@code context}. This is only possible between
+	 * batches, i.e., if the chain is {@link #ready()}. The chain must not be
+	 * used afterwards.
+	 *
+	 * @param context used to delete PBOs
+	 *
+	 * @throws IllegalStateException
+	 *             if the chain is not {@link #ready()}
+	 */
+	public void delete( final GpuContext context ) throws IllegalStateException
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			if ( !ready() )
+				throw new IllegalStateException();
+
+			while ( !cleanPbos.isEmpty() )
+				context.delete( cleanPbos.poll() );
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of PBOs
+	 */
+	public int getNumBufs()
+	{
+		return numBufs;
+	}
+
+	/**
+	 * @return size in blocks of each PBO
+	 */
+	public int getBufSize()
+	{
+		return bufSize;
+	}
+
+	/**
+	 * @return number of batches that have been {@link #init initialized} so far
+	 */
+	public int getNumBatches()
+	{
+		return numBatches;
+	}
+
+	/**
+	 * @return number of blocks uploaded in the current (or last) batch
+	 */
+	public int getNumUploadedBlocks()
+	{
+		return numUploadedBlocks;
+	}
+
+	/**
+	 * @return time (in nanoseconds, summed over fillers) that fillers spent
+	 *         waiting for a mapped PBO in the current (or last) batch
+	 */
+	public long getStallNanos()
+	{
+		return stallNanos;
+	}
+
+
 	/*
 	 * ====================================================
 	 * Called by gpu maintenance.
@@ -350,7 +611,6 @@ public class PboChain
 //					System.out.println( "  chainState = " + chainState );
 //					System.out.println( "  cleanPbos.size = " + cleanPbos.size() + " / " + numBufs );
 //					System.out.println( "  readyForUploadPbos.size = " + readyForUploadPbos.size() + " / " + numBufs );
-//					System.out.println( "  activePbo.nextIndex = " + activePbo.nextIndex + " / " + activePbo.bufSize + "  uncommitted = " + activePbo.uncommitted );
 					gpu.await();
 				}
 //				System.out.println("go");
@@ -452,6 +712,7 @@ public class PboChain
 		lock.lock();
 		try
 		{
+			numUploadedBlocks += pbo.numFilled;
 			cleanPbos.add( pbo );
 			if ( cleanPbos.size() == numBufs )
 				allClean.signalAll();
@@ -498,7 +759,7 @@ public class PboChain
 
 	static class Pbo implements StagingBuffer
 	{
-		private final int bufSize; // size in blocks of this PBO
+		private int bufSize; // size in blocks of this PBO
 		private final int blockSize; // size in bytes of each block
 		private final int[] blockDimensions;
 		private final TextureCache cache;
@@ -506,13 +767,26 @@ public class PboChain
 		/**
 		 * Committed buffers, ready for upload. All buffers that were taken out,
 		 * are assumed to be committed by the time uploadToTexture() is called.
+		 * Only the first {@code numFilled} slots are used.
+		 */
+		private PboUploadBuffer[] slots;
+
+		/**
+		 * Index of the next slot to take. Slots can be taken while
+		 * {@code claimed < bufSize}. (Set to {@code bufSize} when the Pbo is not
+		 * mapped.)
+		 */
+		private final AtomicInteger claimed;
+
+		/**
+		 * Number of slots that are not yet committed (or flushed). The Pbo is
+		 * ready for upload when this reaches {@code 0}.
 		 */
-		private final ArrayList< PboUploadBuffer > buffers = new ArrayList<>();
+		private final AtomicInteger pending;
 
-		private PboState state;
+		private volatile PboState state;
 		private Buffer buffer;
-		private int nextIndex;
-		private int uncommitted;
+		private int numFilled;
 
 		Pbo( final int bufSize, final int blockSize, final int[] blockDimensions, final TextureCache cache )
 		{
@@ -521,10 +795,12 @@ public class PboChain
 			this.blockDimensions = blockDimensions;
 			this.cache = cache;
 
+			slots = new PboUploadBuffer[ bufSize ];
+			claimed = new AtomicInteger( bufSize );
+			pending = new AtomicInteger( 0 );
 			state = CLEAN;
 			buffer = null;
-			nextIndex = 0;
-			uncommitted = 0;
+			numFilled = 0;
 		}
 
 		// for GpuContext to initialize StagingBuffer to correct size
@@ -534,34 +810,45 @@ public class PboChain
 			return bufSize * blockSize;
 		}
 
-		PboUploadBuffer takeBuffer()
+		/**
+		 * @return index of the claimed slot. The claim failed if the returned
+		 *         index is {@code >= bufSize}.
+		 */
+		int claimSlot()
+		{
+			return claimed.getAndIncrement();
+		}
+
+		PboUploadBuffer takeBuffer( final int slot )
 		{
 			if ( state != MAPPED )
 				throw new IllegalStateException();
 
-			if ( nextIndex >= bufSize )
+			if ( slot >= bufSize )
 				throw new NoSuchElementException();
 
-			final PboUploadBuffer b = new PboUploadBuffer( buffer, nextIndex * blockSize, this );
-			buffers.add( b );
-			++uncommitted;
-			++nextIndex;
+			final PboUploadBuffer b = new PboUploadBuffer( buffer, slot * blockSize, this );
+			slots[ slot ] = b;
 			return b;
 		}
 
-		void commitBuffer()
+		/**
+		 * @return {@code true} if the Pbo becomes {@link #isReadyForUpload()
+		 *         ready for upload} as a result of this commit.
+		 */
+		boolean commitBuffer()
 		{
-			--uncommitted;
+			return pending.decrementAndGet() == 0;
 		}
 
 		boolean hasRemainingBuffers()
 		{
-			return state == MAPPED && bufSize - nextIndex > 0;
+			return state == MAPPED && claimed.get() < bufSize;
 		}
 
 		boolean hasUncommittedBuffers()
 		{
-			return uncommitted > 0;
+			return pending.get() > 0;
 		}
 
 		boolean isReadyForUpload()
@@ -570,15 +857,34 @@ public class PboChain
 		}
 
 		/**
+		 * No more slots can be taken after {@code flush()}.
+		 *
 		 * @return {@code true} if the Pbo becomes {@link #isReadyForUpload()
 		 *         ready for upload} as an immediate result of this
 		 *         {@code flush()}
 		 */
 		boolean flush()
 		{
-			final boolean ret = hasRemainingBuffers() && !hasUncommittedBuffers();
-			nextIndex = bufSize;
-			return ret;
+			final int c = claimed.getAndSet( bufSize );
+			if ( state != MAPPED || c >= bufSize )
+				return false;
+
+			numFilled = c;
+			return pending.addAndGet( c - bufSize ) == 0;
+		}
+
+		/**
+		 * Change the size in blocks of this PBO. (The PBO must be clean, i.e.,
+		 * not mapped.)
+		 */
+		void setBufSize( final int bufSize )
+		{
+			if ( state != CLEAN )
+				throw new IllegalStateException();
+
+			this.bufSize = bufSize;
+			slots = new PboUploadBuffer[ bufSize ];
+			claimed.set( bufSize );
 		}
 
 		void map( final GpuContext context )
@@ -587,9 +893,10 @@ public class PboChain
 				throw new IllegalStateException();
 
 			buffer = context.map( this );
+			numFilled = bufSize;
+			pending.set( bufSize );
 			state = MAPPED;
-			nextIndex = 0;
-			uncommitted = 0;
+			claimed.set( 0 );
 		}
 
 		void unmap( final GpuContext context )
@@ -602,8 +909,10 @@ public class PboChain
 		}
 
 		/**
-		 * Tiles of buffers list might have contiguous ranges that will be
-		 * recognized and uploaded in batches.
+		 * Tiles of buffers list might have contiguous ranges (in the same
+		 * shard) that will be recognized and uploaded in batches. Buffers
+		 * that contain only a {@link UploadBuffer#isPatch() patch} are
+		 * uploaded individually.
 		 */
 		void uploadToTexture( final GpuContext context )
 		{
@@ -613,16 +922,29 @@ public class PboChain
 			final int restoreId = context.bindStagingBuffer( this );
 
 			int bi = 0; // index of next buffer
-			while ( bi < buffers.size() )
+			while ( bi < numFilled )
 			{
-				final PboUploadBuffer buf0 = buffers.get( bi );
+				final PboUploadBuffer buf0 = slots[ bi ];
 				TextureCache.Tile prevTile = buf0.task.getTile();
+				final Texture3D shard = cache.getShard( prevTile.shard );
 				final int x = blockDimensions[ 0 ] * prevTile.x;
 				final int y = blockDimensions[ 1 ] * prevTile.y;
 				final int z = blockDimensions[ 2 ] * prevTile.z;
 				final long pixels_buffer_offset = buf0.getOffset();
 
-				final int remainingBlocks = buffers.size() - bi;
+				if ( buf0.isPatch() )
+				{
+					// upload only the patched part of the block
+					final int[] pm = buf0.getPatchMin();
+					final int[] ps = buf0.getPatchSize();
+					if ( ps[ 0 ] > 0 && ps[ 1 ] > 0 && ps[ 2 ] > 0 )
+						context.texSubImage3D( this, shard, x + pm[ 0 ], y + pm[ 1 ], z + pm[ 2 ], ps[ 0 ], ps[ 1 ], ps[ 2 ], pixels_buffer_offset );
+					cache.assign( buf0.task, buf0.getContentState(), buf0.getValidCells() );
+					++bi;
+					continue;
+				}
+
+				final int remainingBlocks = numFilled - bi;
 				int nb = 1;
 				if ( x != 0 || y != 0 || z != 0 )
 				/*
@@ -633,8 +955,9 @@ public class PboChain
 				{
 					for ( ; nb < remainingBlocks; ++nb )
 					{
-						final TextureCache.Tile tile = buffers.get( bi + nb ).task.getTile();
-						if ( tile.z == prevTile.z + 1 && tile.y == prevTile.y && tile.x == prevTile.x )
+						final PboUploadBuffer buf = slots[ bi + nb ];
+						final TextureCache.Tile tile = buf.task.getTile();
+						if ( !buf.isPatch() && tile.shard == prevTile.shard && tile.z == prevTile.z + 1 && tile.y == prevTile.y && tile.x == prevTile.x )
 							prevTile = tile;
 						else
 							break;
@@ -645,21 +968,21 @@ public class PboChain
 				final int w = blockDimensions[ 0 ];
 				final int h = blockDimensions[ 1 ];
 				final int d = blockDimensions[ 2 ] * nb;
-				context.texSubImage3D( this, cache, x, y, z, w, h, d, pixels_buffer_offset );
+				context.texSubImage3D( this, shard, x, y, z, w, h, d, pixels_buffer_offset );
 
 				// for each (uploadbuffer, tile): map tile to uploadBuffer.getKey, assign uploadBuffer.isComplete
 				for ( int i = 0; i < nb; ++i )
 				{
-					final PboUploadBuffer buffer = buffers.get( bi + i );
-					cache.assign( buffer.task.getTile(), buffer.task.getKey(), buffer.getContentState() );
+					final PboUploadBuffer buffer = slots[ bi + i ];
+					cache.assign( buffer.task, buffer.getContentState(), buffer.getValidCells() );
 				}
 
 				bi += nb;
-			}	// repeat until bi == buffers.size()
+			}	// repeat until bi == numFilled
 
 			context.bindStagingBufferId( restoreId );
 
-			buffers.clear();
+			Arrays.fill( slots, null );
 			state = CLEAN;
 		}
 	}
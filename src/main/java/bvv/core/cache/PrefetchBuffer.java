@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import bvv.core.blocks.ByteUtils;
+import gnu.trove.list.array.TIntArrayList;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Predicate;
+import net.imglib2.util.Intervals;
+
+/**
+ * Off-heap staging memory for padded tiles that are predicted to be needed
+ * soon. Tiles are copied in by a background prefetcher, and then copied (with
+ * a single memcpy) into an {@link UploadBuffer} when the corresponding
+ * {@link FillTask} runs.
+ * <p>
+ * Only complete tiles are kept. A tile is removed when it is used for a fill,
+ * or when it is no longer predicted (see {@link #retainAll(Collection)}).
+ * <p>
+ * This class is thread-safe.
+ */
+public class PrefetchBuffer
+{
+	private final int tileSizeInBytes;
+
+	private final int maxNumTiles;
+
+	private final ByteBuffer data;
+
+	/** maps keys of stored tiles to slot index */
+	private final Map< ImageBlockKey< ? >, Integer > slots = new HashMap<>();
+
+	/** keys of tiles that are being copied in */
+	private final HashSet< ImageBlockKey< ? > > pending = new HashSet<>();
+
+	private final TIntArrayList freeSlots;
+
+	private long numPrefetched;
+
+	private long numUsed;
+
+	/**
+	 * @param spec
+	 *            cache spec of the {@link TextureCache} that tiles are
+	 *            eventually uploaded to
+	 * @param maxSizeInMB
+	 *            size of the staging memory
+	 */
+	public PrefetchBuffer( final CacheSpec spec, final int maxSizeInMB )
+	{
+		tileSizeInBytes = spec.format().getBytesPerElement() * ( int ) Intervals.numElements( spec.paddedBlockSize() );
+		maxNumTiles = ( int ) Math.min( ( long ) maxSizeInMB * 1024 * 1024, Integer.MAX_VALUE ) / tileSizeInBytes;
+		data = ByteBuffer.allocateDirect( maxNumTiles * tileSizeInBytes );
+		freeSlots = new TIntArrayList( maxNumTiles );
+		for ( int i = maxNumTiles - 1; i >= 0; --i )
+			freeSlots.add( i );
+	}
+
+	/**
+	 * @return whether the tile for {@code key} is stored (or is being copied in).
+	 */
+	public synchronized boolean contains( final ImageBlockKey< ? > key )
+	{
+		return slots.containsKey( key ) || pending.contains( key );
+	}
+
+	/**
+	 * Copy the tile for {@code key} into staging memory, using
+	 * {@code fill.test()} which fills an {@code UploadBuffer} and returns whether
+	 * the data was complete. Incomplete tiles are discarded.
+	 *
+	 * @return {@code true} if the tile was added. {@code false} if it was
+	 *         already present, there was no free space, or the tile was
+	 *         incomplete.
+	 */
+	public boolean prefetch( final ImageBlockKey< ? > key, final Predicate< UploadBuffer > fill )
+	{
+		final int slot;
+		synchronized ( this )
+		{
+			if ( freeSlots.isEmpty() || slots.containsKey( key ) || !pending.add( key ) )
+				return false;
+			slot = freeSlots.removeAt( freeSlots.size() - 1 );
+		}
+
+		boolean complete = false;
+		try
+		{
+			complete = fill.test( new UploadBuffer( data, slot * tileSizeInBytes ) );
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				pending.remove( key );
+				if ( complete )
+				{
+					slots.put( key, slot );
+					++numPrefetched;
+				}
+				else
+					freeSlots.add( slot );
+			}
+		}
+		return complete;
+	}
+
+	/**
+	 * If the tile for {@code key} is stored, copy it into {@code buffer} and
+	 * remove it.
+	 *
+	 * @return whether the tile was stored (and {@code buffer} was filled).
+	 */
+	public boolean fill( final ImageBlockKey< ? > key, final UploadBuffer buffer )
+	{
+		final Integer slot;
+		synchronized ( this )
+		{
+			slot = slots.remove( key );
+			if ( slot == null )
+				return false;
+		}
+
+		ByteUtils.copyMemory( data, ( long ) slot * tileSizeInBytes, buffer.getBuffer(), buffer.getOffset(), tileSizeInBytes );
+
+		synchronized ( this )
+		{
+			freeSlots.add( slot );
+			++numUsed;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove stored tiles whose keys are not contained in {@code keys}.
+	 */
+	public synchronized void retainAll( final Collection< ? extends ImageBlockKey< ? > > keys )
+	{
+		final Iterator< Map.Entry< ImageBlockKey< ? >, Integer > > it = slots.entrySet().iterator();
+		while ( it.hasNext() )
+		{
+			final Map.Entry< ImageBlockKey< ? >, Integer > entry = it.next();
+			if ( !keys.contains( entry.getKey() ) )
+			{
+				freeSlots.add( entry.getValue() );
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return maximum number of tiles that can be stored
+	 */
+	public int getMaxNumTiles()
+	{
+		return maxNumTiles;
+	}
+
+	/**
+	 * @return number of tiles currently stored
+	 */
+	public synchronized int getNumTiles()
+	{
+		return slots.size();
+	}
+
+	/**
+	 * @return total number of tiles that were prefetched
+	 */
+	public synchronized long getNumPrefetched()
+	{
+		return numPrefetched;
+	}
+
+	/**
+	 * @return total number of prefetched tiles that were used to fill a texture tile
+	 */
+	public synchronized long getNumUsed()
+	{
+		return numUsed;
+	}
+}
@@ -32,9 +32,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 import bvv.core.backend.GpuContext;
 import bvv.core.cache.PboChain.PboUploadBuffer;
 
+import static bvv.core.cache.TextureCache.ContentState.COMPLETE;
+
 public class ProcessFillTasks
 {
 	public static void sequential(
@@ -43,6 +46,30 @@ public class ProcessFillTasks
 			final GpuContext context,
 			final Collection< ? extends FillTask > tasks ) throws InterruptedException
 	{
+		sequential( textureCache, pboChain, context, tasks, Long.MAX_VALUE );
+	}
+
+	/**
+	 * Fill and upload {@code tasks} (in the order given by the
+	 * {@link TextureCache#getFillTaskPriority() fill task priority}) until
+	 * {@code maxFillNanos} have elapsed. Tasks that are not processed in time
+	 * are skipped: their blocks stay missing or {@code INCOMPLETE} in the
+	 * cache, and will be requested again by the next frame.
+	 *
+	 * @return {@code true} if all tasks were processed, {@code false} if
+	 *         processing was stopped because the time budget ran out.
+	 */
+	public static boolean sequential(
+			final TextureCache textureCache,
+			final PboChain pboChain,
+			final GpuContext context,
+			final Collection< ? extends FillTask > tasks,
+			final long maxFillNanos ) throws InterruptedException
+	{
+		final long t0 = System.nanoTime();
+		boolean expired = false;
+		final HostTileCache hostTileCache = textureCache.getHostTileCache();
+		final TileSpillStore tileSpillStore = textureCache.getTileSpillStore();
 		final TextureCache.StagedTasks stagedTasks = textureCache.stage( tasks );
 		pboChain.init( stagedTasks );
 		final int numTasks = stagedTasks.tasks.size();
@@ -50,16 +77,15 @@ public class ProcessFillTasks
 		{
 			pboChain.tryActivate( context );
 			final TextureCache.TileFillTask task = pboChain.nextTask();
-			if ( task.containsData() )
-			{
-				final PboUploadBuffer buf = pboChain.take( task );
-				task.fill( buf );
-				pboChain.commit( buf );
-			}
+			expired = expired || System.nanoTime() - t0 > maxFillNanos;
+			if ( !expired || !isSkippable( task ) )
+				fill( task, stagedTasks, pboChain, hostTileCache, tileSpillStore );
 			pboChain.tryUpload( context );
 		}
 		pboChain.flush();
 		pboChain.tryUpload( context );
+		textureCache.assignConstantTiles( stagedTasks );
+		return !expired;
 	}
 
 	public static void parallel(
@@ -69,13 +95,45 @@ public class ProcessFillTasks
 			final ForkJoinPool forkJoinPool,
 			final Collection< ? extends FillTask > tasks ) throws InterruptedException
 	{
+		parallel( textureCache, pboChain, context, forkJoinPool, tasks, Long.MAX_VALUE );
+	}
+
+	/**
+	 * Fill and upload {@code tasks} in parallel until {@code maxFillNanos}
+	 * have elapsed. Fillers take tasks in the order given by the
+	 * {@link TextureCache#getFillTaskPriority() fill task priority}. When the
+	 * time budget runs out, the remaining tasks are skipped and the PBOs
+	 * filled so far are flushed and uploaded. Skipped blocks stay missing or
+	 * {@code INCOMPLETE} in the cache, so they are requested again (with
+	 * updated priorities) by the next {@code LOAD} repaint.
+	 *
+	 * @param maxFillNanos
+	 *            time budget in nanoseconds. {@code Long.MAX_VALUE} processes
+	 *            all tasks.
+	 *
+	 * @return {@code true} if all tasks were processed, {@code false} if
+	 *         processing was stopped because the time budget ran out.
+	 */
+	public static boolean parallel(
+			final TextureCache textureCache,
+			final PboChain pboChain,
+			final GpuContext context,
+			final ForkJoinPool forkJoinPool,
+			final Collection< ? extends FillTask > tasks,
+			final long maxFillNanos ) throws InterruptedException
+	{
+		final long t0 = System.nanoTime();
 		final TextureCache.StagedTasks stagedTasks = textureCache.stage( tasks );
 		final int numTasks = stagedTasks.tasks.size();
 		if ( numTasks == 0 )
-			return;
+			return true;
+
+		final AtomicBoolean expired = new AtomicBoolean();
+		final HostTileCache hostTileCache = textureCache.getHostTileCache();
+		final TileSpillStore tileSpillStore = textureCache.getTileSpillStore();
 
 		pboChain.init( stagedTasks );
-		final int restoreId = context.bindTexture( textureCache );
+		final int restoreId = context.bindTexture( textureCache.getShard( 0 ) );
 		forkJoinPool.execute( new RecursiveAction()
 		{
 			@Override
@@ -92,12 +150,11 @@ public class ProcessFillTasks
 							try
 							{
 								final TextureCache.TileFillTask task = pboChain.nextTask();
-								if ( task.containsData() )
-								{
-									final PboUploadBuffer buf = pboChain.take( task );
-									task.fill( buf );
-									pboChain.commit( buf );
-								}
+								if ( !expired.get() && System.nanoTime() - t0 > maxFillNanos )
+									expired.set( true );
+								if ( expired.get() && isSkippable( task ) )
+									return;
+								fill( task, stagedTasks, pboChain, hostTileCache, tileSpillStore );
 							}
 							catch ( final InterruptedException e )
 							{
@@ -119,5 +176,95 @@ public class ProcessFillTasks
 //		System.out.println( "{{ numTasks = " + numTasks + " }}" );
 		pboChain.maintain( context );
 		context.bindTextureId( restoreId, 3 );
+		textureCache.assignConstantTiles( stagedTasks );
+		return !expired.get();
+	}
+
+	/**
+	 * Fill {@code task} into the next upload buffer of {@code pboChain}, unless
+	 * it contains no data or can share a constant tile. If the tile is found in
+	 * {@code hostTileCache} or {@code tileSpillStore}, it is pinned there
+	 * before the checks and copied after taking the buffer.
+	 * Otherwise, it is filled by {@code task} and (if complete) added to
+	 * {@code hostTileCache} and {@code tileSpillStore}. If {@code task} updates
+	 * an incomplete tile, the source cells that the tile already contains are
+	 * passed on in the buffer, so that {@code task} can fill only a patch with
+	 * the missing parts (see {@link UploadBuffer#setPatch(int[], int[])}).
+	 * Patches are not added to {@code hostTileCache} and {@code tileSpillStore}.
+	 *
+	 * @param hostTileCache
+	 *            second-level tile cache, may be {@code null}.
+	 * @param tileSpillStore
+	 *            persistent tile store, may be {@code null}.
+	 */
+	private static void fill(
+			final TextureCache.TileFillTask task,
+			final TextureCache.StagedTasks stagedTasks,
+			final PboChain pboChain,
+			final HostTileCache hostTileCache,
+			final TileSpillStore tileSpillStore ) throws InterruptedException
+	{
+		final ImageBlockKey< ? > key = task.getKey();
+		final boolean blocked = TextureCache.isBlocked( task.getTile() );
+		final HostTileCache l2 = blocked ? null : hostTileCache;
+		final TileSpillStore l3 = blocked ? null : tileSpillStore;
+		// Pin the tile in L2/L3 now, so that it cannot be evicted before it is
+		// copied. Otherwise, the task would be filled from source even if it
+		// contains no data or could share a constant tile.
+		final int l2Slot = l2 == null ? -1 : l2.pin( key );
+		final int l3Slot = l2Slot < 0 && l3 != null ? l3.pin( key ) : -1;
+		if ( l2Slot < 0 && l3Slot < 0 && ( !task.containsData() || stagedTasks.shareConstantTile( task ) ) )
+			return;
+
+		// tasks that update an incomplete tile have the tile assigned already
+		final TextureCache.Tile incompleteTile = blocked ? null : task.getTile();
+		final PboUploadBuffer buf;
+		try
+		{
+			buf = pboChain.take( task );
+		}
+		catch ( InterruptedException | RuntimeException e )
+		{
+			if ( l2Slot >= 0 )
+				l2.unpin( l2Slot );
+			if ( l3Slot >= 0 )
+				l3.unpin( l3Slot );
+			throw e;
+		}
+		if ( l2Slot >= 0 )
+		{
+			l2.fill( l2Slot, buf );
+			buf.setContentState( COMPLETE );
+		}
+		else if ( l3Slot >= 0 )
+		{
+			l3.fill( l3Slot, buf );
+			buf.setContentState( COMPLETE );
+			if ( l2 != null )
+				l2.put( key, buf );
+		}
+		else
+		{
+			if ( incompleteTile != null )
+				buf.setValidCells( incompleteTile.validCells );
+			task.fill( buf );
+			if ( buf.getContentState() == COMPLETE && !buf.isPatch() )
+			{
+				if ( l2 != null )
+					l2.put( key, buf );
+				if ( l3 != null )
+					l3.put( key, buf );
+			}
+		}
+		pboChain.commit( buf );
+	}
+
+	/**
+	 * Tasks that initialize blocked tiles (tile 0, out-of-bounds, and other
+	 * constant tiles) must not be skipped, because they are staged only once.
+	 */
+	private static boolean isSkippable( final TextureCache.TileFillTask task )
+	{
+		return !TextureCache.isBlocked( task.getTile() );
 	}
 }
@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.Arrays;
+import java.util.List;
+
+import bvv.core.cache.TextureCache.Tile;
+
+/**
+ * Base class for {@link EvictionPolicy EvictionPolicies} that assign a score
+ * to each candidate tile and evict the tiles with the lowest scores.
+ * <p>
+ * Empty tiles are always evicted first. Tiles that were requested in the
+ * current batch are only evicted if there are not enough other candidates.
+ * Candidates with equal scores are evicted in LRU order.
+ * <p>
+ * Scoring visits all candidates, so selecting victims takes
+ * {@code O(n log n)} for {@code n} tiles (instead of {@code O(size)} for
+ * {@link LruEvictionPolicy}).
+ */
+abstract class ScoredEvictionPolicy implements EvictionPolicy
+{
+	private Tile[] tiles = new Tile[ 0 ];
+
+	private double[] scores = new double[ 0 ];
+
+	private double[] sorted = new double[ 0 ];
+
+	/**
+	 * Called before the candidates of a batch are {@link #score scored}.
+	 *
+	 * @param numCandidates
+	 *            number of candidates
+	 */
+	protected void beginScoring( final int numCandidates )
+	{
+	}
+
+	/**
+	 * Compute the score of {@code tile}. Tiles with lower scores are evicted
+	 * first.
+	 *
+	 * @param tile
+	 *            candidate tile (not empty, not requested in the current batch)
+	 * @param rank
+	 *            position of {@code tile} in the candidates, {@code 0} for the
+	 *            least recently used.
+	 */
+	protected abstract double score( Tile tile, int rank );
+
+	/**
+	 * Called after victims were selected.
+	 *
+	 * @param timestamp
+	 *            timestamp of the current batch
+	 * @param maxVictimScore
+	 *            maximum score of the evicted non-empty tiles, or
+	 *            {@code Double.NEGATIVE_INFINITY} if only empty tiles were
+	 *            evicted.
+	 */
+	protected void victimsSelected( final int timestamp, final double maxVictimScore )
+	{
+	}
+
+	@Override
+	public void selectVictims( final Iterable< Tile > candidates, final int size, final int timestamp, final List< Tile > victims )
+	{
+		int n = 0;
+		for ( final Tile tile : candidates )
+		{
+			if ( n == tiles.length )
+				tiles = Arrays.copyOf( tiles, Math.max( 2 * n, 1024 ) );
+			tiles[ n++ ] = tile;
+		}
+		if ( scores.length < n )
+		{
+			scores = new double[ tiles.length ];
+			sorted = new double[ tiles.length ];
+		}
+
+		beginScoring( n );
+		for ( int i = 0; i < n; ++i )
+		{
+			final Tile tile = tiles[ i ];
+			if ( tile.isEmpty() )
+				scores[ i ] = Double.NEGATIVE_INFINITY;
+			else if ( tile.lastRequested() == timestamp )
+				scores[ i ] = Double.POSITIVE_INFINITY;
+			else
+				scores[ i ] = score( tile, i );
+		}
+
+		final int numVictims = Math.min( size, n );
+		double maxVictimScore = Double.NEGATIVE_INFINITY;
+		if ( numVictims > 0 )
+		{
+			// evict all tiles with score < threshold, and as many tiles with
+			// score == threshold as necessary (in LRU order)
+			System.arraycopy( scores, 0, sorted, 0, n );
+			Arrays.sort( sorted, 0, n );
+			final double threshold = sorted[ numVictims - 1 ];
+			int numAtThreshold = numVictims - 1;
+			while ( numAtThreshold >= 0 && sorted[ numAtThreshold ] == threshold )
+				--numAtThreshold;
+			numAtThreshold = numVictims - 1 - numAtThreshold;
+
+			for ( int i = 0; i < n; ++i )
+			{
+				final double s = scores[ i ];
+				if ( s < threshold || ( s == threshold && numAtThreshold-- > 0 ) )
+				{
+					victims.add( tiles[ i ] );
+					if ( s != Double.POSITIVE_INFINITY )
+						maxVictimScore = Math.max( maxVictimScore, s );
+				}
+			}
+		}
+		Arrays.fill( tiles, 0, n, null );
+
+		victimsSelected( timestamp, maxVictimScore );
+	}
+}
@@ -29,24 +29,57 @@
 package bvv.core.cache;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 import net.imglib2.util.Intervals;
 import bvv.core.backend.Texture3D;
 import bvv.core.backend.Texture.InternalFormat;
 import bvv.core.blocks.ByteUtils;
 
+import static bvv.core.cache.FillTask.NOT_CONSTANT;
+import static bvv.core.cache.TextureCache.ContentState.COMPLETE;
 import static bvv.core.cache.TextureCache.ContentState.INCOMPLETE;
 
 
 /**
  * Not thread-safe. UploadSets are supposed to be submitted and processed
  * sequentially.
+ * <p>
+ * Blocks that have the same value everywhere (see
+ * {@link FillTask#getConstantValue()}) are not uploaded into tiles of their
+ * own. Instead, they share a constant tile that is filled with that value.
+ * Tile 0 (which is also used for out-of-bounds blocks) is the constant tile for
+ * value {@code 0}. Up to {@link #MAX_CONSTANT_TILES} tiles for other values
+ * are taken from the least recently used tiles when these values are
+ * encountered. (Blocks with a new value are uploaded to regular tiles in the
+ * batch where the value is first encountered, and moved to the constant tile
+ * after the next batch.)
+ * <p>
+ * Tiles can be {@link #pin pinned}, which excludes them from LRU eviction
+ * (e.g., to keep a coarse fallback of every visible source resident).
+ * <p>
+ * Which of the other tiles are reused for new blocks is decided by an
+ * {@link EvictionPolicy}, least recently used tiles by default.
+ * <p>
+ * The tiles can be spread over several 3D textures ({@link Shard shards}),
+ * to exceed the maximum size of a single 3D texture (see
+ * {@link #findSuitableShardSizes(CacheSpec, int, int)}). The
+ * {@code TextureCache} itself is the texture of shard 0. A cache with a single
+ * shard can therefore be used as a {@code Texture3D} (as before sharding was
+ * introduced), while a cache with several shards must be accessed through
+ * {@link #getShard(int)}.
  */
 public class TextureCache implements Texture3D
 {
@@ -58,6 +91,10 @@ public class TextureCache implements Texture3D
 
 	public static class Tile
 	{
+		final int id;
+
+		final int shard;
+
 		final int x;
 
 		final int y;
@@ -66,17 +103,62 @@ public class TextureCache implements Texture3D
 
 		ImageBlockKey< ? > content;
 
+		/** id of {@code content.image()} in {@link #imageIds}, or {@code -1} */
+		int contentImageId;
+
+		/**
+		 * {@code content} packed by {@link ImageIdRegistry#pack} (if its grid
+		 * coordinates {@link ImageIdRegistry#isPackable can be packed})
+		 */
+		long contentKey;
+
 		ContentState state;
 
 		int lru;
 
-		Tile( final int x, final int y, final int z )
+		/** value of a constant tile, or {@link FillTask#NOT_CONSTANT} for regular tiles */
+		int constantValue;
+
+		/** whether the tile is {@link TextureCache#pin pinned}, i.e., excluded from LRU eviction */
+		boolean pinned;
+
+		/** timestamp of the frame for which the tile was last pinned */
+		int pinTimestamp;
+
+		/** source cells that {@code content} contains, see {@link UploadBuffer#getValidCells()} */
+		long validCells;
+
+		/** resolution level of {@code content}, see {@link FillTask#getLevel()} */
+		int level;
+
+		/** {@link System#nanoTime()} when {@code content} was staged */
+		long stageTime;
+
+		/** timestamp of the last batch that requested {@code content} */
+		int requested;
+
+		private final TileLruList lruList;
+
+		Tile( final int id, final int shard, final int x, final int y, final int z, final TileLruList lruList )
 		{
+			this.id = id;
+			this.shard = shard;
 			this.x = x;
 			this.y = y;
 			this.z = z;
+			this.lruList = lruList;
+			contentImageId = -1;
 			state = INCOMPLETE;
 			lru = -1;
+			constantValue = NOT_CONSTANT;
+			validCells = UploadBuffer.UNKNOWN_CELLS;
+			requested = -1;
+		}
+
+		/** Index of the {@link Shard} containing the tile */
+		public int shard()
+		{
+			return shard;
 		}
 
 		/** Tile X coordinate in texture grid (padded blocks) */
@@ -102,9 +184,94 @@ public class TextureCache implements Texture3D
 			return state;
 		}
 
+		/**
+		 * Whether this is a constant tile, which is shared by all blocks that
+		 * have the same value everywhere.
+		 */
+		public boolean isConstant()
+		{
+			return constantValue != NOT_CONSTANT;
+		}
+
+		/**
+		 * Whether this tile is {@link TextureCache#pin pinned}, i.e., excluded
+		 * from LRU eviction.
+		 */
+		public boolean isPinned()
+		{
+			return pinned;
+		}
+
+		/**
+		 * Whether this tile is {@link TextureCache#pin pinned} for the frame
+		 * with the given {@code timestamp}, i.e., it has been pinned (and
+		 * could not be evicted) since then.
+		 */
+		public boolean isPinnedFor( final int timestamp )
+		{
+			return pinned && pinTimestamp == timestamp;
+		}
+
+		/**
+		 * Whether this tile contains no block.
+		 */
+		public boolean isEmpty()
+		{
+			return content == null;
+		}
+
+		/**
+		 * The block in this tile, or {@code null} if the tile is
+		 * {@link #isEmpty() empty} or {@link #isConstant() constant}.
+		 */
+		public ImageBlockKey< ? > content()
+		{
+			return isConstant() ? null : content;
+		}
+
+		/**
+		 * Whether this tile contains block {@code (x, y, z)} of the image with
+		 * the given {@link TextureCache#imageId(Object) id}. (Constant tiles
+		 * don't contain any particular block.)
+		 */
+		public boolean contains( final int imageId, final int x, final int y, final int z )
+		{
+			return imageId >= 0
+					&& imageId == contentImageId
+					&& content.x() == x
+					&& content.y() == y
+					&& content.z() == z;
+		}
+
+		/**
+		 * Resolution level of the block in this tile (see {@link FillTask#getLevel()}).
+		 */
+		public int level()
+		{
+			return level;
+		}
+
+		/**
+		 * Timestamp of the last use of this tile. (When a tile is filled with
+		 * a new block, this is set to the current timestamp.)
+		 */
+		public int lastUsed()
+		{
+			return lru;
+		}
+
+		/**
+		 * Timestamp of the last batch that requested the block in this tile.
+		 */
+		public int lastRequested()
+		{
+			return requested;
+		}
+
 		public void useAtTimestamp( final int timestamp )
 		{
 			lru = timestamp;
+			lruList.moveToLast( id );
 		}
 	}
 
@@ -113,6 +280,9 @@ public class TextureCache implements Texture3D
 		private final FillTask task; // wrapped task
 		private Tile tile;
 
+		/** {@link System#nanoTime()} when the task was staged */
+		long stageTime;
+
 		public TileFillTask( final FillTask task, final Tile tile )
 		{
 			this.task = task;
@@ -142,6 +312,24 @@ public class TextureCache implements Texture3D
 			task.fill( buffer );
 		}
 
+		@Override
+		public int getConstantValue()
+		{
+			return task.getConstantValue();
+		}
+
+		@Override
+		public int getLevel()
+		{
+			return task.getLevel();
+		}
+
+		@Override
+		public float getScreenDistance()
+		{
+			return task.getScreenDistance();
+		}
+
 		Tile getTile()
 		{
 			return tile;
@@ -153,58 +341,242 @@ public class TextureCache implements Texture3D
 		}
 	}
 
-	private final int texWidth;
-	private final int texHeight;
-	private final int texDepth;
+	/**
+	 * One of the 3D textures containing the tiles of a {@code TextureCache}.
+	 * Tile coordinates ({@link Tile#x()} etc.) are relative to the shard.
+	 */
+	public static class Shard implements Texture3D
+	{
+		private final int index;
+
+		// width, height, depth in tiles
+		private final int[] dimensions;
+
+		private final InternalFormat format;
+
+		private final int texWidth;
+		private final int texHeight;
+		private final int texDepth;
+
+		Shard( final int index, final int[] dimensions, final CacheSpec spec )
+		{
+			this.index = index;
+			this.dimensions = dimensions.clone();
+			this.format = spec.format();
+			final int[] tileDimensions = spec.paddedBlockSize();
+			texWidth = dimensions[ 0 ] * tileDimensions[ 0 ];
+			texHeight = dimensions[ 1 ] * tileDimensions[ 1 ];
+			texDepth = dimensions[ 2 ] * tileDimensions[ 2 ];
+		}
+
+		public int index()
+		{
+			return index;
+		}
+
+		/**
+		 * @return width, height, depth in tiles
+		 */
+		public int[] dimensions()
+		{
+			return dimensions.clone();
+		}
+
+		@Override
+		public InternalFormat texInternalFormat()
+		{
+			return format;
+		}
+
+		@Override
+		public int texWidth()
+		{
+			return texWidth;
+		}
+
+		@Override
+		public int texHeight()
+		{
+			return texHeight;
+		}
+
+		@Override
+		public int texDepth()
+		{
+			return texDepth;
+		}
+
+		@Override
+		public MinFilter texMinFilter()
+		{
+			return MinFilter.LINEAR;
+		}
+
+		@Override
+		public MagFilter texMagFilter()
+		{
+			return MagFilter.LINEAR;
+		}
+
+		@Override
+		public Wrap texWrap()
+		{
+			return Wrap.CLAMP_TO_EDGE;
+		}
+	}
+
+	/**
+	 * Maximum number of {@link Shard shards}. (The shard index is stored in
+	 * 2 bits of the block lookup texture.)
+	 */
+	public static final int MAX_SHARDS = 4;
 
-	// width, height, depth in tiles
-	private final int[] dimensions; // TODO: unused? remove?
+	/**
+	 * Maximum number of tiles along each axis of a shard. (Tile coordinates
+	 * are stored as bytes in the block lookup texture.)
+	 */
+	public static final int MAX_SHARD_TILES_PER_AXIS = 256;
+
+	private final Shard[] shards;
 
 	// tile size and texture format
 	private final CacheSpec spec;
 
-	// tiles arranged in (z,y,x)-flattened texture order
-	private final Tile[] tiles; // TODO: unused? remove?
+	// tiles of all shards, each arranged in (z,y,x)-flattened texture order
+	private final Tile[] tiles;
+
+	// tile ids ordered from least to most recently used
+	private final TileLruList lruList;
 
-	// tiles arranged by (lru, x, y, z)
-	private final ArrayList< Tile > lruOrdered = new ArrayList<>();
+	// ids of images of currently present blocks
+	private final ImageIdRegistry imageIds = new ImageIdRegistry();
 
-	// tiles.length - 1. Tile 0 is reserved for out-of-bounds.
-	private final int numUnblockedTiles;
+	// maps packed key of currently present blocks to tile containing them
+	// tilemap.get(tile.contentKey) == tile
+	private final TLongObjectHashMap< Tile > tilemap;
 
-	// maps key of currently present blocks to tile containing them
-	// tilemap.get(key).content == key
-	private final Map< ImageBlockKey< ? >, Tile > tilemap = new ConcurrentHashMap<>();
+	// maps key of currently present blocks whose grid coordinates can't be
+	// packed (see ImageIdRegistry.isPackable) to tile containing them
+	// unpackedTilemap.get(tile.content) == tile
+	private final Map< ImageBlockKey< ? >, Tile > unpackedTilemap = new HashMap<>();
+
+	/**
+	 * Maximum number of constant tiles, in addition to tile 0 (which contains
+	 * value 0, and is also used for out-of-bounds blocks).
+	 */
+	public static final int MAX_CONSTANT_TILES = 16;
+
+	// maps values to constant tiles containing them
+	private final TIntObjectHashMap< Tile > constantTiles = new TIntObjectHashMap<>();
+
+	// maps packed key of blocks that share a constant tile to that tile
+	private final TLongObjectHashMap< Tile > constantmap;
+
+	// maps key of blocks whose grid coordinates can't be packed, and that
+	// share a constant tile, to that tile
+	private final Map< ImageBlockKey< ? >, Tile > unpackedConstantmap = new HashMap<>();
+
+	// if constantmap grows larger than this, it is cleared
+	private final int maxNumConstantBlocks;
+
+	// values for which a constant tile should be set up in the next batch
+	private final TIntHashSet requestedConstantValues = new TIntHashSet();
+
+	// blocks of the previous batch that were found to be constant, but were
+	// uploaded to regular tiles because there was no constant tile for their value
+	private final ArrayList< ConstantBlock > unsharedConstantBlocks = new ArrayList<>();
+
+	// number of blocks that were not uploaded because they share a constant tile
+	private long numSkippedUploads;
+
+	// tiles that are excluded from LRU eviction, see pin()
+	private final ArrayList< Tile > pinnedTiles = new ArrayList<>();
 
 	private static final AtomicInteger timestampGen = new AtomicInteger();
 
+	// order in which staged tasks are filled, or null to keep the order of submission
+	private FillTaskPriority fillTaskPriority = FillTaskPriority.SCREEN_CENTER_DISTANCE;
+
+	// second-level cache of filled tiles, or null
+	private HostTileCache hostTileCache;
+
+	// persistent store of filled tiles, or null
+	private TileSpillStore tileSpillStore;
+
+	// selects tiles to reuse for new blocks
+	private final TileEviction eviction;
+
+	// tiles that count as requested by the next batch, see retain()
+	private final ArrayList< Tile > retainedTiles = new ArrayList<>();
+
+	/**
+	 * Create a {@code TextureCache} with a single {@link Shard}.
+	 *
+	 * @param dimensions
+	 *            width, height, depth of the texture in tiles
+	 */
 	public TextureCache(
 			final int[] dimensions,
 			final CacheSpec spec )
 	{
-		assert dimensions.length == 3;
+		this( new int[][] { dimensions }, spec );
+	}
+
+	/**
+	 * Create a {@code TextureCache} with one {@link Shard} for each element
+	 * of {@code shardDimensions}.
+	 *
+	 * @param shardDimensions
+	 *            width, height, depth in tiles of each shard
+	 */
+	public TextureCache(
+			final int[][] shardDimensions,
+			final CacheSpec spec )
+	{
+		if ( shardDimensions.length < 1 || shardDimensions.length > MAX_SHARDS )
+			throw new IllegalArgumentException( "Number of shards must be in 1 ... " + MAX_SHARDS );
 
-		this.dimensions = dimensions;
 		this.spec = spec;
 
-		final int[] tileDimensions = spec.paddedBlockSize();
-		texWidth = dimensions[ 0 ] * tileDimensions[ 0 ];
-		texHeight = dimensions[ 1 ] * tileDimensions[ 1 ];
-		texDepth = dimensions[ 2 ] * tileDimensions[ 2 ];
+		shards = new Shard[ shardDimensions.length ];
+		int len = 0;
+		for ( int s = 0; s < shards.length; ++s )
+		{
+			final int[] dimensions = shardDimensions[ s ];
+			assert dimensions.length == 3;
+			for ( int d = 0; d < 3; ++d )
+				if ( dimensions[ d ] < 1 || dimensions[ d ] > MAX_SHARD_TILES_PER_AXIS )
+					throw new IllegalArgumentException( "Shard dimensions must be in 1 ... " + MAX_SHARD_TILES_PER_AXIS );
+			shards[ s ] = new Shard( s, dimensions, spec );
+			len += ( int ) Intervals.numElements( dimensions );
+		}
 
-		final int len = ( int ) Intervals.numElements( dimensions );
 		tiles = new Tile[ len ];
+		lruList = new TileLruList( len );
+		tilemap = new TLongObjectHashMap<>( 2 * len );
+		constantmap = new TLongObjectHashMap<>();
+		maxNumConstantBlocks = 8 * len;
 
 		int i = 0;
-		for ( int x = 0; x < dimensions[ 0 ]; ++x )
-			for ( int y = 0; y < dimensions[ 1 ]; ++y )
-				for ( int z = 0; z < dimensions[ 2 ]; ++z )
-					tiles[ i++ ] = new Tile( x, y, z );
+		for ( final Shard shard : shards )
+		{
+			final int[] dimensions = shard.dimensions;
+			for ( int x = 0; x < dimensions[ 0 ]; ++x )
+				for ( int y = 0; y < dimensions[ 1 ]; ++y )
+					for ( int z = 0; z < dimensions[ 2 ]; ++z )
+					{
+						tiles[ i ] = new Tile( i, shard.index, x, y, z, lruList );
+						++i;
+					}
+		}
 
-		// i = 0 is reserved for out-of-bounds block
+		// i = 0 is reserved for out-of-bounds block and constant value 0
 		for ( i = 1; i < len; ++i )
-			lruOrdered.add( tiles[ i ] );
-		numUnblockedTiles = len - 1;
+			lruList.addLast( i );
+		tiles[ 0 ].constantValue = 0;
+		constantTiles.put( 0, tiles[ 0 ] );
+
+		eviction = new TileEviction( tiles, lruList );
 	}
 
 	public CacheSpec spec()
@@ -212,17 +584,158 @@ public class TextureCache implements Texture3D
 		return spec;
 	}
 
+	/**
+	 * @return number of 3D textures containing the tiles
+	 */
+	public int getNumShards()
+	{
+		return shards.length;
+	}
+
+	/**
+	 * @return the 3D texture containing the tiles with {@link Tile#shard()}
+	 *         {@code == index}. For {@code index == 0}, this is the
+	 *         {@code TextureCache} itself.
+	 */
+	public Texture3D getShard( final int index )
+	{
+		return index == 0 ? this : shards[ index ];
+	}
+
 	/**
 	 * @return number of tiles that can fit into this cache
 	 */
 	public int getMaxNumTiles()
 	{
-		return numUnblockedTiles;
+		return lruList.size();
+	}
+
+	/**
+	 * @return number of blocks that currently share a constant tile. This is
+	 *         the number of tiles saved, minus {@link #getNumConstantTiles()}.
+	 */
+	public int getNumConstantBlocks()
+	{
+		return constantmap.size() + unpackedConstantmap.size();
+	}
+
+	/**
+	 * @return number of constant tiles currently set up, including tile 0.
+	 */
+	public int getNumConstantTiles()
+	{
+		return constantTiles.size();
+	}
+
+	/**
+	 * @return total number of blocks that were not filled and uploaded,
+	 *         because they share a constant tile.
+	 */
+	public long getNumSkippedUploads()
+	{
+		return numSkippedUploads;
+	}
+
+	/**
+	 * @return number of tiles that are currently {@link #pin pinned}.
+	 */
+	public int getNumPinnedTiles()
+	{
+		return pinnedTiles.size();
+	}
+
+	/**
+	 * Pin {@code tile} for the frame with the given {@code timestamp}. Pinned
+	 * tiles are excluded from LRU eviction, so their blocks stay resident
+	 * (and are not counted in {@link #getMaxNumTiles()}). Tiles remain pinned
+	 * until {@link #unpinAllExcept(int)} is called with a different timestamp.
+	 * <p>
+	 * This is used to keep the coarsest resolution levels of visible sources
+	 * resident, so that there is always something to render. Constant tiles
+	 * are never evicted anyway, and are not pinned.
+	 * <p>
+	 * Must be called between batches.
+	 */
+	public void pin( final Tile tile, final int timestamp )
+	{
+		if ( tile.isConstant() )
+			return;
+
+		if ( !tile.pinned )
+		{
+			tile.pinned = true;
+			lruList.remove( tile.id );
+			pinnedTiles.add( tile );
+		}
+		tile.pinTimestamp = timestamp;
+	}
+
+	/**
+	 * Unpin all tiles that were not {@link #pin pinned} for the frame with the
+	 * given {@code timestamp}. They become the most recently used tiles.
+	 * <p>
+	 * Must be called between batches.
+	 */
+	public void unpinAllExcept( final int timestamp )
+	{
+		pinnedTiles.removeIf( tile -> {
+			if ( tile.pinTimestamp == timestamp )
+				return false;
+			tile.pinned = false;
+			lruList.addLast( tile.id );
+			return true;
+		} );
 	}
 
 	public Tile get( final ImageBlockKey< ? > key )
 	{
-		return tilemap.get( key );
+		return get( imageId( key.image() ), key.x(), key.y(), key.z() );
+	}
+
+	/**
+	 * Get the id of {@code image} for {@link #get(int, int, int, int)}. Ids
+	 * remain valid until the next batch of tiles is uploaded.
+	 *
+	 * @return id of {@code image}, or {@code -1} if no block of {@code image} is present.
+	 */
+	public int imageId( final Object image )
+	{
+		return imageIds.idOf( image );
+	}
+
+	/**
+	 * Get the tile containing block {@code (x, y, z)} of the image with the
+	 * given {@link #imageId(Object) id}. This does not allocate (unless grid
+	 * coordinates are larger than {@link ImageIdRegistry#MAX_GRID_POS}), so it
+	 * should be preferred over {@link #get(ImageBlockKey)} in per-block loops.
+	 *
+	 * @return tile containing the block, or {@code null} if the block is not present.
+	 */
+	public Tile get( final int imageId, final int x, final int y, final int z )
+	{
+		if ( imageId < 0 )
+			return null;
+		if ( !ImageIdRegistry.isPackable( x, y, z ) )
+			return getUnpacked( imageId, x, y, z );
+		final long key = ImageIdRegistry.pack( imageId, x, y, z );
+		final Tile tile = tilemap.get( key );
+		return tile != null || constantmap.isEmpty() ? tile : constantmap.get( key );
+	}
+
+	/**
+	 * Get the tile containing block {@code (x, y, z)}, with grid coordinates
+	 * that can't be packed, of the image with the given id.
+	 */
+	private Tile getUnpacked( final int imageId, final int x, final int y, final int z )
+	{
+		if ( unpackedTilemap.isEmpty() && unpackedConstantmap.isEmpty() )
+			return null;
+		final Object image = imageIds.imageOf( imageId );
+		if ( image == null )
+			return null;
+		final ImageBlockKey< ? > key = new ImageBlockKey<>( image, x, y, z );
+		final Tile tile = unpackedTilemap.get( key );
+		return tile != null ? tile : unpackedConstantmap.get( key );
 	}
 
 	public int nextTimestamp()
@@ -230,6 +743,87 @@ public class TextureCache implements Texture3D
 		return timestampGen.incrementAndGet();
 	}
 
+	/**
+	 * Set the order in which tasks are filled in each batch. If
+	 * {@code priority == null}, tasks are filled in the order they were
+	 * submitted.
+	 */
+	public void setFillTaskPriority( final FillTaskPriority priority )
+	{
+		this.fillTaskPriority = priority;
+	}
+
+	public FillTaskPriority getFillTaskPriority()
+	{
+		return fillTaskPriority;
+	}
+
+	/**
+	 * Set a second-level cache for tiles of this {@code TextureCache}. Tiles
+	 * that are completely filled are copied to {@code hostTileCache}, and
+	 * copied back from there if they have to be filled again. If
+	 * {@code hostTileCache == null}, tiles are always filled by their
+	 * {@code FillTask}.
+	 * <p>
+	 * Must be called between batches.
+	 */
+	public void setHostTileCache( final HostTileCache hostTileCache )
+	{
+		this.hostTileCache = hostTileCache;
+	}
+
+	public HostTileCache getHostTileCache()
+	{
+		return hostTileCache;
+	}
+
+	/**
+	 * Set a persistent store for tiles of this {@code TextureCache}. Like the
+	 * {@link #setHostTileCache host tile cache}, tiles that are completely
+	 * filled are copied to {@code tileSpillStore}, and copied back from there
+	 * if they have to be filled again (if they are not found in the host tile
+	 * cache). If {@code tileSpillStore == null}, no persistent store is used.
+	 * <p>
+	 * Must be called between batches.
+	 */
+	public void setTileSpillStore( final TileSpillStore tileSpillStore )
+	{
+		this.tileSpillStore = tileSpillStore;
+	}
+
+	public TileSpillStore getTileSpillStore()
+	{
+		return tileSpillStore;
+	}
+
+	/**
+	 * Set the policy that selects which tiles are reused for new blocks. The
+	 * default is {@link LruEvictionPolicy}.
+	 * <p>
+	 * Must be called between batches.
+	 */
+	public void setEvictionPolicy( final EvictionPolicy evictionPolicy )
+	{
+		eviction.setPolicy( evictionPolicy );
+	}
+
+	public EvictionPolicy getEvictionPolicy()
+	{
+		return eviction.getPolicy();
+	}
+
+	/**
+	 * Record the blocks requested in each batch, and the latencies of loading
+	 * them, to {@code recorder}. If {@code recorder == null}, nothing is
+	 * recorded.
+	 * <p>
+	 * Must be called between batches.
+	 */
+	public void setEvictionTraceRecorder( final EvictionTraceRecorder recorder )
+	{
+		eviction.setRecorder( recorder, getMaxNumTiles() );
+	}
+
 	static class StagedTasks
 	{
 		// tasks with possibly a tile already assigned
@@ -238,52 +832,157 @@ public class TextureCache implements Texture3D
 		// tiles that can be used for the tasks that have no tile assigned yet
 		final List< Tile > reusableTiles;
 
+		// constant tiles (by value) that blocks can share. Not modified while tasks are processed.
+		private final TIntObjectHashMap< Tile > constantTiles;
+
+		// blocks that were found to be constant, and the tiles they share
+		private final Queue< SharedBlock > sharedBlocks = new ConcurrentLinkedQueue<>();
+
+		// blocks that were found to be constant, but whose value doesn't have a constant tile
+		private final Queue< ConstantBlock > unsharedBlocks = new ConcurrentLinkedQueue<>();
+
 		public StagedTasks( final List< TileFillTask > tasks, final List< Tile > reusableTiles )
+		{
+			this( tasks, reusableTiles, new TIntObjectHashMap<>() );
+		}
+
+		StagedTasks( final List< TileFillTask > tasks, final List< Tile > reusableTiles, final TIntObjectHashMap< Tile > constantTiles )
 		{
 			this.tasks = tasks;
 			this.reusableTiles = reusableTiles;
+			this.constantTiles = constantTiles;
+		}
+
+		/**
+		 * Check whether the block of {@code task} has a constant value, and if
+		 * so, record it to share the constant tile for that value. This is
+		 * called concurrently by fillers, before {@code task} is filled.
+		 *
+		 * @return {@code true}, if the block shares a constant tile, so that
+		 *         {@code task} should not be filled and uploaded.
+		 */
+		boolean shareConstantTile( final TileFillTask task )
+		{
+			if ( constantTiles.isEmpty() )
+				return false;
+
+			final int value = task.getConstantValue();
+			if ( value == NOT_CONSTANT )
+				return false;
+
+			final Tile tile = constantTiles.get( value );
+			if ( tile == null )
+			{
+				unsharedBlocks.add( new ConstantBlock( task.getKey(), value ) );
+				return false;
+			}
+
+			sharedBlocks.add( new SharedBlock( task.getKey(), tile ) );
+			return true;
+		}
+	}
+
+	private static class SharedBlock
+	{
+		final ImageBlockKey< ? > key;
+
+		final Tile tile;
+
+		SharedBlock( final ImageBlockKey< ? > key, final Tile tile )
+		{
+			this.key = key;
+			this.tile = tile;
 		}
 	}
 
+	private static class ConstantBlock
+	{
+		final ImageBlockKey< ? > key;
+
+		final int value;
+
+		ConstantBlock( final ImageBlockKey< ? > key, final int value )
+		{
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Count {@code tile} as requested by the next {@link #stage batch},
+	 * although there is no {@code FillTask} for it. This is for clients that
+	 * keep track of the tiles they use, and don't request blocks that are
+	 * known to be resident and complete, so that these tiles are treated like
+	 * requested tiles by the {@link EvictionPolicy}.
+	 */
+	public void retain( final Tile tile )
+	{
+		retainedTiles.add( tile );
+	}
+
 	StagedTasks stage( final Collection< ? extends FillTask > tasks )
 	{
 		final int mark = timestampGen.incrementAndGet();
+		final long now = System.nanoTime();
+
+		for ( final Tile tile : retainedTiles )
+			tile.requested = mark;
+		retainedTiles.clear();
+
+		eviction.staged( tasks );
 
 		final ArrayList< TileFillTask > tileFillTasks = new ArrayList<>( tasks.size() );
 		initializeBlockedTiles( tileFillTasks );
+		int numBlockedTasks = tileFillTasks.size();
 		final ArrayList< TileFillTask > update = new ArrayList<>();
 
 		int newsize = 0;
 		for ( final FillTask task : tasks )
 		{
-			final Tile tile = tilemap.get( task.getKey() );
+			final Tile tile = get( task.getKey() );
 			if ( tile == null )
 			{
-				tileFillTasks.add( new TileFillTask( task ) );
+				final TileFillTask tileFillTask = new TileFillTask( task );
+				tileFillTask.stageTime = now;
+				tileFillTasks.add( tileFillTask );
 				++newsize;
 			}
 			else
 			{
+				tile.requested = mark;
 				if ( tile.state == INCOMPLETE )
 				{
 					update.add( new TileFillTask( task, tile ) );
 					/*
 					 * Set the tile lru to mark, so that we can detect if it would be overridden in assignFillTiles
 					 */
-					tile.lru = mark;
+					tile.useAtTimestamp( mark );
 				}
 			}
 		}
 
-		/*
-		 * TODO: sort 'tileFillTasks' list by desired loading order
-		 * TODO: similar to BlockingFetchQueues priority levels?
-		 */
-
 		tileFillTasks.addAll( update );
 
 		final List< Tile > fillTiles = assignFillTiles( newsize, mark );
-		return new StagedTasks( tileFillTasks, fillTiles );
+		final ArrayList< TileFillTask > constantTileTasks = new ArrayList<>();
+		allocateConstantTiles( constantTileTasks, fillTiles, mark );
+		tileFillTasks.addAll( 0, constantTileTasks );
+		numBlockedTasks += constantTileTasks.size();
+
+		// sort by desired loading order (blocked tiles are initialized first)
+		if ( fillTaskPriority != null )
+			tileFillTasks.subList( numBlockedTasks, tileFillTasks.size() ).sort( fillTaskPriority );
+
+		return new StagedTasks( tileFillTasks, fillTiles, constantTiles );
+	}
+
+	/**
+	 * Whether {@code tile} is reserved (for out-of-bounds blocks or constant
+	 * values), i.e., not used for individual blocks.
+	 */
+	static boolean isBlocked( final Tile tile )
+	{
+		return tile != null && tile.isConstant();
 	}
 
 	private boolean blockedTileInitialized = false;
@@ -298,35 +997,288 @@ public class TextureCache implements Texture3D
 
 		blockedTileInitialized = true;
 
-		final Tile oobTile = tiles[ 0 ];
+		tileFillTasks.add( constantTileFillTask( tiles[ 0 ] ) );
+	}
+
+	/**
+	 * Create a task that fills {@code tile} with its {@code constantValue}.
+	 */
+	private TileFillTask constantTileFillTask( final Tile tile )
+	{
 		final Object dummyImage = new Object();
-		final ImageBlockKey< Object > oobDummyKey = new ImageBlockKey<>( dummyImage, new int[] { 0, 0, 0 } );
+		final ImageBlockKey< Object > dummyKey = new ImageBlockKey<>( dummyImage, new int[] { 0, 0, 0 } );
 		final int elementsPerTile = ( int ) Intervals.numElements( spec.paddedBlockSize() );
-		if(spec.format() == InternalFormat.R8)
+		final int value = tile.constantValue;
+		if ( spec.format() == InternalFormat.R8 )
 		{
-			tileFillTasks.add( new TileFillTask( new DefaultFillTask( oobDummyKey, buf -> {
-				ByteUtils.setBytes( ( byte ) 0, buf.getAddress(), elementsPerTile );
+			return new TileFillTask( new DefaultFillTask( dummyKey, buf -> {
+				ByteUtils.setBytes( ( byte ) value, buf.getBuffer(), buf.getOffset(), elementsPerTile );
 				return true;
-			} , () -> true ), oobTile ) );
+			}, () -> true ), tile );
 		}
-		if(spec.format() == InternalFormat.R16)
+		else if ( spec.format() == InternalFormat.R16 )
 		{
-			tileFillTasks.add( new TileFillTask( new DefaultFillTask( oobDummyKey, buf -> {
-				ByteUtils.setShorts( ( short ) 0, buf.getAddress(), elementsPerTile );
+			return new TileFillTask( new DefaultFillTask( dummyKey, buf -> {
+				ByteUtils.setShorts( ( short ) value, buf.getBuffer(), buf.getOffset(), elementsPerTile );
 				return true;
-			} , () -> true ), oobTile ) );
+			}, () -> true ), tile );
+		}
+		throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Set up constant tiles for values that were encountered in the previous
+	 * batch (and add tasks to fill them to {@code tileFillTasks}).
+	 * <p>
+	 * New constant tiles are taken from the least recently used tiles,
+	 * excluding the {@code fillTiles} that are used for the current batch. If
+	 * there are already {@link #MAX_CONSTANT_TILES}, the least recently used
+	 * constant tile is reassigned to the new value.
+	 */
+	private void allocateConstantTiles( final List< TileFillTask > tileFillTasks, final List< Tile > fillTiles, final int currentTimestamp )
+	{
+		if ( requestedConstantValues.isEmpty() )
+			return;
+
+		final TIntHashSet fillTileIds = new TIntHashSet( fillTiles.size() );
+		for ( final Tile tile : fillTiles )
+			fillTileIds.add( tile.id );
+		int id = lruList.first();
+		while ( id != TileLruList.NONE && fillTileIds.contains( id ) )
+			id = lruList.next( id );
+
+		for ( final int value : requestedConstantValues.toArray() )
+		{
+			if ( constantTiles.containsKey( value ) )
+				continue;
+
+			final Tile tile;
+			if ( constantTiles.size() <= MAX_CONSTANT_TILES )
+			{
+				if ( id == TileLruList.NONE || tiles[ id ].lru == currentTimestamp )
+					break;
+				tile = tiles[ id ];
+				do
+					id = lruList.next( id );
+				while ( id != TileLruList.NONE && fillTileIds.contains( id ) );
+				unassign( tile );
+				lruList.remove( tile.id );
+			}
+			else
+			{
+				tile = leastRecentlyUsedConstantTile();
+				releaseConstantTile( tile );
+			}
+			tile.constantValue = value;
+			tile.state = INCOMPLETE;
+			constantTiles.put( value, tile );
+			tileFillTasks.add( constantTileFillTask( tile ) );
+		}
+		requestedConstantValues.clear();
+	}
+
+	/**
+	 * Get the least recently used constant tile, excluding tile 0.
+	 */
+	private Tile leastRecentlyUsedConstantTile()
+	{
+		Tile lru = null;
+		for ( final Tile tile : constantTiles.valueCollection() )
+			if ( tile.id != 0 && ( lru == null || tile.lru < lru.lru ) )
+				lru = tile;
+		return lru;
+	}
+
+	/**
+	 * Remove constant tile {@code tile} and all blocks sharing it.
+	 */
+	private void releaseConstantTile( final Tile tile )
+	{
+		constantTiles.remove( tile.constantValue );
+		for ( final TLongObjectIterator< Tile > it = constantmap.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( it.value() == tile )
+			{
+				imageIds.release( ImageIdRegistry.unpackId( it.key() ) );
+				it.remove();
+			}
+		}
+		for ( final Iterator< Map.Entry< ImageBlockKey< ? >, Tile > > it = unpackedConstantmap.entrySet().iterator(); it.hasNext(); )
+		{
+			final Map.Entry< ImageBlockKey< ? >, Tile > entry = it.next();
+			if ( entry.getValue() == tile )
+			{
+				imageIds.release( imageIds.idOf( entry.getKey().image() ) );
+				it.remove();
+			}
+		}
+		tile.constantValue = NOT_CONSTANT;
+		tile.state = INCOMPLETE;
+	}
+
+	/**
+	 * Remove all blocks sharing constant tiles.
+	 */
+	private void clearConstantBlocks()
+	{
+		for ( final long key : constantmap.keys() )
+			imageIds.release( ImageIdRegistry.unpackId( key ) );
+		constantmap.clear();
+		for ( final ImageBlockKey< ? > key : unpackedConstantmap.keySet() )
+			imageIds.release( imageIds.idOf( key.image() ) );
+		unpackedConstantmap.clear();
+	}
+
+	/**
+	 * Called after all tasks of {@code stagedTasks} have been processed, to map
+	 * blocks that were found to be constant to their shared tiles.
+	 */
+	void assignConstantTiles( final StagedTasks stagedTasks )
+	{
+		for ( SharedBlock block; ( block = stagedTasks.sharedBlocks.poll() ) != null; )
+		{
+			share( block.key, block.tile );
+			++numSkippedUploads;
+		}
+
+		/*
+		 * Blocks of the previous batch that were uploaded to regular tiles,
+		 * because there was no constant tile for their value yet. If the
+		 * constant tile was set up (and filled) in this batch, the regular
+		 * tiles are released.
+		 */
+		for ( final ConstantBlock block : unsharedConstantBlocks )
+		{
+			final Tile tile = constantTiles.get( block.value );
+			if ( tile != null && tile.state == COMPLETE )
+				share( block.key, tile );
+		}
+		unsharedConstantBlocks.clear();
+
+		for ( ConstantBlock block; ( block = stagedTasks.unsharedBlocks.poll() ) != null; )
+		{
+			unsharedConstantBlocks.add( block );
+			requestedConstantValues.add( block.value );
+		}
+
+		if ( getNumConstantBlocks() > maxNumConstantBlocks )
+			clearConstantBlocks();
+	}
+
+	/**
+	 * Map the block {@code key} to the constant {@code tile}, and remove it
+	 * from the regular tile it occupies (if any).
+	 */
+	private void share( final ImageBlockKey< ? > key, final Tile tile )
+	{
+		final int imageId = imageIds.acquire( key.image() );
+		final Tile previous;
+		if ( ImageIdRegistry.isPackable( key.x(), key.y(), key.z() ) )
+		{
+			final long packedKey = ImageIdRegistry.pack( imageId, key.x(), key.y(), key.z() );
+			final Tile regular = tilemap.get( packedKey );
+			if ( regular != null )
+				unassign( regular );
+			previous = constantmap.put( packedKey, tile );
+		}
+		else
+		{
+			final Tile regular = unpackedTilemap.get( key );
+			if ( regular != null )
+				unassign( regular );
+			previous = unpackedConstantmap.put( key, tile );
+		}
+		if ( previous != null )
+			imageIds.release( imageId );
+	}
+
+	/**
+	 * Remove the content of regular {@code tile}, so that it can be reused.
+	 */
+	private void unassign( final Tile tile )
+	{
+		if ( tile.content != null )
+		{
+			unmap( tile );
+			tile.content = null;
+			tile.contentImageId = -1;
+		}
+		tile.state = INCOMPLETE;
+	}
+
+	/**
+	 * Map block {@code key} to {@code tile}, in {@link #tilemap}, or in
+	 * {@link #unpackedTilemap} if its grid coordinates can't be packed.
+	 * ({@code tile.content} is not modified.)
+	 */
+	private void map( final Tile tile, final ImageBlockKey< ? > key )
+	{
+		tile.contentImageId = imageIds.acquire( key.image() );
+		if ( ImageIdRegistry.isPackable( key.x(), key.y(), key.z() ) )
+		{
+			tile.contentKey = ImageIdRegistry.pack( tile.contentImageId, key.x(), key.y(), key.z() );
+			tilemap.put( tile.contentKey, tile );
 		}
+		else
+			unpackedTilemap.put( key, tile );
 	}
 
+	/**
+	 * Remove the mapping of {@code tile.content} to {@code tile}.
+	 * ({@code tile.content} is not modified.)
+	 */
+	private void unmap( final Tile tile )
+	{
+		final ImageBlockKey< ? > key = tile.content;
+		if ( ImageIdRegistry.isPackable( key.x(), key.y(), key.z() ) )
+			tilemap.remove( tile.contentKey );
+		else
+			unpackedTilemap.remove( key );
+		imageIds.release( tile.contentImageId );
+	}
+
+	/**
+	 * Get {@code size} tiles to reuse, as selected by the
+	 * {@link #setEvictionPolicy eviction policy} (by default, the least
+	 * recently used tiles).
+	 *
+	 * @throws IllegalArgumentException
+	 *             if that would include tiles used at {@code currentTimestamp}
+	 */
 	private List< Tile > assignFillTiles( final int size, final int currentTimestamp )
 	{
 		if ( size == 0 )
 			return Collections.emptyList();
 
-		lruOrdered.sort( lruComparator );
-		if ( size > numUnblockedTiles || lruOrdered.get( size - 1 ).lru == currentTimestamp )
-			throw new IllegalArgumentException( "Requested blocks don't fit into TextureCache." );
-		return lruOrdered.subList( 0, size );
+		return eviction.selectVictims( size, currentTimestamp );
+	}
+
+	/**
+	 * Called for each filled task, to update the content of its tile. When the
+	 * block becomes complete, the latency since it was staged is reported to
+	 * the {@link #setEvictionPolicy eviction policy}.
+	 *
+	 * @param validCells
+	 *            source cells that the tile contains now, see {@link UploadBuffer#getValidCells()}
+	 */
+	void assign( final TileFillTask task, final ContentState state, final long validCells )
+	{
+		final Tile tile = task.getTile();
+		final ImageBlockKey< ? > key = task.getKey();
+		final boolean newContent = !tile.isConstant() && !key.equals( tile.content );
+		final boolean wasComplete = !newContent && tile.state == COMPLETE;
+		assign( tile, key, state, validCells );
+		if ( tile.isConstant() )
+			return;
+
+		if ( newContent )
+		{
+			tile.level = task.getLevel();
+			tile.stageTime = task.stageTime;
+		}
+		if ( state == COMPLETE && !wasComplete )
+			eviction.loaded( tile );
 	}
 
 	/**
@@ -338,109 +1290,212 @@ public class TextureCache implements Texture3D
 	 */
 	void assign( final Tile tile, final ImageBlockKey< ? > key, final ContentState state )
 	{
+		assign( tile, key, state, UploadBuffer.UNKNOWN_CELLS );
+	}
+
+	/**
+	 * Called for each tile when its content is updated.
+	 *
+	 * @param validCells
+	 *            source cells that the tile contains now, see {@link UploadBuffer#getValidCells()}
+	 */
+	void assign( final Tile tile, final ImageBlockKey< ? > key, final ContentState state, final long validCells )
+	{
+		if ( tile.isConstant() )
+		{
+			// constant tiles are not mapped to blocks directly
+			tile.state = state;
+			return;
+		}
+
 		if ( ! key.equals( tile.content ) )
 		{
 			if ( tile.content != null )
-				tilemap.remove( tile.content );
-			tilemap.put( key, tile );
+				unmap( tile );
+			map( tile, key );
+			tile.lru = timestampGen.get();
 		}
 		tile.content = key;
 		tile.state = state;
+		tile.validCells = validCells;
+		lruList.moveToLast( tile.id );
 	}
 
-	private static final Comparator< Tile > lruComparator = new Comparator< Tile >()
-	{
-		@Override
-		public int compare( final Tile t1, final Tile t2 )
-		{
-			final int dlru = t1.lru - t2.lru;
-			if ( dlru != 0 )
-				return dlru;
-
-			final int dx = t1.x - t2.x;
-			if ( dx != 0 )
-				return dx;
 
-			final int dy = t1.y - t2.y;
-			if ( dy != 0 )
-				return dy;
-
-			final int dz = t1.z - t2.z;
-			return dz;
-		}
-	};
-
-
-
-	/*
-	 * static helpers
+	/**
+	 * Get all tiles that contain a block (excluding constant tiles).
 	 */
+	List< Tile > residentTiles()
+	{
+		final ArrayList< Tile > resident = new ArrayList<>();
+		for ( final Tile tile : tiles )
+			if ( tile.content != null && !tile.isConstant() )
+				resident.add( tile );
+		return resident;
+	}
 
 	/**
-	 * Find suitable size of a 3D texture (in multiples of {@code cacheSpec.paddedBlockSize()})
-	 * such that it requires less than {@code maxMemoryInMB}, the texture is
-	 * roughly square, and fits as many blocks as possible.
+	 * Take over the block of {@code source}, a tile of another
+	 * {@code TextureCache}, into the least recently used tile, if that tile is
+	 * empty. (The texture data has to be copied by the caller.)
+	 * <p>
+	 * The tile is inserted into the LRU order just before {@code successor}
+	 * (or before the first non-empty tile, if {@code successor == null}), so
+	 * that blocks can be taken over from most to least recently used, without
+	 * appearing more recently used than blocks filled in the meantime.
 	 *
-	 * @param cacheSpec
-	 *            provides voxel type and size of an individual block.
-	 * @param maxMemoryInMB
-	 * @return size of 3D texture in multiples of {@code CacheSpec.paddedBlockSize()}.
+	 * @return the tile now containing the block, or {@code null} if there is
+	 *         no empty tile left.
 	 */
-	public static int[] findSuitableGridSize( final CacheSpec cacheSpec, final int maxMemoryInMB )
+	Tile adopt( final Tile source, final Tile successor )
 	{
-		final long numVoxels = ( long ) maxMemoryInMB * 1024 * 1024 / cacheSpec.format().getBytesPerElement();
-		final double sideLength = Math.pow( numVoxels, 1.0 / 3.0 );
-		final int[] gridSize = new int[ 3 ];
-		for ( int d = 0; d < 3; ++d )
-			gridSize[ d ] = ( int ) ( sideLength / cacheSpec.paddedBlockSize()[ d ] );
-		return gridSize;
+		final int id = lruList.first();
+		if ( id == TileLruList.NONE || !tiles[ id ].isEmpty() )
+			return null;
+
+		final Tile tile = tiles[ id ];
+		lruList.remove( id );
+		int next = successor == null ? lruList.first() : successor.id;
+		while ( next != TileLruList.NONE && tiles[ next ].isEmpty() )
+			next = lruList.next( next );
+		lruList.addBefore( id, next );
+
+		final ImageBlockKey< ? > key = source.content;
+		tile.content = key;
+		map( tile, key );
+		tile.state = source.state;
+		tile.validCells = source.validCells;
+		tile.level = source.level;
+		tile.stageTime = source.stageTime;
+		tile.lru = source.lru;
+		return tile;
 	}
 
 
-
 	/*
-	 * ... implements Texture3D
+	 * ... implements Texture3D (shard 0)
 	 */
 
 	@Override
 	public InternalFormat texInternalFormat()
 	{
-		return spec.format();
+		return shards[ 0 ].texInternalFormat();
 	}
 
 	@Override
 	public int texWidth()
 	{
-		return texWidth;
+		return shards[ 0 ].texWidth();
 	}
 
 	@Override
 	public int texHeight()
 	{
-		return texHeight;
+		return shards[ 0 ].texHeight();
 	}
 
 	@Override
 	public int texDepth()
 	{
-		return texDepth;
+		return shards[ 0 ].texDepth();
 	}
 
 	@Override
 	public MinFilter texMinFilter()
 	{
-		return MinFilter.LINEAR;
+		return shards[ 0 ].texMinFilter();
 	}
 
 	@Override
 	public MagFilter texMagFilter()
 	{
-		return MagFilter.LINEAR;
+		return shards[ 0 ].texMagFilter();
 	}
 
 	@Override
 	public Wrap texWrap()
 	{
-		return Wrap.CLAMP_TO_EDGE;
+		return shards[ 0 ].texWrap();
+	}
+
+	/*
+	 * static helpers
+	 */
+
+	/**
+	 * Find suitable size of a 3D texture (in multiples of {@code cacheSpec.paddedBlockSize()})
+	 * such that it requires less than {@code maxMemoryInMB}, the texture is
+	 * roughly square, and fits as many blocks as possible.
+	 *
+	 * @param cacheSpec
+	 *            provides voxel type and size of an individual block.
+	 * @param maxMemoryInMB
+	 * @return size of 3D texture in multiples of {@code CacheSpec.paddedBlockSize()}.
+	 */
+	public static int[] findSuitableGridSize( final CacheSpec cacheSpec, final int maxMemoryInMB )
+	{
+		final long numVoxels = ( long ) maxMemoryInMB * 1024 * 1024 / cacheSpec.format().getBytesPerElement();
+		final double sideLength = Math.pow( numVoxels, 1.0 / 3.0 );
+		final int[] gridSize = new int[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			gridSize[ d ] = ( int ) ( sideLength / cacheSpec.paddedBlockSize()[ d ] );
+		return gridSize;
+	}
+
+	/**
+	 * Find sizes of (up to {@link #MAX_SHARDS}) 3D textures (in multiples of
+	 * {@code cacheSpec.paddedBlockSize()}) that together require less than
+	 * {@code maxMemoryInMB} and fit as many blocks as possible, where each
+	 * texture is at most {@code maxTextureSize} voxels along each axis.
+	 * <p>
+	 * As many shards of maximum size as necessary (and possible) are used.
+	 * The remaining tiles go into a last, roughly cubic shard (as far as
+	 * {@code maxTextureSize} permits), whose dimensions are rounded such that
+	 * few tiles are lost. (If there are shards of maximum size, a remainder of
+	 * less than 1/16 shard is dropped.)
+	 *
+	 * @param cacheSpec
+	 *            provides voxel type and size of an individual block.
+	 * @param maxMemoryInMB
+	 * @param maxTextureSize
+	 *            maximum width, height, and depth of a 3D texture (e.g.,
+	 *            {@code GL_MAX_3D_TEXTURE_SIZE})
+	 * @return width, height, depth in tiles of each shard.
+	 */
+	public static int[][] findSuitableShardSizes( final CacheSpec cacheSpec, final int maxMemoryInMB, final int maxTextureSize )
+	{
+		final int[] pbs = cacheSpec.paddedBlockSize();
+		final long bytesPerTile = cacheSpec.format().getBytesPerElement() * Intervals.numElements( pbs );
+		long remaining = ( long ) maxMemoryInMB * 1024 * 1024 / bytesPerTile;
+
+		final int[] max = new int[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			max[ d ] = Math.max( 1, Math.min( MAX_SHARD_TILES_PER_AXIS, maxTextureSize / pbs[ d ] ) );
+		final long maxTilesPerShard = ( long ) max[ 0 ] * max[ 1 ] * max[ 2 ];
+
+		final ArrayList< int[] > sizes = new ArrayList<>();
+		while ( remaining >= maxTilesPerShard && sizes.size() < MAX_SHARDS )
+		{
+			sizes.add( max.clone() );
+			remaining -= maxTilesPerShard;
+		}
+		// a small remainder is dropped rather than spending another texture on it
+		if ( remaining > 0 && sizes.size() < MAX_SHARDS && ( sizes.isEmpty() || remaining >= maxTilesPerShard / 16 ) )
+		{
+			// axes are sized in order of increasing maximum, such that the
+			// axes with larger maximum make up for the ones that are capped.
+			// The first axis is rounded up, the others are rounded down to fit
+			final Integer[] axes = { 0, 1, 2 };
+			Arrays.sort( axes, ( a1, a2 ) -> Integer.compare( max[ a1 ], max[ a2 ] ) );
+			final int[] size = new int[ 3 ];
+			size[ axes[ 0 ] ] = ( int ) Math.min( max[ axes[ 0 ] ], Math.ceil( Math.cbrt( remaining ) ) );
+			size[ axes[ 1 ] ] = ( int ) Math.min( max[ axes[ 1 ] ], Math.sqrt( ( double ) remaining / size[ axes[ 0 ] ] ) );
+			size[ axes[ 2 ] ] = ( int ) Math.min( max[ axes[ 2 ] ], remaining / ( ( long ) size[ axes[ 0 ] ] * Math.max( size[ axes[ 1 ] ], 1 ) ) );
+			if ( size[ 0 ] > 0 && size[ 1 ] > 0 && size[ 2 ] > 0 )
+				sizes.add( size );
+		}
+		if ( sizes.isEmpty() )
+			sizes.add( new int[] { 1, 1, 1 } );
+		return sizes.toArray( new int[ 0 ][] );
 	}
 }
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import bvv.core.backend.GpuContext;
+import bvv.core.cache.TextureCache.Tile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Incrementally moves the blocks of a {@link TextureCache} into a new
+ * (resized) {@code TextureCache}, by copying tiles on the GPU. This avoids
+ * re-loading all blocks when the cache is resized.
+ * <p>
+ * The target is used for rendering while the migration is in progress. Blocks
+ * are migrated in several {@link #migrate(GpuContext, long) steps} with a time
+ * budget each: pinned blocks first, then from most to least recently used, so
+ * that the blocks of the last frames are available again first. Blocks that
+ * the target already contains (because they were filled in the meantime) are
+ * skipped. Migration ends when all blocks are migrated, or the target has no
+ * empty tile left.
+ * <p>
+ * The source must not be used anymore after the migration is created, and
+ * its textures must be kept until the migration is {@link #isDone() done}.
+ * <p>
+ * Not thread-safe. {@code migrate()} must be called between batches.
+ */
+public class TextureCacheMigration
+{
+	private final TextureCache source;
+
+	private final TextureCache target;
+
+	/** tiles of {@code source} to migrate, in migration order */
+	private final List< Tile > pending;
+
+	/** index of the next tile in {@code pending} */
+	private int next;
+
+	/** the last migrated tile of {@code target}, and the block it received */
+	private Tile lastTile;
+
+	private Object lastContent;
+
+	private int numMigratedTiles;
+
+	public TextureCacheMigration( final TextureCache source, final TextureCache target )
+	{
+		final CacheSpec spec = source.spec();
+		if ( spec.format() != target.spec().format() || !Arrays.equals( spec.paddedBlockSize(), target.spec().paddedBlockSize() ) )
+			throw new IllegalArgumentException( "TextureCaches must have the same format and block size." );
+
+		this.source = source;
+		this.target = target;
+		pending = source.residentTiles();
+		pending.sort( Comparator
+				.comparing( Tile::isPinned ).reversed()
+				.thenComparing( Comparator.comparingInt( Tile::lastUsed ).reversed() ) );
+	}
+
+	public TextureCache getSource()
+	{
+		return source;
+	}
+
+	public TextureCache getTarget()
+	{
+		return target;
+	}
+
+	/**
+	 * Migrate blocks until all are migrated, or {@code maxNanos} have elapsed.
+	 *
+	 * @param context
+	 *            used for copying tiles between the textures of source and target
+	 * @param maxNanos
+	 *            time budget in nanoseconds
+	 *
+	 * @return {@code true} if the migration is done.
+	 */
+	public boolean migrate( final GpuContext context, final long maxNanos )
+	{
+		final long t0 = System.nanoTime();
+		final int[] pbs = source.spec().paddedBlockSize();
+		while ( next < pending.size() )
+		{
+			if ( System.nanoTime() - t0 > maxNanos )
+				return false;
+
+			final Tile src = pending.get( next++ );
+			if ( target.get( src.content ) != null )
+				continue;
+
+			final Tile successor = lastTile != null && lastTile.content == lastContent ? lastTile : null;
+			final Tile dst = target.adopt( src, successor );
+			if ( dst == null )
+			{
+				// target is full
+				next = pending.size();
+				break;
+			}
+
+			context.copyTexSubImage3D(
+					source.getShard( src.shard ), src.x * pbs[ 0 ], src.y * pbs[ 1 ], src.z * pbs[ 2 ],
+					target.getShard( dst.shard ), dst.x * pbs[ 0 ], dst.y * pbs[ 1 ], dst.z * pbs[ 2 ],
+					pbs[ 0 ], pbs[ 1 ], pbs[ 2 ] );
+			lastTile = dst;
+			lastContent = dst.content;
+			++numMigratedTiles;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether all blocks are migrated (or the target is full).
+	 */
+	public boolean isDone()
+	{
+		return next >= pending.size();
+	}
+
+	/**
+	 * Get the number of tiles that were copied to the target so far.
+	 */
+	public int getNumMigratedTiles()
+	{
+		return numMigratedTiles;
+	}
+}
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import bvv.core.cache.TextureCache.Tile;
+
+/**
+ * Selects the tiles of a {@link TextureCache} that are reused for new blocks,
+ * by asking an {@link EvictionPolicy}, and reports staged blocks and load
+ * latencies to the policy and to an {@link EvictionTraceRecorder} (if any).
+ * <p>
+ * Not thread-safe, used by {@code TextureCache} between batches.
+ */
+class TileEviction
+{
+	private final TileLruList lruList;
+
+	// selects tiles to reuse for new blocks
+	private EvictionPolicy policy = new LruEvictionPolicy();
+
+	// records staged blocks and load latencies, or null
+	private EvictionTraceRecorder recorder;
+
+	// reusable view of lruList for policy
+	private final Iterable< Tile > candidates;
+
+	// timestamp of the current batch, tiles used at this timestamp are excluded from candidates
+	private int currentTimestamp;
+
+	/**
+	 * @param tiles
+	 *            tiles of the cache, indexed by {@code Tile.id}
+	 * @param lruList
+	 *            tiles that may be evicted, least recently used first
+	 */
+	TileEviction( final Tile[] tiles, final TileLruList lruList )
+	{
+		this.lruList = lruList;
+		candidates = () -> new Iterator< Tile >()
+		{
+			private int id = advance( lruList.first() );
+
+			private int advance( int id )
+			{
+				while ( id != TileLruList.NONE && tiles[ id ].lru == currentTimestamp )
+					id = lruList.next( id );
+				return id;
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				return id != TileLruList.NONE;
+			}
+
+			@Override
+			public Tile next()
+			{
+				if ( id == TileLruList.NONE )
+					throw new NoSuchElementException();
+				final Tile tile = tiles[ id ];
+				id = advance( lruList.next( id ) );
+				return tile;
+			}
+		};
+	}
+
+	void setPolicy( final EvictionPolicy policy )
+	{
+		this.policy = policy;
+	}
+
+	EvictionPolicy getPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 * @param recorder
+	 *            recorder of staged blocks and load latencies, or {@code null}
+	 * @param numTiles
+	 *            capacity of the cache, recorded when {@code recorder} is
+	 *            attached.
+	 */
+	void setRecorder( final EvictionTraceRecorder recorder, final int numTiles )
+	{
+		this.recorder = recorder;
+		if ( recorder != null )
+			recorder.capacity( numTiles );
+	}
+
+	/**
+	 * Called with the tasks of each batch, before tiles are selected.
+	 */
+	void staged( final Collection< ? extends FillTask > tasks )
+	{
+		if ( recorder != null )
+			recorder.stage( tasks );
+	}
+
+	/**
+	 * Get {@code size} tiles to reuse, as selected by the policy, excluding
+	 * tiles used at {@code currentTimestamp}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if there are not enough tiles to select from
+	 */
+	List< Tile > selectVictims( final int size, final int currentTimestamp )
+	{
+		if ( size > lruList.size() )
+			throw new IllegalArgumentException( "Requested blocks don't fit into TextureCache." );
+
+		final ArrayList< Tile > victims = new ArrayList<>( size );
+		this.currentTimestamp = currentTimestamp;
+		policy.selectVictims( candidates, size, currentTimestamp, victims );
+		if ( victims.size() < size )
+			throw new IllegalArgumentException( "Requested blocks don't fit into TextureCache." );
+		return victims;
+	}
+
+	/**
+	 * Called when the block in {@code tile} became complete.
+	 */
+	void loaded( final Tile tile )
+	{
+		final long latency = System.nanoTime() - tile.stageTime;
+		policy.blockLoaded( tile.level, latency );
+		if ( recorder != null )
+			recorder.loaded( tile.level, latency );
+	}
+}
@@ -0,0 +1,186 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.Arrays;
+
+/**
+ * Recency order of {@link TextureCache} tiles, implemented as a doubly-linked
+ * list over primitive arrays indexed by tile id.
+ * <p>
+ * Tiles are ordered from least recently used (head) to most recently used
+ * (tail). Moving a tile to the tail is O(1), so the oldest tiles can be
+ * enumerated from the head without sorting.
+ * <p>
+ * Ids that are not currently linked (e.g., the reserved out-of-bounds tile) are
+ * ignored by {@link #moveToLast(int)}.
+ */
+class TileLruList
+{
+	static final int NONE = -1;
+
+	private final int[] prev;
+
+	private final int[] next;
+
+	private final boolean[] linked;
+
+	private int head = NONE;
+
+	private int tail = NONE;
+
+	private int size = 0;
+
+	/**
+	 * @param capacity
+	 *            number of tile ids. Valid ids are {@code 0 ... capacity-1}.
+	 */
+	TileLruList( final int capacity )
+	{
+		prev = new int[ capacity ];
+		next = new int[ capacity ];
+		linked = new boolean[ capacity ];
+		Arrays.fill( prev, NONE );
+		Arrays.fill( next, NONE );
+	}
+
+	/**
+	 * Append tile {@code id} as the most recently used. The tile must not be
+	 * linked already.
+	 */
+	void addLast( final int id )
+	{
+		if ( linked[ id ] )
+			throw new IllegalArgumentException();
+
+		prev[ id ] = tail;
+		next[ id ] = NONE;
+		if ( tail == NONE )
+			head = id;
+		else
+			next[ tail ] = id;
+		tail = id;
+		linked[ id ] = true;
+		++size;
+	}
+
+	/**
+	 * Insert tile {@code id} as used just before tile {@code successor}, or
+	 * append it as the most recently used if {@code successor == NONE}. The
+	 * tile must not be linked already, {@code successor} must be linked.
+	 */
+	void addBefore( final int id, final int successor )
+	{
+		if ( successor == NONE )
+		{
+			addLast( id );
+			return;
+		}
+
+		if ( linked[ id ] || !linked[ successor ] )
+			throw new IllegalArgumentException();
+
+		final int p = prev[ successor ];
+		prev[ id ] = p;
+		next[ id ] = successor;
+		if ( p == NONE )
+			head = id;
+		else
+			next[ p ] = id;
+		prev[ successor ] = id;
+		linked[ id ] = true;
+		++size;
+	}
+
+	/**
+	 * Unlink tile {@code id}. Does nothing if the tile is not linked.
+	 */
+	void remove( final int id )
+	{
+		if ( !linked[ id ] )
+			return;
+
+		final int p = prev[ id ];
+		final int n = next[ id ];
+		if ( p == NONE )
+			head = n;
+		else
+			next[ p ] = n;
+		if ( n == NONE )
+			tail = p;
+		else
+			prev[ n ] = p;
+		prev[ id ] = NONE;
+		next[ id ] = NONE;
+		linked[ id ] = false;
+		--size;
+	}
+
+	/**
+	 * Mark tile {@code id} as the most recently used. Does nothing if the tile
+	 * is not linked.
+	 */
+	void moveToLast( final int id )
+	{
+		if ( !linked[ id ] || id == tail )
+			return;
+
+		remove( id );
+		addLast( id );
+	}
+
+	boolean contains( final int id )
+	{
+		return linked[ id ];
+	}
+
+	/**
+	 * @return id of the least recently used tile, or {@link #NONE} if the list is empty.
+	 */
+	int first()
+	{
+		return head;
+	}
+
+	/**
+	 * @return id of the tile used next after {@code id}, or {@link #NONE} if {@code id} is the most recently used.
+	 */
+	int next( final int id )
+	{
+		return next[ id ];
+	}
+
+	/**
+	 * @return number of linked tiles.
+	 */
+	int size()
+	{
+		return size;
+	}
+}
@@ -0,0 +1,501 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import bvv.core.blocks.ByteUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import net.imglib2.util.Intervals;
+
+/**
+ * Persistent on-disk store of padded tiles, backing a {@link TextureCache}
+ * across sessions. Complete tiles are written to a memory-mapped file when
+ * they are filled, and copied (with a single memcpy from the mapped file)
+ * into an {@link UploadBuffer} when the same block has to be filled again,
+ * possibly in a later session.
+ * <p>
+ * Tiles are identified by the persistent id of their image (provided by the
+ * {@code imageIds} function, e.g., dataset, setup, timepoint and resolution
+ * level) and their grid position. Tiles of images without a persistent id are
+ * not stored. The {@link CacheSpec} is part of the file names, so that stores
+ * for different specs can share one directory.
+ * <p>
+ * The store has a fixed number of slots, evicted with the CLOCK algorithm (see
+ * {@link ClockSlots}). Each slot starts with a header containing the key of
+ * the stored tile, so that the index (which is saved by {@link #close()})
+ * can be validated when reading, and rebuilt by scanning the slots if it is
+ * missing.
+ * <p>
+ * Only one {@code TileSpillStore} can use a directory (for a given
+ * {@code CacheSpec}) at a time. This class is thread-safe.
+ */
+public class TileSpillStore implements Closeable
+{
+	/**
+	 * Size of the slot header, which stores the length and UTF-8 bytes of
+	 * the key. Keys that don't fit are not stored.
+	 */
+	static final int HEADER_SIZE = 512;
+
+	private static final int INDEX_MAGIC = 0x42565453; // "BVTS"
+
+	private static final int INDEX_VERSION = 1;
+
+	/**
+	 * Maximum size of each of the memory-mapped regions storing the slots.
+	 */
+	private static final int MAX_CHUNK_SIZE_IN_BYTES = 1 << 30;
+
+	private final Function< Object, String > imageIds;
+
+	private final int tileSizeInBytes;
+
+	private final int slotSizeInBytes;
+
+	private final int slotsPerChunk;
+
+	private final MappedByteBuffer[] chunks;
+
+	private final ClockSlots< String > slots;
+
+	private final Path indexFile;
+
+	private final FileChannel lockChannel;
+
+	private final FileLock lock;
+
+	private boolean closed;
+
+	private long numHits;
+
+	private long numMisses;
+
+	/**
+	 * Open (or create) the store for tiles of the given {@code spec} in
+	 * {@code directory}. If the directory contains a store of a different
+	 * size, its content is discarded.
+	 *
+	 * @param directory
+	 *            directory containing the store files. It is created if
+	 *            necessary.
+	 * @param spec
+	 *            cache spec of the {@link TextureCache} that tiles are
+	 *            uploaded to
+	 * @param maxSizeInMB
+	 *            size of the store on disk
+	 * @param imageIds
+	 *            maps images of {@link ImageBlockKey}s to ids that are stable
+	 *            across sessions, or to {@code null} for images whose tiles
+	 *            should not be stored.
+	 *
+	 * @throws IOException
+	 *             if the store files cannot be created, or the store is used
+	 *             by another {@code TileSpillStore}.
+	 */
+	public TileSpillStore( final Path directory, final CacheSpec spec, final int maxSizeInMB, final Function< Object, String > imageIds ) throws IOException
+	{
+		this.imageIds = imageIds;
+		tileSizeInBytes = spec.format().getBytesPerElement() * ( int ) Intervals.numElements( spec.paddedBlockSize() );
+		slotSizeInBytes = HEADER_SIZE + tileSizeInBytes;
+		final int numSlots = ( int ) Math.min( ( long ) maxSizeInMB * 1024 * 1024 / slotSizeInBytes, Integer.MAX_VALUE );
+		slotsPerChunk = Math.max( 1, MAX_CHUNK_SIZE_IN_BYTES / slotSizeInBytes );
+		slots = new ClockSlots<>( numSlots );
+
+		Files.createDirectories( directory );
+		final int[] ps = spec.paddedBlockSize();
+		final String name = String.format( "tiles-%s-%dx%dx%d", spec.format(), ps[ 0 ], ps[ 1 ], ps[ 2 ] );
+		final Path dataFile = directory.resolve( name + ".dat" );
+		indexFile = directory.resolve( name + ".idx" );
+
+		lockChannel = FileChannel.open( directory.resolve( name + ".lock" ), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+		FileLock l;
+		try
+		{
+			l = lockChannel.tryLock();
+		}
+		catch ( final OverlappingFileLockException e )
+		{
+			l = null;
+		}
+		if ( l == null )
+		{
+			lockChannel.close();
+			throw new IOException( "TileSpillStore " + directory.resolve( name ) + " is in use." );
+		}
+		lock = l;
+
+		try
+		{
+			final long size = ( long ) numSlots * slotSizeInBytes;
+			final boolean reuse = Files.exists( dataFile ) && Files.size( dataFile ) == size;
+			try ( FileChannel channel = FileChannel.open( dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+			{
+				if ( !reuse )
+				{
+					channel.truncate( 0 );
+					if ( size > 0 )
+						channel.write( ByteBuffer.allocate( 1 ), size - 1 );
+				}
+				final int numChunks = ( numSlots + slotsPerChunk - 1 ) / slotsPerChunk;
+				chunks = new MappedByteBuffer[ numChunks ];
+				for ( int i = 0; i < numChunks; ++i )
+				{
+					final long offset = ( long ) i * slotsPerChunk * slotSizeInBytes;
+					final long length = ( long ) Math.min( slotsPerChunk, numSlots - i * slotsPerChunk ) * slotSizeInBytes;
+					chunks[ i ] = channel.map( FileChannel.MapMode.READ_WRITE, offset, length );
+				}
+			}
+			if ( reuse )
+				slots.restore( Files.exists( indexFile ) ? readIndex( numSlots ) : scanSlots( numSlots ) );
+			Files.deleteIfExists( indexFile );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			lock.release();
+			lockChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return whether the tile for {@code key} is stored.
+	 */
+	public synchronized boolean contains( final ImageBlockKey< ? > key )
+	{
+		final String k = persistentKey( key );
+		return k != null && slots.contains( k );
+	}
+
+	/**
+	 * If the tile for {@code key} is stored (and its slot header is valid),
+	 * pin it, so that it stays stored until it is copied by
+	 * {@link #fill(int, UploadBuffer)} or released by {@link #unpin(int)}.
+	 *
+	 * @return the pinned slot of the tile, or {@code -1} if it is not stored.
+	 */
+	public int pin( final ImageBlockKey< ? > key )
+	{
+		final String k = persistentKey( key );
+		if ( k == null )
+			return -1;
+
+		final int slot;
+		synchronized ( this )
+		{
+			slot = closed ? -1 : slots.pinForRead( k );
+			if ( slot < 0 )
+			{
+				++numMisses;
+				return -1;
+			}
+		}
+
+		// the header can be read without lock, the slot is not overwritten while pinned
+		final boolean valid = k.equals( readHeader( slot ) );
+		synchronized ( this )
+		{
+			if ( valid )
+				++numHits;
+			else
+			{
+				slots.unpin( slot );
+				slots.remove( k );
+				++numMisses;
+			}
+		}
+		return valid ? slot : -1;
+	}
+
+	/**
+	 * Release a slot that was {@link #pin pinned} without copying it.
+	 */
+	public synchronized void unpin( final int slot )
+	{
+		slots.unpin( slot );
+	}
+
+	/**
+	 * Copy the tile in a {@link #pin pinned} {@code slot} into
+	 * {@code buffer}, and unpin the slot.
+	 */
+	public void fill( final int slot, final UploadBuffer buffer )
+	{
+		try
+		{
+			ByteUtils.copyMemory( chunk( slot ), offset( slot ) + HEADER_SIZE, buffer.getBuffer(), buffer.getOffset(), tileSizeInBytes );
+		}
+		finally
+		{
+			unpin( slot );
+		}
+	}
+
+	/**
+	 * If the tile for {@code key} is stored, copy it into {@code buffer}.
+	 *
+	 * @return whether the tile was stored (and {@code buffer} was filled).
+	 */
+	public boolean fill( final ImageBlockKey< ? > key, final UploadBuffer buffer )
+	{
+		final int slot = pin( key );
+		if ( slot < 0 )
+			return false;
+		fill( slot, buffer );
+		return true;
+	}
+
+	/**
+	 * Store a copy of the tile for {@code key} from {@code buffer}. If
+	 * necessary, the least recently used tile is evicted to make room.
+	 *
+	 * @return {@code true} if the tile was added. {@code false} if it was
+	 *         already present, has no persistent id, or no slot could be
+	 *         evicted.
+	 */
+	public boolean put( final ImageBlockKey< ? > key, final UploadBuffer buffer )
+	{
+		final String k = persistentKey( key );
+		if ( k == null )
+			return false;
+		final byte[] header = k.getBytes( StandardCharsets.UTF_8 );
+		if ( header.length > HEADER_SIZE - 4 )
+			return false;
+
+		final int slot;
+		synchronized ( this )
+		{
+			slot = closed ? -1 : slots.pinForWrite( k );
+			if ( slot < 0 )
+				return false;
+		}
+
+		boolean written = false;
+		try
+		{
+			// invalidate header while the slot content is replaced
+			final ByteBuffer chunk = chunk( slot ).duplicate();
+			final int offset = ( int ) offset( slot );
+			chunk.putInt( offset, 0 );
+			ByteUtils.copyMemory( buffer.getBuffer(), buffer.getOffset(), chunk, offset + HEADER_SIZE, tileSizeInBytes );
+			chunk.position( offset + 4 );
+			chunk.put( header );
+			chunk.putInt( offset, header.length );
+			written = true;
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				slots.commit( k, slot, written );
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Write modified slots to disk and save the index. Tiles can still be
+	 * stored and read afterwards, but the saved index might then be stale
+	 * (this is detected when reading).
+	 */
+	public synchronized void flush() throws IOException
+	{
+		if ( closed )
+			return;
+		for ( final MappedByteBuffer chunk : chunks )
+			chunk.force();
+		writeIndex();
+	}
+
+	/**
+	 * {@link #flush() Flush} and release the store. Afterwards, no tiles are
+	 * read or stored anymore.
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if ( closed )
+			return;
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			closed = true;
+			lock.release();
+			lockChannel.close();
+		}
+	}
+
+	private String persistentKey( final ImageBlockKey< ? > key )
+	{
+		final String imageId = imageIds.apply( key.image() );
+		if ( imageId == null )
+			return null;
+		return imageId + "@" + key.x() + "," + key.y() + "," + key.z();
+	}
+
+	/**
+	 * @return the key stored in the header of {@code slot}, or {@code null}
+	 *         if the slot is empty or invalid.
+	 */
+	private String readHeader( final int slot )
+	{
+		final ByteBuffer chunk = chunk( slot ).duplicate();
+		final int offset = ( int ) offset( slot );
+		final int length = chunk.getInt( offset );
+		if ( length <= 0 || length > HEADER_SIZE - 4 )
+			return null;
+		final byte[] bytes = new byte[ length ];
+		chunk.position( offset + 4 );
+		chunk.get( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+	private Map< String, Integer > scanSlots( final int numSlots )
+	{
+		final Map< String, Integer > entries = new HashMap<>();
+		for ( int slot = 0; slot < numSlots; ++slot )
+		{
+			final String key = readHeader( slot );
+			if ( key != null )
+				entries.put( key, slot );
+		}
+		return entries;
+	}
+
+	private Map< String, Integer > readIndex( final int numSlots ) throws IOException
+	{
+		final Map< String, Integer > entries = new HashMap<>();
+		try ( InputStream is = Files.newInputStream( indexFile );
+				DataInputStream in = new DataInputStream( new BufferedInputStream( is ) ) )
+		{
+			if ( in.readInt() != INDEX_MAGIC
+					|| in.readInt() != INDEX_VERSION
+					|| in.readInt() != slotSizeInBytes
+					|| in.readInt() != numSlots )
+				return scanSlots( numSlots );
+			final int size = in.readInt();
+			for ( int i = 0; i < size; ++i )
+			{
+				final String key = in.readUTF();
+				final int slot = in.readInt();
+				entries.put( key, slot );
+			}
+		}
+		catch ( final IOException e )
+		{
+			return scanSlots( numSlots );
+		}
+		return entries;
+	}
+
+	private void writeIndex() throws IOException
+	{
+		final Map< String, Integer > entries = slots.entries();
+		final Path tmp = indexFile.resolveSibling( indexFile.getFileName() + ".tmp" );
+		try ( OutputStream os = Files.newOutputStream( tmp );
+				DataOutputStream out = new DataOutputStream( new BufferedOutputStream( os ) ) )
+		{
+			out.writeInt( INDEX_MAGIC );
+			out.writeInt( INDEX_VERSION );
+			out.writeInt( slotSizeInBytes );
+			out.writeInt( slots.numSlots() );
+			out.writeInt( entries.size() );
+			for ( final Map.Entry< String, Integer > entry : entries.entrySet() )
+			{
+				out.writeUTF( entry.getKey() );
+				out.writeInt( entry.getValue() );
+			}
+		}
+		Files.move( tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	private ByteBuffer chunk( final int slot )
+	{
+		return chunks[ slot / slotsPerChunk ];
+	}
+
+	private long offset( final int slot )
+	{
+		return ( long ) ( slot % slotsPerChunk ) * slotSizeInBytes;
+	}
+
+	/**
+	 * @return maximum number of tiles that can be stored
+	 */
+	public int getMaxNumTiles()
+	{
+		return slots.numSlots();
+	}
+
+	/**
+	 * @return number of tiles currently stored
+	 */
+	public synchronized int getNumTiles()
+	{
+		return slots.size();
+	}
+
+	/**
+	 * @return total number of lookups ({@link #pin} calls) that found the tile
+	 */
+	public synchronized long getNumHits()
+	{
+		return numHits;
+	}
+
+	/**
+	 * @return total number of lookups ({@link #pin} calls) that did not find
+	 *         the tile
+	 */
+	public synchronized long getNumMisses()
+	{
+		return numMisses;
+	}
+}
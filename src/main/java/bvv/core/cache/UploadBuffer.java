@@ -31,6 +31,7 @@ package bvv.core.cache;
 import java.nio.Buffer;
 
 import bvv.core.blocks.ByteUtils;
+import bvv.core.blocks.CopyGridBlock;
 
 public class UploadBuffer implements ByteUtils.Address
 {
@@ -38,6 +39,18 @@ public class UploadBuffer implements ByteUtils.Address
 	private final int offset;
 	private TextureCache.ContentState state;
 
+	/**
+	 * Value of {@link #getValidCells()} if it is not known which source cells
+	 * the tile contains.
+	 */
+	public static final long UNKNOWN_CELLS = CopyGridBlock.UNKNOWN_CELLS;
+
+	private long validCells = UNKNOWN_CELLS;
+
+	private int[] patchMin;
+
+	private int[] patchSize;
+
 	public UploadBuffer( final Buffer buffer, final int offset )
 	{
 		this.buffer = buffer;
@@ -49,6 +62,7 @@ public class UploadBuffer implements ByteUtils.Address
 	 *
 	 * @return a direct buffer
 	 */
+	@Override
 	public Buffer getBuffer()
 	{
 		return buffer;
@@ -59,6 +73,7 @@ public class UploadBuffer implements ByteUtils.Address
 	 *
 	 * @return offset in bytes
 	 */
+	@Override
 	public int getOffset()
 	{
 		return offset;
@@ -81,11 +96,58 @@ public class UploadBuffer implements ByteUtils.Address
 	}
 
 	/**
-	 * ...tentative...
+	 * Source cells (overlapping the tile) that the tile contains, as a bit
+	 * mask (see {@link CopyGridBlock#getValidCells()}), or
+	 * {@link #UNKNOWN_CELLS}.
+	 * <p>
+	 * If an incomplete tile is filled again, this is initialized to the source
+	 * cells that the tile already contains. A FillTask can then fill only a
+	 * {@link #setPatch(int[], int[]) patch} with the missing parts. A FillTask
+	 * should set this to the source cells that the tile contains after it is
+	 * filled, if it knows them.
 	 */
-	@Override
-	public long getAddress()
+	public long getValidCells()
+	{
+		return validCells;
+	}
+
+	public void setValidCells( final long validCells )
+	{
+		this.validCells = validCells;
+	}
+
+	/**
+	 * Called by FillTask to say that only the box {@code (min, size)} of the
+	 * tile was stored, densely, starting at {@link #getOffset()}. The rest of
+	 * the tile is unchanged. If {@code size} is {@code 0}, nothing was stored.
+	 */
+	public void setPatch( final int[] min, final int[] size )
+	{
+		patchMin = min.clone();
+		patchSize = size.clone();
+	}
+
+	/**
+	 * Was only a part of the tile stored (see {@link #setPatch(int[], int[])})?
+	 */
+	public boolean isPatch()
+	{
+		return patchMin != null;
+	}
+
+	/**
+	 * @return min of the stored part of the tile, or {@code null} if the whole tile was stored
+	 */
+	public int[] getPatchMin()
+	{
+		return patchMin;
+	}
+
+	/**
+	 * @return size of the stored part of the tile, or {@code null} if the whole tile was stored
+	 */
+	public int[] getPatchSize()
 	{
-		return ByteUtils.addressOf( buffer ) + offset;
+		return patchSize;
 	}
 }
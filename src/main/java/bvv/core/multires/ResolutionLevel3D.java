@@ -87,6 +87,19 @@ public interface ResolutionLevel3D< T > extends EuclideanSpace, Typed< T >
 	 */
 	RandomAccessibleInterval< T > getImage();
 
+	/**
+	 * Get an id of the image data of this level that is stable across
+	 * sessions, for example to identify blocks in persistent caches. Levels
+	 * with equal persistent ids must refer to the same image data.
+	 *
+	 * @return persistent id, or {@code null} if the image data cannot be
+	 *         identified across sessions.
+	 */
+	default String getPersistentId()
+	{
+		return null;
+	}
+
 	@Override
 	default int numDimensions()
 	{
@@ -58,9 +58,25 @@ public class SpimDataStacks implements Stacks
 
 	private final List< TimePoint > timepoints;
 
+	private final String datasetId;
+
 	public SpimDataStacks( final AbstractSpimData< ? > spimData )
+	{
+		this( spimData, null );
+	}
+
+	/**
+	 * @param datasetId
+	 *            id of {@code spimData} that is stable across sessions (e.g.,
+	 *            a path or URL of the dataset). It is used to build
+	 *            {@link ResolutionLevel3D#getPersistentId() persistent ids} of
+	 *            the resolution levels. If {@code null}, resolution levels
+	 *            have no persistent id.
+	 */
+	public SpimDataStacks( final AbstractSpimData< ? > spimData, final String datasetId )
 	{
 		this.spimData = spimData;
+		this.datasetId = datasetId;
 		registrations = spimData.getViewRegistrations();
 
 		setups = spimData.getSequenceDescription().getViewSetupsOrdered();
@@ -126,7 +142,7 @@ public class SpimDataStacks implements Stacks
 
 		final ResolutionLevel3DImp< ? >[] resolutionLevels = new ResolutionLevel3DImp[ numMipmapLevels ];
 		for ( int level = 0; level < numMipmapLevels; level++ )
-			resolutionLevels[ level ] = new ResolutionLevel3DImp( level, timepointId, setupId, spimData, resolutions[ level ], rais[ level], type );
+			resolutionLevels[ level ] = new ResolutionLevel3DImp( level, timepointId, setupId, spimData, datasetId, resolutions[ level ], rais[ level], type );
 
 		return new MultiResolutionStack3DImp( timepointId, setupId, spimData, model, resolutionLevels, type );
 	}
@@ -228,6 +244,8 @@ public class SpimDataStacks implements Stacks
 
 		private final AbstractSpimData< ? > spimData;
 
+		private final String datasetId;
+
 		private final int[] resolution;
 
 		private final RandomAccessibleInterval< T > rai;
@@ -243,6 +261,7 @@ public class SpimDataStacks implements Stacks
 				final int timepointId,
 				final int setupId,
 				final AbstractSpimData< ? > spimData,
+				final String datasetId,
 				final int[] resolution,
 				final RandomAccessibleInterval< T > rai,
 				final T type )
@@ -251,6 +270,7 @@ public class SpimDataStacks implements Stacks
 			this.timepointId = timepointId;
 			this.setupId = setupId;
 			this.spimData = spimData;
+			this.datasetId = datasetId;
 			this.resolution = resolution;
 			this.rai = rai;
 			this.type = type;
@@ -295,6 +315,14 @@ public class SpimDataStacks implements Stacks
 			return rai;
 		}
 
+		@Override
+		public String getPersistentId()
+		{
+			if ( datasetId == null )
+				return null;
+			return datasetId + "/setup" + setupId + "/t" + timepointId + "/s" + level;
+		}
+
 		@Override
 		public T getType()
 		{
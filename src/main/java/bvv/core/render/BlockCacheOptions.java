@@ -0,0 +1,346 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import bvv.core.blockmath.LodSelector;
+import bvv.core.blockmath.MipmapSizes;
+import bvv.core.cache.EvictionPolicy;
+import bvv.core.cache.TileSpillStore;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Settings of the {@link VolumeRenderer} for loading blocks of multi-resolution
+ * sources into the cache textures. Set via fluent setters, e.g.
+ *
+ * <pre>
+ * new BlockCacheOptions().numPbos( 8 ).prefetchSizeInMB( 64 )
+ * </pre>
+ *
+ * Unset values keep their defaults, which disable all optional features.
+ */
+public class BlockCacheOptions
+{
+	private int numPbos = 5;
+
+	private int blocksPerPbo = 100;
+
+	private boolean adaptivePboChain = false;
+
+	private boolean lockFreePboChain = false;
+
+	private int prefetchSizeInMB = 0;
+
+	private int maxFillMillis = 0;
+
+	private int hostTileCacheSizeInMB = 0;
+
+	private Path tileSpillDirectory = null;
+
+	private int tileSpillSizeInMB = 0;
+
+	private int numPinnedLevels = 0;
+
+	private int maxPinnedSizeInMB = 0;
+
+	private boolean patchIncompleteTiles = false;
+
+	private Supplier< EvictionPolicy > evictionPolicy = EvictionPolicy::lru;
+
+	private Path evictionTraceDirectory = null;
+
+	private boolean incrementalBlockUpdates = false;
+
+	private Supplier< LodSelector > lodSelector = MipmapSizes::new;
+
+	/**
+	 * @param n
+	 *            number of PBOs used for staging uploads to each cache texture
+	 *            (maximum number, if {@link #adaptivePboChain(boolean)})
+	 * @return this instance.
+	 */
+	public BlockCacheOptions numPbos( final int n )
+	{
+		numPbos = n;
+		return this;
+	}
+
+	/**
+	 * @param n
+	 *            size in blocks of each PBO (maximum size, if
+	 *            {@link #adaptivePboChain(boolean)})
+	 * @return this instance.
+	 */
+	public BlockCacheOptions blocksPerPbo( final int n )
+	{
+		blocksPerPbo = n;
+		return this;
+	}
+
+	/**
+	 * @param b
+	 *            whether to adapt the number and size of PBOs to the observed
+	 *            per-frame fill counts and upload stalls
+	 * @return this instance.
+	 */
+	public BlockCacheOptions adaptivePboChain( final boolean b )
+	{
+		adaptivePboChain = b;
+		return this;
+	}
+
+	/**
+	 * @param b
+	 *            whether fill threads claim and commit PBO upload buffers
+	 *            without locking (see {@link bvv.core.cache.PboChain})
+	 * @return this instance.
+	 */
+	public BlockCacheOptions lockFreePboChain( final boolean b )
+	{
+		lockFreePboChain = b;
+		return this;
+	}
+
+	/**
+	 * @param s
+	 *            size of the staging memory (for each cache texture) for blocks
+	 *            that are prefetched in the background, based on the predicted
+	 *            camera motion. {@code 0} disables prefetching.
+	 * @return this instance.
+	 */
+	public BlockCacheOptions prefetchSizeInMB( final int s )
+	{
+		prefetchSizeInMB = s;
+		return this;
+	}
+
+	/**
+	 * @param ms
+	 *            time budget in milliseconds for filling cache tiles in one
+	 *            frame. If it runs out, the remaining blocks are filled in
+	 *            subsequent {@code LOAD} repaints (in priority order).
+	 *            {@code 0} fills all blocks required for the frame at once.
+	 * @return this instance.
+	 */
+	public BlockCacheOptions maxFillMillis( final int ms )
+	{
+		maxFillMillis = ms;
+		return this;
+	}
+
+	/**
+	 * @param s
+	 *            size of the host memory cache (for each cache texture) of
+	 *            filled tiles. Tiles that are evicted from the cache texture
+	 *            and needed again are copied from there. {@code 0} disables
+	 *            the host tile cache.
+	 * @return this instance.
+	 */
+	public BlockCacheOptions hostTileCacheSizeInMB( final int s )
+	{
+		hostTileCacheSizeInMB = s;
+		return this;
+	}
+
+	/**
+	 * @param dir
+	 *            directory of the persistent on-disk store of filled tiles,
+	 *            which is kept across sessions (see {@link TileSpillStore}).
+	 *            {@code null} disables the tile spill store.
+	 * @param sizeInMB
+	 *            size of the tile spill store (for each cache texture).
+	 * @return this instance.
+	 */
+	public BlockCacheOptions tileSpillStore( final Path dir, final int sizeInMB )
+	{
+		tileSpillDirectory = dir;
+		tileSpillSizeInMB = sizeInMB;
+		return this;
+	}
+
+	/**
+	 * @param n
+	 *            how many of the coarsest resolution levels of each visible
+	 *            source to keep resident in the cache texture, so that there
+	 *            is always a fallback to render. {@code 0} disables pinning.
+	 * @param maxSizeInMB
+	 *            maximum size of the pinned levels of each source, or
+	 *            {@code 0} for no limit (apart from a quarter of the cache
+	 *            texture).
+	 * @return this instance.
+	 */
+	public BlockCacheOptions pinnedLevels( final int n, final int maxSizeInMB )
+	{
+		numPinnedLevels = n;
+		maxPinnedSizeInMB = maxSizeInMB;
+		return this;
+	}
+
+	/**
+	 * @param b
+	 *            whether to upload partially loaded blocks, and complete them
+	 *            later by uploading only the missing parts.
+	 * @return this instance.
+	 */
+	public BlockCacheOptions patchIncompleteTiles( final boolean b )
+	{
+		patchIncompleteTiles = b;
+		return this;
+	}
+
+	/**
+	 * @param f
+	 *            creates the policy that selects which tiles of each cache
+	 *            texture are reused for new blocks (see {@link EvictionPolicy}).
+	 * @return this instance.
+	 */
+	public BlockCacheOptions evictionPolicy( final Supplier< EvictionPolicy > f )
+	{
+		evictionPolicy = f;
+		return this;
+	}
+
+	/**
+	 * @param dir
+	 *            directory where the block requests of each cache texture are
+	 *            recorded, for offline replay. {@code null} disables
+	 *            recording.
+	 * @return this instance.
+	 */
+	public BlockCacheOptions evictionTraceDirectory( final Path dir )
+	{
+		evictionTraceDirectory = dir;
+		return this;
+	}
+
+	/**
+	 * @param b
+	 *            whether to keep blocks that are resident and complete since
+	 *            the previous frame without re-evaluating them, and upload
+	 *            only the changed region of the lookup textures.
+	 * @return this instance.
+	 */
+	public BlockCacheOptions incrementalBlockUpdates( final boolean b )
+	{
+		incrementalBlockUpdates = b;
+		return this;
+	}
+
+	/**
+	 * @param f
+	 *            creates the {@link LodSelector} for each source, which
+	 *            selects the resolution level of each required block.
+	 * @return this instance.
+	 */
+	public BlockCacheOptions lodSelector( final Supplier< LodSelector > f )
+	{
+		lodSelector = f;
+		return this;
+	}
+
+	public int getNumPbos()
+	{
+		return numPbos;
+	}
+
+	public int getBlocksPerPbo()
+	{
+		return blocksPerPbo;
+	}
+
+	public boolean isAdaptivePboChain()
+	{
+		return adaptivePboChain;
+	}
+
+	public boolean isLockFreePboChain()
+	{
+		return lockFreePboChain;
+	}
+
+	public int getPrefetchSizeInMB()
+	{
+		return prefetchSizeInMB;
+	}
+
+	public int getMaxFillMillis()
+	{
+		return maxFillMillis;
+	}
+
+	public int getHostTileCacheSizeInMB()
+	{
+		return hostTileCacheSizeInMB;
+	}
+
+	public Path getTileSpillDirectory()
+	{
+		return tileSpillDirectory;
+	}
+
+	public int getTileSpillSizeInMB()
+	{
+		return tileSpillSizeInMB;
+	}
+
+	public int getNumPinnedLevels()
+	{
+		return numPinnedLevels;
+	}
+
+	public int getMaxPinnedSizeInMB()
+	{
+		return maxPinnedSizeInMB;
+	}
+
+	public boolean isPatchIncompleteTiles()
+	{
+		return patchIncompleteTiles;
+	}
+
+	public Supplier< EvictionPolicy > getEvictionPolicy()
+	{
+		return evictionPolicy;
+	}
+
+	public Path getEvictionTraceDirectory()
+	{
+		return evictionTraceDirectory;
+	}
+
+	public boolean isIncrementalBlockUpdates()
+	{
+		return incrementalBlockUpdates;
+	}
+
+	public Supplier< LodSelector > getLodSelector()
+	{
+		return lodSelector;
+	}
+}
@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import bvv.core.blockmath.ClipRegion;
+import bvv.core.blockmath.LodSelector;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.FillTask;
+import bvv.core.cache.ImageBlockKey;
+import bvv.core.cache.PrefetchBuffer;
+import bvv.core.multires.MultiResolutionStack3D;
+import bvv.core.multires.ResolutionLevel3D;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+
+/**
+ * Copies blocks that are predicted to be required for the next frame into
+ * {@link PrefetchBuffer}s on a background thread, so that the next frame's
+ * fill tasks for these blocks are a single memcpy into the PBO.
+ * <p>
+ * Blocks that are required for the current frame are not prefetched (they are
+ * already in the texture cache, or are being loaded). Prefetching also
+ * touches source cells, which triggers loading of volatile sources early.
+ */
+class BlockPrefetcher
+{
+	/**
+	 * Prefetch request for the sources sharing one {@code TextureCache}.
+	 */
+	static class Job
+	{
+		private final List< ? extends MultiResolutionStack3D< ? > > stacks;
+
+		private final List< ClipRegion > clipRegions;
+
+		private final CacheSpec cacheSpec;
+
+		private final PrefetchBuffer prefetchBuffer;
+
+		private final List< ? extends FillTask > currentTasks;
+
+		private final List< ? extends ImageBlockKey< ? > > retainedKeys;
+
+		/**
+		 * @param stacks
+		 *            sources to prefetch
+		 * @param clipRegions
+		 *            clip region of each source
+		 * @param cacheSpec
+		 *            spec of the {@code TextureCache} that the sources are
+		 *            rendered from. (The {@code TextureCache} itself must not
+		 *            be passed, because it is not thread-safe.)
+		 * @param prefetchBuffer
+		 *            staging memory to prefetch into
+		 * @param currentTasks
+		 *            fill tasks of the current frame (must not be modified
+		 *            anymore)
+		 * @param retainedKeys
+		 *            blocks of the current frame that are resident without
+		 *            fill tasks (see {@link VolumeBlocks#getNumRetainedBlocks()})
+		 */
+		Job(
+				final List< ? extends MultiResolutionStack3D< ? > > stacks,
+				final List< ClipRegion > clipRegions,
+				final CacheSpec cacheSpec,
+				final PrefetchBuffer prefetchBuffer,
+				final List< ? extends FillTask > currentTasks,
+				final List< ? extends ImageBlockKey< ? > > retainedKeys )
+		{
+			this.stacks = stacks;
+			this.clipRegions = clipRegions;
+			this.cacheSpec = cacheSpec;
+			this.prefetchBuffer = prefetchBuffer;
+			this.currentTasks = currentTasks;
+			this.retainedKeys = retainedKeys;
+		}
+	}
+
+	private final ExecutorService executor;
+
+	private final AtomicBoolean busy = new AtomicBoolean();
+
+	/**
+	 * VolumeBlocks for predicting required blocks. Only accessed by the
+	 * prefetch thread.
+	 */
+	private final ArrayList< VolumeBlocks > volumes = new ArrayList<>();
+
+	/**
+	 * Creates the {@code LodSelector} for each {@link #volumes VolumeBlocks}
+	 * (the same kind as used for rendering).
+	 */
+	private final Supplier< LodSelector > lodSelector;
+
+	/**
+	 * @param lodSelector
+	 *            creates the {@code LodSelector} for each source
+	 */
+	BlockPrefetcher( final Supplier< LodSelector > lodSelector )
+	{
+		this.lodSelector = lodSelector;
+		executor = Executors.newSingleThreadExecutor( r -> {
+			final Thread thread = new Thread( r, "BigVolumeViewer prefetch" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	/**
+	 * Start prefetching blocks for {@code jobs}, as seen with the predicted
+	 * {@code pv} matrix. Does nothing if the previous prefetch is still
+	 * running.
+	 *
+	 * @param jobs
+	 *            prefetch requests, one for each {@code TextureCache}
+	 * @param pv
+	 *            predicted {@code projection * view} matrix
+	 * @param viewportWidth
+	 *            width of the surface to be rendered
+	 */
+	void prefetch( final List< Job > jobs, final Matrix4fc pv, final int viewportWidth )
+	{
+		if ( jobs.isEmpty() || !busy.compareAndSet( false, true ) )
+			return;
+
+		final Matrix4f predictedPv = new Matrix4f( pv );
+		executor.execute( () -> {
+			try
+			{
+				int vi = 0;
+				for ( final Job job : jobs )
+					vi = run( job, predictedPv, viewportWidth, vi );
+			}
+			finally
+			{
+				busy.set( false );
+			}
+		} );
+	}
+
+	/**
+	 * Wait until the running prefetch (if any) is finished.
+	 */
+	void awaitIdle() throws InterruptedException
+	{
+		final CountDownLatch done = new CountDownLatch( 1 );
+		executor.execute( done::countDown );
+		done.await();
+	}
+
+	/**
+	 * @param vi index of first VolumeBlocks to use
+	 * @return index of next VolumeBlocks to use
+	 */
+	private int run( final Job job, final Matrix4fc pv, final int viewportWidth, int vi )
+	{
+		final HashSet< ImageBlockKey< ? > > current = new HashSet<>();
+		for ( final FillTask task : job.currentTasks )
+			current.add( task.getKey() );
+		current.addAll( job.retainedKeys );
+
+		final HashSet< ImageBlockKey< ? > > predicted = new HashSet<>();
+		final List< List< ImageBlockKey< ResolutionLevel3D< ? > > > > keysPerVolume = new ArrayList<>();
+		for ( int i = 0; i < job.stacks.size(); i++ )
+		{
+			final VolumeBlocks volume = volume( vi++ );
+			volume.init( job.stacks.get( i ), job.cacheSpec, viewportWidth, pv );
+			volume.setClipRegion( job.clipRegions.get( i ) );
+			final List< ImageBlockKey< ResolutionLevel3D< ? > > > keys = new ArrayList<>();
+			for ( final ImageBlockKey< ResolutionLevel3D< ? > > key : volume.getRequiredBlockKeys() )
+				if ( !current.contains( key ) && predicted.add( key ) )
+					keys.add( key );
+			keysPerVolume.add( keys );
+		}
+
+		final PrefetchBuffer prefetchBuffer = job.prefetchBuffer;
+		prefetchBuffer.retainAll( predicted );
+		for ( int i = 0; i < keysPerVolume.size(); i++ )
+		{
+			final VolumeBlocks volume = volumes.get( vi - keysPerVolume.size() + i );
+			for ( final ImageBlockKey< ResolutionLevel3D< ? > > key : keysPerVolume.get( i ) )
+				if ( !prefetchBuffer.contains( key ) )
+					prefetchBuffer.prefetch( key, buf -> volume.loadTile( key, buf ) );
+		}
+		return vi;
+	}
+
+	private VolumeBlocks volume( final int i )
+	{
+		while ( volumes.size() <= i )
+			volumes.add( new VolumeBlocks( lodSelector.get() ) );
+		return volumes.get( i );
+	}
+}
@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import org.joml.Matrix4f;
+
+/**
+ * Predicts the {@code projection * view} matrix of the next frame from the
+ * camera motion between successive {@link RenderData}s, assuming constant
+ * velocity.
+ */
+public class CameraMotionPredictor
+{
+	private final RenderData previous = new RenderData();
+
+	private boolean hasPrevious = false;
+
+	/**
+	 * Motion between the last two frames: {@code pv(t) = delta * pv(t-1)}.
+	 */
+	private final Matrix4f delta = new Matrix4f();
+
+	private boolean moving = false;
+
+	private final Matrix4f tmp = new Matrix4f();
+
+	/**
+	 * Update with the {@code RenderData} of a new frame.
+	 */
+	public void update( final RenderData current )
+	{
+		moving = false;
+		if ( hasPrevious && isComparable( previous, current ) )
+		{
+			// (compare the matrices, not delta with identity: with float
+			// precision, delta of a static camera is not exactly identity)
+			moving = !current.getPv().equals( previous.getPv() );
+			if ( moving )
+				current.getPv().mul( previous.getPv().invert( tmp ), delta );
+		}
+		previous.set( current );
+		hasPrevious = true;
+	}
+
+	/**
+	 * Forget the camera motion so far.
+	 */
+	public void reset()
+	{
+		hasPrevious = false;
+		moving = false;
+	}
+
+	/**
+	 * Predict the {@code projection * view} matrix of the next frame.
+	 *
+	 * @param dest
+	 *            stores the prediction
+	 * @return {@code false} if there is no prediction, because the camera was
+	 *         not moving (or because there is not enough information yet).
+	 */
+	public boolean predict( final Matrix4f dest )
+	{
+		if ( !moving )
+			return false;
+		delta.mul( previous.getPv(), dest );
+		return true;
+	}
+
+	/**
+	 * Only frames with identical timepoint, projection, and screen size are
+	 * used to estimate camera motion.
+	 */
+	private static boolean isComparable( final RenderData a, final RenderData b )
+	{
+		return a.getTimepoint() == b.getTimepoint()
+				&& a.getDCam() == b.getDCam()
+				&& a.getDClipNear() == b.getDClipNear()
+				&& a.getDClipFar() == b.getDClipFar()
+				&& a.getScreenWidth() == b.getScreenWidth()
+				&& a.getScreenHeight() == b.getScreenHeight();
+	}
+}
@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+import bvv.core.cache.ImageBlockKey;
+
+/**
+ * Set of blocks of a multi-resolution source, identified by resolution level
+ * and grid coordinates.
+ * <p>
+ * Grid coordinates are packed into a {@code long} per level, with 21 bits per
+ * dimension. Blocks with larger coordinates are kept in a (slower) set of
+ * {@link ImageBlockKey}s, so that distinct blocks never alias.
+ * <p>
+ * Not thread-safe.
+ */
+class LevelBlockSet
+{
+	/**
+	 * Maximum grid coordinate (in each dimension) that can be packed.
+	 */
+	static final int MAX_GRID_POS = ( 1 << 21 ) - 1;
+
+	/**
+	 * {@code levels[ l ]} contains the packed keys of blocks at level {@code l}
+	 * (or is {@code null} if there are none).
+	 */
+	private TLongHashSet[] levels = new TLongHashSet[ 0 ];
+
+	private final Set< ImageBlockKey< Integer > > unpacked = new HashSet<>();
+
+	private int size;
+
+	/**
+	 * Add block {@code gridPos} of resolution {@code level}.
+	 *
+	 * @return {@code true} if the block was not in the set yet.
+	 */
+	public boolean add( final int level, final int[] gridPos )
+	{
+		final boolean added = isPackable( gridPos )
+				? level( level ).add( key( gridPos ) )
+				: unpacked.add( new ImageBlockKey<>( level, gridPos ) );
+		if ( added )
+			++size;
+		return added;
+	}
+
+	/**
+	 * Whether block {@code gridPos} of resolution {@code level} is in the set.
+	 */
+	public boolean contains( final int level, final int[] gridPos )
+	{
+		if ( !isPackable( gridPos ) )
+			return unpacked.contains( new ImageBlockKey<>( level, gridPos ) );
+		return level < levels.length && levels[ level ] != null && levels[ level ].contains( key( gridPos ) );
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		if ( size == 0 )
+			return;
+		for ( final TLongHashSet keys : levels )
+			if ( keys != null )
+				keys.clear();
+		unpacked.clear();
+		size = 0;
+	}
+
+	private TLongHashSet level( final int level )
+	{
+		if ( level >= levels.length )
+			levels = Arrays.copyOf( levels, level + 1 );
+		if ( levels[ level ] == null )
+			levels[ level ] = new TLongHashSet();
+		return levels[ level ];
+	}
+
+	static boolean isPackable( final int[] gridPos )
+	{
+		return ( ( gridPos[ 0 ] | gridPos[ 1 ] | gridPos[ 2 ] ) & ~MAX_GRID_POS ) == 0;
+	}
+
+	/**
+	 * Pack grid coordinates into a {@code long}.
+	 * <p>
+	 * The packed bits are scrambled (bijectively), because the trove hash of a
+	 * {@code long} XORs its upper and lower halves, which would make
+	 * coordinates collide.
+	 */
+	static long key( final int[] gridPos )
+	{
+		final long packed = ( ( long ) gridPos[ 0 ] << 42 ) | ( ( long ) gridPos[ 1 ] << 21 ) | gridPos[ 2 ];
+		return packed * 0x9e3779b97f4a7c15L;
+	}
+}
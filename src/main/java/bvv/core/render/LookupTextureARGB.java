@@ -30,6 +30,7 @@ package bvv.core.render;
 
 import bvv.core.cache.TextureCache;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import net.imglib2.util.IntervalIndexer;
 import org.joml.Vector3f;
 import bvv.core.backend.GpuContext;
@@ -62,11 +63,39 @@ public class LookupTextureARGB implements Texture3D
 	 * then uploaded to the GPU with {@link #upload(GpuContext)}.
 	 * <p>
 	 * Each voxel (4 bytes, "RGBA") represents a tile in the cache:
-	 * X,Y,Z grid coordinates, and
-	 * resolution relative to {@code baseLevel} (1 means {@code baseLevel}).
+	 * X,Y,Z grid coordinates (in the tile's shard), and
+	 * resolution relative to {@code baseLevel} (1 means {@code baseLevel})
+	 * in the lower 4 bits, and the {@link TextureCache.Tile#shard() shard}
+	 * index in the upper 4 bits.
 	 */
 	private ByteBuffer data;
 
+	/**
+	 * Whether the lut was set up by {@link #update(int[], int[], int)}, so
+	 * that the next {@code update} may keep it.
+	 */
+	private boolean incremental;
+
+	/**
+	 * Whether the texture has the current size and contains the lut data,
+	 * except for the {@link #dirtyMin dirty box}. Then
+	 * {@link #upload(GpuContext)} only uploads the dirty box.
+	 */
+	private boolean textureValid;
+
+	/**
+	 * Bounding box of the cells that changed since the last upload. (Only
+	 * maintained if {@link #textureValid}. Empty if {@code dirtyMin[0] > dirtyMax[0]}.)
+	 */
+	private final int[] dirtyMin = new int[ 3 ];
+
+	private final int[] dirtyMax = new int[ 3 ];
+
+	/**
+	 * Staging memory for uploading the changed region of the lut.
+	 */
+	private ByteBuffer region;
+
 	/**
 	 * Reinitialize the lut data.
 	 *
@@ -75,6 +104,9 @@ public class LookupTextureARGB implements Texture3D
 	 */
 	public void init( final int[] rmin, final int[] rmax, final int baseLevel )
 	{
+		incremental = false;
+		textureValid = false;
+		clearDirty();
 		this.baseLevel = baseLevel;
 
 		size[ 0 ] = rmax[ 0 ] - rmin[ 0 ] + 1 + 2 * pad[ 0 ];
@@ -88,9 +120,59 @@ public class LookupTextureARGB implements Texture3D
 		final int numBytes = 4 * size[ 0 ] * size[ 1 ] * size[ 2 ];
 		if ( data == null || data.capacity() < numBytes )
 			data = ByteBuffer.allocateDirect( 3 * numBytes / 2 ); // allocate a bit more than needed...
-		ByteUtils.setBytes( ( byte ) 0, ByteUtils.addressOf( data ), numBytes );
+		ByteUtils.setBytes( ( byte ) 0, data, 0, numBytes );
+	}
+
+	/**
+	 * Like {@link #init(int[], int[], int)}, but keep the current lut data if
+	 * it already represents {@code rmin ... rmax} at {@code baseLevel} (and is
+	 * not much larger than necessary). Otherwise, the lut is reinitialized
+	 * with some margin around {@code rmin ... rmax}, so that it can be kept
+	 * while the required blocks move a bit.
+	 * <p>
+	 * If the lut data is kept, cells that should not be represented anymore
+	 * must be {@link #clearTile(int) cleared}. The following
+	 * {@link #upload(GpuContext)} only uploads the region that changed.
+	 *
+	 * @param rmin min source grid coordinate that needs to be represented.
+	 * @param rmax max source grid coordinate that needs to be represented.
+	 *
+	 * @return {@code true} if the lut data was kept, {@code false} if it was reinitialized.
+	 */
+	public boolean update( final int[] rmin, final int[] rmax, final int baseLevel )
+	{
+		if ( incremental && baseLevel == this.baseLevel )
+		{
+			boolean contained = true;
+			long numRequiredCells = 1;
+			for ( int d = 0; d < 3; ++d )
+			{
+				contained &= rmin[ d ] >= offset[ d ] + pad[ d ] && rmax[ d ] < offset[ d ] + size[ d ] - pad[ d ];
+				numRequiredCells *= rmax[ d ] - rmin[ d ] + 1 + 2 * pad[ d ];
+			}
+			if ( contained && numCells() <= MAX_OVERSIZE * numRequiredCells )
+				return true;
+		}
+
+		final int[] gmin = new int[ 3 ];
+		final int[] gmax = new int[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+		{
+			final int margin = Math.max( 1, ( rmax[ d ] - rmin[ d ] + 1 ) / 8 );
+			gmin[ d ] = rmin[ d ] - margin;
+			gmax[ d ] = rmax[ d ] + margin;
+		}
+		init( gmin, gmax, baseLevel );
+		incremental = true;
+		return false;
 	}
 
+	/**
+	 * {@link #update(int[], int[], int)} keeps the lut data only if it has at
+	 * most {@code MAX_OVERSIZE} times the necessary number of cells.
+	 */
+	private static final int MAX_OVERSIZE = 4;
+
 	/**
 	 * @param g0 source grid coordinate at which to put the tile
 	 * @param tile cache tile to put into lut
@@ -98,17 +180,127 @@ public class LookupTextureARGB implements Texture3D
 	 */
 	public void putTile( final int[] g0, final TextureCache.Tile tile, final int level )
 	{
-		final int i = IntervalIndexer.positionWithOffsetToIndex( g0, size, offset );
-		data.put( i * 4, ( byte ) tile.x() );
-		data.put( i * 4 + 1, ( byte ) tile.y() );
-		data.put( i * 4 + 2, ( byte ) tile.z() );
-		data.put( i * 4 + 3, ( byte ) ( level - baseLevel + 1 ) );
+		putTile( IntervalIndexer.positionWithOffsetToIndex( g0, size, offset ), tile, level );
 	}
 
+	/**
+	 * @param i index (see {@link #indexOf(int[])}) at which to put the tile
+	 * @param tile cache tile to put into lut
+	 * @param level resolution level of the tile
+	 */
+	void putTile( final int i, final TextureCache.Tile tile, final int level )
+	{
+		// (data is big-endian, so the bytes are X, Y, Z, level|shard)
+		setCell( i, ( tile.x() & 0xff ) << 24
+				| ( tile.y() & 0xff ) << 16
+				| ( tile.z() & 0xff ) << 8
+				| ( ( level - baseLevel + 1 ) | ( tile.shard() << 4 ) ) & 0xff );
+	}
+
+	/**
+	 * Reset the cell at index {@code i} (see {@link #indexOf(int[])}) to point
+	 * to the out-of-bounds tile.
+	 */
+	void clearTile( final int i )
+	{
+		setCell( i, 0 );
+	}
+
+	/**
+	 * Set the cell at index {@code i} to {@code value}, and add it to the
+	 * dirty box if it changed. This may be called concurrently for different
+	 * cells.
+	 */
+	private void setCell( final int i, final int value )
+	{
+		if ( data.getInt( i * 4 ) != value )
+		{
+			data.putInt( i * 4, value );
+			if ( textureValid )
+				markDirty( i );
+		}
+	}
+
+	private synchronized void markDirty( final int i )
+	{
+		final int x = i % size[ 0 ];
+		final int y = ( i / size[ 0 ] ) % size[ 1 ];
+		final int z = i / ( size[ 0 ] * size[ 1 ] );
+		dirtyMin[ 0 ] = Math.min( dirtyMin[ 0 ], x );
+		dirtyMin[ 1 ] = Math.min( dirtyMin[ 1 ], y );
+		dirtyMin[ 2 ] = Math.min( dirtyMin[ 2 ], z );
+		dirtyMax[ 0 ] = Math.max( dirtyMax[ 0 ], x );
+		dirtyMax[ 1 ] = Math.max( dirtyMax[ 1 ], y );
+		dirtyMax[ 2 ] = Math.max( dirtyMax[ 2 ], z );
+	}
+
+	private void clearDirty()
+	{
+		Arrays.fill( dirtyMin, Integer.MAX_VALUE );
+		Arrays.fill( dirtyMax, -1 );
+	}
+
+	/**
+	 * Get the index of source grid coordinate {@code g0} in the lut data.
+	 *
+	 * @return index of {@code g0}, or {@code -1} if {@code g0} is not
+	 *         represented (i.e., outside the lut or in its border).
+	 */
+	int indexOf( final int[] g0 )
+	{
+		for ( int d = 0; d < 3; ++d )
+			if ( g0[ d ] < offset[ d ] + pad[ d ] || g0[ d ] >= offset[ d ] + size[ d ] - pad[ d ] )
+				return -1;
+		return IntervalIndexer.positionWithOffsetToIndex( g0, size, offset );
+	}
+
+	/**
+	 * Number of cells of the lut texture.
+	 */
+	int numCells()
+	{
+		return size[ 0 ] * size[ 1 ] * size[ 2 ];
+	}
+
+	int getBaseLevel()
+	{
+		return baseLevel;
+	}
+
+	/**
+	 * Upload the lut data to the texture. If the texture still has the right
+	 * size (i.e., the lut was kept by {@link #update(int[], int[], int)}),
+	 * only the smallest box containing all cells that changed since the last
+	 * upload is uploaded.
+	 */
 	public void upload( final GpuContext context )
 	{
-		context.delete( this );
-		context.texSubImage3D( this, 0, 0, 0, texWidth(), texHeight(), texDepth(), data );
+		if ( !textureValid )
+		{
+			context.delete( this );
+			context.texSubImage3D( this, 0, 0, 0, texWidth(), texHeight(), texDepth(), data );
+			textureValid = true;
+			return;
+		}
+
+		if ( dirtyMax[ 0 ] < 0 )
+			return;
+
+		// copy dirty box to staging memory
+		final int sx = size[ 0 ];
+		final int sy = size[ 1 ];
+		final int x0 = dirtyMin[ 0 ], y0 = dirtyMin[ 1 ], z0 = dirtyMin[ 2 ];
+		final int w = dirtyMax[ 0 ] - x0 + 1;
+		final int h = dirtyMax[ 1 ] - y0 + 1;
+		final int d = dirtyMax[ 2 ] - z0 + 1;
+		final int numBytes = 4 * w * h * d;
+		if ( region == null || region.capacity() < numBytes )
+			region = ByteBuffer.allocateDirect( 3 * numBytes / 2 ).order( data.order() );
+		for ( int z = z0, j = 0; z < z0 + d; ++z )
+			for ( int y = y0; y < y0 + h; ++y, j += w )
+				ByteUtils.copyMemory( data, 4L * ( ( z * sy + y ) * sx + x0 ), region, 4L * j, 4L * w );
+		context.texSubImage3D( this, x0, y0, z0, w, h, d, region );
+		clearDirty();
 	}
 
 	public Vector3f getOffset3f()
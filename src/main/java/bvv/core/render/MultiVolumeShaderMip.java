@@ -29,14 +29,17 @@
 package bvv.core.render;
 
 import bdv.tools.brightness.ConverterSetup;
+import bvv.core.blockmath.ClipRegion;
 import bvv.core.cache.CacheSpec;
 import bvv.core.cache.TextureCache;
 import bvv.core.multires.SourceStacks;
 import bvv.core.shadergen.Uniform1f;
+import bvv.core.shadergen.Uniform1i;
 import bvv.core.shadergen.Uniform2f;
 import bvv.core.shadergen.Uniform3f;
 import bvv.core.shadergen.Uniform3fv;
 import bvv.core.shadergen.Uniform4f;
+import bvv.core.shadergen.Uniform4fv;
 import bvv.core.shadergen.UniformMatrix4f;
 import bvv.core.shadergen.UniformSampler;
 import bvv.core.shadergen.generate.Segment;
@@ -55,12 +58,17 @@ import org.joml.Vector4f;
 import bvv.core.backend.GpuContext;
 import bvv.core.backend.Texture;
 import bvv.core.backend.Texture2D;
+import bvv.core.backend.Texture3D;
 import bvv.core.dither.DitherBuffer;
 
 public class MultiVolumeShaderMip
 {
 	private static final int NUM_BLOCK_SCALES = 10;
 
+	private static final int NUM_CACHE_SHARDS = TextureCache.MAX_SHARDS;
+
+	private static final int MAX_CLIP_PLANES = ClipRegion.MAX_PLANES;
+
 	private final VolumeShaderSignature signature;
 
 	private final boolean useDepthTexture;
@@ -257,16 +265,20 @@ public class MultiVolumeShaderMip
 
 		segments.put( SegmentType.SampleMultiresolutionVolume, new SegmentTemplate(
 				"sample_volume_blocks.frag",
-				"volumeCache", "blockSize", "paddedBlockSize", "cachePadOffset", "cacheSize",
+				"volumeCache", "volumeCache1", "volumeCache2", "volumeCache3",
+				"blockSize", "paddedBlockSize", "cachePadOffset", "cacheSize",
 				"im", "sourcemin", "sourcemax", "intersectBoundingBox",
+				"clipPlanes", "numClipPlanes",
 				"lutSampler", "blockScales", "lutSize", "lutOffset", "sampleVolume" ) );
 		segments.put( SegmentType.SampleVolume, new SegmentTemplate(
 				"sample_volume_simple.frag",
 				"im", "sourcemax", "intersectBoundingBox",
+				"clipPlanes", "numClipPlanes",
 				"volume", "sampleVolume" ) );
 		segments.put( SegmentType.SampleRGBAVolume, new SegmentTemplate(
 				"sample_volume_simple_rgba.frag",
 				"im", "sourcemax", "intersectBoundingBox",
+				"clipPlanes", "numClipPlanes",
 				"volume", "sampleVolume" ) );
 		segments.put( SegmentType.Convert, new SegmentTemplate(
 				"convert.frag",
@@ -419,6 +431,21 @@ public class MultiVolumeShaderMip
 	}
 
 
+	/**
+	 * Restrict rendering of volume {@code index} to {@code clipRegion} (in
+	 * world coordinates). Samples outside the clip region are not
+	 * accumulated.
+	 *
+	 * @param index
+	 * 		index of the volume
+	 * @param clipRegion
+	 * 		the clip region, or {@link ClipRegion#NONE} for no clipping.
+	 */
+	public void setClipRegion( final int index, final ClipRegion clipRegion )
+	{
+		volumeSegments[ index ].setClipRegion( clipRegion );
+	}
+
 	public void setDither( DitherBuffer dither, int step )
 	{
 		uniformViewportSize.set( dither.effectiveViewportWidth(), dither.effectiveViewportHeight() );
@@ -562,20 +589,32 @@ public class MultiVolumeShaderMip
 	static abstract class VolumeSegment
 	{
 		final Segment volume;
+		private final Uniform4fv uniformClipPlanes;
+		private final Uniform1i uniformNumClipPlanes;
 
-		public VolumeSegment( final Segment volume )
+		public VolumeSegment( final SegmentedShader prog, final Segment volume )
 		{
 			this.volume = volume;
+			uniformClipPlanes = prog.getUniform4fv( volume, "clipPlanes" );
+			uniformNumClipPlanes = prog.getUniform1i( volume, "numClipPlanes" );
+		}
+
+		public void setClipRegion( final ClipRegion clipRegion )
+		{
+			final float[] planes = new float[ 4 * MAX_CLIP_PLANES ];
+			clipRegion.getPlanes( planes );
+			uniformClipPlanes.set( planes );
+			uniformNumClipPlanes.set( clipRegion.numPlanes() );
 		}
 	}
 
 	static class VolumeBlocksSegment extends VolumeSegment
 	{
-		private final UniformSampler uniformVolumeCache;
+		private final UniformSampler[] uniformVolumeCache;
 		private final Uniform3f uniformBlockSize;
 		private final Uniform3f uniformPaddedBlockSize;
 		private final Uniform3f uniformCachePadOffset;
-		private final Uniform3f uniformCacheSize;
+		private final Uniform3fv uniformCacheSize;
 		private final Uniform3fv uniformBlockScales;
 		private final UniformSampler uniformLutSampler;
 		private final Uniform3f uniformLutSize;
@@ -586,13 +625,17 @@ public class MultiVolumeShaderMip
 
 		public VolumeBlocksSegment( final SegmentedShader prog, final Segment volume)
 		{
-			super( volume );
+			super( prog, volume );
 
-			uniformVolumeCache = prog.getUniformSampler(volume, "volumeCache" );
+			uniformVolumeCache = new UniformSampler[] {
+					prog.getUniformSampler( volume, "volumeCache" ),
+					prog.getUniformSampler( volume, "volumeCache1" ),
+					prog.getUniformSampler( volume, "volumeCache2" ),
+					prog.getUniformSampler( volume, "volumeCache3" ) };
 			uniformBlockSize = prog.getUniform3f(volume, "blockSize" );
 			uniformPaddedBlockSize = prog.getUniform3f(volume, "paddedBlockSize" );
 			uniformCachePadOffset = prog.getUniform3f(volume, "cachePadOffset" );
-			uniformCacheSize = prog.getUniform3f(volume, "cacheSize" );
+			uniformCacheSize = prog.getUniform3fv(volume, "cacheSize" );
 
 			uniformBlockScales = prog.getUniform3fv( volume, "blockScales" );
 			uniformLutSampler = prog.getUniformSampler( volume, "lutSampler" );
@@ -611,11 +654,20 @@ public class MultiVolumeShaderMip
 			final int[] bs = spec.blockSize();
 			final int[] pbs = spec.paddedBlockSize();
 			final int[] bo = spec.padOffset();
-			uniformVolumeCache.set( cache );
 			uniformBlockSize.set( bs[ 0 ], bs[ 1 ], bs[ 2 ] );
 			uniformPaddedBlockSize.set( pbs[ 0 ], pbs[ 1 ], pbs[ 2 ] );
 			uniformCachePadOffset.set( bo[ 0 ], bo[ 1 ], bo[ 2 ] );
-			uniformCacheSize.set( cache.texWidth(), cache.texHeight(), cache.texDepth() );
+
+			// unused shard samplers are bound to shard 0, so that they do not
+			// occupy additional texture units
+			final float[][] cacheSize = new float[ NUM_CACHE_SHARDS ][];
+			for ( int i = 0; i < NUM_CACHE_SHARDS; ++i )
+			{
+				final Texture3D shard = cache.getShard( i < cache.getNumShards() ? i : 0 );
+				uniformVolumeCache[ i ].set( shard );
+				cacheSize[ i ] = new float[] { shard.texWidth(), shard.texHeight(), shard.texDepth() };
+			}
+			uniformCacheSize.set( cacheSize );
 
 			uniformBlockScales.set( blocks.getLutBlockScales( NUM_BLOCK_SCALES ) );
 			final LookupTextureARGB lut = blocks.getLookupTexture();
@@ -636,7 +688,7 @@ public class MultiVolumeShaderMip
 
 		public VolumeSimpleSegment( final SegmentedShader prog, final Segment volume )
 		{
-			super( volume );
+			super( prog, volume );
 			uniformVolumeSampler = prog.getUniformSampler( volume, "volume" );
 			uniformIm = prog.getUniformMatrix4f( volume, "im" );
 			uniformSourcemax = prog.getUniform3f( volume, "sourcemax" );
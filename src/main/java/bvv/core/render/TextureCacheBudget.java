@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import java.util.Arrays;
+
+/**
+ * Splits one GPU memory budget between several cache textures (one per
+ * texture format), according to the demand of the sources currently rendered
+ * with each format.
+ * <p>
+ * Resizing a cache texture reallocates it and migrates its content over the
+ * next frames, so caches are only resized when necessary: A cache grows when
+ * it cannot hold the blocks required for the current frame, or when it had to
+ * render the frame at a coarser resolution than requested ("constrained").
+ * Other caches shrink only if that is needed to make room. In particular,
+ * caches of formats that are no longer used keep their memory until another
+ * format needs it.
+ * <p>
+ * When a cache grows, it gets {@link #HEADROOM} times its demand (plus a
+ * share of the remaining budget), to avoid resizing again on small changes.
+ * To avoid thrashing, a cache only grows if that makes it at least
+ * {@link #MIN_RELATIVE_GROWTH} larger, and only if no cache was resized in the
+ * last {@link #RESIZE_COOLDOWN_FRAMES} updates. Allocating a cache that is
+ * used for the first time, and shrinking caches to fit a reduced budget, are
+ * not delayed.
+ * <p>
+ * The budget can be {@link #setMaxCacheSizeInMB changed} at any time. If it
+ * is reduced below the current total size, caches are shrunk with the next
+ * {@link #update}.
+ */
+class TextureCacheBudget
+{
+	/**
+	 * Factor by which a cache is made larger than its demand when it grows.
+	 */
+	static final double HEADROOM = 1.25;
+
+	/**
+	 * Minimum size of an allocated cache.
+	 */
+	static final int MIN_CACHE_SIZE_IN_MB = 16;
+
+	/**
+	 * A cache only grows if its new size is larger by at least this fraction
+	 * of its current size.
+	 */
+	static final double MIN_RELATIVE_GROWTH = 0.1;
+
+	/**
+	 * Number of {@link #update updates} after a resize, during which caches
+	 * do not grow.
+	 */
+	static final int RESIZE_COOLDOWN_FRAMES = 30;
+
+	private volatile int maxCacheSizeInMB;
+
+	/**
+	 * Number of {@link #update updates} since caches were last resized.
+	 */
+	private int framesSinceResize = RESIZE_COOLDOWN_FRAMES;
+
+	/**
+	 * @param maxCacheSizeInMB
+	 *            total size of all cache textures
+	 */
+	TextureCacheBudget( final int maxCacheSizeInMB )
+	{
+		this.maxCacheSizeInMB = maxCacheSizeInMB;
+	}
+
+	public int getMaxCacheSizeInMB()
+	{
+		return maxCacheSizeInMB;
+	}
+
+	/**
+	 * Set the total size of all cache textures. This may be called from any
+	 * thread, it takes effect with the next {@link #update}.
+	 */
+	public void setMaxCacheSizeInMB( final int maxCacheSizeInMB )
+	{
+		this.maxCacheSizeInMB = maxCacheSizeInMB;
+	}
+
+	/**
+	 * Compute new cache sizes. This is called once per frame.
+	 *
+	 * @param sizeInMB
+	 *            current size of each cache ({@code 0} if not allocated)
+	 * @param demandInMB
+	 *            memory required for the blocks of the last frame, for each
+	 *            cache (after coarsening the resolution to fit into the
+	 *            cache). {@code 0} if the cache is not used, {@code NaN} if it
+	 *            is used, but the demand is not known yet.
+	 * @param constrained
+	 *            for each cache, whether blocks in the last frame were rendered
+	 *            at a coarser resolution (or not at all) because the cache was
+	 *            too small.
+	 *
+	 * @return new size of each cache. (If nothing needs to change, this is
+	 *         equal to {@code sizeInMB}.)
+	 */
+	int[] update( final int[] sizeInMB, final double[] demandInMB, final boolean[] constrained )
+	{
+		final int[] newSizeInMB = resize( sizeInMB, demandInMB, constrained );
+		if ( Arrays.equals( newSizeInMB, sizeInMB ) )
+			++framesSinceResize;
+		else
+			framesSinceResize = 0;
+		return newSizeInMB;
+	}
+
+	private int[] resize( final int[] sizeInMB, final double[] demandInMB, final boolean[] constrained )
+	{
+		final int n = sizeInMB.length;
+		final int[] newSizeInMB = sizeInMB.clone();
+		final int maxCacheSizeInMB = this.maxCacheSizeInMB;
+
+		// which caches need to grow? and how much do all caches need?
+		final boolean[] needsToGrow = new boolean[ n ];
+		boolean allocate = false;
+		boolean grow = false;
+		int sumSize = 0;
+		double knownNeed = 0;
+		int numUnknown = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			final double demand = demandInMB[ i ];
+			if ( Double.isNaN( demand ) )
+			{
+				++numUnknown;
+				needsToGrow[ i ] = sizeInMB[ i ] == 0;
+				allocate |= needsToGrow[ i ];
+			}
+			else
+			{
+				knownNeed += HEADROOM * demand;
+				needsToGrow[ i ] = sizeInMB[ i ] < demand || ( constrained[ i ] && demand > 0 );
+				allocate |= needsToGrow[ i ] && sizeInMB[ i ] == 0;
+				grow |= needsToGrow[ i ];
+			}
+			sumSize += sizeInMB[ i ];
+		}
+		final boolean shrink = sumSize > maxCacheSizeInMB;
+		if ( !allocate && !shrink && ( !grow || framesSinceResize < RESIZE_COOLDOWN_FRAMES ) )
+			return newSizeInMB;
+
+		// caches with unknown demand share what is not needed by others
+		final double unknownNeed = numUnknown == 0 ? 0 : Math.max( maxCacheSizeInMB - knownNeed, MIN_CACHE_SIZE_IN_MB ) / numUnknown;
+		final double[] need = new double[ n ];
+		double sumNeed = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			need[ i ] = Double.isNaN( demandInMB[ i ] ) ? unknownNeed : HEADROOM * demandInMB[ i ];
+			sumNeed += need[ i ];
+		}
+
+		// targets are proportional to need and add up to maxCacheSizeInMB
+		final int[] target = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+		{
+			target[ i ] = ( int ) ( maxCacheSizeInMB * need[ i ] / sumNeed );
+			if ( target[ i ] > 0 && target[ i ] < MIN_CACHE_SIZE_IN_MB )
+				target[ i ] = Math.min( MIN_CACHE_SIZE_IN_MB, maxCacheSizeInMB );
+		}
+
+		// grow caches that need it (by a sufficient amount)
+		final boolean cooldown = framesSinceResize < RESIZE_COOLDOWN_FRAMES;
+		int sum = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			final boolean mayGrow = sizeInMB[ i ] == 0 || !cooldown && target[ i ] >= ( 1 + MIN_RELATIVE_GROWTH ) * sizeInMB[ i ];
+			if ( needsToGrow[ i ] && mayGrow && target[ i ] > sizeInMB[ i ] )
+				newSizeInMB[ i ] = target[ i ];
+			sum += newSizeInMB[ i ];
+		}
+
+		// shrink others to make room (or to fit a reduced budget)
+		for ( int i = 0; i < n && sum > maxCacheSizeInMB; ++i )
+		{
+			if ( newSizeInMB[ i ] > target[ i ] )
+			{
+				sum -= newSizeInMB[ i ] - target[ i ];
+				newSizeInMB[ i ] = target[ i ];
+			}
+		}
+
+		return newSizeInMB;
+	}
+}
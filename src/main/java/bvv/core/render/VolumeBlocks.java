@@ -28,7 +28,9 @@
  */
 package bvv.core.render;
 
+import bvv.core.blockmath.ClipRegion;
 import bvv.core.blockmath.FindRequiredBlocks;
+import bvv.core.blockmath.LodSelector;
 import bvv.core.blockmath.MipmapSizes;
 import bvv.core.blockmath.RequiredBlock;
 import bvv.core.blockmath.RequiredBlocks;
@@ -36,19 +38,26 @@ import bvv.core.cache.CacheSpec;
 import bvv.core.cache.DefaultFillTask;
 import bvv.core.cache.FillTask;
 import bvv.core.cache.ImageBlockKey;
+import bvv.core.cache.PrefetchBuffer;
 import bvv.core.cache.TextureCache;
 import bvv.core.cache.UploadBuffer;
 import bvv.core.multires.ResolutionLevel3D;
 import bvv.core.util.MatrixMath;
+import gnu.trove.list.array.TIntArrayList;
+import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.LinAlgHelpers;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
 import org.joml.Vector3f;
+import bvv.core.blocks.BlockValueRanges;
 import bvv.core.blocks.TileAccess;
 import bvv.core.multires.MultiResolutionStack3D;
 
@@ -67,19 +76,31 @@ public class VolumeBlocks
 {
 	private final LookupTextureARGB lut;
 	private final TileAccess.Cache tileAccess;
-	private final MipmapSizes sizes;
+	private final LodSelector lodSelector;
 
 	public VolumeBlocks()
+	{
+		this( new MipmapSizes() );
+	}
+
+	/**
+	 * @param lodSelector
+	 * 		selects the resolution level of each required block
+	 */
+	public VolumeBlocks( final LodSelector lodSelector )
 	{
 		this.lut = new LookupTextureARGB();
 		this.tileAccess = new TileAccess.Cache();
-		this.sizes = new MipmapSizes();
+		this.lodSelector = lodSelector;
 	}
 
 	private MultiResolutionStack3D< ? > multiResolutionStack;
 	private TextureCache textureCache;
 	private CacheSpec cacheSpec;
 
+	/** staging memory that is consulted for prefetched tiles when filling (may be {@code null}) */
+	private PrefetchBuffer prefetchBuffer;
+
 	/** {@code projection * view * model} matrix */
 	final Matrix4f pvm = new Matrix4f();
 
@@ -94,6 +115,122 @@ public class VolumeBlocks
 	 */
 	private RequiredBlocks requiredBlocks;
 
+	/**
+	 * How many of the coarsest resolution levels to keep pinned in the texture cache.
+	 */
+	private int numPinnedLevels;
+
+	/**
+	 * Maximum size in MB of the pinned levels, or {@code 0} for no limit
+	 * (apart from the {@link #assignPinnedLevels overall limit}).
+	 */
+	private int maxPinnedSizeInMB;
+
+	/**
+	 * Finest pinned resolution level for the current frame. Levels {@code
+	 * pinnedLevel ... maxLevel} are pinned. ({@code pinnedLevel > maxLevel}, if
+	 * no level is pinned.)
+	 */
+	private int pinnedLevel;
+
+	/**
+	 * Tiles of the blocks of the pinned levels, as {@link #pinTiles pinned}
+	 * in the last {@link #makeLut}. If all blocks of the pinned levels had
+	 * complete tiles ({@link #pinnedTilesComplete}), and these are still
+	 * pinned, they are re-pinned without looking up every block again.
+	 */
+	private final ArrayList< TextureCache.Tile > pinnedTiles = new ArrayList<>();
+
+	/**
+	 * Whether {@link #pinnedTiles} contains complete tiles for all blocks of
+	 * levels {@link #pinnedTilesLevel} and higher of
+	 * {@link #pinnedTilesStack}, in {@link #pinnedTilesCache}.
+	 */
+	private boolean pinnedTilesComplete;
+
+	private TextureCache pinnedTilesCache;
+
+	private MultiResolutionStack3D< ? > pinnedTilesStack;
+
+	private int pinnedTilesLevel;
+
+	/**
+	 * Timestamp for which {@link #pinnedTiles} were last pinned.
+	 */
+	private int pinnedTilesTimestamp;
+
+	/**
+	 * Whether partially loaded blocks are uploaded, and later completed by
+	 * uploading only the missing parts.
+	 */
+	private boolean patchIncompleteTiles;
+
+	/**
+	 * Only blocks overlapping this region (in world coordinates) are required.
+	 */
+	private ClipRegion clipRegion = ClipRegion.NONE;
+
+	/**
+	 * Value ranges of blocks that were loaded so far (may be {@code null}).
+	 */
+	private BlockValueRanges valueRanges;
+
+	/**
+	 * Blocks with values {@code <= emptyThreshold} everywhere are not visible.
+	 */
+	private double emptyThreshold = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Blocks that are required for the current frame, but are known to be not
+	 * visible.
+	 */
+	private final LevelBlockSet emptyKeys = new LevelBlockSet();
+
+	/**
+	 * Whether to update the LUT incrementally, see {@link #setIncremental(boolean)}.
+	 */
+	private boolean incremental;
+
+	/**
+	 * For each LUT cell: the tile that was put into the cell by the last
+	 * {@link #makeLut} if the block was complete at its best resolution level,
+	 * else {@code null}. (Only maintained if {@link #incremental}.)
+	 */
+	private TextureCache.Tile[] lutTiles = new TextureCache.Tile[ 0 ];
+
+	/**
+	 * For each LUT cell: the {@link #lutStamp} of the last {@link #makeLut}
+	 * that put the cell. (Only maintained if {@link #incremental}.)
+	 */
+	private int[] lutStamps = new int[ 0 ];
+
+	private int lutStamp;
+
+	/**
+	 * LUT indices of the required blocks of the last {@link #makeLut}. (Only
+	 * maintained if {@link #incremental}.)
+	 */
+	private final TIntArrayList lutIndices = new TIntArrayList();
+
+	/**
+	 * {@code blockLutIndices[i]} is the LUT index of {@code requiredBlocks.getBlocks().get(i)}.
+	 */
+	private int[] blockLutIndices = new int[ 0 ];
+
+	/**
+	 * {@code retainedTiles[i]} is the tile of {@code requiredBlocks.getBlocks().get(i)},
+	 * if the block is resident and complete at its best resolution level
+	 * since the last frame, so that no {@code FillTask} was created for it
+	 * (or {@code null}).
+	 */
+	private TextureCache.Tile[] retainedTiles = new TextureCache.Tile[ 0 ];
+
+	/**
+	 * Number of distinct blocks, for which {@link #getFillTasks()} did not
+	 * create {@code FillTask}s, because they are {@link #retainedTiles retained}.
+	 */
+	private int numRetainedBlocks;
+
 	/**
 	 * @param multiResolutionStack single-channel, multi-resolution source
 	 * @param viewportWidth width of the surface to be rendered
@@ -105,14 +242,195 @@ public class VolumeBlocks
 			final int viewportWidth,
 			final Matrix4fc pv)
 	{
-		this.multiResolutionStack = multiResolutionStack;
 		this.textureCache = textureCache;
-		this.cacheSpec = textureCache.spec();
+		initView( multiResolutionStack, textureCache.spec(), viewportWidth, pv );
+		assignPinnedLevels( Collections.singletonList( this ) );
+	}
+
+	/**
+	 * Initialize without texture cache, only for
+	 * {@link #getRequiredBlockKeys()} and loading tiles (e.g., for
+	 * prefetching). No {@code TextureCache} is accessed, so this can be used
+	 * on a thread other than the rendering thread. {@link #getFillTasks()} and
+	 * {@link #makeLut(int)} must not be called.
+	 *
+	 * @param multiResolutionStack single-channel, multi-resolution source
+	 * @param cacheSpec spec of the texture cache that blocks are loaded for
+	 * @param viewportWidth width of the surface to be rendered
+	 * @param pv {@code projection * view} matrix, transforms world coordinates to NDC coordinates
+	 */
+	public void init(
+			final MultiResolutionStack3D< ? > multiResolutionStack,
+			final CacheSpec cacheSpec,
+			final int viewportWidth,
+			final Matrix4fc pv)
+	{
+		this.textureCache = null;
+		initView( multiResolutionStack, cacheSpec, viewportWidth, pv );
+	}
+
+	private void initView(
+			final MultiResolutionStack3D< ? > multiResolutionStack,
+			final CacheSpec cacheSpec,
+			final int viewportWidth,
+			final Matrix4fc pv)
+	{
+		this.multiResolutionStack = multiResolutionStack;
+		this.cacheSpec = cacheSpec;
 
 		final Matrix4f model = MatrixMath.affine( multiResolutionStack.getSourceTransform(), new Matrix4f() );
 		pvm.set( pv ).mul( model );
-		sizes.init( pvm, viewportWidth, multiResolutionStack.resolutions() );
-		baseLevel = sizes.getBaseLevel();
+		lodSelector.init( pvm, viewportWidth, multiResolutionStack.resolutions() );
+		baseLevel = lodSelector.getBaseLevel();
+	}
+
+	/**
+	 * Set staging memory that fill tasks consult for prefetched tiles before
+	 * copying from the source.
+	 *
+	 * @param prefetchBuffer prefetched tiles, or {@code null}
+	 */
+	public void setPrefetchBuffer( final PrefetchBuffer prefetchBuffer )
+	{
+		this.prefetchBuffer = prefetchBuffer;
+	}
+
+	/**
+	 * Keep the coarsest {@code numLevels} resolution levels of the volume
+	 * resident in the texture cache, so that there is always a fallback to
+	 * render every block from. All blocks of the pinned levels are loaded
+	 * (regardless of visibility) and {@link TextureCache#pin pinned}, i.e.,
+	 * excluded from LRU eviction.
+	 * <p>
+	 * Pinned levels are limited to {@code maxSizeInMB} (if {@code > 0}) and to
+	 * a quarter of the texture cache (shared by all sources, see
+	 * {@link #assignPinnedLevels}). If the coarsest {@code numLevels} levels
+	 * don't fit, only as many of the coarsest levels as fit are pinned.
+	 *
+	 * @param numLevels
+	 *            how many of the coarsest resolution levels to pin. {@code 0}
+	 *            disables pinning.
+	 * @param maxSizeInMB
+	 *            maximum size of the pinned levels, or {@code 0} for no limit.
+	 */
+	public void setPinnedLevels( final int numLevels, final int maxSizeInMB )
+	{
+		this.numPinnedLevels = numLevels;
+		this.maxPinnedSizeInMB = maxSizeInMB;
+	}
+
+	/**
+	 * Upload blocks for which some, but not all, source cells are loaded. Such
+	 * {@link TextureCache.ContentState#INCOMPLETE INCOMPLETE} tiles remember
+	 * which source cells they contain. When they are filled again, only the
+	 * parts covered by source cells that became valid in the meantime are
+	 * copied and uploaded (see {@link TileAccess#patchTile(int[], UploadBuffer)}).
+	 * <p>
+	 * Otherwise (the default), only blocks that can be loaded completely are
+	 * uploaded.
+	 */
+	public void setPatchIncompleteTiles( final boolean patchIncompleteTiles )
+	{
+		this.patchIncompleteTiles = patchIncompleteTiles;
+	}
+
+	/**
+	 * Update the volume incrementally from frame to frame: Required blocks
+	 * that were complete at their best resolution level in the previous frame,
+	 * and still are (with the same best level and tile), are not re-evaluated.
+	 * No {@code FillTask}s are created for them (see
+	 * {@link #getNumRetainedBlocks()} and {@link #retainTiles()}), and their
+	 * LUT cells are not changed. The LUT is kept from frame to frame, if
+	 * possible, and only the changed region is uploaded.
+	 */
+	public void setIncremental( final boolean incremental )
+	{
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Get the number of (distinct) blocks that are required in the current
+	 * frame, but for which the last {@link #getFillTasks()} did not create
+	 * {@code FillTask}s, because they were resident and complete already in the
+	 * previous frame (see {@link #setIncremental(boolean)}). These blocks
+	 * count towards the texture cache demand.
+	 */
+	public int getNumRetainedBlocks()
+	{
+		return numRetainedBlocks;
+	}
+
+	/**
+	 * {@link TextureCache#retain Retain} the tiles of the blocks for which
+	 * the last {@link #getFillTasks()} did not create {@code FillTask}s,
+	 * because they were resident and complete already in the previous frame.
+	 * Call this before processing the {@code FillTask}s, so that these tiles
+	 * are not preferred for eviction.
+	 */
+	public void retainTiles()
+	{
+		final int numBlocks = requiredBlocks.getBlocks().size();
+		for ( int i = 0; i < numBlocks; ++i )
+			if ( retainedTiles[ i ] != null )
+				textureCache.retain( retainedTiles[ i ] );
+	}
+
+	/**
+	 * Add the keys of the blocks for which the last {@link #getFillTasks()}
+	 * did not create {@code FillTask}s, because they were resident and
+	 * complete already in the previous frame, to {@code keys}.
+	 */
+	public void getRetainedBlockKeys( final List< ImageBlockKey< ? > > keys )
+	{
+		final int numBlocks = requiredBlocks.getBlocks().size();
+		for ( int i = 0; i < numBlocks; ++i )
+			if ( retainedTiles[ i ] != null )
+				keys.add( retainedTiles[ i ].content() );
+	}
+
+	/**
+	 * Record the value ranges of loaded blocks in {@code valueRanges}, and
+	 * skip blocks that are known to be not visible with the current
+	 * {@link #setDisplayRange display range}.
+	 *
+	 * @param valueRanges
+	 *            index of block value ranges, or {@code null}
+	 */
+	public void setValueRanges( final BlockValueRanges valueRanges )
+	{
+		this.valueRanges = valueRanges;
+	}
+
+	/**
+	 * Set the display range of the converter that is used to render the
+	 * volume. Values {@code <= min} are mapped to zero. If the
+	 * {@link #setValueRanges value range} of a block is known to lie entirely
+	 * below {@code min}, the block does not contribute to the rendering: It
+	 * is not loaded, and is rendered from the zero tile of the texture cache.
+	 * <p>
+	 * If {@code max <= min} (inverted display range), no blocks are skipped.
+	 */
+	public void setDisplayRange( final double min, final double max )
+	{
+		emptyThreshold = max > min ? min : Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Restrict rendering to {@code clipRegion} (in world coordinates). Blocks
+	 * that do not overlap the clip region are not required, i.e., they are
+	 * neither loaded nor put into the LUT.
+	 *
+	 * @param clipRegion
+	 *            the clip region, or {@link ClipRegion#NONE} for no clipping.
+	 */
+	public void setClipRegion( final ClipRegion clipRegion )
+	{
+		this.clipRegion = clipRegion;
+	}
+
+	public ClipRegion getClipRegion()
+	{
+		return clipRegion;
 	}
 
 	/**
@@ -178,36 +496,210 @@ public class VolumeBlocks
 		return fillTasks;
 	}
 
+	/**
+	 * Get keys of the blocks that {@link #getFillTasks()} would request, but
+	 * without consulting the texture cache. That is, for each required block
+	 * the best resolution level that can be loaded completely (or the coarsest
+	 * level).
+	 * <p>
+	 * The texture cache is not accessed, so (after
+	 * {@link #init(MultiResolutionStack3D, CacheSpec, int, Matrix4fc)}) this
+	 * can be used to predict required blocks on a thread other than the
+	 * rendering thread.
+	 *
+	 * @return list of keys of required blocks
+	 */
+	public List< ImageBlockKey< ResolutionLevel3D< ? > > > getRequiredBlockKeys()
+	{
+		final RequiredBlocks blocks = getRequiredBlocks( baseLevel );
+		assignBestLevels( blocks, baseLevel, baseLevel );
+
+		final int maxLevel = multiResolutionStack.resolutions().size() - 1;
+		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
+		final LevelBlockSet existingKeys = new LevelBlockSet();
+		final List< ImageBlockKey< ResolutionLevel3D< ? > > > keys = new ArrayList<>();
+		final int[] gj = new int[ 3 ];
+		for ( RequiredBlock block : blocks.getBlocks() )
+		{
+			final int[] g0 = block.getGridPos();
+			for ( int level = block.getBestLevel(); level <= maxLevel; ++level )
+			{
+				final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
+				final double[] sj = resolution.getS();
+				for ( int d = 0; d < 3; ++d )
+					gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
+
+				if ( !existingKeys.add( level, gj ) )
+					break;
+
+				if ( canLoadCompletely( resolution, gj ) || level == maxLevel )
+				{
+					keys.add( new ImageBlockKey<>( resolution, gj ) );
+					break;
+				}
+			}
+		}
+		return keys;
+	}
+
 	/**
 	 * @return whether every required block was completely available at the desired resolution level.
 	 * I.e., if {@code false} is returned, the frame should be repainted until the remaining incomplete blocks are loaded.
 	 */
 	public boolean makeLut( final int timestamp )
+	{
+		return makeLut( timestamp, null );
+	}
+
+	/**
+	 * Like {@link #makeLut(int)}, but if there are enough required blocks, the
+	 * cache is probed and the LUT is filled in parallel on
+	 * {@code forkJoinPool}. (Blocks are independent and write disjoint LUT
+	 * cells.) The recency of the used tiles is updated sequentially
+	 * afterwards, because the LRU order of the {@code TextureCache} is not
+	 * thread-safe.
+	 *
+	 * @param forkJoinPool
+	 * 		pool to fill the LUT in parallel, or {@code null} to do it sequentially on the calling thread.
+	 *
+	 * @return whether every required block was completely available at the desired resolution level.
+	 * I.e., if {@code false} is returned, the frame should be repainted until the remaining incomplete blocks are loaded.
+	 */
+	public boolean makeLut( final int timestamp, final ForkJoinPool forkJoinPool )
 	{
 		final int[] rmin = requiredBlocks.getMin();
 		final int[] rmax = requiredBlocks.getMax();
-		lut.init( rmin, rmax, baseLevel );
+		if ( !incremental )
+			lut.init( rmin, rmax, baseLevel );
+		else if ( !lut.update( rmin, rmax, baseLevel ) )
+		{
+			final int numCells = lut.numCells();
+			if ( lutTiles.length < numCells )
+			{
+				lutTiles = new TextureCache.Tile[ numCells ];
+				lutStamps = new int[ numCells ];
+			}
+			else
+				Arrays.fill( lutTiles, null );
+			lutIndices.resetQuick();
+		}
+		++lutStamp;
+
+		final List< RequiredBlock > blocks = requiredBlocks.getBlocks();
+		final int numBlocks = blocks.size();
+		if ( usedTiles.length < numBlocks )
+			usedTiles = new TextureCache.Tile[ numBlocks ];
+		if ( incremental && blockLutIndices.length < numBlocks )
+			blockLutIndices = new int[ numBlocks ];
+
+		final int[] imageIds = getImageIds();
+		final boolean complete;
+		if ( forkJoinPool == null || numBlocks < 2 * MIN_BLOCKS_PER_LUT_TASK )
+			complete = makeLut( blocks, imageIds, 0, numBlocks );
+		else
+			complete = forkJoinPool.invoke( new MakeLutTask( blocks, imageIds, 0, numBlocks ) );
+
+		for ( int i = 0; i < numBlocks; ++i )
+		{
+			final TextureCache.Tile tile = usedTiles[ i ];
+			if ( tile != null )
+			{
+				tile.useAtTimestamp( timestamp );
+				usedTiles[ i ] = null;
+			}
+		}
+
+		if ( incremental )
+		{
+			// clear cells of blocks that are not required anymore
+			for ( int j = 0; j < lutIndices.size(); ++j )
+			{
+				final int li = lutIndices.getQuick( j );
+				if ( lutStamps[ li ] != lutStamp )
+				{
+					lut.clearTile( li );
+					lutTiles[ li ] = null;
+				}
+			}
+			lutIndices.resetQuick();
+			lutIndices.add( blockLutIndices, 0, numBlocks );
+		}
+
+		pinTiles( imageIds, timestamp );
+		return complete;
+	}
 
+	/**
+	 * Minimum number of required blocks handled by one parallel {@code makeLut} task.
+	 */
+	private static final int MIN_BLOCKS_PER_LUT_TASK = 4096;
+
+	/**
+	 * {@code usedTiles[i]} is the tile put into the LUT for {@code requiredBlocks.getBlocks().get(i)} (or {@code null}).
+	 * This is filled by (possibly parallel) {@code makeLut} tasks, and used to update tile recency afterwards.
+	 */
+	private TextureCache.Tile[] usedTiles = new TextureCache.Tile[ 0 ];
+
+	/**
+	 * Put tiles for {@code blocks[fromIndex, toIndex)} into the LUT, and
+	 * record them in {@link #usedTiles}.
+	 */
+	private boolean makeLut( final List< RequiredBlock > blocks, final int[] imageIds, final int fromIndex, final int toIndex )
+	{
 		boolean complete = true;
 		final int maxLevel = multiResolutionStack.resolutions().size() - 1;
 		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
 		final int[] gj = new int[ 3 ];
-		for ( RequiredBlock block : requiredBlocks.getBlocks() )
+		for ( int i = fromIndex; i < toIndex; ++i )
 		{
+			final RequiredBlock block = blocks.get( i );
 			final int[] g0 = block.getGridPos();
+			if ( incremental )
+			{
+				final int li = lut.indexOf( g0 );
+				blockLutIndices[ i ] = li;
+				lutStamps[ li ] = lutStamp;
+				final TextureCache.Tile tile = retainedTiles[ i ];
+				if ( tile != null )
+				{
+					final int level = block.getBestLevel();
+					final double[] sj = multiResolutionStack.resolutions().get( level ).getS();
+					for ( int d = 0; d < 3; ++d )
+						gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
+					if ( tile.contains( imageIds[ level ], gj[ 0 ], gj[ 1 ], gj[ 2 ] ) && tile.state() == TextureCache.ContentState.COMPLETE )
+					{
+						usedTiles[ i ] = tile;
+						lut.putTile( li, tile, level );
+						lutTiles[ li ] = tile;
+						continue;
+					}
+				}
+				// reset the cell, in case no tile is put below
+				lut.clearTile( li );
+				lutTiles[ li ] = null;
+			}
 			for ( int level = block.getBestLevel(); level <= maxLevel; ++level )
 			{
-				final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
-				final double[] sj = resolution.getS();
+				final double[] sj = multiResolutionStack.resolutions().get( level ).getS();
 				for ( int d = 0; d < 3; ++d )
 					gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
-				final TextureCache.Tile tile = textureCache.get( new ImageBlockKey<>( resolution, gj ) );
+				if ( !emptyKeys.isEmpty() && emptyKeys.contains( level, gj ) )
+				{
+					// leave the LUT entry pointing to the zero tile
+					if ( level != block.getBestLevel() )
+						complete = false;
+					break;
+				}
+				final TextureCache.Tile tile = textureCache.get( imageIds[ level ], gj[ 0 ], gj[ 1 ], gj[ 2 ] );
 				if ( tile != null )
 				{
-					tile.useAtTimestamp( timestamp );
+					usedTiles[ i ] = tile;
 					lut.putTile( g0, tile, level );
-					if ( level != block.getBestLevel() || tile.state() == TextureCache.ContentState.INCOMPLETE )
+					final boolean final_ = level == block.getBestLevel() && tile.state() == TextureCache.ContentState.COMPLETE;
+					if ( !final_ )
 						complete = false;
+					else if ( incremental && !tile.isConstant() )
+						lutTiles[ blockLutIndices[ i ] ] = tile;
 					break;
 				}
 				else if ( level == maxLevel )
@@ -217,6 +709,38 @@ public class VolumeBlocks
 		return complete;
 	}
 
+	private class MakeLutTask extends RecursiveTask< Boolean >
+	{
+		private final List< RequiredBlock > blocks;
+
+		private final int[] imageIds;
+
+		private final int fromIndex;
+
+		private final int toIndex;
+
+		MakeLutTask( final List< RequiredBlock > blocks, final int[] imageIds, final int fromIndex, final int toIndex )
+		{
+			this.blocks = blocks;
+			this.imageIds = imageIds;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		protected Boolean compute()
+		{
+			if ( toIndex - fromIndex < 2 * MIN_BLOCKS_PER_LUT_TASK )
+				return makeLut( blocks, imageIds, fromIndex, toIndex );
+
+			final int mid = ( fromIndex + toIndex ) >>> 1;
+			final MakeLutTask left = new MakeLutTask( blocks, imageIds, fromIndex, mid );
+			left.fork();
+			final boolean complete = new MakeLutTask( blocks, imageIds, mid, toIndex ).compute();
+			return left.join() & complete;
+		}
+	}
+
 	/**
 	 * Set up {@code lutBlockScales} array for shader.
 	 * <ul>
@@ -293,7 +817,10 @@ public class VolumeBlocks
 		final long[] gridMin = new long[ 3 ];
 		final long[] gridMax = new long[ 3 ];
 		getGridMinMax( baseLevel, gridMin, gridMax );
-		return FindRequiredBlocks.getRequiredLevelBlocksFrustum( pvms, cacheSpec.blockSize(), gridMin, gridMax );
+		if ( clipRegion.numPlanes() == 0 )
+			return FindRequiredBlocks.getRequiredLevelBlocksFrustum( pvms, cacheSpec.blockSize(), gridMin, gridMax );
+		final Matrix4fc levelToWorld = MatrixMath.affine( multiResolutionStack.getSourceTransform(), new Matrix4f() ).mul( getUpscale( baseLevel ) );
+		return FindRequiredBlocks.getRequiredLevelBlocksFrustum( pvms, levelToWorld, clipRegion, cacheSpec.blockSize(), gridMin, gridMax );
 	}
 
 	/**
@@ -311,16 +838,21 @@ public class VolumeBlocks
 				blockSize[ 1 ] * r[ 1 ],
 				blockSize[ 2 ] * r[ 2 ]
 		};
-		final Vector3f blockCenter = new Vector3f();
+		final Vector3f blockMin = new Vector3f();
+		final Vector3f blockMax = new Vector3f();
 		final Vector3f tmp = new Vector3f();
 		for ( final RequiredBlock block : requiredBlocks.getBlocks() )
 		{
 			final int[] g0 = block.getGridPos();
-			blockCenter.set(
-					( g0[ 0 ] + 0.5f ) * scale[ 0 ],
-					( g0[ 1 ] + 0.5f ) * scale[ 1 ],
-					( g0[ 2 ] + 0.5f ) * scale[ 2 ] );
-			final int bestLevel = Math.max( minLevel, sizes.bestLevel( blockCenter, tmp ) );
+			blockMin.set(
+					g0[ 0 ] * scale[ 0 ],
+					g0[ 1 ] * scale[ 1 ],
+					g0[ 2 ] * scale[ 2 ] );
+			blockMax.set(
+					( g0[ 0 ] + 1 ) * scale[ 0 ],
+					( g0[ 1 ] + 1 ) * scale[ 1 ],
+					( g0[ 2 ] + 1 ) * scale[ 2 ] );
+			final int bestLevel = Math.max( minLevel, lodSelector.bestLevel( blockMin, blockMax, tmp ) );
 			block.setBestLevel( bestLevel );
 		}
 	}
@@ -329,27 +861,70 @@ public class VolumeBlocks
 	{
 		final int maxLevel = multiResolutionStack.resolutions().size() - 1;
 		final int[] r = multiResolutionStack.resolutions().get( baseLevel ).getR();
-		final HashSet< ImageBlockKey< ? > > existingKeys = new HashSet<>();
+		final int[] imageIds = getImageIds();
+		final LevelBlockSet existingKeys = new LevelBlockSet();
 		final List< FillTask > fillTasks = new ArrayList<>();
+		emptyKeys.clear();
+		getPinnedFillTasks( imageIds, fillTasks );
 		final int[] gj = new int[ 3 ];
-		for ( RequiredBlock block : requiredBlocks.getBlocks() )
+		final Vector3f ndc = new Vector3f();
+		final List< RequiredBlock > blocks = requiredBlocks.getBlocks();
+		final int numBlocks = blocks.size();
+		if ( retainedTiles.length < numBlocks )
+			retainedTiles = new TextureCache.Tile[ numBlocks ];
+		numRetainedBlocks = 0;
+		// blocks can only be retained if the LUT of the previous frame has the same base level
+		final boolean retain = incremental && lut.getBaseLevel() == baseLevel;
+		A:
+		for ( int i = 0; i < numBlocks; ++i )
 		{
+			final RequiredBlock block = blocks.get( i );
 			final int[] g0 = block.getGridPos();
+			retainedTiles[ i ] = null;
+			if ( retain )
+			{
+				final int li = lut.indexOf( g0 );
+				final TextureCache.Tile tile = li < 0 ? null : lutTiles[ li ];
+				if ( tile != null )
+				{
+					final int level = block.getBestLevel();
+					final double[] sj = multiResolutionStack.resolutions().get( level ).getS();
+					for ( int d = 0; d < 3; ++d )
+						gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
+					if ( tile.contains( imageIds[ level ], gj[ 0 ], gj[ 1 ], gj[ 2 ] ) && tile.state() == TextureCache.ContentState.COMPLETE )
+					{
+						retainedTiles[ i ] = tile;
+						// blocks at base level are distinct anyway, coarser blocks may
+						// be shared (blocks of pinned levels are requested separately)
+						if ( level == baseLevel || level < pinnedLevel && existingKeys.add( level, gj ) )
+							++numRetainedBlocks;
+						continue A;
+					}
+				}
+			}
+			final float screenDistance = getScreenDistance( g0, r, ndc );
 			for ( int level = block.getBestLevel(); level <= maxLevel; ++level )
 			{
+				if ( level >= pinnedLevel )
+					break; // requested by getPinnedFillTasks()
+
 				final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
 				final double[] sj = resolution.getS();
 				for ( int d = 0; d < 3; ++d )
 					gj[ d ] = ( int ) ( g0[ d ] * sj[ d ] * r[ d ] );
 
-				final ImageBlockKey< ResolutionLevel3D< ? > > key = new ImageBlockKey<>( resolution, gj );
-				if ( !existingKeys.contains( key ) )
+				if ( existingKeys.add( level, gj ) )
 				{
-					existingKeys.add( key );
-					final TextureCache.Tile tile = textureCache.get( key );
-					if ( tile != null || canLoadCompletely( key ) || level == maxLevel )
+					if ( isEmpty( resolution, gj ) )
+					{
+						emptyKeys.add( level, gj );
+						break;
+					}
+					final TextureCache.Tile tile = textureCache.get( imageIds[ level ], gj[ 0 ], gj[ 1 ], gj[ 2 ] );
+					if ( tile != null || canLoadCompletely( resolution, gj ) || level == maxLevel )
 					{
-						fillTasks.add( new DefaultFillTask( key, buf -> loadTile( key, buf ), () -> containsData( key ) ) );
+						final ImageBlockKey< ResolutionLevel3D< ? > > key = new ImageBlockKey<>( resolution, gj );
+						fillTasks.add( new DefaultFillTask( key, buf -> loadTile( key, buf ), () -> containsData( key ), () -> getConstantValue( key ), level, screenDistance ) );
 						break;
 					}
 				}
@@ -361,32 +936,308 @@ public class VolumeBlocks
 		return fillTasks;
 	}
 
-	private boolean canLoadCompletely( final ImageBlockKey< ResolutionLevel3D< ? > > key )
+	/**
+	 * Add tasks for all blocks of the pinned levels that are not resident yet
+	 * to {@code fillTasks}. The tasks have screen distance {@code 0}, so that
+	 * they are loaded first.
+	 */
+	private void getPinnedFillTasks( final int[] imageIds, final List< FillTask > fillTasks )
+	{
+		if ( isPinnedTilesValid() )
+			return;
+
+		final int maxLevel = multiResolutionStack.resolutions().size() - 1;
+		final int[] gridMin = new int[ 3 ];
+		final int[] gridMax = new int[ 3 ];
+		final int[] g = new int[ 3 ];
+		for ( int level = pinnedLevel; level <= maxLevel; ++level )
+		{
+			final ResolutionLevel3D< ? > resolution = multiResolutionStack.resolutions().get( level );
+			getLevelGridMinMax( level, gridMin, gridMax );
+			for ( g[ 2 ] = gridMin[ 2 ]; g[ 2 ] <= gridMax[ 2 ]; ++g[ 2 ] )
+				for ( g[ 1 ] = gridMin[ 1 ]; g[ 1 ] <= gridMax[ 1 ]; ++g[ 1 ] )
+					for ( g[ 0 ] = gridMin[ 0 ]; g[ 0 ] <= gridMax[ 0 ]; ++g[ 0 ] )
+					{
+						final TextureCache.Tile tile = textureCache.get( imageIds[ level ], g[ 0 ], g[ 1 ], g[ 2 ] );
+						if ( tile == null || tile.state() == TextureCache.ContentState.INCOMPLETE || !tile.isPinned() && !tile.isConstant() )
+						{
+							final ImageBlockKey< ResolutionLevel3D< ? > > key = new ImageBlockKey<>( resolution, g );
+							fillTasks.add( new DefaultFillTask( key, buf -> loadTile( key, buf ), () -> containsData( key ), () -> getConstantValue( key ), level, 0 ) );
+						}
+					}
+		}
+	}
+
+	/**
+	 * {@link TextureCache#pin Pin} the resident tiles of all blocks of the
+	 * pinned levels for the frame with the given {@code timestamp}.
+	 */
+	private void pinTiles( final int[] imageIds, final int timestamp )
+	{
+		if ( isPinnedTilesValid() )
+		{
+			for ( final TextureCache.Tile tile : pinnedTiles )
+				textureCache.pin( tile, timestamp );
+			pinnedTilesTimestamp = timestamp;
+			return;
+		}
+
+		pinnedTiles.clear();
+		boolean complete = true;
+		final int maxLevel = multiResolutionStack.resolutions().size() - 1;
+		final int[] gridMin = new int[ 3 ];
+		final int[] gridMax = new int[ 3 ];
+		for ( int level = pinnedLevel; level <= maxLevel; ++level )
+		{
+			getLevelGridMinMax( level, gridMin, gridMax );
+			for ( int z = gridMin[ 2 ]; z <= gridMax[ 2 ]; ++z )
+				for ( int y = gridMin[ 1 ]; y <= gridMax[ 1 ]; ++y )
+					for ( int x = gridMin[ 0 ]; x <= gridMax[ 0 ]; ++x )
+					{
+						final TextureCache.Tile tile = textureCache.get( imageIds[ level ], x, y, z );
+						if ( tile != null )
+						{
+							textureCache.pin( tile, timestamp );
+							pinnedTiles.add( tile );
+						}
+						complete &= tile != null && ( tile.isConstant() || tile.state() == TextureCache.ContentState.COMPLETE );
+					}
+		}
+		pinnedTilesComplete = complete;
+		pinnedTilesCache = textureCache;
+		pinnedTilesStack = multiResolutionStack;
+		pinnedTilesLevel = pinnedLevel;
+		pinnedTilesTimestamp = timestamp;
+	}
+
+	/**
+	 * Whether {@link #pinnedTiles} are the complete tiles of all blocks of the
+	 * current pinned levels. This is the case if they were complete when they
+	 * were last pinned, and have been pinned (and complete) since.
+	 */
+	private boolean isPinnedTilesValid()
+	{
+		if ( !pinnedTilesComplete
+				|| pinnedTilesCache != textureCache
+				|| pinnedTilesStack != multiResolutionStack
+				|| pinnedTilesLevel != pinnedLevel )
+			return false;
+		for ( final TextureCache.Tile tile : pinnedTiles )
+			if ( !tile.isConstant() && ( !tile.isPinnedFor( pinnedTilesTimestamp ) || tile.state() != TextureCache.ContentState.COMPLETE ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Assign the resolution levels to pin in the current frame to
+	 * {@code volumes}, which must be {@link #init initialized} with the same
+	 * texture cache. Call this after {@code init} and before
+	 * {@link #getFillTasks()}. ({@code init} assigns pinned levels as if the
+	 * volume was the only one using the texture cache.)
+	 * <p>
+	 * The pinned levels of all volumes together are limited to a quarter of
+	 * the texture cache, and the pinned levels of each volume are limited to
+	 * its {@link #setPinnedLevels maximum size}. Levels are assigned in turns,
+	 * coarsest first, so that every volume gets its coarsest level (if it
+	 * fits), before any volume gets its second-coarsest level, and so on.
+	 */
+	public static void assignPinnedLevels( final List< VolumeBlocks > volumes )
+	{
+		if ( volumes.isEmpty() )
+			return;
+
+		final TextureCache textureCache = volumes.get( 0 ).textureCache;
+		long budget = ( textureCache.getMaxNumTiles() + textureCache.getNumPinnedTiles() ) / 4;
+		final long[] remaining = new long[ volumes.size() ];
+		for ( int i = 0; i < volumes.size(); ++i )
+		{
+			final VolumeBlocks volume = volumes.get( i );
+			volume.pinnedLevel = volume.multiResolutionStack.resolutions().size();
+			remaining[ i ] = volume.getMaxNumPinnedTiles();
+		}
+
+		boolean assigned = true;
+		while ( assigned )
+		{
+			assigned = false;
+			for ( int i = 0; i < volumes.size(); ++i )
+			{
+				final VolumeBlocks volume = volumes.get( i );
+				final int maxLevel = volume.multiResolutionStack.resolutions().size() - 1;
+				final int level = volume.pinnedLevel - 1;
+				if ( level < 0 || level <= maxLevel - volume.numPinnedLevels )
+					continue;
+				final long numTiles = volume.getNumLevelBlocks( level );
+				if ( numTiles <= budget && numTiles <= remaining[ i ] )
+				{
+					budget -= numTiles;
+					remaining[ i ] -= numTiles;
+					volume.pinnedLevel = level;
+					assigned = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the maximum number of tiles for the pinned levels, according to
+	 * {@code maxPinnedSizeInMB}.
+	 */
+	private long getMaxNumPinnedTiles()
+	{
+		if ( maxPinnedSizeInMB <= 0 )
+			return Long.MAX_VALUE;
+		final long bytesPerTile = Intervals.numElements( cacheSpec.paddedBlockSize() ) * cacheSpec.format().getBytesPerElement();
+		return ( long ) maxPinnedSizeInMB * 1024 * 1024 / bytesPerTile;
+	}
+
+	/**
+	 * Get the number of blocks of resolution {@code level}.
+	 */
+	private long getNumLevelBlocks( final int level )
+	{
+		final int[] gridMin = new int[ 3 ];
+		final int[] gridMax = new int[ 3 ];
+		getLevelGridMinMax( level, gridMin, gridMax );
+		return ( long ) ( gridMax[ 0 ] - gridMin[ 0 ] + 1 ) * ( gridMax[ 1 ] - gridMin[ 1 ] + 1 ) * ( gridMax[ 2 ] - gridMin[ 2 ] + 1 );
+	}
+
+	/**
+	 * Get the range of grid coordinates of all blocks of resolution {@code level}.
+	 */
+	private void getLevelGridMinMax( final int level, final int[] gridMin, final int[] gridMax )
+	{
+		final Interval lbb = multiResolutionStack.resolutions().get( level ).getImage();
+		for ( int d = 0; d < 3; ++d )
+		{
+			gridMin[ d ] = ( int ) ( lbb.min( d ) / cacheSpec.blockSize()[ d ] );
+			gridMax[ d ] = ( int ) ( lbb.max( d ) / cacheSpec.blockSize()[ d ] );
+		}
+	}
+
+	/**
+	 * Get the distance from the screen center (in NDC) of the center of the block at grid position {@code g0}.
+	 *
+	 * @param g0 block grid coordinates at {@code baseLevel} resolution
+	 * @param r scale factors from {@code baseLevel} to full resolution
+	 * @param tmp temporary vector
+	 */
+	private float getScreenDistance( final int[] g0, final int[] r, final Vector3f tmp )
+	{
+		final int[] blockSize = cacheSpec.blockSize();
+		pvm.transformProject(
+				( g0[ 0 ] + 0.5f ) * blockSize[ 0 ] * r[ 0 ],
+				( g0[ 1 ] + 0.5f ) * blockSize[ 1 ] * r[ 1 ],
+				( g0[ 2 ] + 0.5f ) * blockSize[ 2 ] * r[ 2 ],
+				tmp );
+		return ( float ) Math.sqrt( tmp.x() * tmp.x() + tmp.y() * tmp.y() );
+	}
+
+	/**
+	 * Get the {@link TextureCache#imageId(Object) TextureCache image id} of each resolution level.
+	 */
+	private int[] getImageIds()
+	{
+		final List< ? extends ResolutionLevel3D< ? > > resolutions = multiResolutionStack.resolutions();
+		final int[] imageIds = new int[ resolutions.size() ];
+		for ( int level = 0; level < imageIds.length; ++level )
+			imageIds[ level ] = textureCache.imageId( resolutions.get( level ) );
+		return imageIds;
+	}
+
+	/**
+	 * Whether the block at {@code gridPos} of {@code resolution} is known to
+	 * have only values {@code <= emptyThreshold}, i.e., it is not visible with
+	 * the current display range.
+	 */
+	private boolean isEmpty( final ResolutionLevel3D< ? > resolution, final int[] gridPos )
+	{
+		if ( !isSkippingEmptyBlocks() )
+			return false;
+		final long range = valueRanges.get( resolution, gridPos );
+		return range != BlockValueRanges.UNKNOWN && BlockValueRanges.max( range ) <= emptyThreshold;
+	}
+
+	/**
+	 * Whether blocks can be skipped with the current display range. Only then
+	 * value ranges of blocks are recorded.
+	 */
+	private boolean isSkippingEmptyBlocks()
+	{
+		return valueRanges != null && emptyThreshold >= 0;
+	}
+
+	private boolean canLoadCompletely( final ResolutionLevel3D< ? > resolution, final int[] gridPos )
 	{
-		return tileAccess.get( key.image(), cacheSpec ).canLoadCompletely( key.pos(), false );
+		return tileAccess.get( resolution, cacheSpec ).canLoadCompletely( gridPos, false );
 	}
 
 	private boolean containsData( final ImageBlockKey< ResolutionLevel3D< ? > > key )
 	{
+		if ( prefetchBuffer != null && prefetchBuffer.contains( key ) )
+			return true;
+
 		/*
-		 * TODO.
-		 *
 		 * ContainsData is called to determine whether it makes sense to upload a partially completed block.
 		 *
 		 * Using TileAccess.canLoadCompletely will not upload any partial block, saving on texture upload bandwidth.
 		 *
-		 * Using TileAccess.canLoadPartially will upload any partial blocks, consuming (typically much) more texture upload bandwidth,
-		 * but potentially presenting a more complete volume to the user.
-		 *
-		 * Decisions, decisions...
+		 * Using TileAccess.canLoadPartially will upload any partial blocks, potentially presenting a more complete
+		 * volume to the user. With patchIncompleteTiles, only the missing parts of partial blocks are uploaded
+		 * when they are filled again, which keeps the additional texture upload bandwidth small.
 		 */
+		if ( patchIncompleteTiles )
+			return tileAccess.get( key.image(), cacheSpec ).canLoadPartially( key.pos() );
 		return tileAccess.get( key.image(), cacheSpec ).canLoadCompletely( key.pos(), true );
-//		return tileAccess.get( key.image(), cacheSpec ).canLoadPartially( key.pos() );
 	}
 
-	private boolean loadTile( final ImageBlockKey< ResolutionLevel3D< ? > > key, final UploadBuffer buffer )
+	/**
+	 * Get the value of the tile {@code key}, if it is the same everywhere
+	 * (including padding), see {@link TileAccess#getConstantValue(int[])}.
+	 * Prefetched tiles are not checked, because their data is already copied.
+	 *
+	 * @return the value of the tile, or {@link FillTask#NOT_CONSTANT}.
+	 */
+	private int getConstantValue( final ImageBlockKey< ResolutionLevel3D< ? > > key )
+	{
+		if ( prefetchBuffer != null && prefetchBuffer.contains( key ) )
+			return FillTask.NOT_CONSTANT;
+		final int value = tileAccess.get( key.image(), cacheSpec ).getConstantValue( key.pos() );
+		if ( value != FillTask.NOT_CONSTANT && isSkippingEmptyBlocks() )
+			valueRanges.put( key.image(), key.pos(), BlockValueRanges.pack( value, value ) );
+		return value;
+	}
+
+	/**
+	 * Load data for the tile {@code key} into {@code buffer}, from the
+	 * {@code PrefetchBuffer} if possible, otherwise from the source. If
+	 * {@code buffer} updates an incomplete tile with known
+	 * {@link UploadBuffer#getValidCells() valid cells}, and
+	 * {@link #setPatchIncompleteTiles patchIncompleteTiles} is enabled, only
+	 * the missing parts are loaded.
+	 * <p>
+	 * If the tile was loaded completely from the source, and blocks can be
+	 * skipped with the current display range, its value range is computed
+	 * while copying and recorded in the {@link #setValueRanges value range
+	 * index}.
+	 *
+	 * @return whether the data was complete
+	 */
+	boolean loadTile( final ImageBlockKey< ResolutionLevel3D< ? > > key, final UploadBuffer buffer )
 	{
-		return tileAccess.get( key.image(), cacheSpec ).loadTile( key.pos(), buffer );
+		if ( prefetchBuffer != null && prefetchBuffer.fill( key, buffer ) )
+		{
+			buffer.setValidCells( UploadBuffer.UNKNOWN_CELLS );
+			return true;
+		}
+		final TileAccess< ? > access = tileAccess.get( key.image(), cacheSpec );
+		if ( patchIncompleteTiles && buffer.getValidCells() != UploadBuffer.UNKNOWN_CELLS )
+			return access.patchTile( key.pos(), buffer );
+		final boolean recordRange = isSkippingEmptyBlocks();
+		final boolean complete = access.loadTile( key.pos(), buffer, recordRange );
+		if ( complete && recordRange )
+			valueRanges.put( key.image(), key.pos(), access.getLoadedValueRange() );
+		return complete;
 	}
 
 	/**
@@ -50,20 +50,30 @@ import static net.imglib2.type.PrimitiveType.BYTE;
 import static net.imglib2.type.PrimitiveType.SHORT;
 
 import bvv.core.backend.Texture.InternalFormat;
+import bvv.core.blockmath.ClipRegion;
+import bvv.core.blockmath.LodSelector;
 import bvv.core.cache.CacheSpec;
+import bvv.core.cache.EvictionPolicy;
+import bvv.core.cache.EvictionTraceRecorder;
 import bvv.core.cache.FillTask;
+import bvv.core.cache.ImageBlockKey;
 import bvv.core.cache.ProcessFillTasks;
 import bvv.core.cache.TextureCache;
 import bvv.core.util.DefaultQuad;
 
 import com.jogamp.opengl.GL3;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import net.imglib2.type.PrimitiveType;
 import net.imglib2.type.numeric.ARGBType;
@@ -71,16 +81,25 @@ import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.volatiles.VolatileUnsignedByteType;
 import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Intervals;
 
 import org.joml.Matrix4f;
 
 import bdv.tools.brightness.ConverterSetup;
+import bvv.core.backend.GpuContext;
 import bvv.core.backend.jogl.JoglGpuContext;
+import bvv.core.blocks.BlockValueRanges;
 import bvv.core.blocks.TileAccess;
+import bvv.core.cache.AdaptivePboChainSize;
 import bvv.core.cache.PboChain;
+import bvv.core.cache.HostTileCache;
+import bvv.core.cache.TileSpillStore;
+import bvv.core.cache.PrefetchBuffer;
+import bvv.core.cache.TextureCacheMigration;
 import bvv.core.dither.DitherBuffer;
 import bvv.core.render.VolumeShaderSignature.VolumeSignature;
 import bvv.core.multires.MultiResolutionStack3D;
+import bvv.core.multires.ResolutionLevel3D;
 import bvv.core.multires.SimpleStack3D;
 import bvv.core.multires.Stack3D;
 import bvv.core.offscreen.OffScreenFrameBufferWithDepth;
@@ -146,8 +165,82 @@ public class VolumeRenderer
 
 	private final TextureCacheAndPboChain cacheR16;
 
+	/**
+	 * splits {@code maxCacheSizeInMB} between {@code cacheR8} and {@code cacheR16}.
+	 */
+	private final TextureCacheBudget cacheBudget;
+
 	private final ForkJoinPool forkJoinPool;
 
+	/**
+	 * Prefetches blocks predicted for the next frame, or {@code null} if
+	 * prefetching is disabled.
+	 */
+	private final BlockPrefetcher prefetcher;
+
+	private Consumer< String > errorListener = System.err::println;
+
+	private final CameraMotionPredictor cameraMotion = new CameraMotionPredictor();
+
+	/**
+	 * Time spent filling cache tiles in the last {@code FULL} or {@code LOAD}
+	 * frame.
+	 */
+	private long fillNanos;
+
+	/**
+	 * Time budget for filling cache tiles in a {@code FULL} or {@code LOAD}
+	 * frame. Blocks that are not filled in time are filled in subsequent
+	 * {@code LOAD} frames. ({@code Long.MAX_VALUE} if unbounded.)
+	 */
+	private final long maxFillNanos;
+
+	/**
+	 * Time budget per frame (and cache texture) for migrating blocks into a
+	 * resized cache texture. Blocks that are not migrated in time are
+	 * migrated in subsequent {@code LOAD} frames.
+	 */
+	private static final long MAX_MIGRATION_NANOS = 5_000_000L;
+
+	/**
+	 * Minimum share of the {@link #maxFillNanos fill time budget} that each
+	 * cache texture gets, if both are used.
+	 */
+	static final double MIN_FILL_SHARE = 0.25;
+
+	/**
+	 * Maximum number of blocks in the {@link #valueRanges} index.
+	 */
+	private static final int MAX_NUM_VALUE_RANGES = 1 << 20;
+
+	/**
+	 * How many of the coarsest resolution levels of each visible source to
+	 * keep pinned in the cache textures (see {@link VolumeBlocks#setPinnedLevels(int, int)}).
+	 */
+	private final int numPinnedLevels;
+
+	/**
+	 * Maximum size in MB of the pinned levels of each source ({@code 0} for no limit).
+	 */
+	private final int maxPinnedSizeInMB;
+
+	/**
+	 * Whether partially loaded blocks are uploaded and later patched
+	 * (see {@link VolumeBlocks#setPatchIncompleteTiles(boolean)}).
+	 */
+	private final boolean patchIncompleteTiles;
+
+	/**
+	 * Whether required blocks are updated incrementally from frame to frame
+	 * (see {@link VolumeBlocks#setIncremental(boolean)}).
+	 */
+	private final boolean incrementalBlockUpdates;
+
+	/**
+	 * Creates the {@link LodSelector} of each {@link VolumeBlocks}.
+	 */
+	private final Supplier< LodSelector > lodSelector;
+
 	/**
 	 * Shader programs for rendering multiple cached and/or simple volumes.
 	 */
@@ -159,6 +252,12 @@ public class VolumeRenderer
 	 */
 	private final ArrayList< VolumeBlocks > volumes;
 
+	/**
+	 * Value ranges of the blocks loaded so far (shared by all {@link #volumes}).
+	 * Blocks whose values lie entirely below the display range are skipped.
+	 */
+	private final BlockValueRanges valueRanges = new BlockValueRanges( MAX_NUM_VALUE_RANGES );
+
 	/**
 	 * provides SimpleVolumes for SimpleStacks.
 	 */
@@ -168,16 +267,228 @@ public class VolumeRenderer
 
 	private static class TextureCacheAndPboChain
 	{
-		private final TextureCache textureCache;
+		private final CacheSpec cacheSpec;
+
+		/**
+		 * size in bytes of one padded block in the cache texture
+		 */
+		private final long tileSizeInBytes;
+
+		/**
+		 * requested size of {@code textureCache} in MB, {@code 0} if no
+		 * {@code textureCache} is allocated.
+		 */
+		private int sizeInMB;
+
+		/**
+		 * cache texture, or {@code null} if {@code sizeInMB == 0}.
+		 */
+		private TextureCache textureCache;
+
+		/**
+		 * uploads to {@code textureCache}, or {@code null} if
+		 * {@code sizeInMB == 0}.
+		 */
+		private PboChain pboChain;
+
+		/**
+		 * moves blocks from the previous cache texture into
+		 * {@code textureCache} after a {@link #resize}, or {@code null} if no
+		 * migration is pending.
+		 */
+		private TextureCacheMigration migration;
+
+		private int numPbos;
+
+		private int blocksPerPbo;
+
+		private final boolean lockFreePboChain;
+
+		/**
+		 * adapts {@code pboChain} size to per-frame fill counts, or {@code null}
+		 * if {@code pboChain} has fixed size.
+		 */
+		private final AdaptivePboChainSize adaptivePboChainSize;
+
+		private final int prefetchSizeInMB;
+
+		/**
+		 * staging memory for prefetched tiles. (allocated on first use, stays
+		 * {@code null} if {@code prefetchSizeInMB <= 0}.)
+		 */
+		private PrefetchBuffer prefetchBuffer;
+
+		private final int hostTileCacheSizeInMB;
+
+		/**
+		 * second-level cache of filled tiles. (allocated with the first
+		 * {@code textureCache}, stays {@code null} if
+		 * {@code hostTileCacheSizeInMB <= 0}.) It is kept when
+		 * {@code textureCache} is resized.
+		 */
+		private HostTileCache hostTileCache;
+
+		private final Path tileSpillDirectory;
+
+		private final int tileSpillSizeInMB;
+
+		/**
+		 * persistent store of filled tiles. (opened with the first
+		 * {@code textureCache}, stays {@code null} if no
+		 * {@code tileSpillDirectory} is given, or the store could not be
+		 * opened.) It is kept when {@code textureCache} is resized.
+		 */
+		private TileSpillStore tileSpillStore;
+
+		private boolean tileSpillStoreOpened;
+
+		/**
+		 * creates the eviction policy for each new {@code textureCache}.
+		 */
+		private final Supplier< EvictionPolicy > evictionPolicy;
+
+		private final Path evictionTraceDirectory;
+
+		/**
+		 * records block requests of {@code textureCache}. (opened with the
+		 * first {@code textureCache}, stays {@code null} if no
+		 * {@code evictionTraceDirectory} is given, or the file could not be
+		 * opened.) It is kept when {@code textureCache} is resized.
+		 */
+		private EvictionTraceRecorder evictionTraceRecorder;
+
+		private boolean evictionTraceRecorderOpened;
+
+		/**
+		 * receives a message when the tile spill store or the eviction trace
+		 * fail. The respective feature is disabled afterwards.
+		 */
+		private final Consumer< String > errorListener;
+
+		/** time spent filling tiles in the last {@code updateBlocks()} */
+		private long fillNanos;
+
+		/**
+		 * memory in MB required for the blocks of the last frame this cache was
+		 * used in, or {@code NaN} if not known.
+		 */
+		private double demandInMB = Double.NaN;
+
+		/**
+		 * whether blocks of the last frame this cache was used in had to be
+		 * coarsened (or dropped) because the cache was too small.
+		 */
+		private boolean constrained;
+
+		TextureCacheAndPboChain(
+				final InternalFormat format,
+				final int[] blockSize,
+				final BlockCacheOptions options,
+				final Consumer< String > errorListener )
+		{
+			this.errorListener = errorListener;
+			evictionPolicy = options.getEvictionPolicy();
+			evictionTraceDirectory = options.getEvictionTraceDirectory();
+			prefetchSizeInMB = options.getPrefetchSizeInMB();
+			hostTileCacheSizeInMB = options.getHostTileCacheSizeInMB();
+			tileSpillDirectory = options.getTileSpillDirectory();
+			tileSpillSizeInMB = options.getTileSpillSizeInMB();
+			numPbos = options.getNumPbos();
+			blocksPerPbo = options.getBlocksPerPbo();
+			lockFreePboChain = options.isLockFreePboChain();
+			cacheSpec = new CacheSpec( format, blockSize );
+			tileSizeInBytes = ( long ) format.getBytesPerElement() * Intervals.numElements( cacheSpec.paddedBlockSize() );
+			adaptivePboChainSize = options.isAdaptivePboChain() ? new AdaptivePboChainSize( numPbos, blocksPerPbo ) : null;
+		}
+
+		/**
+		 * Replace the cache textures (and PBOs) by new ones of the given size.
+		 * The cache is split into as many texture shards as necessary to stay
+		 * within the maximum 3D texture size of {@code context}. The old PBOs
+		 * are deleted from {@code context}. The blocks of the old cache are
+		 * {@link #migrate migrated} to the new one over the next frames,
+		 * before the old cache textures are deleted. Must be called between
+		 * batches.
+		 *
+		 * @param sizeInMB
+		 *            new size, or {@code 0} to just delete the current cache
+		 *            textures.
+		 */
+		public void resize( final int sizeInMB, final GpuContext context )
+		{
+			final TextureCache previousCache = textureCache;
+			if ( textureCache != null )
+			{
+				numPbos = pboChain.getNumBufs();
+				blocksPerPbo = pboChain.getBufSize();
+				pboChain.delete( context );
+				pboChain = null;
+				textureCache = null;
+			}
+
+			// a migration that is still in progress is abandoned
+			if ( migration != null )
+			{
+				delete( migration.getSource(), context );
+				migration = null;
+			}
 
-		private final PboChain pboChain;
+			if ( sizeInMB > 0 )
+			{
+				final int[][] shardGridDimensions = TextureCache.findSuitableShardSizes( cacheSpec, sizeInMB, context.getMax3DTextureSize() );
+				textureCache = new TextureCache( shardGridDimensions, cacheSpec );
+				pboChain = new PboChain( numPbos, blocksPerPbo, textureCache, lockFreePboChain );
+				if ( hostTileCache == null && hostTileCacheSizeInMB > 0 )
+					hostTileCache = new HostTileCache( cacheSpec, hostTileCacheSizeInMB );
+				textureCache.setHostTileCache( hostTileCache );
+				textureCache.setTileSpillStore( tileSpillStore() );
+				textureCache.setEvictionPolicy( evictionPolicy.get() );
+				textureCache.setEvictionTraceRecorder( evictionTraceRecorder() );
+				if ( previousCache != null )
+					migration = new TextureCacheMigration( previousCache, textureCache );
+			}
+			else if ( previousCache != null )
+				delete( previousCache, context );
+			this.sizeInMB = sizeInMB;
+		}
 
-		TextureCacheAndPboChain( final InternalFormat format, final int[] blockSize, final int maxCacheSizeInMB )
+		/**
+		 * Migrate blocks from the cache texture that was replaced by the last
+		 * {@link #resize}, until done or {@code maxNanos} have elapsed. When
+		 * the migration is done, the old cache textures are deleted. Must be
+		 * called between batches.
+		 *
+		 * @return {@code true} if no migration is pending anymore.
+		 */
+		public boolean migrate( final GpuContext context, final long maxNanos )
 		{
-			final CacheSpec cacheSpec = new CacheSpec( format, blockSize );
-			final int[] cacheGridDimensions = TextureCache.findSuitableGridSize( cacheSpec, maxCacheSizeInMB );
-			textureCache = new TextureCache( cacheGridDimensions, cacheSpec );
-			pboChain = new PboChain( 5, 100, textureCache );
+			if ( migration == null )
+				return true;
+
+			if ( migration.migrate( context, maxNanos ) )
+			{
+				delete( migration.getSource(), context );
+				migration = null;
+				return true;
+			}
+			return false;
+		}
+
+		private static void delete( final TextureCache cache, final GpuContext context )
+		{
+			for ( int i = 0; i < cache.getNumShards(); ++i )
+				context.delete( cache.getShard( i ) );
+		}
+
+		/**
+		 * Record the number of tiles required for the current frame (after
+		 * coarsening), and whether the cache was too small for the requested
+		 * resolution.
+		 */
+		public void setDemand( final int numRequiredTiles, final boolean constrained )
+		{
+			demandInMB = ( double ) numRequiredTiles * tileSizeInBytes / ( 1024 * 1024 );
+			this.constrained = constrained;
 		}
 
 		public TextureCache textureCache()
@@ -189,6 +500,141 @@ public class VolumeRenderer
 		{
 			return pboChain;
 		}
+
+		/**
+		 * @return staging memory for prefetched tiles, or {@code null} if
+		 *         prefetching is disabled
+		 */
+		public PrefetchBuffer prefetchBuffer()
+		{
+			if ( prefetchBuffer == null && prefetchSizeInMB > 0 )
+				prefetchBuffer = new PrefetchBuffer( cacheSpec, prefetchSizeInMB );
+			return prefetchBuffer;
+		}
+
+		/**
+		 * @return persistent store of filled tiles, or {@code null} if it is
+		 *         disabled or could not be opened
+		 */
+		private TileSpillStore tileSpillStore()
+		{
+			if ( !tileSpillStoreOpened && tileSpillDirectory != null && tileSpillSizeInMB > 0 )
+			{
+				tileSpillStoreOpened = true;
+				try
+				{
+					tileSpillStore = new TileSpillStore( tileSpillDirectory, cacheSpec, tileSpillSizeInMB, TextureCacheAndPboChain::persistentId );
+				}
+				catch ( final IOException e )
+				{
+					errorListener.accept( "Tile spill store disabled: " + e.getMessage() );
+				}
+			}
+			return tileSpillStore;
+		}
+
+		/**
+		 * @return recorder of block requests, or {@code null} if it is
+		 *         disabled or could not be opened
+		 */
+		private EvictionTraceRecorder evictionTraceRecorder()
+		{
+			if ( !evictionTraceRecorderOpened && evictionTraceDirectory != null )
+			{
+				evictionTraceRecorderOpened = true;
+				try
+				{
+					Files.createDirectories( evictionTraceDirectory );
+					final String name = String.format( "eviction-%s-%d.trace", cacheSpec.format(), System.currentTimeMillis() );
+					evictionTraceRecorder = new EvictionTraceRecorder( evictionTraceDirectory.resolve( name ) );
+				}
+				catch ( final IOException e )
+				{
+					errorListener.accept( "Eviction trace disabled: " + e.getMessage() );
+				}
+			}
+			return evictionTraceRecorder;
+		}
+
+		/**
+		 * If writing the eviction trace failed, stop recording and report the
+		 * error. Must be called between batches.
+		 */
+		public void checkEvictionTrace()
+		{
+			if ( evictionTraceRecorder != null && evictionTraceRecorder.getFailure() != null )
+			{
+				if ( textureCache != null )
+					textureCache.setEvictionTraceRecorder( null );
+				errorListener.accept( "Eviction trace disabled: " + evictionTraceRecorder.getFailure().getMessage() );
+				evictionTraceRecorder = null;
+			}
+		}
+
+		private static String persistentId( final Object image )
+		{
+			return image instanceof ResolutionLevel3D
+					? ( ( ResolutionLevel3D< ? > ) image ).getPersistentId()
+					: null;
+		}
+
+		/**
+		 * Close the persistent store of filled tiles and the recorder of block
+		 * requests (if any). Both are closed even if closing one of them fails.
+		 *
+		 * @throws IOException
+		 *             the first error, with later errors added as suppressed.
+		 */
+		public void close() throws IOException
+		{
+			IOException failure = null;
+
+			if ( evictionTraceRecorder != null )
+			{
+				if ( textureCache != null )
+					textureCache.setEvictionTraceRecorder( null );
+				try
+				{
+					evictionTraceRecorder.close();
+				}
+				catch ( final IOException e )
+				{
+					failure = e;
+				}
+				evictionTraceRecorder = null;
+			}
+
+			if ( tileSpillStore != null )
+			{
+				if ( textureCache != null )
+					textureCache.setTileSpillStore( null );
+				try
+				{
+					tileSpillStore.close();
+				}
+				catch ( final IOException e )
+				{
+					if ( failure == null )
+						failure = e;
+					else
+						failure.addSuppressed( e );
+				}
+				tileSpillStore = null;
+			}
+
+			if ( failure != null )
+				throw failure;
+		}
+
+		/**
+		 * Resize {@code pboChain} according to the last batch of uploads (if
+		 * adaptive). Must be called between batches.
+		 */
+		public void adaptPboChain( final GpuContext context )
+		{
+			if ( adaptivePboChainSize != null )
+				adaptivePboChainSize.adapt( pboChain, context );
+		}
 	}
 
 	public VolumeRenderer(
@@ -199,18 +645,47 @@ public class VolumeRenderer
 			final int numDitherSamples,
 			final int[] cacheBlockSize,
 			final int maxCacheSizeInMB )
+	{
+		this( renderWidth, renderHeight, ditherWidth, ditherStep, numDitherSamples, cacheBlockSize, maxCacheSizeInMB, new BlockCacheOptions() );
+	}
+
+	/**
+	 * @param blockCacheOptions
+	 *            settings for loading blocks of multi-resolution sources into
+	 *            the cache textures (staging, prefetching, host and disk tile
+	 *            caches, pinning, eviction, and level-of-detail selection).
+	 */
+	public VolumeRenderer(
+			final int renderWidth,
+			final int renderHeight,
+			final int ditherWidth,
+			final int ditherStep,
+			final int numDitherSamples,
+			final int[] cacheBlockSize,
+			final int maxCacheSizeInMB,
+			final BlockCacheOptions blockCacheOptions )
 	{
 		this.renderWidth = renderWidth;
 		this.renderHeight = renderHeight;
-
-		// Set up one cache texture for each supported data type. Note that no
-		// GPU memory is allocated until the respective data type is actually
-		// used for the first time.
-		cacheR8 = new TextureCacheAndPboChain( R8, cacheBlockSize, maxCacheSizeInMB );
-		cacheR16 = new TextureCacheAndPboChain( R16, cacheBlockSize, maxCacheSizeInMB );
+		final int maxFillMillis = blockCacheOptions.getMaxFillMillis();
+		this.maxFillNanos = maxFillMillis > 0 ? 1_000_000L * maxFillMillis : Long.MAX_VALUE;
+		this.numPinnedLevels = blockCacheOptions.getNumPinnedLevels();
+		this.maxPinnedSizeInMB = blockCacheOptions.getMaxPinnedSizeInMB();
+		this.patchIncompleteTiles = blockCacheOptions.isPatchIncompleteTiles();
+		this.incrementalBlockUpdates = blockCacheOptions.isIncrementalBlockUpdates();
+		this.lodSelector = blockCacheOptions.getLodSelector();
+
+		// Set up one cache texture for each supported data type. The cache
+		// textures share one memory budget. They are only allocated when the
+		// respective data type is actually used, and resized according to
+		// demand (see TextureCacheBudget).
+		cacheR8 = new TextureCacheAndPboChain( R8, cacheBlockSize, blockCacheOptions, this::reportError );
+		cacheR16 = new TextureCacheAndPboChain( R16, cacheBlockSize, blockCacheOptions, this::reportError );
+		cacheBudget = new TextureCacheBudget( maxCacheSizeInMB );
 
 		final int parallelism = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
 		forkJoinPool = new ForkJoinPool( parallelism );
+		prefetcher = blockCacheOptions.getPrefetchSizeInMB() > 0 ? new BlockPrefetcher( lodSelector ) : null;
 
 
 		// set up dither buffer (or null)
@@ -242,7 +717,14 @@ public class VolumeRenderer
 	private void needAtLeastNumBlockVolumes( final int n )
 	{
 		while ( volumes.size() < n )
-			volumes.add( new VolumeBlocks() );
+		{
+			final VolumeBlocks volume = new VolumeBlocks( lodSelector.get() );
+			volume.setPinnedLevels( numPinnedLevels, maxPinnedSizeInMB );
+			volume.setPatchIncompleteTiles( patchIncompleteTiles );
+			volume.setIncremental( incrementalBlockUpdates );
+			volume.setValueRanges( valueRanges );
+			volumes.add( volume );
+		}
 	}
 
 	private MultiVolumeShaderMip createMultiVolumeShader( final VolumeShaderSignature signature )
@@ -255,6 +737,51 @@ public class VolumeRenderer
 		gl.glPixelStorei( GL_UNPACK_ALIGNMENT, 1 );
 	}
 
+	/**
+	 * Set the listener that receives a message when an optional feature of
+	 * the block cache (tile spill store, eviction trace) fails and is
+	 * disabled. By default, messages are printed to {@code System.err}.
+	 */
+	public void setErrorListener( final Consumer< String > errorListener )
+	{
+		this.errorListener = errorListener;
+	}
+
+	private void reportError( final String message )
+	{
+		errorListener.accept( message );
+	}
+
+	/**
+	 * Release resources that persist beyond this renderer. This closes the
+	 * tile spill stores, saving their index. Afterwards, blocks are no longer
+	 * stored to or read from the spill stores.
+	 *
+	 * @throws IOException
+	 *             if closing a spill store or eviction trace failed. All of
+	 *             them are closed regardless.
+	 */
+	public void close() throws IOException
+	{
+		try
+		{
+			cacheR8.close();
+		}
+		catch ( final IOException e )
+		{
+			try
+			{
+				cacheR16.close();
+			}
+			catch ( final IOException suppressed )
+			{
+				e.addSuppressed( suppressed );
+			}
+			throw e;
+		}
+		cacheR16.close();
+	}
+
 	/**
 	 * @param maxAllowedStepInVoxels
 	 * 		Set to {@code 0} to base step size purely on pixel width of render target
@@ -269,6 +796,27 @@ public class VolumeRenderer
 			final Matrix4f pv,
 			final int maxRenderMillis,
 			final double maxAllowedStepInVoxels )
+	{
+		return draw( gl, type, sceneBuf, renderStacks, renderConverters, null, pv, maxRenderMillis, maxAllowedStepInVoxels );
+	}
+
+	/**
+	 * @param renderClipRegions
+	 * 		clip region (in world coordinates) for each of {@code renderStacks}, or {@code null} for no clipping.
+	 * 		Blocks outside the clip region are not loaded, and not rendered.
+	 * @param maxAllowedStepInVoxels
+	 * 		Set to {@code 0} to base step size purely on pixel width of render target
+	 */
+	public RepaintType draw(
+			final GL3 gl,
+			final RepaintType type,
+			final OffScreenFrameBufferWithDepth sceneBuf,
+			final List< Stack3D< ? > > renderStacks,
+			final List< ConverterSetup > renderConverters,
+			final List< ClipRegion > renderClipRegions,
+			final Matrix4f pv,
+			final int maxRenderMillis,
+			final double maxAllowedStepInVoxels )
 	{
 		final long maxRenderNanoTime = System.nanoTime() + 1_000_000L * maxRenderMillis;
 		final JoglGpuContext context = JoglGpuContext.get( gl );
@@ -325,7 +873,17 @@ public class VolumeRenderer
 					throw new IllegalArgumentException();
 			}
 			needAtLeastNumBlockVolumes( multiResStacks.size() );
-			updateBlocks( context, multiResStacks, pv );
+			for ( int i = 0, mri = 0; i < renderStacks.size(); i++ )
+			{
+				if ( volumeSignatures.get( i ).getSourceStackType() == MULTIRESOLUTION )
+				{
+					final ConverterSetup converter = renderConverters.get( i );
+					final VolumeBlocks volume = volumes.get( mri++ );
+					volume.setDisplayRange( converter.getDisplayRangeMin(), converter.getDisplayRangeMax() );
+					volume.setClipRegion( clipRegion( renderClipRegions, i ) );
+				}
+			}
+			updateBlocks( context, multiResStacks, pv, type == FULL );
 
 			double minWorldVoxelSize = Double.POSITIVE_INFINITY;
 			progvol = progvols.computeIfAbsent( new VolumeShaderSignature( volumeSignatures ), this::createMultiVolumeShader );
@@ -335,6 +893,7 @@ public class VolumeRenderer
 				for ( int i = 0; i < renderStacks.size(); i++ )
 				{
 					progvol.setConverter( i, renderConverters.get( i ) );
+					progvol.setClipRegion( i, clipRegion( renderClipRegions, i ) );
 					if ( volumeSignatures.get( i ).getSourceStackType() == MULTIRESOLUTION )
 					{
 						final VolumeBlocks volume = volumes.get( mri++ );
@@ -405,15 +964,24 @@ public class VolumeRenderer
 		return nextRequestedRepaint.type;
 	}
 
+	private static ClipRegion clipRegion( final List< ClipRegion > renderClipRegions, final int i )
+	{
+		return renderClipRegions == null ? ClipRegion.NONE : renderClipRegions.get( i );
+	}
+
 	static class VolumeAndTasks
 	{
 		private final List< FillTask > tasks;
 		private final VolumeBlocks volume;
 		private final int maxLevel;
 
+		/**
+		 * Number of cache tiles required by this volume: one per {@code FillTask}
+		 * and one per retained block (see {@link VolumeBlocks#getNumRetainedBlocks()}).
+		 */
 		int numTasks()
 		{
-			return tasks.size();
+			return tasks.size() + volume.getNumRetainedBlocks();
 		}
 
 		VolumeAndTasks( final List< FillTask > tasks, final VolumeBlocks volume, final int maxLevel )
@@ -436,8 +1004,13 @@ public class VolumeRenderer
 	 * 		width of the surface to be rendered
 	 * @param pv
 	 *        {@code projection * view} matrix, transforms world coordinates to NDC coordinates
+	 * @param prefetchJobs
+	 * 		if not {@code null}, a prefetch request for the next frame is added
+	 * @param maxFillNanos
+	 * 		time budget for filling cache tiles
 	 *
-	 * @return {@code true} if all required blocks for all volumes are loaded.
+	 * @return {@code true} if all required blocks for all volumes are loaded
+	 * (and no blocks of a resized cache remain to be migrated).
 	 * (That is, if {@code false} is returned, the frame should be repainted
 	 * until the remaining incomplete blocks are loaded.)
 	 */
@@ -448,23 +1021,44 @@ public class VolumeRenderer
 			final TextureCacheAndPboChain cache,
 			final ForkJoinPool forkJoinPool,
 			final int viewportWidth,
-			final Matrix4f pv )
+			final Matrix4f pv,
+			final List< BlockPrefetcher.Job > prefetchJobs,
+			final long maxFillNanos )
 	{
+		if ( multiResStacks.isEmpty() )
+		{
+			// don't touch (and allocate) the cache texture if it is not used
+			cache.fillNanos = 0;
+			return true;
+		}
+
+		// blocks that are migrated from a previous cache texture need not be filled
+		boolean complete = cache.migrate( context, MAX_MIGRATION_NANOS );
+
 		final TextureCache textureCache = cache.textureCache();
 		final PboChain pboChain = cache.pboChain();
+		final PrefetchBuffer prefetchBuffer = cache.prefetchBuffer();
+
+		for ( int i = 0; i < multiResStacks.size(); i++ )
+		{
+			final VolumeBlocks volume = volumes.get( i );
+			volume.setPrefetchBuffer( prefetchBuffer );
+			volume.init( multiResStacks.get( i ), textureCache, viewportWidth, pv );
+		}
+		// all sources share the budget for pinned levels
+		VolumeBlocks.assignPinnedLevels( volumes.subList( 0, multiResStacks.size() ) );
 
 		final List< VolumeAndTasks > tasksPerVolume = new ArrayList<>();
 		int numTasks = 0;
 		for ( int i = 0; i < multiResStacks.size(); i++ )
 		{
-			final MultiResolutionStack3D< ? > stack = multiResStacks.get( i );
 			final VolumeBlocks volume = volumes.get( i );
-			volume.init( stack, textureCache, viewportWidth, pv );
-			final List< FillTask > tasks = volume.getFillTasks();
-			numTasks += tasks.size();
-			tasksPerVolume.add( new VolumeAndTasks( tasks, volume, stack.resolutions().size() - 1 ) );
+			final VolumeAndTasks vat = new VolumeAndTasks( volume.getFillTasks(), volume, multiResStacks.get( i ).resolutions().size() - 1 );
+			numTasks += vat.numTasks();
+			tasksPerVolume.add( vat );
 		}
 
+		boolean constrained = false;
 		A:
 		while ( numTasks > textureCache.getMaxNumTiles() )
 		{
@@ -475,6 +1069,7 @@ public class VolumeRenderer
 				if ( baseLevel < vat.maxLevel )
 				{
 					vat.volume.setBaseLevel( baseLevel + 1 );
+					constrained = true;
 					numTasks -= vat.numTasks();
 					vat.tasks.clear();
 					vat.tasks.addAll( vat.volume.getFillTasks() );
@@ -486,36 +1081,73 @@ public class VolumeRenderer
 		}
 
 		final ArrayList< FillTask > fillTasks = new ArrayList<>();
+		int numRetainedTiles = 0;
 		for ( final VolumeAndTasks vat : tasksPerVolume )
+		{
 			fillTasks.addAll( vat.tasks );
-		if ( fillTasks.size() > textureCache.getMaxNumTiles() )
-			fillTasks.subList( textureCache.getMaxNumTiles(), fillTasks.size() ).clear();
+			// tiles of blocks that are still resident from the previous frame must not be evicted
+			vat.volume.retainTiles();
+			numRetainedTiles += vat.volume.getNumRetainedBlocks();
+		}
+		final int maxNumFillTasks = Math.max( 0, textureCache.getMaxNumTiles() - numRetainedTiles );
+		if ( fillTasks.size() > maxNumFillTasks )
+		{
+			// keep the most important tasks
+			if ( textureCache.getFillTaskPriority() != null )
+				fillTasks.sort( textureCache.getFillTaskPriority() );
+			fillTasks.subList( maxNumFillTasks, fillTasks.size() ).clear();
+			constrained = true;
+		}
+		cache.setDemand( numTasks + numRetainedTiles, constrained );
 
 		try
 		{
-			ProcessFillTasks.parallel( textureCache, pboChain, context, forkJoinPool, fillTasks );
+			final long t0 = System.nanoTime();
+			complete &= ProcessFillTasks.parallel( textureCache, pboChain, context, forkJoinPool, fillTasks, maxFillNanos );
+			cache.fillNanos = System.nanoTime() - t0;
+			cache.adaptPboChain( context );
 		}
 		catch ( final InterruptedException e )
 		{
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
+			complete = false;
 		}
+		cache.checkEvictionTrace();
 
-		boolean complete = true;
 		final int timestamp = textureCache.nextTimestamp();
 		for ( int i = 0; i < multiResStacks.size(); i++ )
 		{
 			final VolumeBlocks volume = volumes.get( i );
-			complete &= volume.makeLut( timestamp );
+			complete &= volume.makeLut( timestamp, forkJoinPool );
 			volume.getLookupTexture().upload( context );
 		}
+		textureCache.unpinAllExcept( timestamp );
+
+		if ( prefetchJobs != null && prefetchBuffer != null && !multiResStacks.isEmpty() )
+		{
+			// (blocks retained from the previous frame are resident, too)
+			final List< ImageBlockKey< ? > > retainedKeys = new ArrayList<>();
+			final List< ClipRegion > clipRegions = new ArrayList<>();
+			for ( final VolumeAndTasks vat : tasksPerVolume )
+			{
+				vat.volume.getRetainedBlockKeys( retainedKeys );
+				clipRegions.add( vat.volume.getClipRegion() );
+			}
+			prefetchJobs.add( new BlockPrefetcher.Job( multiResStacks, clipRegions, textureCache.spec(), prefetchBuffer, fillTasks, retainedKeys ) );
+		}
 
 		return complete;
 	}
 
+	/**
+	 * @param prefetch
+	 * 		whether to prefetch blocks for the predicted next frame
+	 */
 	private void updateBlocks(
 			final JoglGpuContext context,
 			final List< ? extends MultiResolutionStack3D< ? > > multiResStacks,
-			final Matrix4f pv )
+			final Matrix4f pv,
+			final boolean prefetch )
 	{
 
 		final List< MultiResolutionStack3D< ? > > multiResStacksR8 = new ArrayList<>();
@@ -545,10 +1177,120 @@ public class VolumeRenderer
 			}
 		}
 
+		final Matrix4f predictedPv = new Matrix4f();
+		final List< BlockPrefetcher.Job > prefetchJobs =
+				prefetch && prefetcher != null && cameraMotion.predict( predictedPv )
+						? new ArrayList<>()
+						: null;
+
+		updateCacheSizes( context, !multiResStacksR8.isEmpty(), !multiResStacksR16.isEmpty() );
+
+		// R8 gets its share of the fill time budget, R16 gets the rest (at
+		// least its own share, also if R8 overran)
+		final long maxFillNanosR8 = multiResStacksR16.isEmpty()
+				? maxFillNanos
+				: fillBudgetShare( maxFillNanos, cacheR8.demandInMB, cacheR16.demandInMB );
 		boolean complete = true;
-		complete &= updateBlocks( context, multiResStacksR8, volumesR8, cacheR8, forkJoinPool, renderWidth, pv );
-		complete &= updateBlocks( context, multiResStacksR16, volumesR16, cacheR16, forkJoinPool, renderWidth, pv );
+		complete &= updateBlocks( context, multiResStacksR8, volumesR8, cacheR8, forkJoinPool, renderWidth, pv, prefetchJobs, maxFillNanosR8 );
+		final long maxFillNanosR16 = maxFillNanos == Long.MAX_VALUE
+				? Long.MAX_VALUE
+				: maxFillNanos - Math.min( maxFillNanosR8, cacheR8.fillNanos );
+		complete &= updateBlocks( context, multiResStacksR16, volumesR16, cacheR16, forkJoinPool, renderWidth, pv, prefetchJobs, maxFillNanosR16 );
 		if ( !complete )
 			nextRequestedRepaint.request( LOAD );
+
+		fillNanos = cacheR8.fillNanos + cacheR16.fillNanos;
+
+		if ( prefetchJobs != null )
+			prefetcher.prefetch( prefetchJobs, predictedPv, renderWidth );
+	}
+
+	/**
+	 * Get the share of the fill time budget {@code maxFillNanos} for a cache
+	 * texture with demand {@code demandInMB}, when it shares the budget with
+	 * another cache texture with demand {@code otherDemandInMB}. The budget is
+	 * split in proportion to the demands of the last frame (equally, if not
+	 * known), but each cache texture gets at least {@link #MIN_FILL_SHARE}, so
+	 * that neither can starve the other.
+	 */
+	static long fillBudgetShare( final long maxFillNanos, final double demandInMB, final double otherDemandInMB )
+	{
+		if ( maxFillNanos == Long.MAX_VALUE )
+			return Long.MAX_VALUE;
+
+		final double sum = demandInMB + otherDemandInMB;
+		final double share = Double.isNaN( sum ) || sum <= 0 ? 0.5 : demandInMB / sum;
+		final double clamped = Math.max( MIN_FILL_SHARE, Math.min( 1 - MIN_FILL_SHARE, share ) );
+		return ( long ) ( clamped * maxFillNanos );
+	}
+
+	/**
+	 * Split the cache memory budget between {@code cacheR8} and
+	 * {@code cacheR16}, according to which of them are used in the current
+	 * frame, how many blocks they required in the last frame, and whether
+	 * they were too small for it.
+	 */
+	private void updateCacheSizes( final GpuContext context, final boolean usedR8, final boolean usedR16 )
+	{
+		final TextureCacheAndPboChain[] caches = { cacheR8, cacheR16 };
+		final boolean[] used = { usedR8, usedR16 };
+		final int[] sizeInMB = new int[ caches.length ];
+		final double[] demandInMB = new double[ caches.length ];
+		final boolean[] constrained = new boolean[ caches.length ];
+		for ( int i = 0; i < caches.length; ++i )
+		{
+			if ( !used[ i ] )
+				caches[ i ].demandInMB = Double.NaN; // re-measure when it is used again
+			sizeInMB[ i ] = caches[ i ].sizeInMB;
+			demandInMB[ i ] = used[ i ] ? caches[ i ].demandInMB : 0;
+			constrained[ i ] = used[ i ] && caches[ i ].constrained;
+		}
+		final int[] newSizeInMB = cacheBudget.update( sizeInMB, demandInMB, constrained );
+		for ( int i = 0; i < caches.length; ++i )
+			if ( newSizeInMB[ i ] != sizeInMB[ i ] )
+				caches[ i ].resize( newSizeInMB[ i ], context );
+	}
+
+	/**
+	 * Set the total size of the cache textures. This may be called from any
+	 * thread, it takes effect with the next {@code FULL} or {@code LOAD}
+	 * frame. Cache textures that are resized keep their blocks (as far as
+	 * they fit), these are migrated to the new textures over the next frames.
+	 *
+	 * @param maxCacheSizeInMB
+	 *            total size of the cache textures in MB
+	 */
+	public void setMaxCacheSizeInMB( final int maxCacheSizeInMB )
+	{
+		cacheBudget.setMaxCacheSizeInMB( maxCacheSizeInMB );
+	}
+
+	/**
+	 * Get the total size of the cache textures in MB.
+	 */
+	public int getMaxCacheSizeInMB()
+	{
+		return cacheBudget.getMaxCacheSizeInMB();
+	}
+
+	/**
+	 * Update the camera motion estimate with the {@code RenderData} of a new
+	 * frame. This is used to predict the next frame for prefetching blocks in
+	 * the background.
+	 */
+	public void updateCameraMotion( final RenderData renderData )
+	{
+		cameraMotion.update( renderData );
+	}
+
+	/**
+	 * Get the time spent filling cache tiles (copying block data and uploading
+	 * to the texture caches) in the last {@code FULL} or {@code LOAD} frame.
+	 *
+	 * @return fill time in nanoseconds
+	 */
+	public long getFillNanos()
+	{
+		return fillNanos;
 	}
 }
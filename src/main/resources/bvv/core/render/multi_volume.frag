@@ -5,6 +5,8 @@ uniform mat4 ipv;
 uniform float fwnw;
 uniform float nw;
 
+// max number of clip planes per volume (see ClipRegion.MAX_PLANES)
+#define MAX_CLIP_PLANES 16
 
 
 // intersect ray with a box
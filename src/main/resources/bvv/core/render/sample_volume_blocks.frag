@@ -1,17 +1,37 @@
 #define NUM_BLOCK_SCALES 10
+#define NUM_CACHE_SHARDS 4
 
 uniform mat4 im;
 uniform vec3 sourcemin;
 uniform vec3 sourcemax;
 
+uniform vec4 clipPlanes[ MAX_CLIP_PLANES ];
+uniform int numClipPlanes;
+
 void intersectBoundingBox( vec4 wfront, vec4 wback, out float tnear, out float tfar )
 {
 	vec4 mfront = im * wfront;
 	vec4 mback = im * wback;
 	intersectBox( mfront.xyz, (mback - mfront).xyz, sourcemin, sourcemax, tnear, tfar );
+	// clip [tnear, tfar] to the half-spaces dot(clipPlane, wpos) >= 0
+	for ( int i = 0; i < numClipPlanes; ++i )
+	{
+		float df = dot( clipPlanes[ i ], wfront );
+		float db = dot( clipPlanes[ i ], wback ) - df;
+		if ( db > 0 )
+			tnear = max( tnear, -df / db );
+		else if ( db < 0 )
+			tfar = min( tfar, -df / db );
+		else if ( df < 0 )
+			tfar = tnear;
+	}
 }
 
+// cache texture shards (unused shards are bound to volumeCache)
 uniform sampler3D volumeCache;
+uniform sampler3D volumeCache1;
+uniform sampler3D volumeCache2;
+uniform sampler3D volumeCache3;
 
 // -- comes from CacheSpec -----
 uniform vec3 blockSize;
@@ -19,7 +39,7 @@ uniform vec3 paddedBlockSize;
 uniform vec3 cachePadOffset;
 
 // -- comes from TextureCache --
-uniform vec3 cacheSize;// TODO: get from texture!?
+uniform vec3 cacheSize[ NUM_CACHE_SHARDS ];// TODO: get from texture!?
 
 
 uniform usampler3D lutSampler;
@@ -29,15 +49,29 @@ uniform vec3 lutOffset;
 
 float sampleVolume( vec4 wpos )
 {
+	for ( int i = 0; i < numClipPlanes; ++i )
+		if ( dot( clipPlanes[ i ], wpos ) < 0 )
+			return 0.0;
+
 	vec3 pos = (im * wpos).xyz + 0.5;
 	vec3 q = floor( pos / blockSize ) - lutOffset + 0.5;
 
 	uvec4 lutv = texture( lutSampler, q / lutSize );
 	vec3 B0 = lutv.xyz * paddedBlockSize + cachePadOffset;
-	vec3 sj = blockScales[ lutv.w ];
+	vec3 sj = blockScales[ lutv.w & 15u ];
+	uint shard = lutv.w >> 4u;
 
 	vec3 c0 = B0 + mod( pos * sj, blockSize ) + 0.5 * sj;
 	                                       // + 0.5 ( sj - 1 )   + 0.5 for tex coord offset
 
-	return texture( volumeCache, c0 / cacheSize ).r;
+	// sampler arrays can not be indexed dynamically in GLSL 3.3
+	vec3 tc = c0 / cacheSize[ shard ];
+	if ( shard == 0u )
+		return texture( volumeCache, tc ).r;
+	else if ( shard == 1u )
+		return texture( volumeCache1, tc ).r;
+	else if ( shard == 2u )
+		return texture( volumeCache2, tc ).r;
+	else
+		return texture( volumeCache3, tc ).r;
 }
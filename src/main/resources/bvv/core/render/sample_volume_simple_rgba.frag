@@ -1,17 +1,36 @@
 uniform mat4 im;
 uniform vec3 sourcemax;
 
+uniform vec4 clipPlanes[ MAX_CLIP_PLANES ];
+uniform int numClipPlanes;
+
 void intersectBoundingBox( vec4 wfront, vec4 wback, out float tnear, out float tfar )
 {
 	vec4 mfront = im * wfront;
 	vec4 mback = im * wback;
 	intersectBox( mfront.xyz, (mback - mfront).xyz, vec3( 0, 0, 0 ), sourcemax, tnear, tfar );
+	// clip [tnear, tfar] to the half-spaces dot(clipPlane, wpos) >= 0
+	for ( int i = 0; i < numClipPlanes; ++i )
+	{
+		float df = dot( clipPlanes[ i ], wfront );
+		float db = dot( clipPlanes[ i ], wback ) - df;
+		if ( db > 0 )
+			tnear = max( tnear, -df / db );
+		else if ( db < 0 )
+			tfar = min( tfar, -df / db );
+		else if ( df < 0 )
+			tfar = tnear;
+	}
 }
 
 uniform sampler3D volume;
 
 vec4 sampleVolume( vec4 wpos )
 {
+	for ( int i = 0; i < numClipPlanes; ++i )
+		if ( dot( clipPlanes[ i ], wpos ) < 0 )
+			return vec4( 0 );
+
 	vec3 pos = (im * wpos).xyz + 0.5;
 	return texture( volume, pos / textureSize( volume, 0 ) );
 }
@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.backend;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import bvv.core.shadergen.Shader;
+
+/**
+ * A {@code GpuContext} without GPU, for testing. Staging buffers are backed by
+ * direct {@code ByteBuffer}s. Uploads to textures are recorded in a byte array
+ * per texture, which can be inspected with {@link #getTexel}. Copies between
+ * textures are recorded, see {@link #getTextureCopies()}.
+ */
+public class MockGpuContext implements GpuContext
+{
+	private final Map< StagingBuffer, ByteBuffer > stagingBuffers = new IdentityHashMap<>();
+
+	private final Map< Texture3D, byte[] > textures = new IdentityHashMap<>();
+
+	private final Map< Texture3D, Long > uploadedTexels = new HashMap<>();
+
+	private final int max3DTextureSize;
+
+	private final List< TextureCopy > textureCopies = new ArrayList<>();
+
+	private int numDeletedStagingBuffers;
+
+	/**
+	 * A recorded {@link #copyTexSubImage3D} call.
+	 */
+	public static class TextureCopy
+	{
+		public final Texture3D src;
+
+		public final int srcX, srcY, srcZ;
+
+		public final Texture3D dst;
+
+		public final int dstX, dstY, dstZ;
+
+		public final int width, height, depth;
+
+		TextureCopy( final Texture3D src, final int srcX, final int srcY, final int srcZ, final Texture3D dst, final int dstX, final int dstY, final int dstZ, final int width, final int height, final int depth )
+		{
+			this.src = src;
+			this.srcX = srcX;
+			this.srcY = srcY;
+			this.srcZ = srcZ;
+			this.dst = dst;
+			this.dstX = dstX;
+			this.dstY = dstY;
+			this.dstZ = dstZ;
+			this.width = width;
+			this.height = height;
+			this.depth = depth;
+		}
+	}
+
+	public MockGpuContext()
+	{
+		this( 2048 );
+	}
+
+	public MockGpuContext( final int max3DTextureSize )
+	{
+		this.max3DTextureSize = max3DTextureSize;
+	}
+
+	/**
+	 * Get texel {@code (x, y, z)} of {@code texture} as an unsigned int,
+	 * assembled from {@code bytesPerElement} bytes in native order. Texels
+	 * that were never uploaded are {@code 0}.
+	 */
+	public synchronized long getTexel( final Texture3D texture, final int x, final int y, final int z )
+	{
+		final byte[] data = textures.get( texture );
+		if ( data == null )
+			return 0;
+		final int bpe = texture.texInternalFormat().getBytesPerElement();
+		final ByteBuffer bb = ByteBuffer.wrap( data ).order( ByteOrder.nativeOrder() );
+		final int i = bpe * ( x + texture.texWidth() * ( y + texture.texHeight() * z ) );
+		switch ( bpe )
+		{
+		case 1:
+			return bb.get( i ) & 0xff;
+		case 2:
+			return bb.getShort( i ) & 0xffff;
+		default:
+			return bb.getInt( i ) & 0xffffffffL;
+		}
+	}
+
+	/**
+	 * Get a copy of the contents of {@code texture}, in x, y, z order, with
+	 * {@code bytesPerElement} native-order bytes per texel.
+	 */
+	public synchronized byte[] getTextureData( final Texture3D texture )
+	{
+		return data( texture ).clone();
+	}
+
+	/**
+	 * Get the number of texels uploaded to {@code texture} so far.
+	 */
+	public synchronized long getNumUploadedTexels( final Texture3D texture )
+	{
+		return uploadedTexels.getOrDefault( texture, 0L );
+	}
+
+	/**
+	 * Get the {@link #copyTexSubImage3D} calls so far, in call order.
+	 */
+	public synchronized List< TextureCopy > getTextureCopies()
+	{
+		return new ArrayList<>( textureCopies );
+	}
+
+	public synchronized int getNumDeletedStagingBuffers()
+	{
+		return numDeletedStagingBuffers;
+	}
+
+	@Override
+	public void use( final Shader shader )
+	{}
+
+	@Override
+	public SetUniforms getUniformSetter( final Shader shader )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int bindStagingBuffer( final StagingBuffer stagingBuffer )
+	{
+		return 0;
+	}
+
+	@Override
+	public int bindStagingBufferId( final int id )
+	{
+		return 0;
+	}
+
+	@Override
+	public int bindTexture( final Texture texture )
+	{
+		return 0;
+	}
+
+	@Override
+	public void bindTexture( final Texture texture, final int unit )
+	{}
+
+	@Override
+	public int bindTextureId( final int id, final int numTexDimensions )
+	{
+		return 0;
+	}
+
+	@Override
+	public synchronized Buffer map( final StagingBuffer stagingBuffer )
+	{
+		return stagingBuffers.compute( stagingBuffer, ( k, b ) -> b != null && b.capacity() == k.getSizeInBytes()
+				? b
+				: ByteBuffer.allocateDirect( k.getSizeInBytes() ).order( ByteOrder.nativeOrder() ) );
+	}
+
+	@Override
+	public void unmap( final StagingBuffer stagingBuffer )
+	{}
+
+	@Override
+	public synchronized void delete( final Texture texture )
+	{
+		textures.remove( texture );
+	}
+
+	@Override
+	public synchronized void delete( final StagingBuffer stagingBuffer )
+	{
+		if ( stagingBuffers.remove( stagingBuffer ) != null )
+			++numDeletedStagingBuffers;
+	}
+
+	@Override
+	public synchronized void texSubImage3D( final StagingBuffer stagingBuffer, final Texture3D texture, final int xoffset, final int yoffset, final int zoffset, final int width, final int height, final int depth, final long pixels_buffer_offset )
+	{
+		final ByteBuffer src = stagingBuffers.get( stagingBuffer ).duplicate();
+		src.position( ( int ) pixels_buffer_offset );
+		store( texture, xoffset, yoffset, zoffset, width, height, depth, src );
+	}
+
+	@Override
+	public synchronized void texSubImage3D( final Texture3D texture, final int xoffset, final int yoffset, final int zoffset, final int width, final int height, final int depth, final Buffer pixels )
+	{
+		final ByteBuffer src = ( ( ByteBuffer ) pixels ).duplicate();
+		src.position( 0 );
+		store( texture, xoffset, yoffset, zoffset, width, height, depth, src );
+	}
+
+	@Override
+	public synchronized void copyTexSubImage3D( final Texture3D src, final int srcX, final int srcY, final int srcZ, final Texture3D dst, final int dstX, final int dstY, final int dstZ, final int width, final int height, final int depth )
+	{
+		textureCopies.add( new TextureCopy( src, srcX, srcY, srcZ, dst, dstX, dstY, dstZ, width, height, depth ) );
+		final int bpe = src.texInternalFormat().getBytesPerElement();
+		final byte[] s = data( src );
+		final byte[] d = data( dst );
+		for ( int z = 0; z < depth; ++z )
+			for ( int y = 0; y < height; ++y )
+				System.arraycopy(
+						s, bpe * ( srcX + src.texWidth() * ( srcY + y + src.texHeight() * ( srcZ + z ) ) ),
+						d, bpe * ( dstX + dst.texWidth() * ( dstY + y + dst.texHeight() * ( dstZ + z ) ) ),
+						bpe * width );
+	}
+
+	@Override
+	public int getMax3DTextureSize()
+	{
+		return max3DTextureSize;
+	}
+
+	private byte[] data( final Texture3D texture )
+	{
+		return textures.computeIfAbsent( texture, t -> new byte[ t.texInternalFormat().getBytesPerElement() * t.texWidth() * t.texHeight() * t.texDepth() ] );
+	}
+
+	private void store( final Texture3D texture, final int xoffset, final int yoffset, final int zoffset, final int width, final int height, final int depth, final ByteBuffer src )
+	{
+		if ( xoffset < 0 || yoffset < 0 || zoffset < 0
+				|| xoffset + width > texture.texWidth()
+				|| yoffset + height > texture.texHeight()
+				|| zoffset + depth > texture.texDepth() )
+			throw new IllegalArgumentException( "upload out of texture bounds" );
+		final int bpe = texture.texInternalFormat().getBytesPerElement();
+		final byte[] d = data( texture );
+		for ( int z = 0; z < depth; ++z )
+			for ( int y = 0; y < height; ++y )
+				src.get( d, bpe * ( xoffset + texture.texWidth() * ( yoffset + y + texture.texHeight() * ( zoffset + z ) ) ), bpe * width );
+		uploadedTexels.merge( texture, ( long ) width * height * depth, Long::sum );
+	}
+}
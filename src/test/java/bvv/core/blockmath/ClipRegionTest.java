@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+import net.imglib2.realtransform.AffineTransform3D;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.junit.Test;
+
+public class ClipRegionTest
+{
+	private static final int[] blockSize = { 32, 32, 32 };
+
+	private static final long[] gridMin = { 0, 0, 0 };
+
+	private static final long[] gridMax = { 31, 31, 31 };
+
+	private static final int numGridBlocks = 32 * 32 * 32;
+
+	/**
+	 * Orthographic projection that contains the whole grid {@code [0, 1024)^3}.
+	 */
+	private static final Matrix4f levelToNDC = new Matrix4f().setOrtho( -10, 1100, -10, 1100, -1100, 10 );
+
+	private static final Matrix4f identity = new Matrix4f();
+
+	private static int count( final ClipRegion clip, final Matrix4f levelToWorld )
+	{
+		return FindRequiredBlocks.getRequiredLevelBlocksFrustum( levelToNDC, levelToWorld, clip, blockSize, gridMin, gridMax ).getBlocks().size();
+	}
+
+	/**
+	 * Number of blocks {@code g} with {@code g*blockSize - 0.5 <= max} and
+	 * {@code (g+1)*blockSize - 0.5 >= min}.
+	 */
+	private static int overlapping( final double min, final double max )
+	{
+		int n = 0;
+		for ( long g = gridMin[ 0 ]; g <= gridMax[ 0 ]; ++g )
+			if ( g * blockSize[ 0 ] - 0.5 <= max && ( g + 1 ) * blockSize[ 0 ] - 0.5 >= min )
+				++n;
+		return n;
+	}
+
+	@Test
+	public void testNoClipping()
+	{
+		assertEquals( numGridBlocks, FindRequiredBlocks.getRequiredLevelBlocksFrustum( levelToNDC, blockSize, gridMin, gridMax ).getBlocks().size() );
+		assertEquals( numGridBlocks, count( ClipRegion.NONE, identity ) );
+		assertEquals( 0, ClipRegion.NONE.numPlanes() );
+		assertTrue( ClipRegion.NONE.contains( 1e9, -1e9, 0 ) );
+	}
+
+	@Test
+	public void testHalfSpace()
+	{
+		// x >= 500
+		final ClipRegion clip = ClipRegion.halfSpace( new double[] { 500, 0, 0 }, new double[] { 1, 0, 0 } );
+		assertEquals( overlapping( 500, Double.POSITIVE_INFINITY ) * 32 * 32, count( clip, identity ) );
+
+		// 3 * ( 700 - y ) >= 0, normalized to 700 - y >= 0
+		final ClipRegion clip2 = ClipRegion.halfSpace( 0, -3, 0, 2100 );
+		assertEquals( 1, clip2.numPlanes() );
+		assertEquals( new Vector4f( 0, -1, 0, 700 ), clip2.getPlane( 0, new Vector4f() ) );
+		assertEquals( overlapping( Double.NEGATIVE_INFINITY, 700 ) * 32 * 32, count( clip2, identity ) );
+
+		// everything is clipped
+		assertEquals( 0, count( ClipRegion.halfSpace( new double[] { 2000, 0, 0 }, new double[] { 1, 0, 0 } ), identity ) );
+	}
+
+	@Test
+	public void testSlab()
+	{
+		final ClipRegion clip = ClipRegion.slab( new double[] { 0, 0, 300 }, new double[] { 0, 0, 2 }, 100 );
+		assertEquals( 2, clip.numPlanes() );
+		assertTrue( clip.contains( 0, 0, 250 ) );
+		assertTrue( clip.contains( 0, 0, 349 ) );
+		assertFalse( clip.contains( 0, 0, 249 ) );
+		assertFalse( clip.contains( 0, 0, 351 ) );
+		assertEquals( 32 * 32 * overlapping( 250, 350 ), count( clip, identity ) );
+	}
+
+	@Test
+	public void testBox()
+	{
+		final ClipRegion clip = ClipRegion.box( new FinalRealInterval( new double[] { 100, 200, 300 }, new double[] { 400, 210, 900 } ) );
+		assertEquals( 6, clip.numPlanes() );
+		assertEquals( overlapping( 100, 400 ) * overlapping( 200, 210 ) * overlapping( 300, 900 ), count( clip, identity ) );
+
+		// level blocks are scaled by 2 in world coordinates
+		final Matrix4f levelToWorld = new Matrix4f().scale( 2 );
+		assertEquals( overlapping( 50, 200 ) * overlapping( 100, 105 ) * overlapping( 150, 450 ), count( clip, levelToWorld ) );
+
+		// box is translated by boxToWorld
+		final AffineTransform3D boxToWorld = new AffineTransform3D();
+		boxToWorld.set(
+				1, 0, 0, 10,
+				0, 1, 0, 20,
+				0, 0, 1, 30 );
+		final ClipRegion translated = ClipRegion.box( new FinalRealInterval( new double[] { 100, 200, 300 }, new double[] { 400, 210, 900 } ), boxToWorld );
+		assertEquals( overlapping( 110, 410 ) * overlapping( 220, 230 ) * overlapping( 330, 930 ), count( translated, identity ) );
+	}
+
+	/**
+	 * An oriented box intersected with a half-space: the required blocks are
+	 * the blocks that overlap the clip polytope.
+	 */
+	@Test
+	public void testOrientedBoxAndHalfSpace()
+	{
+		final double c = Math.cos( 0.4 );
+		final double s = Math.sin( 0.4 );
+		final AffineTransform3D boxToWorld = new AffineTransform3D();
+		boxToWorld.set(
+				c, -s, 0, 500,
+				s, c, 0, 300,
+				0, 0, 1, 100 );
+		final ClipRegion box = ClipRegion.box( new FinalRealInterval( new double[] { -200, -100, 0 }, new double[] { 200, 100, 600 } ), boxToWorld );
+		final ClipRegion clip = box.intersect( ClipRegion.halfSpace( 1, 1, 1, -1200 ) );
+		assertEquals( 7, clip.numPlanes() );
+
+		final double[] world = new double[ 3 ];
+		boxToWorld.apply( new double[] { 0, 0, 300 }, world );
+		assertTrue( box.contains( world[ 0 ], world[ 1 ], world[ 2 ] ) );
+		boxToWorld.apply( new double[] { 0, 101, 300 }, world );
+		assertFalse( box.contains( world[ 0 ], world[ 1 ], world[ 2 ] ) );
+
+		final List< HyperPlane > planes = new ArrayList<>();
+		final Vector4f plane = new Vector4f();
+		for ( int i = 0; i < clip.numPlanes(); ++i )
+		{
+			clip.getPlane( i, plane );
+			planes.add( new HyperPlane( new double[] { plane.x, plane.y, plane.z }, -plane.w ) );
+		}
+		final RequiredBlocks expected = FindRequiredBlocksTest.getRequiredBlocksBruteForce( new ConvexPolytope( planes ), blockSize, gridMin, gridMax );
+		final RequiredBlocks actual = FindRequiredBlocks.getRequiredLevelBlocksFrustum( levelToNDC, identity, clip, blockSize, gridMin, gridMax );
+		final int n = actual.getBlocks().size();
+		assertTrue( n > 0 && n < count( box, identity ) );
+		assertEquals( expected.getBlocks().size(), n );
+		for ( int i = 0; i < n; ++i )
+			assertArrayEquals( expected.getGridPositions().get( i ), actual.getGridPositions().get( i ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testTooManyPlanes()
+	{
+		final ClipRegion box = ClipRegion.box( new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 1, 1, 1 } ) );
+		box.intersect( box ).intersect( box );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testZeroNormal()
+	{
+		ClipRegion.halfSpace( 0, 0, 0, 1 );
+	}
+}
@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link FindRequiredBlocks#getRequiredBlocks} with checking every
+ * cell of the grid ({@link FindRequiredBlocksTest#getRequiredBlocksBruteForce}),
+ * for an oblique perspective view of a {@code gridSize^3} grid of
+ * {@code 32^3} blocks, of which about a fifth are visible.
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+public class FindRequiredBlocksBenchmark
+{
+	private static final int[] BLOCK_SIZE = { 32, 32, 32 };
+
+	@Param( { "64", "128", "256" } )
+	public int gridSize;
+
+	private ConvexPolytope clip;
+
+	private long[] gridMin;
+
+	private long[] gridMax;
+
+	@Setup
+	public void setup()
+	{
+		final float extent = 32 * gridSize;
+		final Matrix4f levelToNDC = new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 30 ), 1, 10, 4 * extent )
+				.lookAt( 0.2f * extent, 0.7f * extent, -0.1f * extent, 0.6f * extent, 0.4f * extent, 0.9f * extent, 0, 1, 0 );
+		clip = FindRequiredBlocksTest.frustum( levelToNDC );
+		gridMin = new long[] { 0, 0, 0 };
+		gridMax = new long[] { gridSize - 1, gridSize - 1, gridSize - 1 };
+	}
+
+	@Benchmark
+	public RequiredBlocks subdivision()
+	{
+		return FindRequiredBlocks.getRequiredBlocks( clip, BLOCK_SIZE, gridMin, gridMax );
+	}
+
+	@Benchmark
+	public RequiredBlocks bruteForce()
+	{
+		return FindRequiredBlocksTest.getRequiredBlocksBruteForce( clip, BLOCK_SIZE, gridMin, gridMax );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( FindRequiredBlocksBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+import net.imglib2.iterator.IntervalIterator;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.junit.Test;
+
+public class FindRequiredBlocksTest
+{
+	/**
+	 * Same as {@link FindRequiredBlocks#getRequiredBlocks}, but checks all
+	 * planes for all cells of the grid interval.
+	 */
+	static RequiredBlocks getRequiredBlocksBruteForce(
+			final ConvexPolytope clip,
+			final int[] blockSize,
+			final long[] gridMin,
+			final long[] gridMax )
+	{
+		final int n = clip.numDimensions();
+		final RequiredBlocks required = new RequiredBlocks( n );
+
+		final ConvexPolytope shrunkClip = FindRequiredBlocks.shrinkClippingPolytope( clip, blockSize );
+		final ConvexPolytope gridClip = FindRequiredBlocks.scaleClippingPolytope( shrunkClip, blockSize );
+
+		final IntervalIterator gridIter = new LocalizingIntervalIterator( gridMin, gridMax );
+		while( gridIter.hasNext() )
+		{
+			gridIter.fwd();
+			if ( GeomUtils.isInside( gridClip, gridIter ) )
+				required.add( gridIter );
+		}
+
+		return required;
+	}
+
+	/**
+	 * Random perspective views of a grid: the view frustum polytope yields
+	 * the same blocks as checking every cell, in the same order.
+	 */
+	@Test
+	public void testRandomFrusta()
+	{
+		final Random random = new Random( 1 );
+		final long[] gridMin = { 0, 0, 0 };
+		int numNonEmpty = 0;
+		for ( int i = 0; i < 200; ++i )
+		{
+			final int[] blockSize = { 8 + random.nextInt( 25 ), 8 + random.nextInt( 25 ), 8 + random.nextInt( 25 ) };
+			final long[] gridMax = { random.nextInt( 40 ), random.nextInt( 40 ), random.nextInt( 40 ) };
+			final float extent = 40 * 32;
+			final Matrix4f levelToNDC = new Matrix4f()
+					.setPerspective( ( float ) Math.toRadians( 10 + 80 * random.nextFloat() ), 0.5f + random.nextFloat(), 1 + 100 * random.nextFloat(), 500 + 2000 * random.nextFloat() )
+					.lookAt(
+							extent * ( 2 * random.nextFloat() - 0.5f ), extent * ( 2 * random.nextFloat() - 0.5f ), extent * ( 2 * random.nextFloat() - 0.5f ),
+							extent * random.nextFloat(), extent * random.nextFloat(), extent * random.nextFloat(),
+							0, 1, 0 );
+
+			final RequiredBlocks expected = getRequiredBlocksBruteForce( frustum( levelToNDC ), blockSize, gridMin, gridMax );
+			final RequiredBlocks actual = FindRequiredBlocks.getRequiredLevelBlocksFrustum( levelToNDC, blockSize, gridMin, gridMax );
+			assertSameBlocks( expected, actual );
+			if ( !expected.getBlocks().isEmpty() )
+				++numNonEmpty;
+		}
+		assertTrue( numNonEmpty > 50 );
+	}
+
+	/**
+	 * Random (possibly unbounded) convex polytopes yield the same blocks as
+	 * checking every cell, in the same order.
+	 */
+	@Test
+	public void testRandomPolytopes()
+	{
+		final Random random = new Random( 2 );
+		for ( int i = 0; i < 500; ++i )
+		{
+			final int[] blockSize = { 1 + random.nextInt( 32 ), 1 + random.nextInt( 32 ), 1 + random.nextInt( 32 ) };
+			final long[] gridMin = { random.nextInt( 10 ) - 5, random.nextInt( 10 ) - 5, random.nextInt( 10 ) - 5 };
+			final long[] gridMax = { gridMin[ 0 ] + random.nextInt( 30 ), gridMin[ 1 ] + random.nextInt( 30 ), gridMin[ 2 ] + random.nextInt( 30 ) };
+			final List< HyperPlane > planes = new ArrayList<>();
+			final int numPlanes = 1 + random.nextInt( 8 );
+			for ( int p = 0; p < numPlanes; ++p )
+			{
+				final double[] normal = { random.nextGaussian(), random.nextGaussian(), random.nextGaussian() };
+				final double len = Math.sqrt( normal[ 0 ] * normal[ 0 ] + normal[ 1 ] * normal[ 1 ] + normal[ 2 ] * normal[ 2 ] );
+				final double[] point = new double[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+				{
+					normal[ d ] /= len;
+					point[ d ] = blockSize[ d ] * ( gridMin[ d ] + random.nextDouble() * ( gridMax[ d ] - gridMin[ d ] + 1 ) );
+				}
+				planes.add( new HyperPlane( normal, normal[ 0 ] * point[ 0 ] + normal[ 1 ] * point[ 1 ] + normal[ 2 ] * point[ 2 ] ) );
+			}
+			final ConvexPolytope clip = new ConvexPolytope( planes );
+			assertSameBlocks(
+					getRequiredBlocksBruteForce( clip, blockSize, gridMin, gridMax ),
+					FindRequiredBlocks.getRequiredBlocks( clip, blockSize, gridMin, gridMax ) );
+		}
+	}
+
+	/**
+	 * The view frustum of {@code levelToNDC}, normals facing inwards.
+	 */
+	static ConvexPolytope frustum( final Matrix4f levelToNDC )
+	{
+		final Matrix4f inv = levelToNDC.invert( new Matrix4f() );
+		final List< HyperPlane > planes = new ArrayList<>();
+		for ( int d = 0; d < 3; ++d )
+		{
+			for ( final int side : new int[] { -1, 1 } )
+			{
+				// three corners of the NDC cube face, backprojected to source coordinates
+				final int e = ( d + 1 ) % 3;
+				final int f = ( d + 2 ) % 3;
+				final double[][] p = new double[ 3 ][];
+				final float[][] ndc = { { 0, 0, 0 }, { 0, 0, 0 }, { 0, 0, 0 } };
+				for ( int k = 0; k < 3; ++k )
+					ndc[ k ][ d ] = side;
+				ndc[ 1 ][ e ] = 1;
+				ndc[ 2 ][ f ] = 1;
+				for ( int k = 0; k < 3; ++k )
+				{
+					final Vector4f v = new Vector4f( ndc[ k ][ 0 ], ndc[ k ][ 1 ], ndc[ k ][ 2 ], 1 ).mul( inv );
+					p[ k ] = new double[] { v.x / v.w, v.y / v.w, v.z / v.w };
+				}
+				final double[] u = sub( p[ 1 ], p[ 0 ] );
+				final double[] v = sub( p[ 2 ], p[ 0 ] );
+				final double[] n = {
+						u[ 1 ] * v[ 2 ] - u[ 2 ] * v[ 1 ],
+						u[ 2 ] * v[ 0 ] - u[ 0 ] * v[ 2 ],
+						u[ 0 ] * v[ 1 ] - u[ 1 ] * v[ 0 ] };
+				final double len = Math.sqrt( n[ 0 ] * n[ 0 ] + n[ 1 ] * n[ 1 ] + n[ 2 ] * n[ 2 ] );
+				for ( int k = 0; k < 3; ++k )
+					n[ k ] /= len;
+
+				// orient towards the backprojected NDC origin
+				final Vector4f c = new Vector4f( 0, 0, 0, 1 ).mul( inv );
+				final double[] center = { c.x / c.w, c.y / c.w, c.z / c.w };
+				if ( dot( n, sub( center, p[ 0 ] ) ) < 0 )
+					for ( int k = 0; k < 3; ++k )
+						n[ k ] = -n[ k ];
+				planes.add( new HyperPlane( n, dot( n, p[ 0 ] ) ) );
+			}
+		}
+		return new ConvexPolytope( planes );
+	}
+
+	private static double[] sub( final double[] a, final double[] b )
+	{
+		return new double[] { a[ 0 ] - b[ 0 ], a[ 1 ] - b[ 1 ], a[ 2 ] - b[ 2 ] };
+	}
+
+	private static double dot( final double[] a, final double[] b )
+	{
+		return a[ 0 ] * b[ 0 ] + a[ 1 ] * b[ 1 ] + a[ 2 ] * b[ 2 ];
+	}
+
+	private static void assertSameBlocks( final RequiredBlocks expected, final RequiredBlocks actual )
+	{
+		final List< int[] > e = expected.getGridPositions();
+		final List< int[] > a = actual.getGridPositions();
+		assertEquals( e.size(), a.size() );
+		for ( int i = 0; i < e.size(); ++i )
+			assertArrayEquals( e.get( i ), a.get( i ) );
+		if ( !e.isEmpty() )
+		{
+			assertArrayEquals( expected.getMin(), actual.getMin() );
+			assertArrayEquals( expected.getMax(), actual.getMax() );
+		}
+	}
+}
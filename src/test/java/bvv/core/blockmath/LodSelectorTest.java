@@ -0,0 +1,414 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import gnu.trove.set.hash.TLongHashSet;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import bvv.core.multires.SyntheticStack;
+
+public class LodSelectorTest
+{
+	private static final int VIEWPORT_WIDTH = 1000;
+
+	private static final int NUM_LEVELS = 5;
+
+	/**
+	 * Camera on the z axis of a {@code size^3} source, looking at its
+	 * {@code z = 0} face from distance {@code distance}, 90 degrees field of
+	 * view. At distance {@code w} from the camera, a screen pixel is
+	 * {@code w / 500} source units wide.
+	 */
+	private static Matrix4f axisView( final float size, final float distance )
+	{
+		final float c = size / 2;
+		return new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 90 ), 1, 1, 10 * ( size + distance ) )
+				.lookAt( c, c, -distance, c, c, 0, 0, 1, 0 );
+	}
+
+	/**
+	 * In the {@link #axisView}, a block on the view axis at distance {@code w}
+	 * gets the coarsest level {@code l} with {@code 2^l <= maxError * w / 500}.
+	 */
+	@Test
+	public void testScreenSpaceErrorLevels()
+	{
+		final SyntheticStack stack = new SyntheticStack( 8192, 32, NUM_LEVELS, ( l, x, y, z ) -> 0 );
+		final ScreenSpaceErrorLod lod = new ScreenSpaceErrorLod( 1.0 );
+		lod.init( axisView( 8192, 100 ), VIEWPORT_WIDTH, stack.resolutions() );
+		assertTrue( lod.isVisible() );
+		assertEquals( 0, lod.getBaseLevel() );
+
+		// { nearest z of block, expected level }
+		final int[][] expected = {
+				{ 0, 0 },      // w = 100, pixel = 0.2
+				{ 300, 0 },    // w = 400, pixel = 0.8
+				{ 1100, 1 },   // w = 1200, pixel = 2.4
+				{ 2400, 2 },   // w = 2500, pixel = 5
+				{ 4900, 3 },   // w = 5000, pixel = 10
+				{ 8000, 4 } }; // w = 8100, pixel = 16.2
+		assertLevels( lod, expected );
+
+		// twice the tolerated error: one level coarser
+		final ScreenSpaceErrorLod lod2 = new ScreenSpaceErrorLod( 2.0 );
+		lod2.init( axisView( 8192, 100 ), VIEWPORT_WIDTH, stack.resolutions() );
+		assertLevels( lod2, new int[][] {
+				{ 0, 0 },
+				{ 300, 0 },
+				{ 1100, 2 },
+				{ 2400, 3 },
+				{ 4900, 4 },
+				{ 8000, 4 } } );
+	}
+
+	/**
+	 * The base level follows from the closest visible point, and blocks never
+	 * get a finer level.
+	 */
+	@Test
+	public void testBaseLevel()
+	{
+		final SyntheticStack stack = new SyntheticStack( 1024, 32, NUM_LEVELS, ( l, x, y, z ) -> 0 );
+		final ScreenSpaceErrorLod lod = new ScreenSpaceErrorLod( 1.0 );
+
+		// closest point at w = 2500: pixel = 5
+		lod.init( axisView( 1024, 2500 ), VIEWPORT_WIDTH, stack.resolutions() );
+		assertTrue( lod.isVisible() );
+		assertEquals( 2, lod.getBaseLevel() );
+		final RequiredBlocks blocks = FindRequiredBlocks.getRequiredLevelBlocksFrustum( axisView( 1024, 2500 ), new int[] { 32, 32, 32 }, new long[] { 0, 0, 0 }, new long[] { 31, 31, 31 } );
+		assertEquals( 32 * 32 * 32, blocks.getBlocks().size() );
+		final Vector3f min = new Vector3f();
+		final Vector3f max = new Vector3f();
+		final Vector3f tmp = new Vector3f();
+		for ( final RequiredBlock block : blocks.getBlocks() )
+		{
+			final int[] g = block.getGridPos();
+			min.set( g[ 0 ] * 32, g[ 1 ] * 32, g[ 2 ] * 32 );
+			max.set( min ).add( 32, 32, 32 );
+			assertTrue( lod.bestLevel( min, max, tmp ) >= lod.getBaseLevel() );
+		}
+
+		// looking away from the source
+		final Matrix4f away = new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 90 ), 1, 1, 10000 )
+				.lookAt( 512, 512, -100, 512, 512, -200, 0, 1, 0 );
+		lod.init( away, VIEWPORT_WIDTH, stack.resolutions() );
+		assertFalse( lod.isVisible() );
+	}
+
+	/**
+	 * With the focus inside the block's screen-space bounding box (or within
+	 * {@code radius}), {@code FoveatedLod} chooses the same level as
+	 * {@code ScreenSpaceErrorLod}. Further away, the tolerated error grows by
+	 * {@code falloff * maxError} per NDC unit.
+	 */
+	@Test
+	public void testFoveatedLevels()
+	{
+		final SyntheticStack stack = new SyntheticStack( 8192, 32, NUM_LEVELS, ( l, x, y, z ) -> 0 );
+		final Matrix4f view = axisView( 8192, 100 );
+		final FoveatedLod.Focus focus = new FoveatedLod.Focus();
+		final FoveatedLod lod = new FoveatedLod( focus, 1.0, 0.25, 4.0 );
+		final Vector3f tmp = new Vector3f();
+
+		// block around the view axis at w = 1200, pixel = 2.4 (level 1)
+		final Vector3f min = new Vector3f( 4096 - 16, 4096 - 16, 1100 );
+		final Vector3f max = new Vector3f( 4096 + 16, 4096 + 16, 1132 );
+
+		focus.set( 0, 0 );
+		lod.init( view, VIEWPORT_WIDTH, stack.resolutions() );
+		assertEquals( 0, lod.getBaseLevel() );
+		assertEquals( 1, lod.bestLevel( min, max, tmp ) );
+
+		// distance 0.5 - radius 0.25: error 1 + 4 * 0.25 = 2, level 2 (2.4 * 2 >= 4)
+		focus.set( 0.5f, 0 );
+		lod.init( view, VIEWPORT_WIDTH, stack.resolutions() );
+		assertEquals( 0, lod.getBaseLevel() );
+		assertEquals( 2, lod.bestLevel( min, max, tmp ) );
+
+		// distance 1 - radius 0.25: error 1 + 4 * 0.75 = 4, level 3 (2.4 * 4 >= 8)
+		focus.set( 0, -1 );
+		lod.init( view, VIEWPORT_WIDTH, stack.resolutions() );
+		assertEquals( 3, lod.bestLevel( min, max, tmp ) );
+
+		// within radius
+		focus.set( 0.2f, 0 );
+		lod.init( view, VIEWPORT_WIDTH, stack.resolutions() );
+		assertEquals( 1, lod.bestLevel( min, max, tmp ) );
+	}
+
+	/**
+	 * For random views, {@code FoveatedLod} never chooses a finer level than
+	 * {@code ScreenSpaceErrorLod}, chooses the same level for blocks close
+	 * to the focus, and needs fewer distinct blocks. Both need (many) fewer
+	 * blocks than rendering everything at full resolution.
+	 */
+	@Test
+	public void testFoveatedBlockCounts()
+	{
+		final Random random = new Random( 1 );
+		final int size = 2048;
+		final int[] blockSize = { 32, 32, 32 };
+		final SyntheticStack stack = new SyntheticStack( size, 32, NUM_LEVELS, ( l, x, y, z ) -> 0 );
+		final FoveatedLod.Focus focus = new FoveatedLod.Focus();
+		final ScreenSpaceErrorLod sse = new ScreenSpaceErrorLod( 1.0 );
+		final FoveatedLod foveated = new FoveatedLod( focus, 1.0, 0.25, 4.0 );
+		final Vector3f min = new Vector3f();
+		final Vector3f max = new Vector3f();
+		final Vector3f tmp = new Vector3f();
+		int numTested = 0;
+		long numFullRes = 0;
+		long numScreenSpaceError = 0;
+		long numFoveated = 0;
+		for ( int i = 0; i < 20; ++i )
+		{
+			final Matrix4f view = randomView( random, size );
+			focus.set( 2 * random.nextFloat() - 1, 2 * random.nextFloat() - 1 );
+			sse.init( view, VIEWPORT_WIDTH, stack.resolutions() );
+			foveated.init( view, VIEWPORT_WIDTH, stack.resolutions() );
+			if ( !sse.isVisible() )
+				continue;
+			assertEquals( sse.getBaseLevel(), foveated.getBaseLevel() );
+
+			final long gridMax = size / blockSize[ 0 ] - 1;
+			final RequiredBlocks blocks = FindRequiredBlocks.getRequiredLevelBlocksFrustum( view, blockSize, new long[] { 0, 0, 0 }, new long[] { gridMax, gridMax, gridMax } );
+			if ( blocks.getBlocks().size() < 100 )
+				continue;
+
+			final TLongHashSet sseKeys = new TLongHashSet();
+			final TLongHashSet foveatedKeys = new TLongHashSet();
+			for ( final RequiredBlock block : blocks.getBlocks() )
+			{
+				final int[] g = block.getGridPos();
+				min.set( g[ 0 ] * 32, g[ 1 ] * 32, g[ 2 ] * 32 );
+				max.set( min ).add( 32, 32, 32 );
+				final int sseLevel = sse.bestLevel( min, max, tmp );
+				final int foveatedLevel = foveated.bestLevel( min, max, tmp );
+				assertTrue( foveatedLevel >= sseLevel );
+				if ( containsFocus( view, min, max, focus ) )
+					assertEquals( sseLevel, foveatedLevel );
+				sseKeys.add( levelBlockKey( g, sseLevel ) );
+				foveatedKeys.add( levelBlockKey( g, foveatedLevel ) );
+			}
+			assertTrue( sseKeys.size() <= blocks.getBlocks().size() );
+			assertTrue( foveatedKeys.size() <= sseKeys.size() );
+			numFullRes += blocks.getBlocks().size();
+			numScreenSpaceError += sseKeys.size();
+			numFoveated += foveatedKeys.size();
+			++numTested;
+		}
+		assertTrue( numTested > 5 );
+		assertTrue( numScreenSpaceError < numFullRes / 2 );
+		assertTrue( numFoveated < numScreenSpaceError );
+	}
+
+	/**
+	 * For random views, compare the level chosen by
+	 * {@code ScreenSpaceErrorLod} for each block against a reference that
+	 * projects the voxel edges of each level at sample points throughout the
+	 * visible part of the block, and picks the coarsest level where all
+	 * projected edges are at most {@code maxError} pixels.
+	 * <p>
+	 * {@code ScreenSpaceErrorLod} evaluates the nearest point of the block,
+	 * which may be outside the view (finer than necessary), and ignores the
+	 * off-axis stretching of the perspective projection (coarser than
+	 * necessary, by at most {@code 1/cos^2} of the half field of view).
+	 */
+	@Test
+	public void testAgainstReference()
+	{
+		final Random random = new Random( 2 );
+		final int size = 1024;
+		final int[] blockSize = { 32, 32, 32 };
+		final SyntheticStack stack = new SyntheticStack( size, 32, NUM_LEVELS, ( l, x, y, z ) -> 0 );
+		final double maxError = 1.0;
+		final ScreenSpaceErrorLod lod = new ScreenSpaceErrorLod( maxError );
+		final Vector3f min = new Vector3f();
+		final Vector3f max = new Vector3f();
+		final Vector3f tmp = new Vector3f();
+		int numBlocks = 0;
+		int numSame = 0;
+		int numCoarser = 0;
+		for ( int i = 0; i < 20; ++i )
+		{
+			final Matrix4f view = randomView( random, size );
+			lod.init( view, VIEWPORT_WIDTH, stack.resolutions() );
+			if ( !lod.isVisible() )
+				continue;
+			final long gridMax = size / blockSize[ 0 ] - 1;
+			final RequiredBlocks blocks = FindRequiredBlocks.getRequiredLevelBlocksFrustum( view, blockSize, new long[] { 0, 0, 0 }, new long[] { gridMax, gridMax, gridMax } );
+			for ( final RequiredBlock block : blocks.getBlocks() )
+			{
+				final int[] g = block.getGridPos();
+				min.set( g[ 0 ] * 32, g[ 1 ] * 32, g[ 2 ] * 32 );
+				max.set( min ).add( 32, 32, 32 );
+				final int expected = referenceLevel( view, min, max, maxError );
+				if ( expected < 0 )
+					continue; // no sample point visible
+				final int actual = lod.bestLevel( min, max, tmp );
+				assertTrue( actual >= lod.getBaseLevel() );
+				assertTrue( "level " + actual + ", reference " + expected, Math.abs( actual - expected ) <= 1 );
+				++numBlocks;
+				if ( actual == expected )
+					++numSame;
+				else if ( actual > expected )
+					++numCoarser;
+			}
+		}
+		assertTrue( numBlocks > 1000 );
+		assertTrue( numSame > 0.9 * numBlocks );
+		assertTrue( numCoarser < 0.05 * numBlocks );
+	}
+
+	/**
+	 * Coarsest level where all voxel edges, projected at sample points in the
+	 * visible part of the block, are at most {@code maxError} pixels. Returns
+	 * {@code -1} if no sample point is visible.
+	 */
+	private static int referenceLevel( final Matrix4fc sourceToNDC, final Vector3f min, final Vector3f max, final double maxError )
+	{
+		final int n = 4;
+		final Vector3f p = new Vector3f();
+		final Vector3f q = new Vector3f();
+		final Vector3f pNDC = new Vector3f();
+		final double[] maxSize = new double[ NUM_LEVELS ];
+		boolean anyVisible = false;
+		for ( int z = 0; z <= n; ++z )
+			for ( int y = 0; y <= n; ++y )
+				for ( int x = 0; x <= n; ++x )
+				{
+					p.set(
+							min.x + ( max.x - min.x ) * x / n,
+							min.y + ( max.y - min.y ) * y / n,
+							min.z + ( max.z - min.z ) * z / n );
+					if ( !isVisible( sourceToNDC, p, pNDC ) )
+						continue;
+					anyVisible = true;
+					for ( int l = 0; l < NUM_LEVELS; ++l )
+					{
+						final float r = 1 << l;
+						for ( int d = 0; d < 3; ++d )
+						{
+							q.set( p ).setComponent( d, p.get( d ) + r );
+							sourceToNDC.transformProject( q );
+							final double dx = ( q.x - pNDC.x ) * VIEWPORT_WIDTH / 2;
+							final double dy = ( q.y - pNDC.y ) * VIEWPORT_WIDTH / 2;
+							maxSize[ l ] = Math.max( maxSize[ l ], Math.sqrt( dx * dx + dy * dy ) );
+						}
+					}
+				}
+		if ( !anyVisible )
+			return -1;
+		int best = 0;
+		for ( int l = 1; l < NUM_LEVELS; ++l )
+		{
+			if ( maxSize[ l ] > maxError )
+				break;
+			best = l;
+		}
+		return best;
+	}
+
+	private static boolean isVisible( final Matrix4fc sourceToNDC, final Vector3f p, final Vector3f ndc )
+	{
+		final float w = sourceToNDC.m03() * p.x + sourceToNDC.m13() * p.y + sourceToNDC.m23() * p.z + sourceToNDC.m33();
+		if ( w <= 0 )
+			return false;
+		sourceToNDC.transformProject( p, ndc );
+		return Math.abs( ndc.x ) <= 1 && Math.abs( ndc.y ) <= 1 && Math.abs( ndc.z ) <= 1;
+	}
+
+	private static boolean containsFocus( final Matrix4fc sourceToNDC, final Vector3f min, final Vector3f max, final FoveatedLod.Focus focus )
+	{
+		final Vector3f p = new Vector3f();
+		float xmin = Float.POSITIVE_INFINITY;
+		float xmax = Float.NEGATIVE_INFINITY;
+		float ymin = Float.POSITIVE_INFINITY;
+		float ymax = Float.NEGATIVE_INFINITY;
+		for ( int i = 0; i < 8; ++i )
+		{
+			p.set(
+					( i & 1 ) == 0 ? min.x : max.x,
+					( i & 2 ) == 0 ? min.y : max.y,
+					( i & 4 ) == 0 ? min.z : max.z );
+			final float w = sourceToNDC.m03() * p.x + sourceToNDC.m13() * p.y + sourceToNDC.m23() * p.z + sourceToNDC.m33();
+			if ( w <= 0 )
+				return true;
+			sourceToNDC.transformProject( p );
+			xmin = Math.min( xmin, p.x );
+			xmax = Math.max( xmax, p.x );
+			ymin = Math.min( ymin, p.y );
+			ymax = Math.max( ymax, p.y );
+		}
+		return focus.x() >= xmin && focus.x() <= xmax && focus.y() >= ymin && focus.y() <= ymax;
+	}
+
+	/**
+	 * Key of the block at level {@code level} that contains full resolution
+	 * block {@code g}.
+	 */
+	private static long levelBlockKey( final int[] g, final int level )
+	{
+		return ( ( long ) level << 60 ) | ( ( long ) ( g[ 0 ] >> level ) << 40 ) | ( ( long ) ( g[ 1 ] >> level ) << 20 ) | ( g[ 2 ] >> level );
+	}
+
+	private static Matrix4f randomView( final Random random, final int size )
+	{
+		final float extent = 2 * size;
+		return new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 30 + 60 * random.nextFloat() ), 1, 1 + 10 * random.nextFloat(), 4 * extent )
+				.lookAt(
+						extent * ( random.nextFloat() - 0.25f ), extent * ( random.nextFloat() - 0.25f ), extent * ( random.nextFloat() - 0.25f ),
+						size * random.nextFloat(), size * random.nextFloat(), size * random.nextFloat(),
+						0, 1, 0 );
+	}
+
+	private static void assertLevels( final ScreenSpaceErrorLod lod, final int[][] expected )
+	{
+		final Vector3f min = new Vector3f();
+		final Vector3f max = new Vector3f();
+		final Vector3f tmp = new Vector3f();
+		for ( final int[] e : expected )
+		{
+			min.set( 4096 - 16, 4096 - 16, e[ 0 ] );
+			max.set( 4096 + 16, 4096 + 16, e[ 0 ] + 32 );
+			assertEquals( "block at z = " + e[ 0 ], e[ 1 ], lod.bestLevel( min, max, tmp ) );
+		}
+	}
+}
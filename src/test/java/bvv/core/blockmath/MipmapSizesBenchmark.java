@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bvv.core.multires.SyntheticStack;
+
+/**
+ * Compares {@link MipmapSizes#init} (closest visible source point in closed
+ * form) with solving for the closest visible source point with
+ * {@code SimplexSolver} ({@link MipmapSizesTest#closestVisibleDrelSimplex}),
+ * for random perspective views of a {@code 1000^3} source. Times are per
+ * view.
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class MipmapSizesBenchmark
+{
+	private static final int NUM_VIEWS = 64;
+
+	private static final long SIZE = 1000;
+
+	private final MipmapSizes sizes = new MipmapSizes();
+
+	private SyntheticStack stack;
+
+	private Matrix4f[] views;
+
+	@Setup
+	public void setup()
+	{
+		stack = new SyntheticStack( SIZE, 32, 6, 0 );
+		final Random random = new Random( 1 );
+		final float extent = 2 * SIZE;
+		views = new Matrix4f[ NUM_VIEWS ];
+		for ( int i = 0; i < NUM_VIEWS; ++i )
+			views[ i ] = new Matrix4f()
+					.setPerspective( ( float ) Math.toRadians( 10 + 80 * random.nextFloat() ), 0.5f + random.nextFloat(), 1 + 100 * random.nextFloat(), 100 + 3 * extent * random.nextFloat() )
+					.lookAt(
+							extent * ( random.nextFloat() - 0.25f ), extent * ( random.nextFloat() - 0.25f ), extent * ( random.nextFloat() - 0.25f ),
+							extent * random.nextFloat(), extent * random.nextFloat(), extent * random.nextFloat(),
+							random.nextFloat() - 0.5f, 1, random.nextFloat() - 0.5f );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( NUM_VIEWS )
+	public double closedForm()
+	{
+		double sum = 0;
+		for ( final Matrix4f view : views )
+		{
+			sizes.init( view, 1000, stack.resolutions() );
+			sum += sizes.getDrelClosestSourcePoint();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( NUM_VIEWS )
+	public double simplex()
+	{
+		final long[] imgSize = { SIZE, SIZE, SIZE };
+		double sum = 0;
+		for ( final Matrix4f view : views )
+			sum += MipmapSizesTest.closestVisibleDrelSimplex( view, imgSize );
+		return sum;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( MipmapSizesBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blockmath;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import bvv.core.util.MatrixMath;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.linear.LinearConstraint;
+import org.apache.commons.math3.optim.linear.LinearConstraintSet;
+import org.apache.commons.math3.optim.linear.LinearObjectiveFunction;
+import org.apache.commons.math3.optim.linear.NoFeasibleSolutionException;
+import org.apache.commons.math3.optim.linear.Relationship;
+import org.apache.commons.math3.optim.linear.SimplexSolver;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.junit.Test;
+
+import bvv.core.multires.SyntheticStack;
+
+public class MipmapSizesTest
+{
+	/**
+	 * Same as the closest source point computation in
+	 * {@link MipmapSizes#init}, but solved as a linear program with
+	 * {@code SimplexSolver}.
+	 *
+	 * @param sourceToNDC
+	 * 		{@code Projection * View * Model} matrix
+	 * @param imgSize
+	 * 		dimensions of the full resolution source
+	 *
+	 * @return minimum relative depth of any visible source point (not clamped to {@code [0,1]}),
+	 * or {@code NaN} if no part of the source is visible.
+	 */
+	static double closestVisibleDrelSimplex( final Matrix4fc sourceToNDC, final long[] imgSize )
+	{
+		final Matrix4f NDCtoSource = sourceToNDC.invert( new Matrix4f() );
+		final Vector3f pNear = NDCtoSource.transformProject( 0, 0, -1, new Vector3f() );
+		final Vector3f pFar = NDCtoSource.transformProject( 0, 0, 1, new Vector3f() );
+		final Vector3f pFarMinusNear = pFar.sub( pNear, new Vector3f() );
+		final float drels = 1f / pFarMinusNear.lengthSquared();
+		final Vector3f dir = new Vector3f();
+
+		final Matrix4f T = sourceToNDC.transpose( new Matrix4f() );
+		final ConvexPolytope sourceRegion = new ConvexPolytope(
+				// planes bounding the view frustum, normals facing inwards, transformed to source coordinates
+				sourceHyperPlane( T, 1, 0, 0, -1 ),
+				sourceHyperPlane( T, -1, 0, 0, -1 ),
+				sourceHyperPlane( T, 0, 1, 0, -1 ),
+				sourceHyperPlane( T, 0, -1, 0, -1 ),
+				sourceHyperPlane( T, 0, 0, 1, -1 ),
+				sourceHyperPlane( T, 0, 0, -1, -1 ),
+				// planes bounding the source, normals facing inwards
+				new HyperPlane( 1, 0, 0, 0 ), // TODO: 0.5 offsets?
+				new HyperPlane( 0, 1, 0, 0 ), // TODO: 0.5 offsets?
+				new HyperPlane( 0, 0, 1, 0 ), // TODO: 0.5 offsets?
+				new HyperPlane( -1, 0, 0, -imgSize[ 0 ] ), // TODO: 0.5 offsets?
+				new HyperPlane( 0, -1, 0, -imgSize[ 1 ] ), // TODO: 0.5 offsets?
+				new HyperPlane( 0, 0, -1, -imgSize[ 2 ] ) ); // TODO: 0.5 offsets?
+
+		pFarMinusNear.mul( drels, dir );
+		final LinearObjectiveFunction f = new LinearObjectiveFunction( new double[] { dir.x(), dir.y(), dir.z() }, -dir.dot( pNear ) );
+		final List< LinearConstraint > constraints = new ArrayList<>();
+		for ( final HyperPlane plane : sourceRegion.getHyperplanes() )
+			constraints.add( new LinearConstraint( plane.getNormal(), Relationship.GEQ, plane.getDistance() ) );
+		try
+		{
+			final PointValuePair sln = new SimplexSolver().optimize( f, new LinearConstraintSet( constraints ), GoalType.MINIMIZE );
+			return sln.getValue();
+		}
+		catch ( final NoFeasibleSolutionException e )
+		{
+			return Double.NaN;
+		}
+	}
+
+	private static HyperPlane sourceHyperPlane( final Matrix4fc sourceToNDCTransposed, final double nx, final double ny, final double nz, final double d )
+	{
+		return MatrixMath.hyperPlane( new Vector4f( ( float ) nx, ( float ) ny, ( float ) nz, ( float ) -d ).mul( sourceToNDCTransposed ).normalize3() );
+	}
+
+	/**
+	 * For random views of random sources, the closest visible relative depth
+	 * computed in closed form by {@link MipmapSizes#init} matches the linear
+	 * programming solution.
+	 */
+	@Test
+	public void testClosestVisibleDrel()
+	{
+		final Random random = new Random( 1 );
+		final MipmapSizes sizes = new MipmapSizes();
+		int numVisible = 0;
+		int numInvisible = 0;
+		for ( int i = 0; i < 1000; ++i )
+		{
+			final long size = 16 + random.nextInt( 1000 );
+			final SyntheticStack stack = new SyntheticStack( size, 32, 3, ( l, x, y, z ) -> 0 );
+			final float extent = 2 * size;
+			final Matrix4f sourceToNDC = new Matrix4f()
+					.setPerspective( ( float ) Math.toRadians( 10 + 80 * random.nextFloat() ), 0.5f + random.nextFloat(), 1 + 100 * random.nextFloat(), 100 + 3 * extent * random.nextFloat() )
+					.lookAt(
+							extent * ( random.nextFloat() - 0.25f ), extent * ( random.nextFloat() - 0.25f ), extent * ( random.nextFloat() - 0.25f ),
+							extent * random.nextFloat(), extent * random.nextFloat(), extent * random.nextFloat(),
+							random.nextFloat() - 0.5f, 1, random.nextFloat() - 0.5f );
+
+			sizes.init( sourceToNDC, 1000, stack.resolutions() );
+			final double expected = closestVisibleDrelSimplex( sourceToNDC, new long[] { size, size, size } );
+			if ( Double.isNaN( expected ) )
+			{
+				assertFalse( sizes.isVisible() );
+				++numInvisible;
+			}
+			else
+			{
+				assertTrue( sizes.isVisible() );
+				assertEquals( Math.max( Math.min( expected, 1 ), 0 ), sizes.getDrelClosestSourcePoint(), 1e-3 );
+				++numVisible;
+			}
+		}
+		assertTrue( numVisible > 100 );
+		assertTrue( numInvisible > 100 );
+	}
+}
@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class BlockValueRangesTest
+{
+	@Test
+	public void testPack()
+	{
+		final int[][] ranges = { { 0, 0 }, { 0, 0xffff }, { 17, 42 }, { 0xff, 0xff }, { 0, Integer.MAX_VALUE }, { 5, -2 } };
+		for ( final int[] r : ranges )
+		{
+			final long packed = BlockValueRanges.pack( r[ 0 ], r[ 1 ] );
+			assertEquals( r[ 0 ], BlockValueRanges.min( packed ) );
+			assertEquals( r[ 1 ], BlockValueRanges.max( packed ) );
+		}
+		// valid unsigned 8 and 16 bit ranges never collide with UNKNOWN
+		assertTrue( BlockValueRanges.pack( 0xffff, 0xffff ) != BlockValueRanges.UNKNOWN );
+	}
+
+	@Test
+	public void testIsIndexable()
+	{
+		final int max = ( 1 << 21 ) - 1;
+		assertTrue( BlockValueRanges.isIndexable( new int[] { 0, 0, 0 } ) );
+		assertTrue( BlockValueRanges.isIndexable( new int[] { max, max, max } ) );
+		assertFalse( BlockValueRanges.isIndexable( new int[] { max + 1, 0, 0 } ) );
+		assertFalse( BlockValueRanges.isIndexable( new int[] { 0, max + 1, 0 } ) );
+		assertFalse( BlockValueRanges.isIndexable( new int[] { 0, 0, max + 1 } ) );
+		assertFalse( BlockValueRanges.isIndexable( new int[] { -1, 0, 0 } ) );
+	}
+
+	@Test
+	public void testPutGet()
+	{
+		final BlockValueRanges ranges = new BlockValueRanges( 100 );
+		final Object image = "image";
+		final long range = BlockValueRanges.pack( 3, 7 );
+		assertEquals( BlockValueRanges.UNKNOWN, ranges.get( image, new int[] { 1, 2, 3 } ) );
+
+		ranges.put( image, new int[] { 1, 2, 3 }, range );
+		assertEquals( range, ranges.get( image, new int[] { 1, 2, 3 } ) );
+		assertEquals( range, ranges.get( new String( "image" ), new int[] { 1, 2, 3 } ) );
+		assertEquals( BlockValueRanges.UNKNOWN, ranges.get( image, new int[] { 3, 2, 1 } ) );
+		assertEquals( BlockValueRanges.UNKNOWN, ranges.get( "other", new int[] { 1, 2, 3 } ) );
+		assertEquals( 1, ranges.size() );
+
+		// replacing a range does not add a block
+		ranges.put( image, new int[] { 1, 2, 3 }, BlockValueRanges.pack( 0, 1 ) );
+		assertEquals( BlockValueRanges.pack( 0, 1 ), ranges.get( image, new int[] { 1, 2, 3 } ) );
+		assertEquals( 1, ranges.size() );
+
+		// unknown ranges and non-indexable positions are ignored
+		ranges.put( image, new int[] { 4, 5, 6 }, BlockValueRanges.UNKNOWN );
+		ranges.put( image, new int[] { 1 << 21, 0, 0 }, range );
+		assertEquals( 1, ranges.size() );
+		assertEquals( BlockValueRanges.UNKNOWN, ranges.get( image, new int[] { 1 << 21, 0, 0 } ) );
+
+		// distinct positions with the same low bits don't alias
+		final int max = ( 1 << 21 ) - 1;
+		ranges.put( image, new int[] { max, 0, 0 }, BlockValueRanges.pack( 1, 1 ) );
+		ranges.put( image, new int[] { 0, max, 0 }, BlockValueRanges.pack( 2, 2 ) );
+		ranges.put( image, new int[] { 0, 0, max }, BlockValueRanges.pack( 3, 3 ) );
+		assertEquals( BlockValueRanges.pack( 1, 1 ), ranges.get( image, new int[] { max, 0, 0 } ) );
+		assertEquals( BlockValueRanges.pack( 2, 2 ), ranges.get( image, new int[] { 0, max, 0 } ) );
+		assertEquals( BlockValueRanges.pack( 3, 3 ), ranges.get( image, new int[] { 0, 0, max } ) );
+		assertEquals( 4, ranges.size() );
+
+		ranges.clear();
+		assertEquals( 0, ranges.size() );
+		assertEquals( BlockValueRanges.UNKNOWN, ranges.get( image, new int[] { 1, 2, 3 } ) );
+	}
+
+	/**
+	 * When the index grows too large, the least recently used images are
+	 * removed. The image that is added to is kept.
+	 */
+	@Test
+	public void testEviction()
+	{
+		final BlockValueRanges ranges = new BlockValueRanges( 10 );
+		fill( ranges, "a", 4 );
+		fill( ranges, "b", 4 );
+		fill( ranges, "c", 2 );
+		assertEquals( 10, ranges.size() );
+
+		// using "a" makes "b" the least recently used image
+		assertTrue( ranges.get( "a", new int[] { 0, 0, 0 } ) != BlockValueRanges.UNKNOWN );
+		ranges.put( "d", new int[] { 0, 0, 0 }, BlockValueRanges.pack( 0, 0 ) );
+		assertEquals( 7, ranges.size() );
+		assertEquals( BlockValueRanges.UNKNOWN, ranges.get( "b", new int[] { 0, 0, 0 } ) );
+		assertTrue( ranges.get( "a", new int[] { 0, 0, 0 } ) != BlockValueRanges.UNKNOWN );
+		assertTrue( ranges.get( "c", new int[] { 0, 0, 0 } ) != BlockValueRanges.UNKNOWN );
+
+		// a single image larger than the index is kept
+		fill( ranges, "e", 20 );
+		assertEquals( 20, ranges.size() );
+		assertTrue( ranges.get( "e", new int[] { 19, 0, 0 } ) != BlockValueRanges.UNKNOWN );
+		assertEquals( BlockValueRanges.UNKNOWN, ranges.get( "a", new int[] { 0, 0, 0 } ) );
+	}
+
+	/**
+	 * Concurrent puts and gets of several images don't lose blocks, and
+	 * keep the block count consistent.
+	 */
+	@Test
+	public void testConcurrent() throws Exception
+	{
+		final BlockValueRanges ranges = new BlockValueRanges( 1 << 20 );
+		final int numThreads = 8;
+		final int n = 20;
+		final ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			final List< Future< ? > > futures = new ArrayList<>();
+			for ( int t = 0; t < numThreads; ++t )
+			{
+				final int thread = t;
+				futures.add( executor.submit( () -> {
+					final Object image = "image" + ( thread % 3 );
+					for ( int x = 0; x < n; ++x )
+						for ( int y = 0; y < n; ++y )
+						{
+							final int[] pos = { x, y, thread };
+							ranges.put( image, pos, BlockValueRanges.pack( x, y ) );
+							assertEquals( BlockValueRanges.pack( x, y ), ranges.get( image, pos ) );
+						}
+				} ) );
+			}
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertEquals( numThreads * n * n, ranges.size() );
+	}
+
+	private static void fill( final BlockValueRanges ranges, final Object image, final int numBlocks )
+	{
+		for ( int i = 0; i < numBlocks; ++i )
+			ranges.put( image, new int[] { i, 0, 0 }, BlockValueRanges.pack( i, i ) );
+	}
+}
@@ -0,0 +1,435 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link CopyGridBlock#copy} and {@link CopyGridBlock#patch} on a
+ * synthetic cell grid where some cells are missing ({@code null}).
+ */
+public class CopyGridBlockTest
+{
+	/**
+	 * Cell grid of an image of size {@code imgSize}, with cells of size
+	 * {@code cellSize} (smaller at the max border). Voxel values encode the
+	 * position. Cells can be made missing.
+	 */
+	static class SyntheticGrid implements GridDataAccess< short[] >
+	{
+		final int[] imgSize;
+
+		final int[] cellSize;
+
+		final int[] gridSize = new int[ 3 ];
+
+		final short[][] cells;
+
+		final boolean[] missing;
+
+		private final int[] position = new int[ 3 ];
+
+		SyntheticGrid( final int[] imgSize, final int[] cellSize )
+		{
+			this.imgSize = imgSize;
+			this.cellSize = cellSize;
+			for ( int d = 0; d < 3; ++d )
+				gridSize[ d ] = ( imgSize[ d ] + cellSize[ d ] - 1 ) / cellSize[ d ];
+			cells = new short[ gridSize[ 0 ] * gridSize[ 1 ] * gridSize[ 2 ] ][];
+			missing = new boolean[ cells.length ];
+			final int[] g = new int[ 3 ];
+			for ( g[ 2 ] = 0; g[ 2 ] < gridSize[ 2 ]; ++g[ 2 ] )
+				for ( g[ 1 ] = 0; g[ 1 ] < gridSize[ 1 ]; ++g[ 1 ] )
+					for ( g[ 0 ] = 0; g[ 0 ] < gridSize[ 0 ]; ++g[ 0 ] )
+						cells[ index( g ) ] = createCell( g );
+		}
+
+		private short[] createCell( final int[] g )
+		{
+			final int sx = cellSize( 0, g[ 0 ] );
+			final int sy = cellSize( 1, g[ 1 ] );
+			final int sz = cellSize( 2, g[ 2 ] );
+			final short[] data = new short[ sx * sy * sz ];
+			int i = 0;
+			for ( int z = 0; z < sz; ++z )
+				for ( int y = 0; y < sy; ++y )
+					for ( int x = 0; x < sx; ++x )
+						data[ i++ ] = value(
+								g[ 0 ] * cellSize[ 0 ] + x,
+								g[ 1 ] * cellSize[ 1 ] + y,
+								g[ 2 ] * cellSize[ 2 ] + z );
+			return data;
+		}
+
+		static short value( final int x, final int y, final int z )
+		{
+			return ( short ) ( 1 + x + 61 * y + 3721 * z );
+		}
+
+		int index( final int[] g )
+		{
+			return g[ 0 ] + gridSize[ 0 ] * ( g[ 1 ] + gridSize[ 1 ] * g[ 2 ] );
+		}
+
+		void setMissing( final int gx, final int gy, final int gz, final boolean m )
+		{
+			missing[ index( new int[] { gx, gy, gz } ) ] = m;
+		}
+
+		@Override
+		public void fwd( final int d )
+		{
+			++position[ d ];
+		}
+
+		@Override
+		public void setPosition( final int p, final int d )
+		{
+			position[ d ] = p;
+		}
+
+		@Override
+		public void setPosition( final int[] p )
+		{
+			System.arraycopy( p, 0, position, 0, 3 );
+		}
+
+		@Override
+		public int[] getPosition()
+		{
+			return position.clone();
+		}
+
+		@Override
+		public short[] get()
+		{
+			final int i = index( position );
+			return missing[ i ] ? null : cells[ i ];
+		}
+
+		@Override
+		public int cellSize( final int d )
+		{
+			return cellSize[ d ];
+		}
+
+		@Override
+		public int cellSize( final int d, final int g )
+		{
+			return Math.min( cellSize[ d ], imgSize[ d ] - g * cellSize[ d ] );
+		}
+
+		@Override
+		public int imgSize( final int d )
+		{
+			return imgSize[ d ];
+		}
+	}
+
+	static class Dst implements ByteUtils.Address
+	{
+		final ByteBuffer buffer;
+
+		Dst( final int[] dim )
+		{
+			buffer = ByteBuffer.allocateDirect( 2 * dim[ 0 ] * dim[ 1 ] * dim[ 2 ] ).order( ByteOrder.nativeOrder() );
+			// garbage, to check that everything is written
+			for ( int i = 0; i < buffer.capacity(); ++i )
+				buffer.put( i, ( byte ) 0x55 );
+		}
+
+		@Override
+		public Buffer getBuffer()
+		{
+			return buffer;
+		}
+
+		@Override
+		public int getOffset()
+		{
+			return 0;
+		}
+
+		short[] shorts()
+		{
+			final short[] shorts = new short[ buffer.capacity() / 2 ];
+			buffer.asShortBuffer().get( shorts );
+			return shorts;
+		}
+	}
+
+	private static final CopySubArray< short[], ByteUtils.Address > COPY = new CopySubArrayImp.ShortToAddress();
+
+	/**
+	 * Apply a dense {@code patch} of size {@code patchDim} at
+	 * {@code patchMin} to {@code block} of size {@code dim}.
+	 */
+	private static void applyPatch( final short[] block, final int[] dim, final short[] patch, final int[] patchMin, final int[] patchDim )
+	{
+		for ( int z = 0; z < patchDim[ 2 ]; ++z )
+			for ( int y = 0; y < patchDim[ 1 ]; ++y )
+				System.arraycopy(
+						patch, ( z * patchDim[ 1 ] + y ) * patchDim[ 0 ],
+						block, ( ( patchMin[ 2 ] + z ) * dim[ 1 ] + patchMin[ 1 ] + y ) * dim[ 0 ] + patchMin[ 0 ],
+						patchDim[ 0 ] );
+	}
+
+	/**
+	 * Expected content of a block, given which cells are missing.
+	 */
+	private static short[] expected( final SyntheticGrid grid, final int[] min, final int[] dim )
+	{
+		final short[] expected = new short[ dim[ 0 ] * dim[ 1 ] * dim[ 2 ] ];
+		int i = 0;
+		final int[] g = new int[ 3 ];
+		for ( int z = 0; z < dim[ 2 ]; ++z )
+			for ( int y = 0; y < dim[ 1 ]; ++y )
+				for ( int x = 0; x < dim[ 0 ]; ++x, ++i )
+				{
+					final int[] p = { min[ 0 ] + x, min[ 1 ] + y, min[ 2 ] + z };
+					boolean inside = true;
+					for ( int d = 0; d < 3; ++d )
+					{
+						inside &= p[ d ] >= 0 && p[ d ] < grid.imgSize[ d ];
+						g[ d ] = p[ d ] / grid.cellSize[ d ];
+					}
+					if ( inside && !grid.missing[ grid.index( g ) ] )
+						expected[ i ] = SyntheticGrid.value( p[ 0 ], p[ 1 ], p[ 2 ] );
+				}
+		return expected;
+	}
+
+	@Test
+	public void testCopy()
+	{
+		final SyntheticGrid grid = new SyntheticGrid( new int[] { 40, 30, 20 }, new int[] { 8, 8, 8 } );
+		grid.setMissing( 1, 1, 0, true );
+		final int[] min = { 5, 5, 5 };
+		final int[] dim = { 12, 6, 4 };
+
+		final CopyGridBlock gcopy = new CopyGridBlock();
+		final Dst dst = new Dst( dim );
+		assertFalse( gcopy.copy( min, dim, dst, grid, COPY ) );
+		assertArrayEquals( expected( grid, min, dim ), dst.shorts() );
+
+		// block overlaps cells x = 0..2, y = 0..1, z = 0..1 (12 cells), in
+		// flattened (x,y,z) order. Cell (1,1,0) is bit 4.
+		assertEquals( 0xfffL & ~( 1L << 4 ), gcopy.getValidCells() );
+
+		grid.setMissing( 1, 1, 0, false );
+		assertTrue( gcopy.copy( min, dim, dst, grid, COPY ) );
+		assertEquals( 0xfffL, gcopy.getValidCells() );
+		assertArrayEquals( expected( grid, min, dim ), dst.shorts() );
+	}
+
+	/**
+	 * Bits are assigned to the cells overlapping the part of the block inside
+	 * the source.
+	 */
+	@Test
+	public void testValidCellsPartlyOutside()
+	{
+		final SyntheticGrid grid = new SyntheticGrid( new int[] { 20, 20, 20 }, new int[] { 8, 8, 8 } );
+		grid.setMissing( 2, 0, 0, true );
+		final int[] min = { 12, -3, -3 };
+		final int[] dim = { 10, 6, 6 };
+
+		// inside part x = 12..19 overlaps cells x = 1..2, y and z only cell 0
+		final CopyGridBlock gcopy = new CopyGridBlock();
+		final Dst dst = new Dst( dim );
+		assertFalse( gcopy.copy( min, dim, dst, grid, COPY ) );
+		assertEquals( 0b01L, gcopy.getValidCells() );
+		assertArrayEquals( expected( grid, min, dim ), dst.shorts() );
+
+		// completely outside
+		assertTrue( gcopy.copy( new int[] { 20, 0, 0 }, dim, dst, grid, COPY ) );
+		assertEquals( 0, gcopy.getValidCells() );
+	}
+
+	@Test
+	public void testPatchBox()
+	{
+		final SyntheticGrid grid = new SyntheticGrid( new int[] { 40, 40, 40 }, new int[] { 8, 8, 8 } );
+		final int[] min = { 4, 4, 4 };
+		final int[] dim = { 16, 16, 16 };
+
+		// block overlaps 3x3x3 cells, spans are 4, 8, 4 in each dimension
+		for ( int gz = 0; gz < 3; ++gz )
+			for ( int gy = 0; gy < 3; ++gy )
+				for ( int gx = 0; gx < 3; ++gx )
+					grid.setMissing( gx, gy, gz, gx > 0 );
+
+		final CopyGridBlock gcopy = new CopyGridBlock();
+		final Dst dst = new Dst( dim );
+		assertFalse( gcopy.copy( min, dim, dst, grid, COPY ) );
+		final long known = gcopy.getValidCells();
+		final short[] block = dst.shorts();
+
+		// cells (1,1,1) and (1,2,1) become valid
+		grid.setMissing( 1, 1, 1, false );
+		grid.setMissing( 1, 2, 1, false );
+		final int[] patchMin = new int[ 3 ];
+		final int[] patchDim = new int[ 3 ];
+		final Dst patch = new Dst( dim );
+		assertFalse( gcopy.patch( min, dim, known, patch, grid, COPY, patchMin, patchDim ) );
+		assertArrayEquals( new int[] { 4, 4, 4 }, patchMin );
+		assertArrayEquals( new int[] { 8, 12, 8 }, patchDim );
+		final long bits = known | ( 1L << ( 1 + 3 * ( 1 + 3 * 1 ) ) ) | ( 1L << ( 1 + 3 * ( 2 + 3 * 1 ) ) );
+		assertEquals( bits, gcopy.getValidCells() );
+
+		applyPatch( block, dim, patch.shorts(), patchMin, patchDim );
+		assertArrayEquals( expected( grid, min, dim ), block );
+
+		// nothing new
+		assertFalse( gcopy.patch( min, dim, bits, patch, grid, COPY, patchMin, patchDim ) );
+		assertArrayEquals( new int[] { 0, 0, 0 }, patchDim );
+		assertEquals( bits, gcopy.getValidCells() );
+	}
+
+	/**
+	 * With more than {@link CopyGridBlock#MAX_TRACKED_CELLS} cells, valid
+	 * cells are unknown and patching copies the whole block.
+	 */
+	@Test
+	public void testUntrackedFallback()
+	{
+		final SyntheticGrid grid = new SyntheticGrid( new int[] { 40, 40, 40 }, new int[] { 4, 4, 4 } );
+		grid.setMissing( 2, 2, 2, true );
+		final int[] min = { 2, 2, 2 };
+		final int[] dim = { 16, 16, 8 };
+
+		// 5 x 5 x 3 = 75 cells
+		final CopyGridBlock gcopy = new CopyGridBlock();
+		final Dst dst = new Dst( dim );
+		assertFalse( gcopy.copy( min, dim, dst, grid, COPY ) );
+		assertEquals( CopyGridBlock.UNKNOWN_CELLS, gcopy.getValidCells() );
+
+		grid.setMissing( 2, 2, 2, false );
+		final int[] patchMin = new int[ 3 ];
+		final int[] patchDim = new int[ 3 ];
+		final Dst patch = new Dst( dim );
+		assertTrue( gcopy.patch( min, dim, gcopy.getValidCells(), patch, grid, COPY, patchMin, patchDim ) );
+		assertArrayEquals( new int[] { 0, 0, 0 }, patchMin );
+		assertArrayEquals( dim, patchDim );
+		assertArrayEquals( expected( grid, min, dim ), patch.shorts() );
+	}
+
+	/**
+	 * With exactly 64 cells, the mask of all cells has all bits set.
+	 */
+	@Test
+	public void testPatch64Cells()
+	{
+		final SyntheticGrid grid = new SyntheticGrid( new int[] { 40, 40, 40 }, new int[] { 4, 4, 4 } );
+		grid.setMissing( 3, 3, 3, true );
+		final int[] min = { 2, 2, 2 };
+		final int[] dim = { 12, 12, 12 };
+
+		// 4 x 4 x 4 = 64 cells, the last is missing
+		final CopyGridBlock gcopy = new CopyGridBlock();
+		final Dst dst = new Dst( dim );
+		assertFalse( gcopy.copy( min, dim, dst, grid, COPY ) );
+		assertEquals( Long.MAX_VALUE, gcopy.getValidCells() );
+		final short[] block = dst.shorts();
+
+		grid.setMissing( 3, 3, 3, false );
+		final int[] patchMin = new int[ 3 ];
+		final int[] patchDim = new int[ 3 ];
+		final Dst patch = new Dst( dim );
+		assertTrue( gcopy.patch( min, dim, Long.MAX_VALUE, patch, grid, COPY, patchMin, patchDim ) );
+		assertArrayEquals( new int[] { 10, 10, 10 }, patchMin );
+		assertArrayEquals( new int[] { 2, 2, 2 }, patchDim );
+		applyPatch( block, dim, patch.shorts(), patchMin, patchDim );
+		assertArrayEquals( expected( grid, min, dim ), block );
+	}
+
+	/**
+	 * Copying a block with missing cells, then patching it after more cells
+	 * became valid, gives the same result as copying it again.
+	 */
+	@Test
+	public void testPatchRandom()
+	{
+		final Random random = new Random( 1 );
+		final int[] imgSize = { 37, 29, 23 };
+		final int[] cellSize = { 8, 6, 5 };
+		final CopyGridBlock gcopy = new CopyGridBlock();
+		final CopyGridBlock reference = new CopyGridBlock();
+		for ( int i = 0; i < 1000; ++i )
+		{
+			final SyntheticGrid grid = new SyntheticGrid( imgSize, cellSize );
+			for ( int j = 0; j < grid.missing.length; ++j )
+				grid.missing[ j ] = random.nextInt( 3 ) == 0;
+
+			// blocks partly outside the image, some with more than 64 cells
+			final int[] min = new int[ 3 ];
+			final int[] dim = new int[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				dim[ d ] = 1 + random.nextInt( 4 * cellSize[ d ] );
+				min[ d ] = random.nextInt( imgSize[ d ] + dim[ d ] ) - dim[ d ] / 2;
+			}
+
+			final Dst dst = new Dst( dim );
+			gcopy.copy( min, dim, dst, grid, COPY );
+			final long known = gcopy.getValidCells();
+			final short[] block = dst.shorts();
+
+			for ( int j = 0; j < grid.missing.length; ++j )
+				grid.missing[ j ] &= random.nextBoolean();
+
+			final int[] patchMin = new int[ 3 ];
+			final int[] patchDim = new int[ 3 ];
+			final Dst patch = new Dst( dim );
+			final boolean patchComplete = gcopy.patch( min, dim, known, patch, grid, COPY, patchMin, patchDim );
+			final long patchValid = gcopy.getValidCells();
+			for ( int d = 0; d < 3; ++d )
+				assertTrue( patchMin[ d ] >= 0 && patchMin[ d ] + patchDim[ d ] <= dim[ d ] );
+			if ( patchDim[ 0 ] * patchDim[ 1 ] * patchDim[ 2 ] > 0 )
+				applyPatch( block, dim, patch.shorts(), patchMin, patchDim );
+
+			final Dst full = new Dst( dim );
+			final boolean fullComplete = reference.copy( min, dim, full, grid, COPY );
+			assertArrayEquals( full.shorts(), block );
+			assertArrayEquals( expected( grid, min, dim ), block );
+			assertEquals( fullComplete, patchComplete );
+			assertEquals( reference.getValidCells(), patchValid );
+		}
+	}
+}
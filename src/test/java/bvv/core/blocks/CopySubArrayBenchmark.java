@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link CopySubArrayImp.ShortToAddress}, which collapses contiguous
+ * runs, with copying (and clearing) one row at a time, for a source cell of
+ * {@code blockSize^3} shorts:
+ * <ul>
+ * <li>{@code aligned}: the cell is copied to a tile of the same size,</li>
+ * <li>{@code unaligned}: the cell is copied into the interior of a tile with a
+ * one voxel border,</li>
+ * <li>{@code border}: a cell clipped at the image border is copied to a corner
+ * of the tile, and the rest of the tile is cleared.</li>
+ * </ul>
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class CopySubArrayBenchmark
+{
+	@Param( { "aligned", "unaligned", "border" } )
+	public String layout;
+
+	@Param( { "16", "32", "64" } )
+	public int blockSize;
+
+	private final CopySubArray< short[], ByteUtils.Address > copy = new CopySubArrayImp.ShortToAddress();
+
+	private short[] src;
+
+	// source cell size
+	private int ss;
+
+	// tile size
+	private int ds;
+
+	// offset of the cell in the tile
+	private int o;
+
+	private ByteBuffer buffer;
+
+	private ByteUtils.Address dst;
+
+	@Setup
+	public void setup()
+	{
+		switch ( layout )
+		{
+		case "aligned":
+			ss = blockSize;
+			ds = blockSize;
+			o = 0;
+			break;
+		case "unaligned":
+			ss = blockSize;
+			ds = blockSize + 2;
+			o = 1;
+			break;
+		case "border":
+			ss = blockSize - 5;
+			ds = blockSize;
+			o = 0;
+			break;
+		default:
+			throw new IllegalArgumentException( layout );
+		}
+		src = new short[ ss * ss * ss ];
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < src.length; ++i )
+			src[ i ] = ( short ) random.nextInt();
+		buffer = ByteBuffer.allocateDirect( 2 * ds * ds * ds ).order( ByteOrder.nativeOrder() );
+		dst = new ByteUtils.Address()
+		{
+			@Override
+			public Buffer getBuffer()
+			{
+				return buffer;
+			}
+
+			@Override
+			public int getOffset()
+			{
+				return 0;
+			}
+		};
+	}
+
+	@Benchmark
+	public ByteBuffer runs()
+	{
+		copy.copysubarray3d( src, 0, 0, 0, ss, ss, dst, o, o, o, ds, ds, ss, ss, ss );
+		if ( ss < ds )
+		{
+			final int r = ds - ss;
+			copy.clearsubarray3d( dst, ss, 0, 0, ds, ds, r, ss, ss );
+			copy.clearsubarray3d( dst, 0, ss, 0, ds, ds, ds, r, ss );
+			copy.clearsubarray3d( dst, 0, 0, ss, ds, ds, ds, ds, r );
+		}
+		return buffer;
+	}
+
+	@Benchmark
+	public ByteBuffer rows()
+	{
+		final MemoryAccess.Destination d = ByteUtils.destination( buffer );
+		for ( int z = 0; z < ss; ++z )
+			for ( int y = 0; y < ss; ++y )
+				d.copyShorts( src, ( z * ss + y ) * ss, 2L * ( o + ( o + y + ( o + z ) * ds ) * ds ), ss );
+		if ( ss < ds )
+		{
+			final int r = ds - ss;
+			clearRows( d, ss, 0, 0, r, ss, ss );
+			clearRows( d, 0, ss, 0, ds, r, ss );
+			clearRows( d, 0, 0, ss, ds, ds, r );
+		}
+		return buffer;
+	}
+
+	private void clearRows( final MemoryAccess.Destination d, final int ox, final int oy, final int oz, final int sx, final int sy, final int sz )
+	{
+		for ( int z = 0; z < sz; ++z )
+			for ( int y = 0; y < sy; ++y )
+				d.setShorts( ( short ) 0, 2L * ( ox + ( oy + y + ( oz + z ) * ds ) * ds ), sx );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( CopySubArrayBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the n-dimensional copy and fill helpers of
+ * {@link CopySubArrayImp}, which collapse contiguous runs, give the same
+ * results as copying/filling line by line.
+ */
+public class CopySubArrayImpTest
+{
+	@Test
+	public void testCopy()
+	{
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < 10_000; ++i )
+		{
+			final int[] ss = randomSize( random );
+			final int[] ds = randomSize( random );
+			final int[] cs = new int[ 3 ];
+			final int[] so = new int[ 3 ];
+			final int[] dO = new int[ 3 ];
+			randomSubArray( random, ss, ds, cs, so, dO );
+
+			final int[] src = new int[ ss[ 0 ] * ss[ 1 ] * ss[ 2 ] ];
+			for ( int j = 0; j < src.length; ++j )
+				src[ j ] = j + 1;
+
+			final int[] expected = new int[ ds[ 0 ] * ds[ 1 ] * ds[ 2 ] ];
+			for ( int z = 0; z < cs[ 2 ]; ++z )
+				for ( int y = 0; y < cs[ 1 ]; ++y )
+					System.arraycopy(
+							src, so[ 0 ] + ( so[ 1 ] + y + ( so[ 2 ] + z ) * ss[ 1 ] ) * ss[ 0 ],
+							expected, dO[ 0 ] + ( dO[ 1 ] + y + ( dO[ 2 ] + z ) * ds[ 1 ] ) * ds[ 0 ],
+							cs[ 0 ] );
+
+			final int[] actual = new int[ expected.length ];
+			CopySubArrayImp.copysubarray3dn(
+					( sox, dox, csx ) -> System.arraycopy( src, sox, actual, dox, csx ),
+					so[ 0 ], so[ 1 ], so[ 2 ], ss[ 0 ], ss[ 1 ],
+					dO[ 0 ], dO[ 1 ], dO[ 2 ], ds[ 0 ], ds[ 1 ],
+					cs[ 0 ], cs[ 1 ], cs[ 2 ] );
+
+			assertArrayEquals( expected, actual );
+		}
+	}
+
+	@Test
+	public void testFill()
+	{
+		final Random random = new Random( 2 );
+		for ( int i = 0; i < 10_000; ++i )
+		{
+			final int[] ds = randomSize( random );
+			final int[] cs = new int[ 3 ];
+			final int[] so = new int[ 3 ];
+			final int[] dO = new int[ 3 ];
+			randomSubArray( random, ds, ds, cs, so, dO );
+
+			final int[] expected = new int[ ds[ 0 ] * ds[ 1 ] * ds[ 2 ] ];
+			for ( int z = 0; z < cs[ 2 ]; ++z )
+				for ( int y = 0; y < cs[ 1 ]; ++y )
+				{
+					final int o = dO[ 0 ] + ( dO[ 1 ] + y + ( dO[ 2 ] + z ) * ds[ 1 ] ) * ds[ 0 ];
+					for ( int x = 0; x < cs[ 0 ]; ++x )
+						++expected[ o + x ];
+				}
+
+			// count how often each element is filled
+			final int[] actual = new int[ expected.length ];
+			CopySubArrayImp.fillsubarray3dn(
+					( dox, csx ) -> {
+						for ( int x = 0; x < csx; ++x )
+							++actual[ dox + x ];
+					},
+					dO[ 0 ], dO[ 1 ], dO[ 2 ], ds[ 0 ], ds[ 1 ],
+					cs[ 0 ], cs[ 1 ], cs[ 2 ] );
+
+			assertArrayEquals( expected, actual );
+		}
+	}
+
+	/**
+	 * Random array size, often small so that full rows and planes occur.
+	 */
+	private static int[] randomSize( final Random random )
+	{
+		return new int[] { 1 + random.nextInt( 6 ), 1 + random.nextInt( 6 ), 1 + random.nextInt( 6 ) };
+	}
+
+	/**
+	 * Random sub-array size {@code cs} that fits into source size {@code ss}
+	 * at offset {@code so} and into destination size {@code ds} at offset
+	 * {@code dO}. Favours sub-arrays spanning full rows and planes.
+	 */
+	private static void randomSubArray( final Random random, final int[] ss, final int[] ds, final int[] cs, final int[] so, final int[] dO )
+	{
+		final boolean full = random.nextBoolean();
+		for ( int d = 0; d < 3; ++d )
+		{
+			final int max = Math.min( ss[ d ], ds[ d ] );
+			if ( full && d < 2 )
+			{
+				// same size rows (and planes): contiguous runs
+				ds[ d ] = ss[ d ];
+				cs[ d ] = ss[ d ];
+			}
+			else
+				cs[ d ] = random.nextInt( max + 1 );
+			so[ d ] = random.nextInt( ss[ d ] - cs[ d ] + 1 );
+			dO[ d ] = random.nextInt( ds[ d ] - cs[ d ] + 1 );
+		}
+	}
+}
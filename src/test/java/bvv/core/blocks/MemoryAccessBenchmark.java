@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link UnsafeMemoryAccess} and {@link BufferMemoryAccess} for
+ * filling a {@code 32^3} block of shorts into a direct buffer, the way tiles
+ * are filled into PBOs: row by row copies from a source cell, fills of
+ * constant blocks, and copies between buffers.
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class MemoryAccessBenchmark
+{
+	private static final int BLOCK_SIZE = 32;
+
+	private static final int NUM_ELEMENTS = BLOCK_SIZE * BLOCK_SIZE * BLOCK_SIZE;
+
+	@Param( { "unsafe", "buffer" } )
+	public String access;
+
+	/**
+	 * Byte offset of the block in the destination buffer.
+	 * (Odd offsets force {@code BufferMemoryAccess} to make one-off short views.)
+	 */
+	@Param( { "0", "1" } )
+	public int dstOffset;
+
+	private MemoryAccess memoryAccess;
+
+	private short[] src;
+
+	private ByteBuffer srcBuffer;
+
+	private ByteBuffer dst;
+
+	@Setup
+	public void setup()
+	{
+		memoryAccess = "buffer".equals( access ) ? new BufferMemoryAccess() : new UnsafeMemoryAccess();
+		src = new short[ NUM_ELEMENTS ];
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < NUM_ELEMENTS; ++i )
+			src[ i ] = ( short ) random.nextInt();
+		srcBuffer = ByteBuffer.allocateDirect( 2 * NUM_ELEMENTS + 1 );
+		dst = ByteBuffer.allocateDirect( 2 * NUM_ELEMENTS + 1 );
+	}
+
+	@Benchmark
+	public ByteBuffer copyShortRows()
+	{
+		final MemoryAccess.Destination d = memoryAccess.destination( dst );
+		for ( int i = 0; i < NUM_ELEMENTS; i += BLOCK_SIZE )
+			d.copyShorts( src, i, dstOffset + 2 * i, BLOCK_SIZE );
+		return dst;
+	}
+
+	@Benchmark
+	public ByteBuffer copyShortBlock()
+	{
+		memoryAccess.destination( dst ).copyShorts( src, 0, dstOffset, NUM_ELEMENTS );
+		return dst;
+	}
+
+	@Benchmark
+	public ByteBuffer setShortsZero()
+	{
+		memoryAccess.destination( dst ).setShorts( ( short ) 0, dstOffset, NUM_ELEMENTS );
+		return dst;
+	}
+
+	@Benchmark
+	public ByteBuffer setShortsConstant()
+	{
+		memoryAccess.destination( dst ).setShorts( ( short ) 0x1234, dstOffset, NUM_ELEMENTS );
+		return dst;
+	}
+
+	@Benchmark
+	public ByteBuffer copyMemory()
+	{
+		memoryAccess.copyMemory( srcBuffer, 1, dst, dstOffset, 2 * NUM_ELEMENTS );
+		return dst;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( MemoryAccessBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,256 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.blocks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link UnsafeMemoryAccess} and {@link BufferMemoryAccess} give
+ * identical results, and the selection of the implementation by the
+ * {@code bvv.memoryaccess} property.
+ */
+public class MemoryAccessTest
+{
+	private static final int BUFFER_SIZE = 3 * 4096 + 17;
+
+	private final MemoryAccess unsafe = new UnsafeMemoryAccess();
+
+	private final MemoryAccess buffer = new BufferMemoryAccess();
+
+	/**
+	 * Random copies and fills at random (also odd) byte offsets modify the
+	 * same bytes in the same way, and nothing outside.
+	 */
+	@Test
+	public void testDestination()
+	{
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < 2000; ++i )
+		{
+			final long seed = random.nextLong();
+			final ByteBuffer expected = randomBuffer( seed );
+			final ByteBuffer actual = randomBuffer( seed );
+			final MemoryAccess.Destination e = unsafe.destination( expected );
+			final MemoryAccess.Destination a = buffer.destination( actual );
+
+			final int op = random.nextInt( 4 );
+			final int elementSize = op == 0 || op == 2 ? 2 : 1;
+			final int length = random.nextInt( i % 10 == 0 ? BUFFER_SIZE / elementSize : 100 );
+			final long dstOffset = random.nextInt( BUFFER_SIZE - elementSize * length + 1 );
+			switch ( op )
+			{
+			case 0:
+			{
+				final short[] src = new short[ length + 10 ];
+				for ( int j = 0; j < src.length; ++j )
+					src[ j ] = ( short ) random.nextInt();
+				final int srcPos = random.nextInt( 11 );
+				e.copyShorts( src, srcPos, dstOffset, length );
+				a.copyShorts( src, srcPos, dstOffset, length );
+				break;
+			}
+			case 1:
+			{
+				final byte[] src = new byte[ length + 10 ];
+				random.nextBytes( src );
+				final int srcPos = random.nextInt( 11 );
+				e.copyBytes( src, srcPos, dstOffset, length );
+				a.copyBytes( src, srcPos, dstOffset, length );
+				break;
+			}
+			case 2:
+			{
+				// same high and low byte (single memset) or different bytes
+				final short value = random.nextBoolean() ? ( short ) 0x3b3b : ( short ) random.nextInt();
+				e.setShorts( value, dstOffset, length );
+				a.setShorts( value, dstOffset, length );
+				break;
+			}
+			case 3:
+			{
+				final byte value = random.nextBoolean() ? 0 : ( byte ) random.nextInt();
+				e.setBytes( value, dstOffset, length );
+				a.setBytes( value, dstOffset, length );
+				break;
+			}
+			}
+			assertSameContents( expected, actual );
+		}
+	}
+
+	/**
+	 * Several copies through the same {@code Destination}, mixing even and
+	 * odd offsets, and shorts and bytes.
+	 */
+	@Test
+	public void testDestinationReuse()
+	{
+		final Random random = new Random( 2 );
+		final ByteBuffer expected = randomBuffer( 3 );
+		final ByteBuffer actual = randomBuffer( 3 );
+		final MemoryAccess.Destination e = unsafe.destination( expected );
+		final MemoryAccess.Destination a = buffer.destination( actual );
+		for ( int i = 0; i < 1000; ++i )
+		{
+			final int length = random.nextInt( 64 );
+			final short[] shorts = new short[ length ];
+			for ( int j = 0; j < length; ++j )
+				shorts[ j ] = ( short ) random.nextInt();
+			final byte[] bytes = new byte[ length ];
+			random.nextBytes( bytes );
+			final long o1 = random.nextInt( BUFFER_SIZE - 2 * length + 1 );
+			final long o2 = random.nextInt( BUFFER_SIZE - length + 1 );
+			e.copyShorts( shorts, 0, o1, length );
+			a.copyShorts( shorts, 0, o1, length );
+			e.copyBytes( bytes, 0, o2, length );
+			a.copyBytes( bytes, 0, o2, length );
+		}
+		assertSameContents( expected, actual );
+	}
+
+	/**
+	 * Shorts are stored in native byte order.
+	 */
+	@Test
+	public void testNativeOrder()
+	{
+		for ( final MemoryAccess access : new MemoryAccess[] { unsafe, buffer } )
+		{
+			final ByteBuffer dst = ByteBuffer.allocateDirect( 16 ).order( ByteOrder.nativeOrder() );
+			access.destination( dst ).copyShorts( new short[] { 0x1234, ( short ) 0xabcd }, 0, 2, 2 );
+			access.destination( dst ).setShorts( ( short ) 0x5678, 8, 2 );
+			assertEquals( access.toString(), 0x1234, dst.getShort( 2 ) );
+			assertEquals( access.toString(), ( short ) 0xabcd, dst.getShort( 4 ) );
+			assertEquals( access.toString(), 0x5678, dst.getShort( 8 ) );
+			assertEquals( access.toString(), 0x5678, dst.getShort( 10 ) );
+			assertEquals( access.toString(), 0, dst.getShort( 6 ) );
+		}
+	}
+
+	/**
+	 * {@code copyMemory} between buffers with random offsets. The source
+	 * buffer's position and limit are ignored.
+	 */
+	@Test
+	public void testCopyMemory()
+	{
+		final Random random = new Random( 4 );
+		for ( int i = 0; i < 500; ++i )
+		{
+			final ByteBuffer src = randomBuffer( random.nextLong() );
+			src.position( random.nextInt( 100 ) ).limit( 100 + random.nextInt( 100 ) );
+			final long seed = random.nextLong();
+			final ByteBuffer expected = randomBuffer( seed );
+			final ByteBuffer actual = randomBuffer( seed );
+			final int numBytes = random.nextInt( BUFFER_SIZE );
+			final long srcOffset = random.nextInt( BUFFER_SIZE - numBytes + 1 );
+			final long dstOffset = random.nextInt( BUFFER_SIZE - numBytes + 1 );
+			unsafe.copyMemory( src, srcOffset, expected, dstOffset, numBytes );
+			buffer.copyMemory( src, srcOffset, actual, dstOffset, numBytes );
+			assertSameContents( expected, actual );
+			final byte[] s = contents( src );
+			final byte[] a = contents( actual );
+			for ( int j = 0; j < numBytes; ++j )
+				assertEquals( s[ ( int ) srcOffset + j ], a[ ( int ) dstOffset + j ] );
+		}
+	}
+
+	/**
+	 * {@code "buffer"} selects {@code BufferMemoryAccess} without trying
+	 * {@code Unsafe}. Otherwise {@code Unsafe} is used if accessible. If it is
+	 * not accessible, the default falls back to {@code BufferMemoryAccess},
+	 * while {@code "unsafe"} fails.
+	 */
+	@Test
+	public void testSelection()
+	{
+		final Supplier< MemoryAccess > accessible = UnsafeMemoryAccess::new;
+		final Supplier< MemoryAccess > inaccessible = () -> {
+			throw new ExceptionInInitializerError( "not accessible" );
+		};
+		final Supplier< MemoryAccess > notCalled = () -> {
+			fail();
+			return null;
+		};
+
+		assertTrue( ByteUtils.createMemoryAccess( "buffer", notCalled ) instanceof BufferMemoryAccess );
+		assertTrue( ByteUtils.createMemoryAccess( "unsafe", accessible ) instanceof UnsafeMemoryAccess );
+		assertTrue( ByteUtils.createMemoryAccess( null, accessible ) instanceof UnsafeMemoryAccess );
+		assertTrue( ByteUtils.createMemoryAccess( "something else", accessible ) instanceof UnsafeMemoryAccess );
+
+		assertTrue( ByteUtils.createMemoryAccess( null, inaccessible ) instanceof BufferMemoryAccess );
+		assertTrue( ByteUtils.createMemoryAccess( "something else", inaccessible ) instanceof BufferMemoryAccess );
+		try
+		{
+			ByteUtils.createMemoryAccess( "unsafe", inaccessible );
+			fail();
+		}
+		catch ( final RuntimeException e )
+		{
+			assertTrue( e.getCause() instanceof ExceptionInInitializerError );
+		}
+
+		// the property of this JVM
+		final String expected = "buffer".equals( System.getProperty( "bvv.memoryaccess" ) ) ? "buffer" : "unsafe";
+		assertEquals( expected, ByteUtils.memoryAccess().toString() );
+	}
+
+	private static ByteBuffer randomBuffer( final long seed )
+	{
+		final byte[] data = new byte[ BUFFER_SIZE ];
+		new Random( seed ).nextBytes( data );
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+		buffer.put( data ).clear();
+		return buffer;
+	}
+
+	private static void assertSameContents( final ByteBuffer expected, final ByteBuffer actual )
+	{
+		assertArrayEquals( contents( expected ), contents( actual ) );
+	}
+
+	private static byte[] contents( final ByteBuffer buffer )
+	{
+		final ByteBuffer b = buffer.duplicate();
+		b.clear();
+		final byte[] data = new byte[ b.capacity() ];
+		b.get( data );
+		return data;
+	}
+}
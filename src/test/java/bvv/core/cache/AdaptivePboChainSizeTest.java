@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+
+public class AdaptivePboChainSizeTest
+{
+	/** no stall */
+	private static final long NONE = 0;
+
+	/** a stall above the threshold */
+	private static final long STALL = 5_000_000;
+
+	private static void update( final AdaptivePboChainSize size, final int numBatches, final int numUploadedBlocks, final long stallNanos )
+	{
+		for ( int i = 0; i < numBatches; ++i )
+			size.update( numUploadedBlocks, stallNanos );
+	}
+
+	private static void assertSize( final AdaptivePboChainSize size, final int expectedNumBufs, final int expectedBufSize )
+	{
+		assertEquals( "numBufs", expectedNumBufs, size.getNumBufs() );
+		assertEquals( "bufSize", expectedBufSize, size.getBufSize() );
+	}
+
+	/**
+	 * With a light load, the PBO size follows the (slowly decreasing) average
+	 * number of blocks per batch, and the number of PBOs shrinks by one every
+	 * 100 batches without stalls, down to 2.
+	 */
+	@Test
+	public void testShrink()
+	{
+		final AdaptivePboChainSize size = new AdaptivePboChainSize( 5, 100 );
+		assertSize( size, 5, 100 );
+
+		// average decays from 500: 500 + 0.1 * (10 - 500) = 451, 451 / 5 -> 96
+		update( size, 1, 10, NONE );
+		assertSize( size, 5, 96 );
+
+		update( size, 98, 10, NONE );
+		assertSize( size, 5, 8 );
+		update( size, 1, 10, NONE );
+		assertSize( size, 4, 8 );
+		update( size, 100, 10, NONE );
+		assertSize( size, 3, 8 );
+		update( size, 100, 10, NONE );
+		assertSize( size, 2, 8 );
+		update( size, 1000, 10, NONE );
+		assertSize( size, 2, 8 );
+
+		// rounded up to multiples of 8: 40 / 2 = 20 -> 24
+		update( size, 200, 40, NONE );
+		assertSize( size, 2, 24 );
+	}
+
+	/**
+	 * An increasing load is followed immediately, limited to the configured
+	 * PBO size. Stalls add a PBO per batch, up to the configured number.
+	 */
+	@Test
+	public void testGrow()
+	{
+		final AdaptivePboChainSize size = new AdaptivePboChainSize( 5, 100 );
+		update( size, 400, 10, NONE );
+		assertSize( size, 2, 8 );
+
+		// 120 / 2 = 60 -> 64, the batch fits without stall
+		update( size, 1, 120, NONE );
+		assertSize( size, 2, 64 );
+
+		// stalls below the threshold don't count
+		update( size, 1, 200, 100_000 );
+		assertSize( size, 2, 100 );
+
+		update( size, 1, 300, STALL );
+		assertSize( size, 3, 100 );
+		// fits into 3 * 100
+		update( size, 1, 300, STALL );
+		assertSize( size, 3, 100 );
+		// 301 / 4 -> 80
+		update( size, 1, 301, STALL );
+		assertSize( size, 4, 80 );
+		update( size, 10, 1000, STALL );
+		assertSize( size, 5, 100 );
+
+		// stalls only count if the batch didn't fit into the chain
+		final AdaptivePboChainSize size2 = new AdaptivePboChainSize( 5, 100 );
+		update( size2, 400, 10, NONE );
+		update( size2, 1, 16, STALL );
+		assertSize( size2, 2, 8 );
+		update( size2, 1, 17, STALL );
+		assertSize( size2, 3, 8 );
+	}
+
+	/**
+	 * Configured limits below the minimum PBO count and size are respected.
+	 */
+	@Test
+	public void testSmallLimits()
+	{
+		final AdaptivePboChainSize size = new AdaptivePboChainSize( 1, 4 );
+		assertSize( size, 1, 4 );
+		update( size, 500, 1, NONE );
+		assertSize( size, 1, 4 );
+		update( size, 10, 1000, STALL );
+		assertSize( size, 1, 4 );
+
+		final AdaptivePboChainSize size2 = new AdaptivePboChainSize( 3, 20 );
+		update( size2, 500, 1, NONE );
+		assertSize( size2, 2, 8 );
+		update( size2, 10, 1000, STALL );
+		assertSize( size2, 3, 20 );
+	}
+
+	/**
+	 * {@code adapt()} resizes the chain after each new batch (only).
+	 */
+	@Test
+	public void testAdapt() throws InterruptedException
+	{
+		final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } );
+		final TextureCache cache = new TextureCache( new int[] { 8, 8, 8 }, spec );
+		final PboChain chain = new PboChain( 5, 100, cache );
+		final MockGpuContext context = new MockGpuContext();
+		final AdaptivePboChainSize size = new AdaptivePboChainSize( 5, 100 );
+
+		size.adapt( chain, context );
+		assertEquals( 5, chain.getNumBufs() );
+		assertEquals( 100, chain.getBufSize() );
+
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = 0; i < 10; ++i )
+			tasks.add( new DefaultFillTask( new ImageBlockKey<>( "image", i, 0, 0 ), buf -> true, () -> true ) );
+		ProcessFillTasks.sequential( cache, chain, context, tasks );
+		size.adapt( chain, context );
+		assertEquals( 5, chain.getNumBufs() );
+		assertEquals( 96, chain.getBufSize() );
+
+		// no new batch: no update
+		size.adapt( chain, context );
+		assertEquals( 96, chain.getBufSize() );
+	}
+}
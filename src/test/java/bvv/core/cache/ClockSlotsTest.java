@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ClockSlotsTest
+{
+	private static int put( final ClockSlots< String > slots, final String key )
+	{
+		final int slot = slots.pinForWrite( key );
+		if ( slot >= 0 )
+			slots.commit( key, slot, true );
+		return slot;
+	}
+
+	@Test
+	public void testFreeSlots()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 3 );
+		assertEquals( 0, put( slots, "a" ) );
+		assertEquals( 1, put( slots, "b" ) );
+		assertEquals( 2, put( slots, "c" ) );
+		assertEquals( 3, slots.size() );
+		assertEquals( 0, slots.numEvicted() );
+
+		// already stored
+		assertEquals( -1, slots.pinForWrite( "a" ) );
+
+		// no slots
+		final ClockSlots< String > empty = new ClockSlots<>( 0 );
+		assertEquals( -1, empty.pinForWrite( "a" ) );
+	}
+
+	@Test
+	public void testEvictUnreferenced()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 3 );
+		put( slots, "a" );
+		put( slots, "b" );
+		put( slots, "c" );
+
+		// nothing was read, the hand starts at slot 0
+		assertEquals( 0, put( slots, "d" ) );
+		assertFalse( slots.contains( "a" ) );
+		assertTrue( slots.contains( "d" ) );
+		assertEquals( 1, slots.numEvicted() );
+	}
+
+	@Test
+	public void testSecondChance()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 3 );
+		put( slots, "a" );
+		put( slots, "b" );
+		put( slots, "c" );
+
+		// reading "a" sets its reference bit, so "b" is evicted instead
+		slots.unpin( slots.pinForRead( "a" ) );
+		assertEquals( 1, put( slots, "d" ) );
+		assertTrue( slots.contains( "a" ) );
+		assertFalse( slots.contains( "b" ) );
+
+		// the sweep cleared the reference bit of "a", it is evicted next time around
+		assertEquals( 2, put( slots, "e" ) );
+		assertFalse( slots.contains( "c" ) );
+		assertEquals( 0, put( slots, "f" ) );
+		assertFalse( slots.contains( "a" ) );
+		assertEquals( 3, slots.numEvicted() );
+	}
+
+	@Test
+	public void testAllReferenced()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 3 );
+		for ( final String key : new String[] { "a", "b", "c" } )
+		{
+			put( slots, key );
+			slots.unpin( slots.pinForRead( key ) );
+		}
+
+		// the first sweep clears all reference bits, the second evicts
+		assertEquals( 0, put( slots, "d" ) );
+		assertFalse( slots.contains( "a" ) );
+	}
+
+	@Test
+	public void testPinnedSlotsAreNotEvicted()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 2 );
+		put( slots, "a" );
+		put( slots, "b" );
+
+		final int a = slots.pinForRead( "a" );
+		final int b = slots.pinForRead( "b" );
+		assertEquals( -1, slots.pinForWrite( "c" ) );
+		assertEquals( 0, slots.numEvicted() );
+
+		// a slot that is pinned twice is evictable only after both unpins
+		final int a2 = slots.pinForRead( "a" );
+		slots.unpin( b );
+		assertEquals( b, put( slots, "c" ) );
+		assertTrue( slots.contains( "a" ) );
+		assertFalse( slots.contains( "b" ) );
+
+		final int c = slots.pinForRead( "c" );
+		slots.unpin( a );
+		assertEquals( -1, slots.pinForWrite( "d" ) );
+		slots.unpin( a2 );
+		assertEquals( a, put( slots, "d" ) );
+		assertFalse( slots.contains( "a" ) );
+		assertTrue( slots.contains( "c" ) );
+		slots.unpin( c );
+	}
+
+	@Test
+	public void testPinnedForWrite()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 1 );
+		final int slot = slots.pinForWrite( "a" );
+		assertEquals( 0, slot );
+
+		// the slot is neither free nor evictable while it is written
+		assertEquals( -1, slots.pinForWrite( "b" ) );
+		assertFalse( slots.contains( "a" ) );
+
+		// a failed write frees the slot
+		slots.commit( "a", slot, false );
+		assertFalse( slots.contains( "a" ) );
+		assertEquals( 0, slots.pinForWrite( "b" ) );
+	}
+
+	@Test
+	public void testRemove()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 2 );
+		put( slots, "a" );
+		put( slots, "b" );
+
+		// nothing is removed while pinned
+		final int a = slots.pinForRead( "a" );
+		slots.remove( "a" );
+		assertTrue( slots.contains( "a" ) );
+		slots.unpin( a );
+
+		slots.remove( "a" );
+		assertFalse( slots.contains( "a" ) );
+		assertEquals( 1, slots.size() );
+
+		// the removed slot is reused without eviction
+		assertEquals( a, put( slots, "c" ) );
+		assertEquals( 0, slots.numEvicted() );
+	}
+
+	@Test
+	public void testRestore()
+	{
+		final ClockSlots< String > slots = new ClockSlots<>( 4 );
+		put( slots, "a" );
+		put( slots, "b" );
+
+		final Map< String, Integer > entries = new HashMap<>();
+		entries.put( "x", 1 );
+		entries.put( "y", 3 );
+		entries.put( "invalid", 4 );
+		slots.restore( entries );
+
+		assertEquals( 2, slots.size() );
+		assertFalse( slots.contains( "a" ) );
+		assertFalse( slots.contains( "invalid" ) );
+		assertEquals( 1, slots.pinForRead( "x" ) );
+		assertEquals( 3, slots.pinForRead( "y" ) );
+		assertEquals( entries.size() - 1, slots.entries().size() );
+
+		// the free slots are the ones not restored
+		final int c = put( slots, "c" );
+		final int d = put( slots, "d" );
+		assertTrue( c == 0 || c == 2 );
+		assertTrue( d == 0 || d == 2 );
+		assertNotEquals( c, d );
+		assertEquals( 0, slots.numEvicted() );
+	}
+}
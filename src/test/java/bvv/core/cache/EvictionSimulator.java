@@ -0,0 +1,295 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bvv.core.backend.Texture.InternalFormat;
+import bvv.core.cache.TextureCache.Tile;
+
+import static bvv.core.cache.TextureCache.ContentState.COMPLETE;
+
+/**
+ * Replays a recorded {@link EvictionTrace} against an {@link EvictionPolicy},
+ * using a {@link TextureCache} without GPU texture, and counts how many of the
+ * requested blocks were resident.
+ * <p>
+ * For each recorded batch, the requested blocks are staged, all new blocks are
+ * assumed to be loaded completely, and then all requested blocks are used (as
+ * when rendering the frame). Blocks that were resident and complete when the
+ * batch was staged are hits. The recorded load latencies are passed to the
+ * policy instead of the (meaningless) simulated ones, and are used to estimate
+ * the cost of the misses.
+ * <p>
+ * The cache size is taken from the trace (the first recorded capacity), unless
+ * specified explicitly. Batches that don't fit into the cache are truncated.
+ * <p>
+ * Usage: {@code EvictionSimulator <trace file> [<number of tiles>]} replays
+ * the trace against LRU, level-weighted LRU, and GreedyDual-Size, and prints
+ * the hit rates.
+ */
+public class EvictionSimulator implements EvictionTrace.Listener
+{
+	private final String name;
+
+	private final EvictionPolicy policy;
+
+	private final int numTiles;
+
+	private TextureCache cache;
+
+	private final ArrayList< Integer > images = new ArrayList<>();
+
+	private final ArrayList< FillTask > tasks = new ArrayList<>();
+
+	private long numRequests;
+
+	private long numHits;
+
+	private long numTruncated;
+
+	private long[] missesPerLevel = new long[ 0 ];
+
+	private double[] latencySumPerLevel = new double[ 0 ];
+
+	private long[] latencyCountPerLevel = new long[ 0 ];
+
+	/**
+	 * @param name
+	 *            name of the policy in the {@link #toString() report}
+	 * @param policy
+	 *            policy to simulate
+	 * @param numTiles
+	 *            number of tiles of the simulated cache, or {@code 0} to use
+	 *            the capacity recorded in the trace.
+	 */
+	public EvictionSimulator( final String name, final EvictionPolicy policy, final int numTiles )
+	{
+		this.name = name;
+		this.policy = policy;
+		this.numTiles = numTiles;
+	}
+
+	@Override
+	public void capacity( final int numTiles )
+	{
+		if ( cache == null )
+			createCache( this.numTiles > 0 ? this.numTiles : numTiles );
+	}
+
+	private void createCache( final int numTiles )
+	{
+		// one more for the reserved out-of-bounds tile
+		cache = new TextureCache( new int[] { numTiles + 1, 1, 1 }, new CacheSpec( InternalFormat.R8, 1, 1, 1 ) );
+		cache.setFillTaskPriority( null );
+		cache.setEvictionPolicy( new EvictionPolicy()
+		{
+			@Override
+			public void selectVictims( final Iterable< Tile > candidates, final int size, final int timestamp, final List< Tile > victims )
+			{
+				policy.selectVictims( candidates, size, timestamp, victims );
+			}
+
+			// latencies are replayed from the trace instead
+		} );
+	}
+
+	@Override
+	public void stage( final int n, final int[] imageIds, final int[] levels, final int[] positions )
+	{
+		if ( cache == null )
+		{
+			if ( numTiles <= 0 )
+				throw new IllegalStateException( "number of tiles is neither recorded nor specified" );
+			createCache( numTiles );
+		}
+
+		tasks.clear();
+		final int maxNumTasks = cache.getMaxNumTiles();
+		for ( int i = 0; i < n; ++i )
+		{
+			if ( tasks.size() >= maxNumTasks )
+			{
+				numTruncated += n - i;
+				break;
+			}
+			while ( images.size() <= imageIds[ i ] )
+				images.add( images.size() );
+			final int level = levels[ i ];
+			final ImageBlockKey< Integer > key = new ImageBlockKey<>( images.get( imageIds[ i ] ), Arrays.copyOfRange( positions, 3 * i, 3 * i + 3 ) );
+			tasks.add( new DefaultFillTask( key, buf -> true, () -> true, level, 0 ) );
+
+			++numRequests;
+			final Tile tile = cache.get( key );
+			if ( tile != null && tile.state() == COMPLETE )
+				++numHits;
+			else
+			{
+				if ( level >= missesPerLevel.length )
+					missesPerLevel = Arrays.copyOf( missesPerLevel, level + 1 );
+				++missesPerLevel[ level ];
+			}
+		}
+
+		final TextureCache.StagedTasks staged;
+		try
+		{
+			staged = cache.stage( tasks );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			// requested blocks don't fit, skip batch
+			numTruncated += tasks.size();
+			return;
+		}
+
+		// load everything
+		int nextTile = 0;
+		for ( final TextureCache.TileFillTask task : staged.tasks )
+		{
+			if ( task.getTile() == null )
+				task.setTile( staged.reusableTiles.get( nextTile++ ) );
+			cache.assign( task, COMPLETE, UploadBuffer.UNKNOWN_CELLS );
+		}
+
+		// render
+		final int timestamp = cache.nextTimestamp();
+		for ( final FillTask task : tasks )
+		{
+			final Tile tile = cache.get( task.getKey() );
+			if ( tile != null )
+				tile.useAtTimestamp( timestamp );
+		}
+	}
+
+	@Override
+	public void loaded( final int level, final long latencyNanos )
+	{
+		policy.blockLoaded( level, latencyNanos );
+		if ( level >= latencySumPerLevel.length )
+		{
+			latencySumPerLevel = Arrays.copyOf( latencySumPerLevel, level + 1 );
+			latencyCountPerLevel = Arrays.copyOf( latencyCountPerLevel, level + 1 );
+		}
+		latencySumPerLevel[ level ] += latencyNanos / 1e6;
+		++latencyCountPerLevel[ level ];
+	}
+
+	public long getNumRequests()
+	{
+		return numRequests;
+	}
+
+	public long getNumHits()
+	{
+		return numHits;
+	}
+
+	public double getHitRate()
+	{
+		return numRequests == 0 ? 0 : ( double ) numHits / numRequests;
+	}
+
+	/**
+	 * Estimated cost of the misses: the number of misses at each level times
+	 * the mean recorded latency of that level (in ms).
+	 */
+	public double getMissCost()
+	{
+		double cost = 0;
+		for ( int level = 0; level < missesPerLevel.length; ++level )
+			if ( level < latencyCountPerLevel.length && latencyCountPerLevel[ level ] > 0 )
+				cost += missesPerLevel[ level ] * latencySumPerLevel[ level ] / latencyCountPerLevel[ level ];
+		return cost;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "%-24s requests %10d  hits %10d  hit rate %6.2f%%  miss cost %10.1f s  misses per level %s%s",
+				name, numRequests, numHits, 100 * getHitRate(), getMissCost() / 1000,
+				Arrays.toString( missesPerLevel ),
+				numTruncated > 0 ? "  (" + numTruncated + " requests did not fit)" : "" );
+	}
+
+	/**
+	 * Replay {@code trace} against each of the {@code simulators}.
+	 */
+	public static void replay( final Path trace, final EvictionSimulator... simulators ) throws IOException
+	{
+		EvictionTrace.replay( trace, new EvictionTrace.Listener()
+		{
+			@Override
+			public void capacity( final int numTiles )
+			{
+				for ( final EvictionSimulator simulator : simulators )
+					simulator.capacity( numTiles );
+			}
+
+			@Override
+			public void stage( final int n, final int[] images, final int[] levels, final int[] positions )
+			{
+				for ( final EvictionSimulator simulator : simulators )
+					simulator.stage( n, images, levels, positions );
+			}
+
+			@Override
+			public void loaded( final int level, final long latencyNanos )
+			{
+				for ( final EvictionSimulator simulator : simulators )
+					simulator.loaded( level, latencyNanos );
+			}
+		} );
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "usage: EvictionSimulator <trace file> [<number of tiles>]" );
+			System.exit( 1 );
+		}
+		final Path trace = Paths.get( args[ 0 ] );
+		final int numTiles = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 0;
+
+		final List< EvictionSimulator > simulators = new ArrayList<>();
+		simulators.add( new EvictionSimulator( "LRU", EvictionPolicy.lru(), numTiles ) );
+		for ( final double w : new double[] { 0.1, 0.25, 0.5 } )
+			simulators.add( new EvictionSimulator( "level-weighted LRU " + w, EvictionPolicy.levelWeightedLru( w ), numTiles ) );
+		simulators.add( new EvictionSimulator( "GreedyDual-Size", EvictionPolicy.greedyDualSize(), numTiles ) );
+
+		replay( trace, simulators.toArray( new EvictionSimulator[ 0 ] ) );
+		simulators.forEach( System.out::println );
+	}
+}
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Replay of traces written by {@link EvictionTraceRecorder}, for comparing
+ * {@link EvictionPolicy EvictionPolicies} offline (see
+ * {@link EvictionSimulator}).
+ */
+public class EvictionTrace
+{
+	/**
+	 * Receives the records of a trace, see {@link #replay(Path, Listener)}.
+	 */
+	public interface Listener
+	{
+		/**
+		 * A {@link TextureCache} with {@code numTiles} tiles started recording.
+		 */
+		void capacity( int numTiles );
+
+		/**
+		 * A batch of {@code n} blocks was staged. Block {@code i} is of image
+		 * {@code images[i]}, resolution level {@code levels[i]}, at grid
+		 * position {@code (positions[3i], positions[3i+1], positions[3i+2])}.
+		 * The arrays are reused for the next batch.
+		 */
+		void stage( int n, int[] images, int[] levels, int[] positions );
+
+		/**
+		 * A block of resolution {@code level} was completely loaded,
+		 * {@code latencyNanos} after it was staged.
+		 */
+		void loaded( int level, long latencyNanos );
+	}
+
+	/**
+	 * Read the trace {@code file}, and pass its records to {@code listener}.
+	 * A truncated last record (e.g., if the recording application was
+	 * killed) is ignored.
+	 */
+	public static void replay( final Path file, final Listener listener ) throws IOException
+	{
+		try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ) ) ) )
+		{
+			if ( in.readInt() != EvictionTraceRecorder.MAGIC )
+				throw new IOException( "Not an eviction trace: " + file );
+			final int version = in.readInt();
+			if ( version != EvictionTraceRecorder.VERSION )
+				throw new IOException( "Unsupported eviction trace version " + version + ": " + file );
+
+			int[] images = new int[ 0 ];
+			int[] levels = new int[ 0 ];
+			int[] positions = new int[ 0 ];
+			try
+			{
+				while ( true )
+				{
+					final int type = in.read();
+					if ( type < 0 )
+						break;
+					switch ( type )
+					{
+					case EvictionTraceRecorder.CAPACITY:
+						listener.capacity( in.readInt() );
+						break;
+					case EvictionTraceRecorder.STAGE:
+						final int n = in.readInt();
+						if ( images.length < n )
+						{
+							images = new int[ n ];
+							levels = new int[ n ];
+							positions = new int[ 3 * n ];
+						}
+						for ( int i = 0; i < n; ++i )
+						{
+							images[ i ] = in.readInt();
+							levels[ i ] = in.readInt();
+							positions[ 3 * i ] = in.readInt();
+							positions[ 3 * i + 1 ] = in.readInt();
+							positions[ 3 * i + 2 ] = in.readInt();
+						}
+						listener.stage( n, images, levels, positions );
+						break;
+					case EvictionTraceRecorder.LOADED:
+						listener.loaded( in.readInt(), in.readLong() );
+						break;
+					default:
+						throw new IOException( "Corrupt eviction trace (record type " + type + "): " + file );
+					}
+				}
+			}
+			catch ( final EOFException e )
+			{
+				// truncated last record
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+
+public class EvictionTraceTest
+{
+	private static final int BATCH_SIZE = 20;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A trace written by {@link EvictionTraceRecorder} while filling a cache
+	 * is read back by {@link EvictionTrace#replay}, and replayed by
+	 * {@link EvictionSimulator}.
+	 */
+	@Test
+	public void testRecordAndReplay() throws IOException, InterruptedException
+	{
+		final Path file = folder.getRoot().toPath().resolve( "test.trace" );
+		final TextureCache cache = new TextureCache( new int[] { 4, 4, 4 }, new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } ) );
+		final PboChain chain = new PboChain( 3, 16, cache );
+		final MockGpuContext context = new MockGpuContext();
+		try ( EvictionTraceRecorder recorder = new EvictionTraceRecorder( file ) )
+		{
+			cache.setEvictionTraceRecorder( recorder );
+			// batches 0 and 1 request the same blocks, batch 2 new blocks
+			for ( final int first : new int[] { 0, 0, BATCH_SIZE } )
+			{
+				ProcessFillTasks.sequential( cache, chain, context, tasks( first ) );
+				cache.nextTimestamp();
+			}
+		}
+
+		final List< int[] > stagedPositions = new ArrayList<>();
+		final int[] numTiles = new int[ 1 ];
+		final int[] numLoaded = new int[ 1 ];
+		EvictionTrace.replay( file, new EvictionTrace.Listener()
+		{
+			@Override
+			public void capacity( final int n )
+			{
+				numTiles[ 0 ] = n;
+			}
+
+			@Override
+			public void stage( final int n, final int[] images, final int[] levels, final int[] positions )
+			{
+				for ( int i = 0; i < n; ++i )
+				{
+					assertEquals( 0, images[ i ] );
+					assertEquals( 2, levels[ i ] );
+				}
+				stagedPositions.add( Arrays.copyOf( positions, 3 * n ) );
+			}
+
+			@Override
+			public void loaded( final int level, final long latencyNanos )
+			{
+				assertEquals( 2, level );
+				++numLoaded[ 0 ];
+			}
+		} );
+
+		assertEquals( cache.getMaxNumTiles(), numTiles[ 0 ] );
+		assertEquals( 3, stagedPositions.size() );
+		assertArrayEquals( positions( 0 ), stagedPositions.get( 0 ) );
+		assertArrayEquals( positions( 0 ), stagedPositions.get( 1 ) );
+		assertArrayEquals( positions( BATCH_SIZE ), stagedPositions.get( 2 ) );
+		// the blocks of batch 1 were already complete
+		assertEquals( 2 * BATCH_SIZE, numLoaded[ 0 ] );
+
+		final EvictionSimulator simulator = new EvictionSimulator( "LRU", EvictionPolicy.lru(), 0 );
+		EvictionSimulator.replay( file, simulator );
+		assertEquals( 3 * BATCH_SIZE, simulator.getNumRequests() );
+		assertEquals( BATCH_SIZE, simulator.getNumHits() );
+	}
+
+	private static List< FillTask > tasks( final int first )
+	{
+		final Object image = "image";
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = first; i < first + BATCH_SIZE; ++i )
+			tasks.add( new DefaultFillTask( new ImageBlockKey<>( image, i, 1, 2 ), buf -> true, () -> true, 2, 0 ) );
+		return tasks;
+	}
+
+	private static int[] positions( final int first )
+	{
+		final int[] positions = new int[ 3 * BATCH_SIZE ];
+		for ( int i = 0; i < BATCH_SIZE; ++i )
+		{
+			positions[ 3 * i ] = first + i;
+			positions[ 3 * i + 1 ] = 1;
+			positions[ 3 * i + 2 ] = 2;
+		}
+		return positions;
+	}
+}
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.joml.Matrix4f;
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.multires.SyntheticStack;
+import bvv.core.render.VolumeBlocks;
+
+public class FillTaskPriorityTest
+{
+	/**
+	 * Distance from the screen center (in normalized device coordinates)
+	 * below which a block counts as center-screen.
+	 */
+	private static final float CENTER = 0.3f;
+
+	/**
+	 * After filling as many tasks as there are center-screen blocks, all of
+	 * them are complete with {@link FillTaskPriority#SCREEN_CENTER_DISTANCE}.
+	 * With the previous order (tasks filled in the order they are requested)
+	 * only a fraction of them is.
+	 */
+	@Test
+	public void testCenterBlocksFirst() throws InterruptedException
+	{
+		final List< FillTask > tasks = getFillTasks();
+		final Set< Object > center = new HashSet<>();
+		for ( final FillTask task : tasks )
+			if ( task.getScreenDistance() < CENTER )
+				center.add( task.getKey() );
+		final int k = center.size();
+		assertTrue( k > 0 && k < tasks.size() / 2 );
+
+		final double shareWithPriority = centerShareAfterFills( tasks, center, k, FillTaskPriority.SCREEN_CENTER_DISTANCE );
+		final double shareInRequestOrder = centerShareAfterFills( tasks, center, k, null );
+		assertEquals( 1.0, shareWithPriority, 0 );
+		assertTrue( shareInRequestOrder < 0.5 );
+	}
+
+	/**
+	 * With {@link FillTaskPriority#COARSE_TO_FINE}, no block is filled before a
+	 * block of a coarser level.
+	 */
+	@Test
+	public void testCoarseToFine() throws InterruptedException
+	{
+		final List< FillTask > tasks = getFillTasks();
+		assertTrue( tasks.stream().mapToInt( FillTask::getLevel ).distinct().count() > 1 );
+		final List< FillTask > filled = fill( tasks, FillTaskPriority.COARSE_TO_FINE );
+		for ( int i = 1; i < filled.size(); ++i )
+			assertTrue( filled.get( i - 1 ).getLevel() >= filled.get( i ).getLevel() );
+	}
+
+	/**
+	 * Fill tasks for a perspective view into a synthetic volume, such that
+	 * the required blocks span several resolution levels.
+	 */
+	private static List< FillTask > getFillTasks()
+	{
+		final SyntheticStack stack = new SyntheticStack( 128, 8, 4, ( l, x, y, z ) -> ( int ) ( 1 + x + 3 * y + 7 * z ) );
+		final TextureCache cache = new TextureCache( new int[] { 8, 8, 8 }, new CacheSpec( Texture.InternalFormat.R16, new int[] { 8, 8, 8 } ) );
+		final Matrix4f pv = new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 60 ), 1, 1, 5000 )
+				.lookAt( 40, 80, -60, 64, 64, 64, 0, 1, 0 );
+		final VolumeBlocks blocks = new VolumeBlocks();
+		blocks.init( stack, cache, 100, pv );
+		return new ArrayList<>( blocks.getFillTasks() );
+	}
+
+	/**
+	 * Fill {@code tasks} into a fresh cache with the given {@code priority},
+	 * and return the share of {@code center} blocks among the first {@code k}
+	 * filled blocks.
+	 */
+	private static double centerShareAfterFills( final List< FillTask > tasks, final Set< Object > center, final int k, final FillTaskPriority priority ) throws InterruptedException
+	{
+		final List< FillTask > filled = fill( tasks, priority );
+		int n = 0;
+		for ( final FillTask task : filled.subList( 0, Math.min( k, filled.size() ) ) )
+			if ( center.contains( task.getKey() ) )
+				++n;
+		return ( double ) n / center.size();
+	}
+
+	/**
+	 * Fill {@code tasks} into a fresh cache with the given {@code priority},
+	 * and return the tasks in the order they were filled.
+	 */
+	private static List< FillTask > fill( final List< FillTask > tasks, final FillTaskPriority priority ) throws InterruptedException
+	{
+		final TextureCache cache = new TextureCache( new int[] { 24, 24, 24 }, new CacheSpec( Texture.InternalFormat.R16, new int[] { 8, 8, 8 } ) );
+		assertTrue( tasks.size() <= cache.getMaxNumTiles() );
+		cache.setFillTaskPriority( priority );
+		final PboChain chain = new PboChain( 5, 100, cache, false );
+		final List< FillTask > filled = new ArrayList<>();
+		final List< FillTask > recording = new ArrayList<>();
+		for ( final FillTask task : tasks )
+			recording.add( new FillTask()
+			{
+				@Override
+				public ImageBlockKey< ? > getKey()
+				{
+					return task.getKey();
+				}
+
+				@Override
+				public boolean containsData()
+				{
+					return task.containsData();
+				}
+
+				@Override
+				public void fill( final UploadBuffer buffer )
+				{
+					filled.add( task );
+					task.fill( buffer );
+				}
+
+				@Override
+				public int getLevel()
+				{
+					return task.getLevel();
+				}
+
+				@Override
+				public float getScreenDistance()
+				{
+					return task.getScreenDistance();
+				}
+
+				@Override
+				public int getConstantValue()
+				{
+					return task.getConstantValue();
+				}
+			} );
+		ProcessFillTasks.sequential( cache, chain, new MockGpuContext(), recording );
+		return filled;
+	}
+}
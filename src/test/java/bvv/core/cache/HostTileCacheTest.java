@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import org.junit.Test;
+
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+public class HostTileCacheTest
+{
+	/**
+	 * 64 KiB tiles, 16 per MB
+	 */
+	private static final CacheSpec SPEC = new CacheSpec( Texture.InternalFormat.R16, new int[] { 32, 32, 32 }, new int[] { 32, 32, 32 }, new int[] { 0, 0, 0 } );
+
+	private static final int ELEMENTS_PER_TILE = ( int ) Intervals.numElements( SPEC.paddedBlockSize() );
+
+	private static final int TILE_SIZE_IN_BYTES = 2 * ELEMENTS_PER_TILE;
+
+	private static ImageBlockKey< String > key( final int i )
+	{
+		return new ImageBlockKey<>( "image", i, 0, 0 );
+	}
+
+	/**
+	 * Upload buffer at a non-zero offset into a larger buffer.
+	 */
+	private static UploadBuffer buffer()
+	{
+		return new UploadBuffer( ByteBuffer.allocateDirect( TILE_SIZE_IN_BYTES + 64 ).order( ByteOrder.nativeOrder() ), 64 );
+	}
+
+	private static UploadBuffer tile( final int value )
+	{
+		final UploadBuffer buffer = buffer();
+		ByteUtils.setShorts( ( short ) value, buffer.getBuffer(), buffer.getOffset(), ELEMENTS_PER_TILE );
+		// mark the first and last element, to catch misplaced copies
+		final ShortBuffer shorts = shorts( buffer );
+		shorts.put( 0, ( short ) ( value + 1 ) );
+		shorts.put( ELEMENTS_PER_TILE - 1, ( short ) ( value + 2 ) );
+		return buffer;
+	}
+
+	private static ShortBuffer shorts( final UploadBuffer buffer )
+	{
+		final ByteBuffer bytes = ( ( ByteBuffer ) buffer.getBuffer() ).duplicate().order( ByteOrder.nativeOrder() );
+		bytes.position( buffer.getOffset() );
+		return bytes.slice().order( ByteOrder.nativeOrder() ).asShortBuffer();
+	}
+
+	private static void assertTile( final int value, final UploadBuffer buffer )
+	{
+		final ShortBuffer shorts = shorts( buffer );
+		assertEquals( value + 1, shorts.get( 0 ) );
+		assertEquals( value, shorts.get( ELEMENTS_PER_TILE / 2 ) );
+		assertEquals( value + 2, shorts.get( ELEMENTS_PER_TILE - 1 ) );
+	}
+
+	@Test
+	public void testPutAndFill()
+	{
+		final HostTileCache cache = new HostTileCache( SPEC, 1 );
+		assertEquals( 16, cache.getMaxNumTiles() );
+		assertEquals( 1, cache.getNumChunks() );
+
+		for ( int i = 0; i < 10; ++i )
+			assertTrue( cache.put( key( i ), tile( 100 * i ) ) );
+		assertFalse( cache.put( key( 3 ), tile( 0 ) ) );
+		assertEquals( 10, cache.getNumTiles() );
+
+		for ( int i = 9; i >= 0; --i )
+		{
+			final UploadBuffer buffer = buffer();
+			assertTrue( cache.fill( key( i ), buffer ) );
+			assertTile( 100 * i, buffer );
+		}
+		assertFalse( cache.fill( key( 10 ), buffer() ) );
+
+		assertEquals( 10, cache.getNumHits() );
+		assertEquals( 1, cache.getNumMisses() );
+		assertEquals( 0, cache.getNumEvicted() );
+	}
+
+	@Test
+	public void testEviction()
+	{
+		final HostTileCache cache = new HostTileCache( SPEC, 1 );
+		final int n = cache.getMaxNumTiles();
+		for ( int i = 0; i < n; ++i )
+			cache.put( key( i ), tile( i ) );
+
+		// reading tile 0 gives it a second chance
+		assertTrue( cache.fill( key( 0 ), buffer() ) );
+		for ( int i = n; i < n + 4; ++i )
+			assertTrue( cache.put( key( i ), tile( i ) ) );
+
+		assertEquals( n, cache.getNumTiles() );
+		assertEquals( 4, cache.getNumEvicted() );
+		assertTrue( cache.contains( key( 0 ) ) );
+		for ( int i = 1; i <= 4; ++i )
+			assertFalse( cache.contains( key( i ) ) );
+
+		// evicted slots were reused for the new tiles
+		for ( int i = n; i < n + 4; ++i )
+		{
+			final UploadBuffer buffer = buffer();
+			assertTrue( cache.fill( key( i ), buffer ) );
+			assertTile( i, buffer );
+		}
+	}
+
+	/**
+	 * A pinned tile cannot be evicted between the lookup and the copy.
+	 */
+	@Test
+	public void testPinnedTileIsNotEvicted()
+	{
+		final HostTileCache cache = new HostTileCache( SPEC, 1 );
+		final int n = cache.getMaxNumTiles();
+		for ( int i = 0; i < n; ++i )
+			cache.put( key( i ), tile( i ) );
+
+		final int slot = cache.pin( key( 0 ) );
+		assertTrue( slot >= 0 );
+
+		// enough puts to evict everything that is not pinned, twice over
+		for ( int i = n; i < 3 * n; ++i )
+			assertTrue( cache.put( key( i ), tile( i ) ) );
+		assertTrue( cache.contains( key( 0 ) ) );
+
+		final UploadBuffer buffer = buffer();
+		cache.fill( slot, buffer );
+		assertTile( 0, buffer );
+
+		// unpinned by fill, now it can be evicted
+		for ( int i = 3 * n; i < 5 * n; ++i )
+			cache.put( key( i ), tile( i ) );
+		assertFalse( cache.contains( key( 0 ) ) );
+		assertEquals( -1, cache.pin( key( 0 ) ) );
+	}
+
+	@Test
+	public void testAllPinned()
+	{
+		final HostTileCache cache = new HostTileCache( SPEC, 1 );
+		final int n = cache.getMaxNumTiles();
+		final int[] slots = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+		{
+			cache.put( key( i ), tile( i ) );
+			slots[ i ] = cache.pin( key( i ) );
+		}
+		assertFalse( cache.put( key( n ), tile( n ) ) );
+		assertEquals( 0, cache.getNumEvicted() );
+
+		cache.unpin( slots[ 5 ] );
+		assertTrue( cache.put( key( n ), tile( n ) ) );
+		assertFalse( cache.contains( key( 5 ) ) );
+		for ( int i = 0; i < n; ++i )
+			if ( i != 5 )
+				cache.unpin( slots[ i ] );
+	}
+
+	/**
+	 * Tiles are spread over several chunks (the default chunk size is 1 GiB,
+	 * this uses chunks of 3 tiles, with a partial last chunk).
+	 */
+	@Test
+	public void testChunks()
+	{
+		final HostTileCache cache = new HostTileCache( SPEC, 1, 3 * TILE_SIZE_IN_BYTES + 100 );
+		final int n = cache.getMaxNumTiles();
+		assertEquals( 16, n );
+		assertEquals( 6, cache.getNumChunks() );
+
+		for ( int i = 0; i < n; ++i )
+			assertTrue( cache.put( key( i ), tile( 10 * i ) ) );
+		for ( int i = 0; i < n; ++i )
+		{
+			final UploadBuffer buffer = buffer();
+			assertTrue( cache.fill( key( i ), buffer ) );
+			assertTile( 10 * i, buffer );
+		}
+
+		// tiles that are larger than the chunk size get a chunk each
+		assertEquals( 16, new HostTileCache( SPEC, 1, TILE_SIZE_IN_BYTES / 2 ).getNumChunks() );
+	}
+}
@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ImageIdRegistryTest
+{
+	@Test
+	public void testPack()
+	{
+		final int max = ImageIdRegistry.MAX_GRID_POS;
+		final int[][] cases = {
+				{ 0, 0, 0, 0 },
+				{ 1, 2, 3, 4 },
+				{ ImageIdRegistry.MAX_IDS - 1, max, max, max },
+				{ 12345, max, 0, 1 } };
+		for ( final int[] c : cases )
+		{
+			final long key = ImageIdRegistry.pack( c[ 0 ], c[ 1 ], c[ 2 ], c[ 3 ] );
+			assertEquals( c[ 0 ], ImageIdRegistry.unpackId( key ) );
+			for ( final int[] d : cases )
+				if ( d != c )
+					assertNotEquals( key, ImageIdRegistry.pack( d[ 0 ], d[ 1 ], d[ 2 ], d[ 3 ] ) );
+		}
+
+		assertTrue( ImageIdRegistry.isPackable( 0, max, 17 ) );
+		assertFalse( ImageIdRegistry.isPackable( max + 1, 0, 0 ) );
+		assertFalse( ImageIdRegistry.isPackable( 0, -1, 0 ) );
+	}
+
+	@Test
+	public void testRefCount()
+	{
+		final ImageIdRegistry registry = new ImageIdRegistry();
+		final Object a = "a";
+		final Object b = "b";
+		assertEquals( -1, registry.idOf( a ) );
+
+		final int ida = registry.acquire( a );
+		assertEquals( ida, registry.acquire( new String( "a" ) ) ); // compared by equals()
+		final int idb = registry.acquire( b );
+		assertNotEquals( ida, idb );
+		assertEquals( ida, registry.idOf( a ) );
+
+		assertEquals( a, registry.imageOf( ida ) );
+		assertEquals( b, registry.imageOf( idb ) );
+
+		registry.release( ida );
+		assertEquals( ida, registry.idOf( a ) ); // still referenced once
+		registry.release( ida );
+		assertEquals( -1, registry.idOf( a ) );
+		assertNull( registry.imageOf( ida ) );
+		assertEquals( idb, registry.idOf( b ) );
+		assertNull( registry.imageOf( -1 ) );
+		assertNull( registry.imageOf( 1000 ) );
+	}
+
+	@Test
+	public void testRecycle()
+	{
+		final ImageIdRegistry registry = new ImageIdRegistry();
+		final int n = 10;
+		final int[] ids = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			ids[ i ] = registry.acquire( i );
+		for ( int i = 0; i < n; ++i )
+			assertEquals( i, ids[ i ] );
+
+		registry.release( ids[ 3 ] );
+		registry.release( ids[ 7 ] );
+
+		// released ids are reused, no new ids are assigned
+		final int idx = registry.acquire( "x" );
+		final int idy = registry.acquire( "y" );
+		assertTrue( ( idx == 3 && idy == 7 ) || ( idx == 7 && idy == 3 ) );
+		assertEquals( n, registry.acquire( "z" ) );
+		assertEquals( -1, registry.idOf( 3 ) );
+	}
+}
@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+public class PboChainStressTest
+{
+	private static final int NUM_BATCHES = 3;
+
+	private static final int TASKS_PER_BATCH = 400;
+
+	/**
+	 * Fill batches of tasks with 1 to 32 fill threads into a lock-free
+	 * {@link PboChain} with small PBOs (so that PBOs rotate often). Every task
+	 * must be filled exactly once, and uploaded exactly once to its own tile.
+	 */
+	@Test
+	public void testLockFree() throws InterruptedException
+	{
+		for ( int numThreads = 1; numThreads <= 32; ++numThreads )
+			fillAndCheck( numThreads, true );
+	}
+
+	@Test
+	public void testLocking() throws InterruptedException
+	{
+		for ( int numThreads = 1; numThreads <= 32; numThreads *= 2 )
+			fillAndCheck( numThreads, false );
+	}
+
+	private static void fillAndCheck( final int numThreads, final boolean lockFree ) throws InterruptedException
+	{
+		final TextureCache cache = new TextureCache( new int[] { 12, 12, 12 }, new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } ) );
+		final int[] pbs = cache.spec().paddedBlockSize();
+		final int elementsPerTile = ( int ) Intervals.numElements( pbs );
+		final PboChain chain = new PboChain( 3, 7, cache, lockFree );
+		final MockGpuContext context = new MockGpuContext();
+		final ForkJoinPool pool = new ForkJoinPool( numThreads );
+		try
+		{
+			// the first batch also initializes the blocked tile
+			ProcessFillTasks.sequential( cache, chain, context, Collections.emptyList() );
+			final long initialTexels = context.getNumUploadedTexels( cache );
+
+			final Object image = new Object();
+			final int numTasks = NUM_BATCHES * TASKS_PER_BATCH;
+			final AtomicIntegerArray numFills = new AtomicIntegerArray( numTasks );
+			final List< ImageBlockKey< ? > > keys = new ArrayList<>();
+			for ( int b = 0; b < NUM_BATCHES; ++b )
+			{
+				final List< FillTask > tasks = new ArrayList<>();
+				for ( int t = 0; t < TASKS_PER_BATCH; ++t )
+				{
+					final int i = keys.size();
+					final ImageBlockKey< Object > key = new ImageBlockKey<>( image, i % 10, ( i / 10 ) % 10, i / 100 );
+					keys.add( key );
+					tasks.add( new DefaultFillTask( key, buf -> {
+						numFills.incrementAndGet( i );
+						ByteUtils.setShorts( ( short ) ( i + 1 ), buf.getBuffer(), buf.getOffset(), elementsPerTile );
+						return true;
+					}, () -> true ) );
+				}
+				ProcessFillTasks.parallel( cache, chain, context, pool, tasks );
+				cache.nextTimestamp();
+			}
+
+			final String mode = ( lockFree ? "lock-free" : "locking" ) + ", " + numThreads + " threads";
+			for ( int i = 0; i < numTasks; ++i )
+			{
+				assertEquals( mode, 1, numFills.get( i ) );
+				final TextureCache.Tile tile = cache.get( keys.get( i ) );
+				assertNotNull( mode, tile );
+				final int x = tile.x() * pbs[ 0 ];
+				final int y = tile.y() * pbs[ 1 ];
+				final int z = tile.z() * pbs[ 2 ];
+				assertEquals( mode, i + 1, context.getTexel( cache, x, y, z ) );
+				assertEquals( mode, i + 1, context.getTexel( cache, x + pbs[ 0 ] - 1, y + pbs[ 1 ] - 1, z + pbs[ 2 ] - 1 ) );
+			}
+			assertEquals( mode, ( long ) numTasks * elementsPerTile, context.getNumUploadedTexels( cache ) - initialTexels );
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+}
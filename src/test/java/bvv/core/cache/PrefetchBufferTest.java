@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+public class PrefetchBufferTest
+{
+	/**
+	 * 64 KiB tiles, 16 per MB
+	 */
+	private static final CacheSpec SPEC = new CacheSpec( Texture.InternalFormat.R16, new int[] { 32, 32, 32 }, new int[] { 32, 32, 32 }, new int[] { 0, 0, 0 } );
+
+	private static final int ELEMENTS_PER_TILE = ( int ) Intervals.numElements( SPEC.paddedBlockSize() );
+
+	private static ImageBlockKey< String > key( final int i )
+	{
+		return new ImageBlockKey<>( "image", i, 0, 0 );
+	}
+
+	private static boolean fill( final UploadBuffer buffer, final int value )
+	{
+		ByteUtils.setShorts( ( short ) value, buffer.getBuffer(), buffer.getOffset(), ELEMENTS_PER_TILE );
+		return true;
+	}
+
+	private static UploadBuffer buffer()
+	{
+		return new UploadBuffer( ByteBuffer.allocateDirect( 2 * ELEMENTS_PER_TILE ).order( ByteOrder.nativeOrder() ), 0 );
+	}
+
+	private static void assertTile( final int value, final UploadBuffer buffer )
+	{
+		final ByteBuffer bytes = ( ByteBuffer ) buffer.getBuffer();
+		assertEquals( value, bytes.getShort( 0 ) );
+		assertEquals( value, bytes.getShort( 2 * ELEMENTS_PER_TILE - 2 ) );
+	}
+
+	@Test
+	public void testPrefetchAndFill()
+	{
+		final PrefetchBuffer prefetchBuffer = new PrefetchBuffer( SPEC, 1 );
+		assertEquals( 16, prefetchBuffer.getMaxNumTiles() );
+
+		for ( int i = 0; i < 5; ++i )
+		{
+			final int value = 10 * i;
+			assertTrue( prefetchBuffer.prefetch( key( i ), buf -> fill( buf, value ) ) );
+		}
+		assertFalse( prefetchBuffer.prefetch( key( 2 ), buf -> fill( buf, 1000 ) ) );
+		assertEquals( 5, prefetchBuffer.getNumTiles() );
+		assertEquals( 5, prefetchBuffer.getNumPrefetched() );
+
+		final UploadBuffer buffer = buffer();
+		assertTrue( prefetchBuffer.fill( key( 3 ), buffer ) );
+		assertTile( 30, buffer );
+		assertTrue( prefetchBuffer.fill( key( 2 ), buffer ) );
+		assertTile( 20, buffer );
+
+		// tiles are removed when used
+		assertFalse( prefetchBuffer.contains( key( 3 ) ) );
+		assertFalse( prefetchBuffer.fill( key( 3 ), buffer() ) );
+		assertEquals( 3, prefetchBuffer.getNumTiles() );
+		assertEquals( 2, prefetchBuffer.getNumUsed() );
+	}
+
+	@Test
+	public void testIncomplete()
+	{
+		final PrefetchBuffer prefetchBuffer = new PrefetchBuffer( SPEC, 1 );
+		assertFalse( prefetchBuffer.prefetch( key( 0 ), buf -> false ) );
+		assertFalse( prefetchBuffer.contains( key( 0 ) ) );
+		assertEquals( 0, prefetchBuffer.getNumPrefetched() );
+
+		// a failing fill releases the slot
+		try
+		{
+			prefetchBuffer.prefetch( key( 1 ), buf -> {
+				throw new IllegalStateException();
+			} );
+			fail();
+		}
+		catch ( final IllegalStateException expected )
+		{
+		}
+		assertFalse( prefetchBuffer.contains( key( 1 ) ) );
+		for ( int i = 0; i < prefetchBuffer.getMaxNumTiles(); ++i )
+			assertTrue( prefetchBuffer.prefetch( key( i ), buf -> true ) );
+	}
+
+	@Test
+	public void testFull()
+	{
+		final PrefetchBuffer prefetchBuffer = new PrefetchBuffer( SPEC, 1 );
+		final int n = prefetchBuffer.getMaxNumTiles();
+		for ( int i = 0; i < n; ++i )
+		{
+			final int value = i;
+			assertTrue( prefetchBuffer.prefetch( key( i ), buf -> fill( buf, value ) ) );
+		}
+		assertFalse( prefetchBuffer.prefetch( key( n ), buf -> true ) );
+
+		// a used tile frees its slot, without overwriting other tiles
+		assertTrue( prefetchBuffer.fill( key( 0 ), buffer() ) );
+		assertTrue( prefetchBuffer.prefetch( key( n ), buf -> fill( buf, 1000 ) ) );
+		for ( int i = 1; i <= n; ++i )
+		{
+			final UploadBuffer buffer = buffer();
+			assertTrue( prefetchBuffer.fill( key( i ), buffer ) );
+			assertTile( i == n ? 1000 : i, buffer );
+		}
+	}
+
+	/**
+	 * A tile that is being copied in counts as present.
+	 */
+	@Test
+	public void testPending()
+	{
+		final PrefetchBuffer prefetchBuffer = new PrefetchBuffer( SPEC, 1 );
+		assertTrue( prefetchBuffer.prefetch( key( 0 ), buf -> {
+			assertTrue( prefetchBuffer.contains( key( 0 ) ) );
+			assertFalse( prefetchBuffer.prefetch( key( 0 ), b -> true ) );
+			// not usable yet
+			assertFalse( prefetchBuffer.fill( key( 0 ), buffer() ) );
+			return true;
+		} ) );
+		assertEquals( 1, prefetchBuffer.getNumTiles() );
+	}
+
+	@Test
+	public void testRetainAll()
+	{
+		final PrefetchBuffer prefetchBuffer = new PrefetchBuffer( SPEC, 1 );
+		final int n = prefetchBuffer.getMaxNumTiles();
+		for ( int i = 0; i < n; ++i )
+			prefetchBuffer.prefetch( key( i ), buf -> true );
+
+		prefetchBuffer.retainAll( Arrays.asList( key( 1 ), key( 5 ), key( 100 ) ) );
+		assertEquals( 2, prefetchBuffer.getNumTiles() );
+		assertTrue( prefetchBuffer.contains( key( 1 ) ) );
+		assertTrue( prefetchBuffer.contains( key( 5 ) ) );
+		assertFalse( prefetchBuffer.contains( key( 0 ) ) );
+
+		// freed slots are reused
+		for ( int i = n; i < 2 * n - 2; ++i )
+			assertTrue( prefetchBuffer.prefetch( key( i ), buf -> true ) );
+		assertFalse( prefetchBuffer.prefetch( key( 2 * n ), buf -> true ) );
+
+		prefetchBuffer.retainAll( Collections.emptyList() );
+		assertEquals( 0, prefetchBuffer.getNumTiles() );
+	}
+}
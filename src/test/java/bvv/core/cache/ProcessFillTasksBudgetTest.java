@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+/**
+ * {@link ProcessFillTasks} with a finite time budget: tasks that are not
+ * processed in time are skipped and filled by a later batch, tasks that
+ * initialize blocked tiles are never skipped.
+ */
+public class ProcessFillTasksBudgetTest
+{
+	private static final CacheSpec SPEC = new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } );
+
+	private static final int ELEMENTS_PER_TILE = ( int ) Intervals.numElements( SPEC.paddedBlockSize() );
+
+	private static final int NUM_BLOCKS = 40;
+
+	/** time each fill takes */
+	private static final long FILL_MILLIS = 2;
+
+	private final TextureCache cache = new TextureCache( new int[] { 4, 4, 4 }, SPEC );
+
+	private final PboChain chain = new PboChain( 3, 4, cache );
+
+	private final MockGpuContext context = new MockGpuContext();
+
+	private final ForkJoinPool forkJoinPool = new ForkJoinPool( 3 );
+
+	/** blocks whose fill task ran */
+	private final Set< Integer > filled = ConcurrentHashMap.newKeySet();
+
+	@After
+	public void shutdown()
+	{
+		forkJoinPool.shutdown();
+	}
+
+	private static ImageBlockKey< String > key( final int i )
+	{
+		return new ImageBlockKey<>( "image", i % 10, i / 10, 0 );
+	}
+
+	private List< FillTask > tasks()
+	{
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = 0; i < NUM_BLOCKS; ++i )
+		{
+			final int block = i;
+			tasks.add( new DefaultFillTask( key( i ), buf -> {
+				try
+				{
+					Thread.sleep( FILL_MILLIS );
+				}
+				catch ( final InterruptedException e )
+				{
+					throw new RuntimeException( e );
+				}
+				ByteUtils.setShorts( ( short ) ( block + 1 ), buf.getBuffer(), buf.getOffset(), ELEMENTS_PER_TILE );
+				filled.add( block );
+				return true;
+			}, () -> true ) );
+		}
+		return tasks;
+	}
+
+	private boolean process( final boolean parallel, final Collection< ? extends FillTask > tasks, final long maxFillNanos ) throws InterruptedException
+	{
+		final boolean complete = parallel
+				? ProcessFillTasks.parallel( cache, chain, context, forkJoinPool, tasks, maxFillNanos )
+				: ProcessFillTasks.sequential( cache, chain, context, tasks, maxFillNanos );
+		cache.nextTimestamp();
+		return complete;
+	}
+
+	private boolean isFilled( final int block )
+	{
+		final TextureCache.Tile tile = cache.get( key( block ) );
+		if ( tile == null || tile.state != TextureCache.ContentState.COMPLETE )
+			return false;
+		final int[] pbs = SPEC.paddedBlockSize();
+		assertEquals( block + 1, context.getTexel( cache, tile.x() * pbs[ 0 ], tile.y() * pbs[ 1 ], tile.z() * pbs[ 2 ] ) );
+		return true;
+	}
+
+	/**
+	 * Tasks that are skipped because the budget ran out are processed by the
+	 * next batch. Tasks that were processed are not repeated.
+	 */
+	private void testSkipAndResume( final boolean parallel ) throws InterruptedException
+	{
+		// (initializes blocked tiles)
+		process( parallel, new ArrayList<>(), Long.MAX_VALUE );
+
+		assertFalse( process( parallel, tasks(), 10 * FILL_MILLIS * 1_000_000 ) );
+		final int numFilled = filled.size();
+		assertTrue( numFilled > 0 );
+		assertTrue( numFilled < NUM_BLOCKS );
+		for ( int i = 0; i < NUM_BLOCKS; ++i )
+			assertEquals( filled.contains( i ), isFilled( i ) );
+
+		filled.clear();
+		assertTrue( process( parallel, tasks(), Long.MAX_VALUE ) );
+		assertEquals( NUM_BLOCKS - numFilled, filled.size() );
+		for ( int i = 0; i < NUM_BLOCKS; ++i )
+			assertTrue( isFilled( i ) );
+	}
+
+	@Test
+	public void testSkipAndResumeSequential() throws InterruptedException
+	{
+		testSkipAndResume( false );
+	}
+
+	@Test
+	public void testSkipAndResumeParallel() throws InterruptedException
+	{
+		testSkipAndResume( true );
+	}
+
+	/**
+	 * With no time budget at all, all block tasks are skipped, but the tasks
+	 * that initialize the blocked tiles (the zero tile) are not.
+	 */
+	private void testBlockedTasksAreNotSkipped( final boolean parallel ) throws InterruptedException
+	{
+		assertFalse( process( parallel, tasks(), 0 ) );
+		assertTrue( filled.isEmpty() );
+		for ( int i = 0; i < NUM_BLOCKS; ++i )
+			assertNull( cache.get( key( i ) ) );
+
+		// the zero tile (tile 0) was uploaded, and nothing else
+		assertEquals( ELEMENTS_PER_TILE, context.getNumUploadedTexels( cache ) );
+
+		// the skipped tasks are processed by the next batch
+		assertTrue( process( parallel, tasks(), Long.MAX_VALUE ) );
+		assertEquals( NUM_BLOCKS, filled.size() );
+	}
+
+	@Test
+	public void testBlockedTasksAreNotSkippedSequential() throws InterruptedException
+	{
+		testBlockedTasksAreNotSkipped( false );
+	}
+
+	@Test
+	public void testBlockedTasksAreNotSkippedParallel() throws InterruptedException
+	{
+		testBlockedTasksAreNotSkipped( true );
+	}
+}
@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+/**
+ * Blocks with grid coordinates that can't be {@link ImageIdRegistry#pack
+ * packed} are indexed by their {@code ImageBlockKey}, and don't alias blocks
+ * with the same coordinates modulo {@code 2^16}.
+ */
+public class TextureCacheLargeGridTest
+{
+	private static final CacheSpec SPEC = new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } );
+
+	private static final int ELEMENTS_PER_TILE = ( int ) Intervals.numElements( SPEC.paddedBlockSize() );
+
+	private static final int LARGE = ImageIdRegistry.MAX_GRID_POS + 1 + 5;
+
+	private final TextureCache cache = new TextureCache( new int[] { 4, 4, 4 }, SPEC );
+
+	private final PboChain chain = new PboChain( 3, 4, cache );
+
+	private final MockGpuContext context = new MockGpuContext();
+
+	/**
+	 * Keys that have the same coordinates modulo {@code 2^16}.
+	 */
+	private static final List< ImageBlockKey< String > > KEYS = new ArrayList<>();
+	static
+	{
+		KEYS.add( new ImageBlockKey<>( "image", 5, 1, 2 ) );
+		KEYS.add( new ImageBlockKey<>( "image", LARGE, 1, 2 ) );
+		KEYS.add( new ImageBlockKey<>( "image", 5, LARGE - 5 + 1, 2 ) );
+		KEYS.add( new ImageBlockKey<>( "image", 5, 1, LARGE - 5 + 2 ) );
+		KEYS.add( new ImageBlockKey<>( "image", Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE ) );
+		KEYS.add( new ImageBlockKey<>( "other", LARGE, 1, 2 ) );
+	}
+
+	private static FillTask task( final ImageBlockKey< ? > key, final int value )
+	{
+		return new DefaultFillTask( key, buf -> {
+			ByteUtils.setShorts( ( short ) value, buf.getBuffer(), buf.getOffset(), ELEMENTS_PER_TILE );
+			return true;
+		}, () -> true );
+	}
+
+	private void process( final List< FillTask > tasks ) throws InterruptedException
+	{
+		ProcessFillTasks.sequential( cache, chain, context, tasks );
+		cache.nextTimestamp();
+	}
+
+	private long value( final TextureCache.Tile tile )
+	{
+		final int[] pbs = SPEC.paddedBlockSize();
+		return context.getTexel( cache, tile.x() * pbs[ 0 ] + 1, tile.y() * pbs[ 1 ] + 1, tile.z() * pbs[ 2 ] + 1 );
+	}
+
+	@Test
+	public void testDistinctTiles() throws InterruptedException
+	{
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = 0; i < KEYS.size(); ++i )
+			tasks.add( task( KEYS.get( i ), 100 + i ) );
+		process( tasks );
+
+		final List< TextureCache.Tile > tiles = new ArrayList<>();
+		for ( int i = 0; i < KEYS.size(); ++i )
+		{
+			final ImageBlockKey< String > key = KEYS.get( i );
+			final TextureCache.Tile tile = cache.get( key );
+			assertNotNull( tile );
+			assertEquals( key, tile.content() );
+			assertEquals( TextureCache.ContentState.COMPLETE, tile.state() );
+			assertEquals( 100 + i, value( tile ) );
+
+			final int imageId = cache.imageId( key.image() );
+			assertSame( tile, cache.get( imageId, key.x(), key.y(), key.z() ) );
+			assertTrue( tile.contains( imageId, key.x(), key.y(), key.z() ) );
+			for ( final TextureCache.Tile other : tiles )
+				assertNotSame( other, tile );
+			tiles.add( tile );
+		}
+
+		// aliases modulo 2^16 are not present
+		final int imageId = cache.imageId( "image" );
+		assertNull( cache.get( imageId, LARGE + 0x10000, 1, 2 ) );
+		assertNull( cache.get( imageId, LARGE, 1 + 0x10000, 2 ) );
+		assertFalse( tiles.get( 0 ).contains( imageId, LARGE, 1, 2 ) );
+		assertFalse( tiles.get( 1 ).contains( imageId, 5, 1, 2 ) );
+
+		// filling again finds the present tiles, nothing is uploaded
+		final long uploaded = context.getNumUploadedTexels( cache );
+		process( tasks );
+		assertEquals( uploaded, context.getNumUploadedTexels( cache ) );
+		for ( int i = 0; i < KEYS.size(); ++i )
+			assertSame( tiles.get( i ), cache.get( KEYS.get( i ) ) );
+	}
+
+	/**
+	 * When tiles are evicted, their blocks are removed from the index (and
+	 * the image ids are released).
+	 */
+	@Test
+	public void testEviction() throws InterruptedException
+	{
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = 0; i < KEYS.size(); ++i )
+			tasks.add( task( KEYS.get( i ), 100 + i ) );
+		process( tasks );
+
+		// fill all tiles with other blocks
+		final List< FillTask > others = new ArrayList<>();
+		for ( int i = 0; i < cache.getMaxNumTiles(); ++i )
+			others.add( task( new ImageBlockKey<>( "filler", i, 0, 0 ), 1 + i ) );
+		process( others );
+
+		for ( final ImageBlockKey< String > key : KEYS )
+			assertNull( cache.get( key ) );
+		assertEquals( -1, cache.imageId( "image" ) );
+		assertEquals( -1, cache.imageId( "other" ) );
+	}
+
+	/**
+	 * Constant blocks with large coordinates share constant tiles.
+	 */
+	@Test
+	public void testConstantBlocks() throws InterruptedException
+	{
+		final int constant = 1234;
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( final ImageBlockKey< String > key : KEYS )
+			tasks.add( new DefaultFillTask( key, buf -> {
+				ByteUtils.setShorts( ( short ) constant, buf.getBuffer(), buf.getOffset(), ELEMENTS_PER_TILE );
+				return true;
+			}, () -> true, () -> constant, 0, 0 ) );
+
+		// the constant tile is set up in the batch after the value is encountered
+		for ( int i = 0; i < 3; ++i )
+			process( tasks );
+
+		assertEquals( KEYS.size(), cache.getNumConstantBlocks() );
+		final TextureCache.Tile constantTile = cache.get( KEYS.get( 0 ) );
+		assertTrue( constantTile.isConstant() );
+		assertEquals( constant, value( constantTile ) );
+		for ( final ImageBlockKey< String > key : KEYS )
+		{
+			assertSame( constantTile, cache.get( key ) );
+			assertSame( constantTile, cache.get( cache.imageId( key.image() ), key.x(), key.y(), key.z() ) );
+		}
+		assertNull( cache.get( cache.imageId( "image" ), LARGE + 0x10000, 1, 2 ) );
+	}
+}
@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+/**
+ * Looking up the tiles of all blocks of a {@code 16^3} grid, the way
+ * {@code VolumeBlocks.makeLut} does, with 3000 of the 4096 blocks present:
+ * {@link TextureCache#get(int, int, int, int)} with packed keys versus a
+ * {@code ConcurrentHashMap<ImageBlockKey, Tile>} with a new key per block (as
+ * {@code TextureCache} did before).
+ * <p>
+ * Run with {@code -prof gc} to compare the allocation rates.
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class TextureCacheLookupBenchmark
+{
+	private static final CacheSpec SPEC = new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } );
+
+	private static final int GRID_SIZE = 16;
+
+	private static final int NUM_PRESENT = 3000;
+
+	private static final Object IMAGE = "image";
+
+	private TextureCache cache;
+
+	private Map< ImageBlockKey< ? >, TextureCache.Tile > map;
+
+	@Setup
+	public void setup() throws InterruptedException
+	{
+		cache = new TextureCache( new int[] { 16, 16, 16 }, SPEC );
+		final PboChain chain = new PboChain( 3, 256, cache );
+		final int elementsPerTile = ( int ) Intervals.numElements( SPEC.paddedBlockSize() );
+		final List< ImageBlockKey< ? > > keys = new ArrayList<>();
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = 0; i < NUM_PRESENT; ++i )
+		{
+			final ImageBlockKey< ? > key = new ImageBlockKey<>( IMAGE, i % GRID_SIZE, ( i / GRID_SIZE ) % GRID_SIZE, i / ( GRID_SIZE * GRID_SIZE ) );
+			keys.add( key );
+			tasks.add( new DefaultFillTask( key, buf -> {
+				ByteUtils.setShorts( ( short ) 1, buf.getBuffer(), buf.getOffset(), elementsPerTile );
+				return true;
+			}, () -> true ) );
+		}
+		ProcessFillTasks.sequential( cache, chain, new MockGpuContext(), tasks );
+		cache.nextTimestamp();
+
+		map = new ConcurrentHashMap<>();
+		for ( final ImageBlockKey< ? > key : keys )
+			map.put( key, cache.get( key ) );
+	}
+
+	@Benchmark
+	public int packed()
+	{
+		int n = 0;
+		final int imageId = cache.imageId( IMAGE );
+		for ( int z = 0; z < GRID_SIZE; ++z )
+			for ( int y = 0; y < GRID_SIZE; ++y )
+				for ( int x = 0; x < GRID_SIZE; ++x )
+					if ( cache.get( imageId, x, y, z ) != null )
+						++n;
+		return n;
+	}
+
+	@Benchmark
+	public int imageBlockKey()
+	{
+		int n = 0;
+		for ( int z = 0; z < GRID_SIZE; ++z )
+			for ( int y = 0; y < GRID_SIZE; ++y )
+				for ( int x = 0; x < GRID_SIZE; ++x )
+					if ( map.get( new ImageBlockKey<>( IMAGE, x, y, z ) ) != null )
+						++n;
+		return n;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( TextureCacheLookupBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
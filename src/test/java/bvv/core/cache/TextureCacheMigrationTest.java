@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.MockGpuContext.TextureCopy;
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+public class TextureCacheMigrationTest
+{
+	private static final CacheSpec SPEC = new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } );
+
+	private static final int ELEMENTS_PER_TILE = ( int ) Intervals.numElements( SPEC.paddedBlockSize() );
+
+	private final MockGpuContext context = new MockGpuContext();
+
+	private static ImageBlockKey< String > key( final int i )
+	{
+		return new ImageBlockKey<>( "image", i % 10, i / 10, 0 );
+	}
+
+	/**
+	 * Fill blocks {@code from} to {@code to} (exclusive) into {@code cache} in
+	 * one batch. Block {@code i} has value {@code i + 1}.
+	 */
+	private void load( final TextureCache cache, final int from, final int to ) throws InterruptedException
+	{
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = from; i < to; ++i )
+		{
+			final short value = ( short ) ( i + 1 );
+			tasks.add( new DefaultFillTask( key( i ), buf -> {
+				ByteUtils.setShorts( value, buf.getBuffer(), buf.getOffset(), ELEMENTS_PER_TILE );
+				return true;
+			}, () -> true ) );
+		}
+		ProcessFillTasks.sequential( cache, new PboChain( 2, 16, cache ), context, tasks );
+		cache.nextTimestamp();
+	}
+
+	private long value( final TextureCache cache, final TextureCache.Tile tile )
+	{
+		final int[] pbs = SPEC.paddedBlockSize();
+		return context.getTexel( cache.getShard( tile.shard ), tile.x() * pbs[ 0 ], tile.y() * pbs[ 1 ], tile.z() * pbs[ 2 ] );
+	}
+
+	/**
+	 * Pinned blocks are migrated first, then the most recently used. Blocks
+	 * that the target already contains are skipped. Migration stops when the
+	 * target is full.
+	 */
+	@Test
+	public void testMigrationOrder() throws InterruptedException
+	{
+		// 30 blocks in 3 batches, block 5 (of the oldest batch) is pinned
+		final TextureCache source = new TextureCache( new int[] { 4, 4, 2 }, SPEC );
+		load( source, 0, 10 );
+		load( source, 10, 20 );
+		load( source, 20, 30 );
+		final int newest = source.get( key( 20 ) ).lastUsed();
+		final TextureCache.Tile pinned = source.get( key( 5 ) );
+		source.pin( pinned, source.nextTimestamp() );
+
+		// 7 tiles, one already contains block 25
+		final TextureCache target = new TextureCache( new int[] { 2, 2, 2 }, SPEC );
+		assertEquals( 7, target.getMaxNumTiles() );
+		load( target, 25, 26 );
+
+		final TextureCacheMigration migration = new TextureCacheMigration( source, target );
+		assertTrue( migration.migrate( context, Long.MAX_VALUE ) );
+		assertTrue( migration.isDone() );
+		assertEquals( 6, migration.getNumMigratedTiles() );
+
+		final List< TextureCopy > copies = context.getTextureCopies();
+		assertEquals( 6, copies.size() );
+		final int[] pbs = SPEC.paddedBlockSize();
+		final Set< TextureCache.Tile > dstTiles = new HashSet<>();
+		for ( int c = 0; c < copies.size(); ++c )
+		{
+			final TextureCopy copy = copies.get( c );
+			assertSame( source, copy.src );
+			assertSame( target, copy.dst );
+			assertEquals( pbs[ 0 ], copy.width );
+			assertEquals( pbs[ 1 ], copy.height );
+			assertEquals( pbs[ 2 ], copy.depth );
+
+			final TextureCache.Tile src = tileAt( source, copy.srcX / pbs[ 0 ], copy.srcY / pbs[ 1 ], copy.srcZ / pbs[ 2 ] );
+			final TextureCache.Tile dst = tileAt( target, copy.dstX / pbs[ 0 ], copy.dstY / pbs[ 1 ], copy.dstZ / pbs[ 2 ] );
+			assertSame( src.content, dst.content );
+			assertTrue( dstTiles.add( dst ) );
+			if ( c == 0 )
+				assertSame( pinned, src );
+			else
+			{
+				assertEquals( newest, src.lastUsed() );
+				assertFalse( src.content.equals( key( 25 ) ) );
+			}
+
+			// the texture data was copied
+			assertEquals( value( source, src ), value( target, dst ) );
+		}
+
+		// block 25 was not copied, and is still in the target
+		assertEquals( 26, value( target, target.get( key( 25 ) ) ) );
+		assertEquals( 7, target.residentTiles().size() );
+	}
+
+	/**
+	 * Migrated blocks take over the LRU order of the source: they are older
+	 * than blocks filled into the target in the meantime, and the least
+	 * recently used migrated blocks are evicted first.
+	 */
+	@Test
+	public void testSuccessorChain() throws InterruptedException
+	{
+		final TextureCache source = new TextureCache( new int[] { 4, 4, 2 }, SPEC );
+		for ( int i = 0; i < 6; ++i )
+			load( source, i, i + 1 );
+
+		// 7 tiles, one already contains block 10
+		final TextureCache target = new TextureCache( new int[] { 2, 2, 2 }, SPEC );
+		load( target, 10, 11 );
+
+		final TextureCacheMigration migration = new TextureCacheMigration( source, target );
+		assertTrue( migration.migrate( context, Long.MAX_VALUE ) );
+		assertEquals( 6, migration.getNumMigratedTiles() );
+		for ( int i = 0; i < 6; ++i )
+		{
+			final TextureCache.Tile tile = target.get( key( i ) );
+			assertNotNull( tile );
+			assertEquals( source.get( key( i ) ).lastUsed(), tile.lastUsed() );
+		}
+
+		// the oldest migrated blocks are evicted first, block 10 stays
+		load( target, 20, 22 );
+		assertNull( target.get( key( 0 ) ) );
+		assertNull( target.get( key( 1 ) ) );
+		for ( int i = 2; i < 6; ++i )
+			assertNotNull( target.get( key( i ) ) );
+		assertNotNull( target.get( key( 10 ) ) );
+
+		load( target, 22, 26 );
+		for ( int i = 2; i < 6; ++i )
+			assertNull( target.get( key( i ) ) );
+		assertNotNull( target.get( key( 10 ) ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testIncompatibleSpec()
+	{
+		final TextureCache source = new TextureCache( new int[] { 2, 2, 2 }, SPEC );
+		final TextureCache target = new TextureCache( new int[] { 2, 2, 2 }, new CacheSpec( Texture.InternalFormat.R8, new int[] { 4, 4, 4 } ) );
+		new TextureCacheMigration( source, target );
+	}
+
+	private static TextureCache.Tile tileAt( final TextureCache cache, final int x, final int y, final int z )
+	{
+		for ( final TextureCache.Tile tile : cache.residentTiles() )
+			if ( tile.shard == 0 && tile.x() == x && tile.y() == y && tile.z() == z )
+				return tile;
+		throw new AssertionError( "no resident tile at " + x + ", " + y + ", " + z );
+	}
+}
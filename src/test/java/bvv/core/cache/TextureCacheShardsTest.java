@@ -0,0 +1,215 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import bvv.core.backend.GpuContext;
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.backend.Texture3D;
+import bvv.core.multires.SyntheticStack;
+import bvv.core.render.LookupTextureARGB;
+import bvv.core.render.VolumeBlocks;
+
+public class TextureCacheShardsTest
+{
+	/**
+	 * A single-shard cache is the texture of its shard.
+	 */
+	@Test
+	public void testSingleShardIsTexture()
+	{
+		final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { 32, 16, 8 } );
+		final TextureCache cache = new TextureCache( new int[] { 4, 5, 6 }, spec );
+		assertEquals( 1, cache.getNumShards() );
+		assertSame( cache, cache.getShard( 0 ) );
+		assertEquals( 4 * 34, cache.texWidth() );
+		assertEquals( 5 * 18, cache.texHeight() );
+		assertEquals( 6 * 10, cache.texDepth() );
+		assertEquals( Texture.InternalFormat.R16, cache.texInternalFormat() );
+		assertEquals( 4 * 5 * 6 - 1, cache.getMaxNumTiles() );
+
+		final TextureCache sharded = new TextureCache( new int[][] { { 4, 5, 6 }, { 2, 2, 2 } }, spec );
+		assertSame( sharded, sharded.getShard( 0 ) );
+		assertNotSame( sharded, sharded.getShard( 1 ) );
+		assertEquals( 2 * 34, sharded.getShard( 1 ).texWidth() );
+		assertEquals( 4 * 5 * 6 + 8 - 1, sharded.getMaxNumTiles() );
+	}
+
+	@Test
+	public void testFindSuitableShardSizes()
+	{
+		final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { 32, 32, 32 } );
+		final GpuContext context = new MockGpuContext( 2048 );
+
+		// fits into one texture
+		final int[][] one = TextureCache.findSuitableShardSizes( spec, 300, context.getMax3DTextureSize() );
+		assertEquals( 1, one.length );
+
+		// 2048 / 34 = 60 tiles per axis, 60^3 tiles of 34^3 * 2 bytes = 16.2 GB per shard
+		final int[][] small = TextureCache.findSuitableShardSizes( spec, 2000, new MockGpuContext( 512 ).getMax3DTextureSize() );
+		assertTrue( small.length > 1 );
+		for ( int s = 0; s < small.length - 1; ++s )
+			assertArrayEquals( new int[] { 15, 15, 15 }, small[ s ] );
+
+		// at most MAX_SHARDS of maximum size
+		final int[][] capped = TextureCache.findSuitableShardSizes( spec, 100000, new MockGpuContext( 256 ).getMax3DTextureSize() );
+		assertEquals( TextureCache.MAX_SHARDS, capped.length );
+		for ( final int[] size : capped )
+			assertArrayEquals( new int[] { 7, 7, 7 }, size );
+
+		// at least one tile
+		assertArrayEquals( new int[][] { { 1, 1, 1 } }, TextureCache.findSuitableShardSizes( spec, 0, 2048 ) );
+	}
+
+	/**
+	 * For random memory budgets and texture size limits, shards fit into the
+	 * limits and the budget, and use most of the budget.
+	 */
+	@Test
+	public void testRandomShardSizes()
+	{
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < 10000; ++i )
+		{
+			final int[] blockSize = { 8 + random.nextInt( 57 ), 8 + random.nextInt( 57 ), 8 + random.nextInt( 57 ) };
+			final Texture.InternalFormat format = random.nextBoolean() ? Texture.InternalFormat.R8 : Texture.InternalFormat.R16;
+			final CacheSpec spec = new CacheSpec( format, blockSize );
+			final int maxMemoryInMB = 1 + random.nextInt( 8000 );
+			final int maxTextureSize = 128 << random.nextInt( 6 );
+
+			final int[][] sizes = TextureCache.findSuitableShardSizes( spec, maxMemoryInMB, maxTextureSize );
+			assertTrue( sizes.length >= 1 && sizes.length <= TextureCache.MAX_SHARDS );
+
+			final int[] pbs = spec.paddedBlockSize();
+			final long bytesPerTile = ( long ) format.getBytesPerElement() * pbs[ 0 ] * pbs[ 1 ] * pbs[ 2 ];
+			final long budget = ( long ) maxMemoryInMB * 1024 * 1024 / bytesPerTile;
+			final int[] max = new int[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				max[ d ] = Math.min( TextureCache.MAX_SHARD_TILES_PER_AXIS, maxTextureSize / pbs[ d ] );
+			final long maxTilesPerShard = ( long ) max[ 0 ] * max[ 1 ] * max[ 2 ];
+
+			long numTiles = 0;
+			for ( final int[] size : sizes )
+			{
+				for ( int d = 0; d < 3; ++d )
+				{
+					assertTrue( size[ d ] >= 1 );
+					assertTrue( size[ d ] * pbs[ d ] <= maxTextureSize );
+				}
+				numTiles += ( long ) size[ 0 ] * size[ 1 ] * size[ 2 ];
+			}
+			if ( budget > 0 )
+			{
+				assertTrue( numTiles <= budget );
+				final long possible = Math.min( budget, TextureCache.MAX_SHARDS * maxTilesPerShard );
+				assertTrue( numTiles >= possible - Math.max( maxTilesPerShard / 16, 2 * Math.cbrt( possible ) * Math.cbrt( possible ) ) );
+			}
+		}
+	}
+
+	/**
+	 * Blocks are filled into tiles of several shards. Every LUT entry
+	 * addresses a tile (by shard and tile coordinates) that contains the
+	 * block's data.
+	 */
+	@Test
+	public void testShardAndLutAddressing() throws InterruptedException
+	{
+		final int blockSize = 8;
+		final SyntheticStack.Values values = ( l, x, y, z ) -> ( int ) ( 1 + l * 10000 + ( x + 17 * y + 31 * z ) % 9000 );
+		final SyntheticStack stack = new SyntheticStack( 64, 16, 3, values );
+		final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { blockSize, blockSize, blockSize } );
+		final TextureCache cache = new TextureCache( new int[][] { { 4, 4, 4 }, { 8, 4, 4 }, { 8, 8, 8 } }, spec );
+		final MockGpuContext context = new MockGpuContext();
+		final PboChain chain = new PboChain( 5, 100, cache, false );
+		final VolumeBlocks blocks = new VolumeBlocks();
+		blocks.init( stack, cache, 1000, new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 60 ), 1, 1, 1000 )
+				.lookAt( 20, 40, -50, 32, 32, 32, 0, 1, 0 ) );
+		ProcessFillTasks.sequential( cache, chain, context, blocks.getFillTasks() );
+		final int timestamp = cache.nextTimestamp();
+		assertTrue( blocks.makeLut( timestamp ) );
+
+		final LookupTextureARGB lut = blocks.getLookupTexture();
+		lut.upload( context );
+		final byte[] lutData = context.getTextureData( lut );
+		final Vector3f offset = lut.getOffset3f();
+		final int baseLevel = blocks.getBaseLevel();
+		final int[] pbs = spec.paddedBlockSize();
+
+		final Set< Integer > usedShards = new HashSet<>();
+		int numCells = 0;
+		for ( int z = 1; z < lut.texDepth() - 1; ++z )
+			for ( int y = 1; y < lut.texHeight() - 1; ++y )
+				for ( int x = 1; x < lut.texWidth() - 1; ++x )
+				{
+					final int i = 4 * ( x + lut.texWidth() * ( y + lut.texHeight() * z ) );
+					final int levelAndShard = lutData[ i + 3 ] & 0xff;
+					if ( levelAndShard == 0 )
+						continue;
+					final int level = ( levelAndShard & 0x0f ) - 1 + baseLevel;
+					final int shard = levelAndShard >> 4;
+					final int tx = lutData[ i ] & 0xff;
+					final int ty = lutData[ i + 1 ] & 0xff;
+					final int tz = lutData[ i + 2 ] & 0xff;
+					assertTrue( shard < cache.getNumShards() );
+					final Texture3D texture = cache.getShard( shard );
+					assertTrue( ( tx + 1 ) * pbs[ 0 ] <= texture.texWidth() );
+					assertTrue( ( ty + 1 ) * pbs[ 1 ] <= texture.texHeight() );
+					assertTrue( ( tz + 1 ) * pbs[ 2 ] <= texture.texDepth() );
+					usedShards.add( shard );
+					++numCells;
+
+					final int s = level - baseLevel;
+					final int gx = ( x + ( int ) offset.x ) >> s;
+					final int gy = ( y + ( int ) offset.y ) >> s;
+					final int gz = ( z + ( int ) offset.z ) >> s;
+					for ( final int[] p : new int[][] { { 0, 0, 0 }, { 7, 7, 7 }, { 3, 6, 1 }, { 5, 0, 7 } } )
+						assertEquals(
+								values.get( level, gx * blockSize + p[ 0 ], gy * blockSize + p[ 1 ], gz * blockSize + p[ 2 ] ),
+								context.getTexel( texture, tx * pbs[ 0 ] + 1 + p[ 0 ], ty * pbs[ 1 ] + 1 + p[ 1 ], tz * pbs[ 2 ] + 1 + p[ 2 ] ) );
+				}
+		assertTrue( numCells > 0 );
+		assertEquals( cache.getNumShards(), usedShards.size() );
+	}
+}
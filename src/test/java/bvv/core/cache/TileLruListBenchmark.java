@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bvv.core.cache.TextureCache.Tile;
+
+/**
+ * Cost of selecting the tiles to reuse in one batch of {@code stage()}, with
+ * {@link TileLruList} versus sorting all tiles by {@code (lru, x, y, z)} (as
+ * {@code TextureCache} did before).
+ * <p>
+ * Each batch marks {@link #NUM_USED} random tiles as used at the new
+ * timestamp, selects {@link #NUM_VICTIMS} tiles, and marks those as used.
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class TileLruListBenchmark
+{
+	private static final int NUM_USED = 2000;
+
+	private static final int NUM_VICTIMS = 1000;
+
+	private static final int NUM_BATCHES = 64;
+
+	@Param( { "10000", "100000", "500000" } )
+	public int numTiles;
+
+	private Tile[] tiles;
+
+	private TileLruList lruList;
+
+	private TileEviction eviction;
+
+	private ArrayList< Tile > lruOrdered;
+
+	// ids of the tiles used in each batch
+	private int[][] used;
+
+	private int batch;
+
+	private int timestamp;
+
+	@Setup
+	public void setup()
+	{
+		tiles = new Tile[ numTiles ];
+		lruList = new TileLruList( numTiles );
+		lruOrdered = new ArrayList<>( numTiles );
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			tiles[ i ] = new Tile( i, 0, i & 0xff, ( i >> 8 ) & 0xff, i >> 16, lruList );
+			lruList.addLast( i );
+			lruOrdered.add( tiles[ i ] );
+		}
+		eviction = new TileEviction( tiles, lruList );
+
+		final Random random = new Random( 1 );
+		used = new int[ NUM_BATCHES ][ NUM_USED ];
+		for ( final int[] ids : used )
+			for ( int i = 0; i < NUM_USED; ++i )
+				ids[ i ] = random.nextInt( numTiles );
+	}
+
+	@Benchmark
+	public List< Tile > lruList()
+	{
+		final int t = ++timestamp;
+		for ( final int id : used[ batch++ % NUM_BATCHES ] )
+			tiles[ id ].useAtTimestamp( t );
+		final List< Tile > victims = eviction.selectVictims( NUM_VICTIMS, t );
+		for ( final Tile tile : victims )
+			tile.useAtTimestamp( t );
+		return victims;
+	}
+
+	@Benchmark
+	public List< Tile > sort()
+	{
+		final int t = ++timestamp;
+		for ( final int id : used[ batch++ % NUM_BATCHES ] )
+			tiles[ id ].lru = t;
+		lruOrdered.sort( lruComparator );
+		final List< Tile > victims = new ArrayList<>( lruOrdered.subList( 0, NUM_VICTIMS ) );
+		for ( final Tile tile : victims )
+			tile.lru = t;
+		return victims;
+	}
+
+	private static final Comparator< Tile > lruComparator = ( t1, t2 ) -> {
+		final int dlru = t1.lru - t2.lru;
+		if ( dlru != 0 )
+			return dlru;
+		final int dx = t1.x - t2.x;
+		if ( dx != 0 )
+			return dx;
+		final int dy = t1.y - t2.y;
+		if ( dy != 0 )
+			return dy;
+		return t1.z - t2.z;
+	};
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( TileLruListBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
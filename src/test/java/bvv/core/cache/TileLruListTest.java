@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TileLruListTest
+{
+	@Test
+	public void testOrder()
+	{
+		final TileLruList lru = new TileLruList( 5 );
+		lru.addLast( 3 );
+		lru.addLast( 1 );
+		lru.addLast( 4 );
+		lru.addBefore( 0, 1 );
+		lru.addBefore( 2, TileLruList.NONE );
+		assertEquals( list( 3, 0, 1, 4, 2 ), toList( lru ) );
+
+		lru.moveToLast( 2 ); // already last
+		lru.moveToLast( 3 );
+		assertEquals( list( 0, 1, 4, 2, 3 ), toList( lru ) );
+
+		lru.remove( 0 );
+		lru.remove( 3 );
+		lru.remove( 4 );
+		lru.remove( 4 ); // not linked
+		assertEquals( list( 1, 2 ), toList( lru ) );
+		assertFalse( lru.contains( 4 ) );
+		assertTrue( lru.contains( 2 ) );
+
+		lru.moveToLast( 0 ); // not linked: ignored
+		assertEquals( list( 1, 2 ), toList( lru ) );
+
+		lru.remove( 1 );
+		lru.remove( 2 );
+		assertEquals( 0, lru.size() );
+		assertEquals( TileLruList.NONE, lru.first() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testAddLinked()
+	{
+		final TileLruList lru = new TileLruList( 2 );
+		lru.addLast( 1 );
+		lru.addLast( 1 );
+	}
+
+	/**
+	 * Random operations, compared to a {@code LinkedList}.
+	 */
+	@Test
+	public void testRandomOperations()
+	{
+		final int capacity = 64;
+		final TileLruList lru = new TileLruList( capacity );
+		final LinkedList< Integer > expected = new LinkedList<>();
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < 100_000; ++i )
+		{
+			final int id = random.nextInt( capacity );
+			switch ( random.nextInt( 4 ) )
+			{
+			case 0:
+				if ( !expected.contains( id ) )
+				{
+					lru.addLast( id );
+					expected.addLast( id );
+				}
+				break;
+			case 1:
+				if ( !expected.contains( id ) )
+				{
+					final int successor = expected.isEmpty() || random.nextInt( 8 ) == 0
+							? TileLruList.NONE
+							: expected.get( random.nextInt( expected.size() ) );
+					lru.addBefore( id, successor );
+					if ( successor == TileLruList.NONE )
+						expected.addLast( id );
+					else
+						expected.add( expected.indexOf( successor ), id );
+				}
+				break;
+			case 2:
+				lru.remove( id );
+				expected.remove( Integer.valueOf( id ) );
+				break;
+			case 3:
+				lru.moveToLast( id );
+				if ( expected.remove( Integer.valueOf( id ) ) )
+					expected.addLast( id );
+				break;
+			}
+			assertEquals( expected.size(), lru.size() );
+			assertEquals( expected.contains( id ), lru.contains( id ) );
+			if ( i % 100 == 0 )
+				assertEquals( expected, toList( lru ) );
+		}
+		assertEquals( expected, toList( lru ) );
+	}
+
+	private static List< Integer > toList( final TileLruList lru )
+	{
+		final List< Integer > ids = new ArrayList<>();
+		for ( int id = lru.first(); id != TileLruList.NONE; id = lru.next( id ) )
+			ids.add( id );
+		return ids;
+	}
+
+	private static List< Integer > list( final Integer... ids )
+	{
+		final List< Integer > list = new ArrayList<>();
+		for ( final Integer id : ids )
+			list.add( id );
+		return list;
+	}
+}
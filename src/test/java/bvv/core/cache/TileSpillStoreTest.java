@@ -0,0 +1,247 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.blocks.ByteUtils;
+import net.imglib2.util.Intervals;
+
+public class TileSpillStoreTest
+{
+	private static final CacheSpec SPEC = new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } );
+
+	/**
+	 * images are identified by their name, images that are not a
+	 * {@code String} have no persistent id.
+	 */
+	private static final Function< Object, String > IMAGE_IDS = image -> image instanceof String ? ( String ) image : null;
+
+	private static final int NUM_BLOCKS = 200;
+
+	private static final int BATCH_SIZE = 40;
+
+	private static final int ELEMENTS_PER_TILE = ( int ) Intervals.numElements( SPEC.paddedBlockSize() );
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Blocks that are evicted from the (small) texture cache are read back
+	 * from the spill store instead of being filled again.
+	 */
+	@Test
+	public void testEvictAndReload() throws IOException, InterruptedException
+	{
+		final Path directory = folder.getRoot().toPath();
+		try ( TileSpillStore store = new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ) )
+		{
+			final Loader loader = new Loader( store );
+			assertEquals( NUM_BLOCKS, loader.load( "image", 0, NUM_BLOCKS ) );
+			assertEquals( NUM_BLOCKS, store.getNumTiles() );
+
+			// the first blocks have been evicted from the texture cache
+			assertNull( loader.cache.get( key( "image", 0 ) ) );
+
+			assertEquals( 0, loader.load( "image", 0, BATCH_SIZE ) );
+			assertEquals( BATCH_SIZE, store.getNumHits() );
+		}
+	}
+
+	/**
+	 * Blocks stored in one session are read back from the spill store in the
+	 * next session.
+	 */
+	@Test
+	public void testReloadAfterClose() throws IOException, InterruptedException
+	{
+		final Path directory = folder.getRoot().toPath();
+		try ( TileSpillStore store = new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ) )
+		{
+			assertEquals( NUM_BLOCKS, new Loader( store ).load( "image", 0, NUM_BLOCKS ) );
+		}
+
+		try ( TileSpillStore store = new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ) )
+		{
+			assertEquals( NUM_BLOCKS, store.getNumTiles() );
+			assertEquals( 0, new Loader( store ).load( "image", 0, NUM_BLOCKS ) );
+			assertEquals( NUM_BLOCKS, store.getNumHits() );
+		}
+	}
+
+	/**
+	 * If the index was not saved (e.g., the application was killed), it is
+	 * rebuilt from the slot headers.
+	 */
+	@Test
+	public void testReloadWithoutIndex() throws IOException, InterruptedException
+	{
+		final Path directory = folder.getRoot().toPath();
+		try ( TileSpillStore store = new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ) )
+		{
+			assertEquals( NUM_BLOCKS, new Loader( store ).load( "image", 0, NUM_BLOCKS ) );
+		}
+		int numIndexFiles = 0;
+		try ( DirectoryStream< Path > indexFiles = Files.newDirectoryStream( directory, "*.idx" ) )
+		{
+			for ( final Path indexFile : indexFiles )
+			{
+				Files.delete( indexFile );
+				++numIndexFiles;
+			}
+		}
+		assertEquals( 1, numIndexFiles );
+
+		try ( TileSpillStore store = new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ) )
+		{
+			assertEquals( NUM_BLOCKS, store.getNumTiles() );
+			assertEquals( 0, new Loader( store ).load( "image", 0, NUM_BLOCKS ) );
+		}
+	}
+
+	/**
+	 * Tiles of images without persistent id are not stored.
+	 */
+	@Test
+	public void testNoPersistentId() throws IOException, InterruptedException
+	{
+		try ( TileSpillStore store = new TileSpillStore( folder.getRoot().toPath(), SPEC, 1, IMAGE_IDS ) )
+		{
+			final Object image = new Object();
+			final Loader loader = new Loader( store );
+			assertEquals( NUM_BLOCKS, loader.load( image, 0, NUM_BLOCKS ) );
+			assertEquals( 0, store.getNumTiles() );
+			assertEquals( BATCH_SIZE, loader.load( image, 0, BATCH_SIZE ) );
+		}
+	}
+
+	/**
+	 * A directory can only be used by one store at a time.
+	 */
+	@Test
+	public void testInUse() throws IOException
+	{
+		final Path directory = folder.getRoot().toPath();
+		try ( TileSpillStore store = new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ) )
+		{
+			try ( TileSpillStore other = new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ) )
+			{
+				fail( "opened a store that is in use" );
+			}
+			catch ( final IOException expected )
+			{
+			}
+		}
+
+		// released after close
+		new TileSpillStore( directory, SPEC, 1, IMAGE_IDS ).close();
+	}
+
+	private static ImageBlockKey< Object > key( final Object image, final int i )
+	{
+		return new ImageBlockKey<>( image, i % 10, ( i / 10 ) % 10, i / 100 );
+	}
+
+	/**
+	 * Fills blocks into a texture cache with room for fewer than
+	 * {@link #NUM_BLOCKS} tiles, backed by a spill store. Block {@code i} has
+	 * value {@code i + 1}.
+	 */
+	private static class Loader
+	{
+		final TextureCache cache = new TextureCache( new int[] { 4, 4, 4 }, SPEC );
+
+		final PboChain chain = new PboChain( 3, 16, cache );
+
+		final MockGpuContext context = new MockGpuContext();
+
+		Loader( final TileSpillStore store )
+		{
+			cache.setTileSpillStore( store );
+		}
+
+		/**
+		 * Load blocks {@code from} to {@code to} (exclusive) in batches of
+		 * {@link #BATCH_SIZE}, and verify that the texture cache contains the
+		 * values of each batch.
+		 *
+		 * @return the number of blocks that had to be filled
+		 */
+		int load( final Object image, final int from, final int to ) throws InterruptedException
+		{
+			final AtomicInteger numFills = new AtomicInteger();
+			for ( int b = from; b < to; b += BATCH_SIZE )
+			{
+				final List< FillTask > tasks = new ArrayList<>();
+				for ( int i = b; i < Math.min( b + BATCH_SIZE, to ); ++i )
+				{
+					final short value = ( short ) ( i + 1 );
+					tasks.add( new DefaultFillTask( key( image, i ), buf -> {
+						numFills.incrementAndGet();
+						ByteUtils.setShorts( value, buf.getBuffer(), buf.getOffset(), ELEMENTS_PER_TILE );
+						return true;
+					}, () -> true ) );
+				}
+				ProcessFillTasks.sequential( cache, chain, context, tasks );
+
+				final int[] pbs = SPEC.paddedBlockSize();
+				for ( int i = b; i < Math.min( b + BATCH_SIZE, to ); ++i )
+				{
+					final TextureCache.Tile tile = cache.get( key( image, i ) );
+					assertNotNull( tile );
+					final int x = tile.x() * pbs[ 0 ];
+					final int y = tile.y() * pbs[ 1 ];
+					final int z = tile.z() * pbs[ 2 ];
+					assertEquals( i + 1, context.getTexel( cache, x, y, z ) );
+					assertEquals( i + 1, context.getTexel( cache, x + pbs[ 0 ] - 1, y + pbs[ 1 ] - 1, z + pbs[ 2 ] - 1 ) );
+				}
+				cache.nextTimestamp();
+			}
+			return numFills.get();
+		}
+	}
+}
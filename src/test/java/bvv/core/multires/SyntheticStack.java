@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.multires;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * A {@code MultiResolutionStack3D} of {@code UnsignedShortType} for testing.
+ * Resolution level {@code l} is downsampled by {@code 2^l}. Cells are
+ * generated on demand by a {@link Values} function.
+ */
+public class SyntheticStack implements MultiResolutionStack3D< UnsignedShortType >
+{
+	@FunctionalInterface
+	public interface Values
+	{
+		/**
+		 * Get the value at position {@code (x, y, z)} of resolution {@code level}.
+		 */
+		int get( int level, long x, long y, long z );
+	}
+
+	private final List< Level > levels = new ArrayList<>();
+
+	private final AffineTransform3D sourceTransform = new AffineTransform3D();
+
+	/**
+	 * @param size
+	 *            size of full resolution level
+	 * @param cellSize
+	 *            cell size of all levels
+	 * @param numLevels
+	 *            number of resolution levels
+	 * @param values
+	 *            generates the voxel values
+	 */
+	public SyntheticStack( final long size, final int cellSize, final int numLevels, final Values values )
+	{
+		for ( int l = 0; l < numLevels; ++l )
+			levels.add( new Level( l, Math.max( 1, size >> l ), cellSize, ( level, min, dims ) -> {
+				final short[] data = new short[ dims[ 0 ] * dims[ 1 ] * dims[ 2 ] ];
+				int i = 0;
+				for ( int z = 0; z < dims[ 2 ]; ++z )
+					for ( int y = 0; y < dims[ 1 ]; ++y )
+						for ( int x = 0; x < dims[ 0 ]; ++x )
+							data[ i++ ] = ( short ) values.get( level, min[ 0 ] + x, min[ 1 ] + y, min[ 2 ] + z );
+				return data;
+			} ) );
+	}
+
+	/**
+	 * Create a stack with the same {@code value} everywhere. Cells of the same
+	 * size share their data, so that cells of large stacks are cheap to
+	 * generate.
+	 *
+	 * @param size
+	 *            size of full resolution level
+	 * @param cellSize
+	 *            cell size of all levels
+	 * @param numLevels
+	 *            number of resolution levels
+	 * @param value
+	 *            the value of all voxels
+	 */
+	public SyntheticStack( final long size, final int cellSize, final int numLevels, final int value )
+	{
+		final Map< List< Integer >, short[] > shared = new ConcurrentHashMap<>();
+		for ( int l = 0; l < numLevels; ++l )
+			levels.add( new Level( l, Math.max( 1, size >> l ), cellSize, ( level, min, dims ) ->
+				shared.computeIfAbsent( Arrays.asList( dims[ 0 ], dims[ 1 ], dims[ 2 ] ), k -> {
+					final short[] data = new short[ dims[ 0 ] * dims[ 1 ] * dims[ 2 ] ];
+					Arrays.fill( data, ( short ) value );
+					return data;
+				} ) ) );
+	}
+
+	@Override
+	public List< ? extends ResolutionLevel3D< UnsignedShortType > > resolutions()
+	{
+		return levels;
+	}
+
+	@Override
+	public AffineTransform3D getSourceTransform()
+	{
+		return sourceTransform;
+	}
+
+	@Override
+	public UnsignedShortType getType()
+	{
+		return new UnsignedShortType();
+	}
+
+	@FunctionalInterface
+	interface CellData
+	{
+		short[] get( int level, long[] min, int[] dims );
+	}
+
+	static class Level implements ResolutionLevel3D< UnsignedShortType >
+	{
+		private final int level;
+
+		private final RandomAccessibleInterval< UnsignedShortType > img;
+
+		private final AffineTransform3D levelTransform = new AffineTransform3D();
+
+		Level( final int level, final long size, final int cellSize, final CellData cellData )
+		{
+			this.level = level;
+			final CellGrid grid = new CellGrid( new long[] { size, size, size }, new int[] { cellSize, cellSize, cellSize } );
+			img = new LazyCellImg<>( grid, new UnsignedShortType(), index -> {
+				final long[] min = new long[ 3 ];
+				final int[] dims = new int[ 3 ];
+				grid.getCellDimensions( index, min, dims );
+				return new Cell<>( dims, min, new ShortArray( cellData.get( level, min, dims ) ) );
+			} );
+			final int r = 1 << level;
+			final double t = 0.5 * ( r - 1 );
+			levelTransform.set(
+					r, 0, 0, t,
+					0, r, 0, t,
+					0, 0, r, t );
+		}
+
+		@Override
+		public int getLevel()
+		{
+			return level;
+		}
+
+		@Override
+		public int[] getR()
+		{
+			final int r = 1 << level;
+			return new int[] { r, r, r };
+		}
+
+		@Override
+		public double[] getS()
+		{
+			final double s = 1.0 / ( 1 << level );
+			return new double[] { s, s, s };
+		}
+
+		@Override
+		public AffineTransform3D getLevelTransform()
+		{
+			return levelTransform;
+		}
+
+		@Override
+		public RandomAccessibleInterval< UnsignedShortType > getImage()
+		{
+			return img;
+		}
+
+		@Override
+		public UnsignedShortType getType()
+		{
+			return new UnsignedShortType();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.junit.Test;
+
+import bvv.core.backend.Texture;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.ImageBlockKey;
+import bvv.core.cache.TextureCache;
+import bvv.core.multires.ResolutionLevel3D;
+import bvv.core.multires.SyntheticStack;
+
+public class BlockPrefetcherTest
+{
+	private static final int SIZE = 128;
+
+	private static final SyntheticStack.Values values = ( l, x, y, z ) -> 1 + l + ( int ) ( ( x + 3 * y + 7 * z ) & 0xfff );
+
+	private final SyntheticStack stack = new SyntheticStack( SIZE, 16, 3, values );
+
+	private final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { 8, 8, 8 } );
+
+	private final List< Matrix4f > path = CameraPathReplay.orbit( SIZE / 2, 1.2f * SIZE, 12, 10 );
+
+	/**
+	 * When the camera is moving, the fill tasks of the next frame use the
+	 * prefetched blocks. The texture cache ends up with the same content as
+	 * without prefetching.
+	 */
+	@Test
+	public void testPrefetchOnCameraPath() throws InterruptedException
+	{
+		final CameraPathReplay withoutPrefetch = new CameraPathReplay( stack, 200, spec, new int[] { 20, 20, 20 }, 0 );
+		final List< CameraPathReplay.Frame > frames0 = withoutPrefetch.replay( path );
+
+		final CameraPathReplay withPrefetch = new CameraPathReplay( stack, 200, spec, new int[] { 20, 20, 20 }, 8 );
+		final List< CameraPathReplay.Frame > frames1 = withPrefetch.replay( path );
+
+		long numUsed = 0;
+		for ( int i = 0; i < path.size(); ++i )
+		{
+			assertEquals( frames0.get( i ).numTasks, frames1.get( i ).numTasks );
+			numUsed += frames1.get( i ).numPrefetchedUsed;
+		}
+		// nothing to predict from for the first two frames
+		assertEquals( 0, frames1.get( 0 ).numPrefetchedUsed );
+		assertEquals( 0, frames1.get( 1 ).numPrefetchedUsed );
+		assertTrue( numUsed > 0 );
+
+		assertTilesMatchSource( withoutPrefetch );
+		assertTilesMatchSource( withPrefetch );
+	}
+
+	/**
+	 * The tiles of the required blocks of the last frame contain the source
+	 * data.
+	 */
+	private void assertTilesMatchSource( final CameraPathReplay replay )
+	{
+		final TextureCache cache = replay.getTextureCache();
+		final int[] pbs = spec.paddedBlockSize();
+		final int[] po = spec.padOffset();
+		final int[] bs = spec.blockSize();
+		int numChecked = 0;
+		for ( final ImageBlockKey< ResolutionLevel3D< ? > > key : replay.getVolume().getRequiredBlockKeys() )
+		{
+			final TextureCache.Tile tile = cache.get( key );
+			if ( tile == null || tile.content() == null )
+				continue;
+			final long[] max = key.image().getImage().maxAsLongArray();
+			final int[] pos = key.pos();
+			final int level = key.image().getLevel();
+			for ( int i = 0; i < 2; ++i )
+			{
+				final long x = Math.min( max[ 0 ], ( long ) pos[ 0 ] * bs[ 0 ] + i * ( bs[ 0 ] - 1 ) );
+				final long y = Math.min( max[ 1 ], ( long ) pos[ 1 ] * bs[ 1 ] + i * ( bs[ 1 ] - 1 ) );
+				final long z = Math.min( max[ 2 ], ( long ) pos[ 2 ] * bs[ 2 ] + i * ( bs[ 2 ] - 1 ) );
+				final long texel = replay.getContext().getTexel(
+						cache.getShard( 0 ),
+						tile.x() * pbs[ 0 ] + po[ 0 ] + ( int ) ( x - ( long ) pos[ 0 ] * bs[ 0 ] ),
+						tile.y() * pbs[ 1 ] + po[ 1 ] + ( int ) ( y - ( long ) pos[ 1 ] * bs[ 1 ] ),
+						tile.z() * pbs[ 2 ] + po[ 2 ] + ( int ) ( z - ( long ) pos[ 2 ] * bs[ 2 ] ) );
+				assertEquals( values.get( level, x, y, z ), texel );
+			}
+			++numChecked;
+		}
+		assertTrue( numChecked > 0 );
+	}
+}
@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.joml.Matrix4f;
+import org.junit.Test;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+public class CameraMotionPredictorTest
+{
+	private static final Matrix4f projection = new Matrix4f().setPerspective( ( float ) Math.toRadians( 50 ), 1, 1, 1000 );
+
+	/**
+	 * Camera orbiting the origin at distance 100, at the given angle.
+	 */
+	private static Matrix4f pv( final double angle )
+	{
+		final float x = ( float ) ( 100 * Math.sin( angle ) );
+		final float z = ( float ) ( -100 * Math.cos( angle ) );
+		return new Matrix4f( projection ).lookAt( x, 0, z, 0, 0, 0, 0, 1, 0 );
+	}
+
+	private static RenderData frame( final Matrix4f pv, final int timepoint )
+	{
+		return new RenderData( pv, timepoint, new AffineTransform3D(), 1000, 1, 1000, 800, 600 );
+	}
+
+	private static void assertPv( final Matrix4f expected, final Matrix4f actual )
+	{
+		final float[] e = expected.get( new float[ 16 ] );
+		final float[] a = actual.get( new float[ 16 ] );
+		for ( int i = 0; i < 16; ++i )
+			assertEquals( "expected " + expected + " but was " + actual, e[ i ], a[ i ], 1e-3 * Math.max( 1, Math.abs( e[ i ] ) ) );
+	}
+
+	@Test
+	public void testConstantVelocity()
+	{
+		final CameraMotionPredictor predictor = new CameraMotionPredictor();
+		final Matrix4f predicted = new Matrix4f();
+
+		// no prediction from a single frame
+		predictor.update( frame( pv( 0 ), 0 ) );
+		assertFalse( predictor.predict( predicted ) );
+
+		predictor.update( frame( pv( 0.1 ), 0 ) );
+		assertTrue( predictor.predict( predicted ) );
+		assertPv( pv( 0.2 ), predicted );
+
+		predictor.update( frame( pv( 0.2 ), 0 ) );
+		assertTrue( predictor.predict( predicted ) );
+		assertPv( pv( 0.3 ), predicted );
+
+		// speeding up
+		predictor.update( frame( pv( 0.5 ), 0 ) );
+		assertTrue( predictor.predict( predicted ) );
+		assertPv( pv( 0.8 ), predicted );
+	}
+
+	@Test
+	public void testNotMoving()
+	{
+		final CameraMotionPredictor predictor = new CameraMotionPredictor();
+		final Matrix4f predicted = new Matrix4f();
+		predictor.update( frame( pv( 0.1 ), 0 ) );
+		predictor.update( frame( pv( 0.1 ), 0 ) );
+		assertFalse( predictor.predict( predicted ) );
+
+		// stopping after moving
+		predictor.update( frame( pv( 0.2 ), 0 ) );
+		assertTrue( predictor.predict( predicted ) );
+		predictor.update( frame( pv( 0.2 ), 0 ) );
+		assertFalse( predictor.predict( predicted ) );
+	}
+
+	/**
+	 * Motion is only estimated between comparable frames.
+	 */
+	@Test
+	public void testNotComparable()
+	{
+		final CameraMotionPredictor predictor = new CameraMotionPredictor();
+		final Matrix4f predicted = new Matrix4f();
+		predictor.update( frame( pv( 0 ), 0 ) );
+		predictor.update( frame( pv( 0.1 ), 1 ) );
+		assertFalse( predictor.predict( predicted ) );
+
+		predictor.update( new RenderData( pv( 0.2 ), 1, new AffineTransform3D(), 1000, 1, 1000, 400, 600 ) );
+		assertFalse( predictor.predict( predicted ) );
+
+		// comparable again
+		predictor.update( new RenderData( pv( 0.3 ), 1, new AffineTransform3D(), 1000, 1, 1000, 400, 600 ) );
+		assertTrue( predictor.predict( predicted ) );
+		assertPv( pv( 0.4 ), predicted );
+	}
+
+	@Test
+	public void testReset()
+	{
+		final CameraMotionPredictor predictor = new CameraMotionPredictor();
+		final Matrix4f predicted = new Matrix4f();
+		predictor.update( frame( pv( 0 ), 0 ) );
+		predictor.update( frame( pv( 0.1 ), 0 ) );
+		predictor.reset();
+		assertFalse( predictor.predict( predicted ) );
+
+		predictor.update( frame( pv( 0.2 ), 0 ) );
+		assertFalse( predictor.predict( predicted ) );
+		predictor.update( frame( pv( 0.3 ), 0 ) );
+		assertTrue( predictor.predict( predicted ) );
+		assertPv( pv( 0.4 ), predicted );
+	}
+}
@@ -0,0 +1,282 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.joml.Matrix4f;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.blockmath.MipmapSizes;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.FillTask;
+import bvv.core.cache.ImageBlockKey;
+import bvv.core.cache.PboChain;
+import bvv.core.cache.PrefetchBuffer;
+import bvv.core.cache.ProcessFillTasks;
+import bvv.core.cache.TextureCache;
+import bvv.core.multires.MultiResolutionStack3D;
+import bvv.core.multires.SyntheticStack;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Replays a camera path (a sequence of {@code projection * view} matrices)
+ * against a single source, using {@link VolumeBlocks} and a
+ * {@link TextureCache} without GPU. Optionally, blocks for the predicted next
+ * frame are {@link BlockPrefetcher prefetched} between frames. Records the
+ * time spent in {@code ProcessFillTasks} for each frame.
+ * <p>
+ * Run {@link #main} to compare per-frame fill times with and without
+ * prefetching.
+ */
+public class CameraPathReplay
+{
+	static class Frame
+	{
+		final long fillNanos;
+
+		final int numTasks;
+
+		/** number of tasks that were filled from the {@code PrefetchBuffer} */
+		final long numPrefetchedUsed;
+
+		Frame( final long fillNanos, final int numTasks, final long numPrefetchedUsed )
+		{
+			this.fillNanos = fillNanos;
+			this.numTasks = numTasks;
+			this.numPrefetchedUsed = numPrefetchedUsed;
+		}
+	}
+
+	private final MultiResolutionStack3D< ? > stack;
+
+	private final int viewportWidth;
+
+	private final CacheSpec spec;
+
+	private final TextureCache cache;
+
+	private final PboChain pboChain;
+
+	private final MockGpuContext context = new MockGpuContext();
+
+	private final VolumeBlocks volume = new VolumeBlocks();
+
+	private final PrefetchBuffer prefetchBuffer;
+
+	private final BlockPrefetcher prefetcher;
+
+	private final CameraMotionPredictor cameraMotion = new CameraMotionPredictor();
+
+	/**
+	 * @param prefetchSizeInMB
+	 *            size of the {@code PrefetchBuffer}, or {@code 0} for no
+	 *            prefetching
+	 */
+	CameraPathReplay(
+			final MultiResolutionStack3D< ? > stack,
+			final int viewportWidth,
+			final CacheSpec spec,
+			final int[] cacheGridSize,
+			final int prefetchSizeInMB )
+	{
+		this.stack = stack;
+		this.viewportWidth = viewportWidth;
+		this.spec = spec;
+		cache = new TextureCache( cacheGridSize, spec );
+		pboChain = new PboChain( 5, 100, cache );
+		prefetchBuffer = prefetchSizeInMB > 0 ? new PrefetchBuffer( spec, prefetchSizeInMB ) : null;
+		prefetcher = prefetchSizeInMB > 0 ? new BlockPrefetcher( MipmapSizes::new ) : null;
+	}
+
+	/**
+	 * Render all frames of {@code path}. If prefetching, the prefetch for the
+	 * next frame is completed before the next frame is rendered (as if the
+	 * frame interval was long enough).
+	 */
+	List< Frame > replay( final List< Matrix4f > path ) throws InterruptedException
+	{
+		final List< Frame > frames = new ArrayList<>();
+		final Matrix4f predictedPv = new Matrix4f();
+		for ( final Matrix4f pv : path )
+		{
+			cameraMotion.update( new RenderData( pv, 0, new AffineTransform3D(), 1, 1, 1000, viewportWidth, viewportWidth ) );
+
+			volume.setPrefetchBuffer( prefetchBuffer );
+			volume.init( stack, cache, viewportWidth, pv );
+			// (as in VolumeRenderer, coarser levels are used if the blocks don't fit)
+			List< FillTask > tasks = volume.getFillTasks();
+			final int maxLevel = stack.resolutions().size() - 1;
+			while ( tasks.size() > cache.getMaxNumTiles() && volume.getBaseLevel() < maxLevel )
+			{
+				volume.setBaseLevel( volume.getBaseLevel() + 1 );
+				tasks = volume.getFillTasks();
+			}
+			volume.retainTiles();
+			final int maxNumFillTasks = Math.max( 0, cache.getMaxNumTiles() - volume.getNumRetainedBlocks() );
+			if ( tasks.size() > maxNumFillTasks )
+				tasks = new ArrayList<>( tasks.subList( 0, maxNumFillTasks ) );
+
+			final long used0 = prefetchBuffer == null ? 0 : prefetchBuffer.getNumUsed();
+			final long t0 = System.nanoTime();
+			ProcessFillTasks.sequential( cache, pboChain, context, tasks );
+			final long fillNanos = System.nanoTime() - t0;
+			final long used = prefetchBuffer == null ? 0 : prefetchBuffer.getNumUsed() - used0;
+
+			final int timestamp = cache.nextTimestamp();
+			volume.makeLut( timestamp );
+			cache.unpinAllExcept( timestamp );
+			frames.add( new Frame( fillNanos, tasks.size(), used ) );
+
+			if ( prefetcher != null && cameraMotion.predict( predictedPv ) )
+			{
+				final List< FillTask > currentTasks = tasks;
+				final List< ImageBlockKey< ? > > retainedKeys = new ArrayList<>();
+				volume.getRetainedBlockKeys( retainedKeys );
+				final BlockPrefetcher.Job job = new BlockPrefetcher.Job(
+						Collections.singletonList( stack ),
+						Collections.singletonList( volume.getClipRegion() ),
+						spec, prefetchBuffer, currentTasks, retainedKeys );
+				prefetcher.prefetch( Collections.singletonList( job ), predictedPv, viewportWidth );
+				prefetcher.awaitIdle();
+			}
+		}
+		return frames;
+	}
+
+	TextureCache getTextureCache()
+	{
+		return cache;
+	}
+
+	MockGpuContext getContext()
+	{
+		return context;
+	}
+
+	VolumeBlocks getVolume()
+	{
+		return volume;
+	}
+
+	/**
+	 * Camera orbiting around {@code center} at {@code distance}, turning by
+	 * {@code degreesPerFrame}.
+	 */
+	static List< Matrix4f > orbit( final float center, final float distance, final int numFrames, final double degreesPerFrame )
+	{
+		final List< Matrix4f > path = new ArrayList<>();
+		for ( int i = 0; i < numFrames; ++i )
+		{
+			final double angle = Math.toRadians( i * degreesPerFrame );
+			final float x = center + ( float ) ( distance * Math.sin( angle ) );
+			final float z = center - ( float ) ( distance * Math.cos( angle ) );
+			path.add( new Matrix4f()
+					.setPerspective( ( float ) Math.toRadians( 50 ), 1, 1, 10 * distance )
+					.lookAt( x, center, z, center, center, center, 0, 1, 0 ) );
+		}
+		return path;
+	}
+
+	/**
+	 * Read a recorded camera path: one {@code projection * view} matrix per
+	 * line, as 16 numbers in column-major order.
+	 */
+	static List< Matrix4f > read( final String file ) throws IOException
+	{
+		final List< Matrix4f > path = new ArrayList<>();
+		for ( final String line : Files.readAllLines( Paths.get( file ) ) )
+		{
+			final String[] tokens = line.trim().split( "[\\s,]+" );
+			if ( tokens.length != 16 )
+				continue;
+			final float[] m = new float[ 16 ];
+			for ( int i = 0; i < 16; ++i )
+				m[ i ] = Float.parseFloat( tokens[ i ] );
+			path.add( new Matrix4f().set( m ) );
+		}
+		return path;
+	}
+
+	private static void print( final String name, final List< Frame > frames )
+	{
+		final long[] nanos = new long[ frames.size() ];
+		long sum = 0;
+		long numTasks = 0;
+		long numPrefetchedUsed = 0;
+		for ( int i = 0; i < nanos.length; ++i )
+		{
+			final Frame frame = frames.get( i );
+			nanos[ i ] = frame.fillNanos;
+			sum += frame.fillNanos;
+			numTasks += frame.numTasks;
+			numPrefetchedUsed += frame.numPrefetchedUsed;
+		}
+		Arrays.sort( nanos );
+		System.out.println( String.format( Locale.ROOT,
+				"%-12s fill time per frame: mean %7.2f ms, median %7.2f ms, p95 %7.2f ms, max %7.2f ms; %d tasks, %d from prefetch buffer",
+				name,
+				sum / 1e6 / nanos.length,
+				nanos[ nanos.length / 2 ] / 1e6,
+				nanos[ Math.min( nanos.length - 1, nanos.length * 95 / 100 ) ] / 1e6,
+				nanos[ nanos.length - 1 ] / 1e6,
+				numTasks,
+				numPrefetchedUsed ) );
+	}
+
+	/**
+	 * Usage: {@code CameraPathReplay [path-file]}. Without a path file, a
+	 * camera orbiting a synthetic volume is replayed.
+	 */
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final int size = 256;
+		final SyntheticStack stack = new SyntheticStack( size, 32, 4, ( l, x, y, z ) -> 1 + ( int ) ( ( x ^ y ^ z ) & 0xfff ) );
+		final List< Matrix4f > path = args.length > 0
+				? read( args[ 0 ] )
+				: orbit( size / 2, 1.5f * size, 60, 3 );
+		final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { 16, 16, 16 } );
+		final int[] cacheGridSize = { 16, 16, 16 };
+		final int viewportWidth = 400;
+
+		// warm up
+		new CameraPathReplay( stack, viewportWidth, spec, cacheGridSize, 64 ).replay( path );
+
+		print( "no prefetch", new CameraPathReplay( stack, viewportWidth, spec, cacheGridSize, 0 ).replay( path ) );
+		print( "prefetch", new CameraPathReplay( stack, viewportWidth, spec, cacheGridSize, 64 ).replay( path ) );
+	}
+}
@@ -0,0 +1,225 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.backend.Texture3D;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.PboChain;
+import bvv.core.cache.ProcessFillTasks;
+import bvv.core.cache.TextureCache;
+import bvv.core.multires.SyntheticStack;
+
+public class ConstantTilesTest
+{
+	private static final int SIZE = 128;
+
+	private static final int BLOCK_SIZE = 8;
+
+	private static final int CONSTANT = 500;
+
+	/**
+	 * A sparse volume: mostly {@code 0}, a box of value {@link #CONSTANT}, and
+	 * a ball of varying values.
+	 */
+	private static final SyntheticStack.Values values = ( l, x0, y0, z0 ) -> {
+		final long x = x0 << l;
+		final long y = y0 << l;
+		final long z = z0 << l;
+		final long dx = x - 40, dy = y - 40, dz = z - 40;
+		if ( dx * dx + dy * dy + dz * dz < 20 * 20 )
+			return 1 + ( int ) ( ( x + 3 * y + 5 * z ) & 0xff );
+		if ( x >= 80 && y < 40 )
+			return CONSTANT;
+		return 0;
+	};
+
+	/**
+	 * Blocks that have the same value everywhere (including padding) are not
+	 * uploaded into tiles of their own. Their LUT entries point to a shared
+	 * tile filled with that value.
+	 */
+	@Test
+	public void testSparseVolume() throws InterruptedException
+	{
+		final SyntheticStack stack = new SyntheticStack( SIZE, 32, 3, values );
+		final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE } );
+		final TextureCache cache = new TextureCache( new int[] { 24, 24, 24 }, spec );
+		final MockGpuContext context = new MockGpuContext();
+		final PboChain chain = new PboChain( 5, 100, cache, false );
+		final VolumeBlocks blocks = new VolumeBlocks();
+		final Matrix4f pv = new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 50 ), 1, 1, 1000 )
+				.lookAt( 30, 50, -150, 64, 64, 64, 0, 1, 0 );
+
+		/*
+		 * The constant tile for a new value is set up in the batch after the
+		 * value is encountered. Until then, blocks with that value are
+		 * uploaded to regular tiles.
+		 */
+		final long[] uploadedTiles = new long[ 3 ];
+		for ( int frame = 0; frame < 3; ++frame )
+		{
+			blocks.init( stack, cache, 200, pv );
+			ProcessFillTasks.sequential( cache, chain, context, blocks.getFillTasks() );
+			final int timestamp = cache.nextTimestamp();
+			assertTrue( blocks.makeLut( timestamp ) );
+			cache.unpinAllExcept( timestamp );
+			uploadedTiles[ frame ] = uploadedTexels( context, cache ) / tileVolume( spec );
+		}
+
+		final LookupTextureARGB lut = blocks.getLookupTexture();
+		lut.upload( context );
+		final byte[] lutData = context.getTextureData( lut );
+		final Vector3f offset = lut.getOffset3f();
+		final int baseLevel = blocks.getBaseLevel();
+
+		final int[] pbs = spec.paddedBlockSize();
+		final Set< Integer > constantTiles = new HashSet<>();
+		final Set< Integer > regularTiles = new HashSet<>();
+		final Map< Integer, Integer > tileValues = new HashMap<>();
+		int numConstantCells = 0;
+		int numZeroCells = 0;
+		for ( int z = 1; z < lut.texDepth() - 1; ++z )
+			for ( int y = 1; y < lut.texHeight() - 1; ++y )
+				for ( int x = 1; x < lut.texWidth() - 1; ++x )
+				{
+					final int i = 4 * ( x + lut.texWidth() * ( y + lut.texHeight() * z ) );
+					final int levelAndShard = lutData[ i + 3 ] & 0xff;
+					if ( levelAndShard == 0 )
+						continue; // not required
+					final int level = ( levelAndShard & 0x0f ) - 1 + baseLevel;
+					final int shard = levelAndShard >> 4;
+					final int tx = lutData[ i ] & 0xff;
+					final int ty = lutData[ i + 1 ] & 0xff;
+					final int tz = lutData[ i + 2 ] & 0xff;
+					final int tileId = ( ( shard * 256 + tz ) * 256 + ty ) * 256 + tx;
+
+					final int s = level - baseLevel;
+					final int gx = ( x + ( int ) offset.x ) >> s;
+					final int gy = ( y + ( int ) offset.y ) >> s;
+					final int gz = ( z + ( int ) offset.z ) >> s;
+					final int expected = constantValue( level, gx, gy, gz );
+					if ( expected >= 0 )
+					{
+						// shared constant tile containing the value
+						++numConstantCells;
+						if ( expected == 0 )
+							++numZeroCells;
+						constantTiles.add( tileId );
+						final Integer previous = tileValues.put( tileId, expected );
+						assertTrue( previous == null || previous == expected );
+						assertTileValue( context, cache.getShard( shard ), tx, ty, tz, pbs, expected );
+					}
+					else
+					{
+						regularTiles.add( tileId );
+						final long v = context.getTexel( cache.getShard( shard ),
+								tx * pbs[ 0 ] + 1 + BLOCK_SIZE / 2,
+								ty * pbs[ 1 ] + 1 + BLOCK_SIZE / 2,
+								tz * pbs[ 2 ] + 1 + BLOCK_SIZE / 2 );
+						assertEquals( values.get( level, gx * BLOCK_SIZE + BLOCK_SIZE / 2, gy * BLOCK_SIZE + BLOCK_SIZE / 2, gz * BLOCK_SIZE + BLOCK_SIZE / 2 ), v );
+					}
+				}
+
+		// constant blocks (0 and CONSTANT) share 2 tiles
+		assertTrue( numConstantCells > 100 );
+		assertEquals( 2, constantTiles.size() );
+		assertTrue( tileValues.containsValue( 0 ) );
+		assertTrue( tileValues.containsValue( CONSTANT ) );
+		constantTiles.forEach( t -> assertTrue( !regularTiles.contains( t ) ) );
+		assertEquals( 2, cache.getNumConstantTiles() );
+		assertTrue( cache.getNumConstantBlocks() > 0 );
+
+		// blocks of value 0 are never uploaded (tile 0 is uploaded once)
+		assertTrue( uploadedTiles[ 0 ] <= 1 + regularTiles.size() + numConstantCells - numZeroCells );
+		// the constant tile for CONSTANT is uploaded in the second frame
+		assertEquals( 1, uploadedTiles[ 1 ] - uploadedTiles[ 0 ] );
+		// nothing is uploaded in the third frame
+		assertEquals( uploadedTiles[ 1 ], uploadedTiles[ 2 ] );
+	}
+
+	private static long uploadedTexels( final MockGpuContext context, final TextureCache cache )
+	{
+		long uploaded = 0;
+		for ( int i = 0; i < cache.getNumShards(); ++i )
+			uploaded += context.getNumUploadedTexels( cache.getShard( i ) );
+		return uploaded;
+	}
+
+	private static int tileVolume( final CacheSpec spec )
+	{
+		final int[] pbs = spec.paddedBlockSize();
+		return pbs[ 0 ] * pbs[ 1 ] * pbs[ 2 ];
+	}
+
+	/**
+	 * If block {@code (gx, gy, gz)} of resolution {@code level} (including
+	 * padding, out-of-bounds voxels are 0) has the same value everywhere,
+	 * return it. Otherwise return {@code -1}.
+	 */
+	private static int constantValue( final int level, final int gx, final int gy, final int gz )
+	{
+		final long size = SIZE >> level;
+		int value = -1;
+		for ( long z = gz * BLOCK_SIZE - 1; z <= ( gz + 1 ) * BLOCK_SIZE; ++z )
+			for ( long y = gy * BLOCK_SIZE - 1; y <= ( gy + 1 ) * BLOCK_SIZE; ++y )
+				for ( long x = gx * BLOCK_SIZE - 1; x <= ( gx + 1 ) * BLOCK_SIZE; ++x )
+				{
+					final boolean oob = x < 0 || y < 0 || z < 0 || x >= size || y >= size || z >= size;
+					final int v = oob ? 0 : values.get( level, x, y, z );
+					if ( value < 0 )
+						value = v;
+					else if ( v != value )
+						return -1;
+				}
+		return value;
+	}
+
+	private static void assertTileValue( final MockGpuContext context, final Texture3D shard, final int tx, final int ty, final int tz, final int[] pbs, final int value )
+	{
+		for ( int z = 0; z < pbs[ 2 ]; ++z )
+			for ( int y = 0; y < pbs[ 1 ]; ++y )
+				for ( int x = 0; x < pbs[ 0 ]; ++x )
+					assertEquals( value, context.getTexel( shard, tx * pbs[ 0 ] + x, ty * pbs[ 1 ] + y, tz * pbs[ 2 ] + z ) );
+	}
+}
@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.blocks.BlockValueRanges;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.FillTask;
+import bvv.core.cache.PboChain;
+import bvv.core.cache.ProcessFillTasks;
+import bvv.core.cache.TextureCache;
+import bvv.core.multires.SyntheticStack;
+
+public class EmptyBlocksTest
+{
+	private static final int SIZE = 128;
+
+	private static final int BLOCK_SIZE = 8;
+
+	private static final int DISPLAY_MIN = 100;
+
+	/**
+	 * Dim noise everywhere (values {@code <= 50}), and a bright ball.
+	 */
+	private static final SyntheticStack.Values values = ( l, x0, y0, z0 ) -> {
+		final long x = x0 << l;
+		final long y = y0 << l;
+		final long z = z0 << l;
+		final long dx = x - 64, dy = y - 64, dz = z - 64;
+		if ( dx * dx + dy * dy + dz * dz < 24 * 24 )
+			return 1000 + ( int ) ( x & 0xff );
+		return 1 + ( int ) ( ( x + 3 * y + 5 * z ) % 50 );
+	};
+
+	private final SyntheticStack stack = new SyntheticStack( SIZE, 32, 3, values );
+
+	private final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE } );
+
+	private final TextureCache cache = new TextureCache( new int[] { 24, 24, 24 }, spec );
+
+	private final MockGpuContext context = new MockGpuContext();
+
+	private final PboChain chain = new PboChain( 5, 100, cache, false );
+
+	private final VolumeBlocks blocks = new VolumeBlocks();
+
+	private final BlockValueRanges valueRanges = new BlockValueRanges( 1 << 20 );
+
+	private final Matrix4f pv = new Matrix4f()
+			.setPerspective( ( float ) Math.toRadians( 50 ), 1, 1, 1000 )
+			.lookAt( 30, 50, -150, 64, 64, 64, 0, 1, 0 );
+
+	/**
+	 * Once the value ranges of blocks are known, blocks below the display
+	 * minimum are not requested anymore, and their LUT entries point to the
+	 * zero tile. Blocks above the display minimum are unaffected.
+	 */
+	@Test
+	public void testSkipEmptyBlocks() throws InterruptedException
+	{
+		blocks.setValueRanges( valueRanges );
+		blocks.setDisplayRange( DISPLAY_MIN, 2000 );
+
+		final int numTasks0 = frame();
+		final byte[] lut0 = lutData();
+		assertTrue( valueRanges.size() > 0 );
+		assertRecordedRanges();
+
+		final int numTasks1 = frame();
+		final byte[] lut1 = lutData();
+		assertTrue( numTasks1 < numTasks0 );
+
+		final LookupTextureARGB lut = blocks.getLookupTexture();
+		final Vector3f offset = lut.getOffset3f();
+		final int baseLevel = blocks.getBaseLevel();
+		int numEmpty = 0;
+		int numVisible = 0;
+		for ( int i = 0; i < lut0.length; i += 4 )
+		{
+			final int levelAndShard = lut0[ i + 3 ] & 0xff;
+			if ( levelAndShard == 0 )
+				continue; // not required (or zero tile)
+			final int cell = i / 4;
+			final int x = cell % lut.texWidth();
+			final int y = ( cell / lut.texWidth() ) % lut.texHeight();
+			final int z = cell / ( lut.texWidth() * lut.texHeight() );
+			final int level = ( levelAndShard & 0x0f ) - 1 + baseLevel;
+			final int s = level - baseLevel;
+			final int gx = ( x + ( int ) offset.x ) >> s;
+			final int gy = ( y + ( int ) offset.y ) >> s;
+			final int gz = ( z + ( int ) offset.z ) >> s;
+			final int cell1 = readCell( lut1, i );
+			if ( BlockValueRanges.max( referenceRange( level, gx, gy, gz ) ) <= DISPLAY_MIN )
+			{
+				++numEmpty;
+				assertEquals( 0, cell1 );
+			}
+			else
+			{
+				++numVisible;
+				assertEquals( readCell( lut0, i ), cell1 );
+			}
+		}
+		assertTrue( numEmpty > 0 );
+		assertTrue( numVisible > 0 );
+
+		// inverted display range disables skipping
+		blocks.setDisplayRange( 2000, DISPLAY_MIN );
+		assertEquals( numTasks0, frame() );
+	}
+
+	/**
+	 * Value ranges are only recorded while blocks can be skipped with the
+	 * current display range.
+	 */
+	@Test
+	public void testNoRangesWithoutThreshold() throws InterruptedException
+	{
+		blocks.setValueRanges( valueRanges );
+		final int numTasks0 = frame();
+		assertEquals( 0, valueRanges.size() );
+		assertEquals( numTasks0, frame() );
+
+		blocks.setDisplayRange( 2000, DISPLAY_MIN );
+		frame();
+		assertEquals( 0, valueRanges.size() );
+	}
+
+	/**
+	 * Render a frame.
+	 *
+	 * @return number of fill tasks
+	 */
+	private int frame() throws InterruptedException
+	{
+		blocks.init( stack, cache, 200, pv );
+		final List< FillTask > tasks = blocks.getFillTasks();
+		ProcessFillTasks.sequential( cache, chain, context, tasks );
+		final int timestamp = cache.nextTimestamp();
+		assertTrue( blocks.makeLut( timestamp ) );
+		cache.unpinAllExcept( timestamp );
+		return tasks.size();
+	}
+
+	private byte[] lutData()
+	{
+		final LookupTextureARGB lut = blocks.getLookupTexture();
+		lut.upload( context );
+		return context.getTextureData( lut ).clone();
+	}
+
+	private static int readCell( final byte[] data, final int i )
+	{
+		return ( data[ i ] & 0xff ) << 24 | ( data[ i + 1 ] & 0xff ) << 16 | ( data[ i + 2 ] & 0xff ) << 8 | ( data[ i + 3 ] & 0xff );
+	}
+
+	/**
+	 * The ranges recorded while loading blocks match the reference.
+	 */
+	private void assertRecordedRanges()
+	{
+		int numChecked = 0;
+		for ( int level = 0; level < stack.resolutions().size(); ++level )
+		{
+			final int n = ( SIZE >> level ) / BLOCK_SIZE;
+			for ( int gz = 0; gz < n; ++gz )
+				for ( int gy = 0; gy < n; ++gy )
+					for ( int gx = 0; gx < n; ++gx )
+					{
+						final long range = valueRanges.get( stack.resolutions().get( level ), new int[] { gx, gy, gz } );
+						if ( range != BlockValueRanges.UNKNOWN )
+						{
+							assertEquals( referenceRange( level, gx, gy, gz ), range );
+							++numChecked;
+						}
+					}
+		}
+		assertEquals( valueRanges.size(), numChecked );
+	}
+
+	/**
+	 * The packed value range of block {@code (gx, gy, gz)} of resolution
+	 * {@code level}, including padding (out-of-bounds voxels are 0).
+	 */
+	private static long referenceRange( final int level, final int gx, final int gy, final int gz )
+	{
+		final long size = SIZE >> level;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for ( long z = gz * BLOCK_SIZE - 1; z <= ( gz + 1 ) * BLOCK_SIZE; ++z )
+			for ( long y = gy * BLOCK_SIZE - 1; y <= ( gy + 1 ) * BLOCK_SIZE; ++y )
+				for ( long x = gx * BLOCK_SIZE - 1; x <= ( gx + 1 ) * BLOCK_SIZE; ++x )
+				{
+					final boolean oob = x < 0 || y < 0 || z < 0 || x >= size || y >= size || z >= size;
+					final int v = oob ? 0 : values.get( level, x, y, z );
+					min = Math.min( min, v );
+					max = Math.max( max, v );
+				}
+		return BlockValueRanges.pack( min, max );
+	}
+}
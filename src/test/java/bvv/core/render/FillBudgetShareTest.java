@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Splitting the fill time budget between the R8 and R16 cache textures.
+ */
+public class FillBudgetShareTest
+{
+	private static final long BUDGET = 1_000_000;
+
+	@Test
+	public void testProportionalToDemand()
+	{
+		assertEquals( 400_000, VolumeRenderer.fillBudgetShare( BUDGET, 40, 60 ) );
+		assertEquals( 600_000, VolumeRenderer.fillBudgetShare( BUDGET, 60, 40 ) );
+		assertEquals( 500_000, VolumeRenderer.fillBudgetShare( BUDGET, 10, 10 ) );
+	}
+
+	/**
+	 * Neither cache texture gets less than the minimum share.
+	 */
+	@Test
+	public void testMinimumShare()
+	{
+		final long min = ( long ) ( VolumeRenderer.MIN_FILL_SHARE * BUDGET );
+		assertEquals( BUDGET - min, VolumeRenderer.fillBudgetShare( BUDGET, 1000, 1 ) );
+		assertEquals( min, VolumeRenderer.fillBudgetShare( BUDGET, 1, 1000 ) );
+		assertEquals( min, VolumeRenderer.fillBudgetShare( BUDGET, 0, 1000 ) );
+	}
+
+	/**
+	 * Without known demand, the budget is split equally.
+	 */
+	@Test
+	public void testUnknownDemand()
+	{
+		assertEquals( BUDGET / 2, VolumeRenderer.fillBudgetShare( BUDGET, Double.NaN, 100 ) );
+		assertEquals( BUDGET / 2, VolumeRenderer.fillBudgetShare( BUDGET, 100, Double.NaN ) );
+		assertEquals( BUDGET / 2, VolumeRenderer.fillBudgetShare( BUDGET, 0, 0 ) );
+	}
+
+	@Test
+	public void testUnbounded()
+	{
+		assertEquals( Long.MAX_VALUE, VolumeRenderer.fillBudgetShare( Long.MAX_VALUE, 1, 1000 ) );
+	}
+}
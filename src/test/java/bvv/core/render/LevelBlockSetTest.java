@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LevelBlockSetTest
+{
+	/**
+	 * Blocks that differ only in the level, or in coordinates beyond 16 bits,
+	 * or beyond {@link LevelBlockSet#MAX_GRID_POS}, are distinct.
+	 */
+	@Test
+	public void testNoAliasing()
+	{
+		final int max = LevelBlockSet.MAX_GRID_POS;
+		final int[][] positions = {
+				{ 0, 0, 0 },
+				{ 1, 0, 0 },
+				{ 0, 1, 0 },
+				{ 0, 0, 1 },
+				{ 0x10000, 0, 0 },
+				{ 0, 0x10000, 0 },
+				{ 0, 0, 0x10000 },
+				{ 0x10005, 0x10001, 0x10002 },
+				{ 5, 1, 2 },
+				{ max, max, max },
+				{ max + 1, 0, 0 },
+				{ 0, 0, max + 1 },
+				{ Integer.MAX_VALUE, 3, 4 } };
+		final LevelBlockSet set = new LevelBlockSet();
+		for ( int level = 0; level < 3; ++level )
+			for ( final int[] pos : positions )
+			{
+				assertFalse( set.contains( level, pos ) );
+				assertTrue( set.add( level, pos ) );
+				assertTrue( set.contains( level, pos ) );
+			}
+		assertEquals( 3 * positions.length, set.size() );
+		for ( int level = 0; level < 3; ++level )
+			for ( final int[] pos : positions )
+				assertFalse( set.add( level, pos.clone() ) );
+		assertFalse( set.contains( 3, positions[ 0 ] ) );
+		assertFalse( set.contains( 0, new int[] { 0x20000, 0, 0 } ) );
+
+		set.clear();
+		assertTrue( set.isEmpty() );
+		for ( final int[] pos : positions )
+			assertFalse( set.contains( 0, pos ) );
+	}
+
+	/**
+	 * Same membership as a set of (level, x, y, z) lists.
+	 */
+	@Test
+	public void testRandom()
+	{
+		final Random random = new Random( 1 );
+		final LevelBlockSet set = new LevelBlockSet();
+		final Set< List< Integer > > expected = new HashSet<>();
+		for ( int i = 0; i < 100_000; ++i )
+		{
+			final int level = random.nextInt( 8 );
+			// small coordinates (many duplicates), and occasionally large ones
+			final int range = random.nextInt( 100 ) == 0 ? Integer.MAX_VALUE : 40;
+			final int[] pos = { random.nextInt( range ), random.nextInt( range ), random.nextInt( range ) };
+			final List< Integer > key = Arrays.asList( level, pos[ 0 ], pos[ 1 ], pos[ 2 ] );
+			if ( random.nextBoolean() )
+				assertEquals( expected.add( key ), set.add( level, pos ) );
+			else
+				assertEquals( expected.contains( key ), set.contains( level, pos ) );
+		}
+		assertEquals( expected.size(), set.size() );
+	}
+}
@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.joml.Vector3f;
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.DefaultFillTask;
+import bvv.core.cache.FillTask;
+import bvv.core.cache.ImageBlockKey;
+import bvv.core.cache.PboChain;
+import bvv.core.cache.ProcessFillTasks;
+import bvv.core.cache.TextureCache;
+
+public class LookupTextureARGBTest
+{
+	private static final int N = 10;
+
+	/**
+	 * Put and clear random cells of a lut that is kept by
+	 * {@link LookupTextureARGB#update}, and upload it after each round. The
+	 * texture always matches the lut, and each upload covers exactly the
+	 * bounding box of the cells that changed.
+	 */
+	@Test
+	public void testIncrementalUpload() throws InterruptedException
+	{
+		final List< TextureCache.Tile > tiles = getTiles( 20 );
+		final MockGpuContext context = new MockGpuContext();
+		final LookupTextureARGB lut = new LookupTextureARGB();
+		final int[] rmin = { 0, 0, 0 };
+		final int[] rmax = { N - 1, N - 1, N - 1 };
+		lut.update( rmin, rmax, 0 );
+		final long[] expected = new long[ N * N * N ];
+
+		final Random random = new Random( 1 );
+		final int[] g0 = new int[ 3 ];
+		for ( int round = 0; round < 50; ++round )
+		{
+			// the first update keeps the lut
+			assertTrue( round == 0 || lut.update( rmin, rmax, 0 ) );
+
+			final int[] changedMin = { N, N, N };
+			final int[] changedMax = { -1, -1, -1 };
+			final int numChanges = round % 5 == 4 ? 0 : 1 + random.nextInt( 8 );
+			for ( int c = 0; c < numChanges; ++c )
+			{
+				for ( int d = 0; d < 3; ++d )
+					g0[ d ] = random.nextInt( N );
+				final int j = g0[ 0 ] + N * ( g0[ 1 ] + N * g0[ 2 ] );
+				final long value;
+				if ( random.nextInt( 4 ) == 0 )
+				{
+					lut.clearTile( lut.indexOf( g0 ) );
+					value = 0;
+				}
+				else
+				{
+					final TextureCache.Tile tile = tiles.get( random.nextInt( tiles.size() ) );
+					final int level = random.nextInt( 3 );
+					lut.putTile( g0, tile, level );
+					value = tile.x() | tile.y() << 8 | tile.z() << 16 | ( long ) ( ( level + 1 ) | tile.shard() << 4 ) << 24;
+				}
+				if ( value != expected[ j ] )
+				{
+					expected[ j ] = value;
+					for ( int d = 0; d < 3; ++d )
+					{
+						changedMin[ d ] = Math.min( changedMin[ d ], g0[ d ] );
+						changedMax[ d ] = Math.max( changedMax[ d ], g0[ d ] );
+					}
+				}
+			}
+
+			final long uploadedBefore = context.getNumUploadedTexels( lut );
+			lut.upload( context );
+			final long numUploaded = context.getNumUploadedTexels( lut ) - uploadedBefore;
+			if ( round == 0 )
+				assertEquals( lut.numCells(), numUploaded );
+			else
+			{
+				long boxSize = 1;
+				for ( int d = 0; d < 3; ++d )
+					boxSize *= Math.max( 0, changedMax[ d ] - changedMin[ d ] + 1 );
+				assertEquals( boxSize, numUploaded );
+			}
+
+			final Vector3f offset = lut.getOffset3f();
+			for ( int z = 0, j = 0; z < N; ++z )
+				for ( int y = 0; y < N; ++y )
+					for ( int x = 0; x < N; ++x, ++j )
+						assertEquals( expected[ j ], context.getTexel( lut, x - ( int ) offset.x, y - ( int ) offset.y, z - ( int ) offset.z ) );
+		}
+	}
+
+	/**
+	 * Get {@code n} distinct tiles of a small texture cache.
+	 */
+	private static List< TextureCache.Tile > getTiles( final int n ) throws InterruptedException
+	{
+		final TextureCache cache = new TextureCache( new int[] { 4, 4, 4 }, new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } ) );
+		final Object image = new Object();
+		final List< ImageBlockKey< ? > > keys = new ArrayList<>();
+		final List< FillTask > tasks = new ArrayList<>();
+		for ( int i = 0; i < n; ++i )
+		{
+			final ImageBlockKey< Object > key = new ImageBlockKey<>( image, i, 0, 0 );
+			keys.add( key );
+			tasks.add( new DefaultFillTask( key, buf -> true, () -> true ) );
+		}
+		ProcessFillTasks.sequential( cache, new PboChain( 2, 10, cache, false ), new MockGpuContext(), tasks );
+		final List< TextureCache.Tile > tiles = new ArrayList<>();
+		for ( final ImageBlockKey< ? > key : keys )
+		{
+			final TextureCache.Tile tile = cache.get( key );
+			assertNotNull( tile );
+			tiles.add( tile );
+		}
+		return tiles;
+	}
+}
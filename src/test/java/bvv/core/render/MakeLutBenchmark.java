@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.FillTask;
+import bvv.core.cache.PboChain;
+import bvv.core.cache.ProcessFillTasks;
+import bvv.core.cache.TextureCache;
+import bvv.core.multires.SyntheticStack;
+
+/**
+ * {@link VolumeBlocks#makeLut(int, ForkJoinPool)} for a view into a synthetic
+ * 6-level {@code 4096^3} stack, sequentially ({@code parallelism = 0}) and on
+ * {@code ForkJoinPool}s of increasing size. A random subset of the required
+ * blocks is present in the cache.
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class MakeLutBenchmark
+{
+	@Param( { "0", "1", "2", "4", "8" } )
+	public int parallelism;
+
+	private TextureCache cache;
+
+	private VolumeBlocks volume;
+
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() throws InterruptedException
+	{
+		final SyntheticStack stack = new SyntheticStack( 4096, 32, 6, 1 );
+		cache = new TextureCache( new int[] { 8, 8, 8 }, new CacheSpec( Texture.InternalFormat.R16, new int[] { 32, 32, 32 } ) );
+		final PboChain chain = new PboChain( 5, 100, cache, false );
+		final Matrix4f pv = new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 60 ), 1, 1, 50000 )
+				.lookAt( 2048, 1800, -1000, 2048, 2048, 2048, 0, 1, 0 );
+		volume = new VolumeBlocks();
+		volume.init( stack, cache, 1000, pv );
+		final List< FillTask > tasks = new ArrayList<>( volume.getFillTasks() );
+		Collections.shuffle( tasks, new Random( 1 ) );
+		ProcessFillTasks.sequential( cache, chain, new MockGpuContext(), tasks.subList( 0, Math.min( tasks.size(), cache.getMaxNumTiles() / 2 ) ), Long.MAX_VALUE );
+		pool = parallelism > 0 ? new ForkJoinPool( parallelism ) : null;
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		if ( pool != null )
+			pool.shutdown();
+	}
+
+	@Benchmark
+	public boolean makeLut()
+	{
+		final int timestamp = cache.nextTimestamp();
+		final boolean complete = volume.makeLut( timestamp, pool );
+		cache.unpinAllExcept( timestamp );
+		return complete;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( MakeLutBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
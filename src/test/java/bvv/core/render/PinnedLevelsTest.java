@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.FillTask;
+import bvv.core.cache.PboChain;
+import bvv.core.cache.ProcessFillTasks;
+import bvv.core.cache.TextureCache;
+import bvv.core.multires.SyntheticStack;
+
+public class PinnedLevelsTest
+{
+	private static final int SIZE = 128;
+
+	private static final int BLOCK_SIZE = 8;
+
+	private static final int NUM_LEVELS = 4;
+
+	/**
+	 * Two sources share one cache. Pinning the 3 coarsest levels takes 584
+	 * tiles for each source (8 + 64 + 512), a quarter of the cache is 768
+	 * tiles. Levels are assigned in turns: The first source gets 3 levels,
+	 * the second one only the 2 coarsest levels (8 + 64).
+	 */
+	private static final int EXPECTED_NUM_PINNED_TILES = 584 + 72;
+
+	/**
+	 * Render two sources from random views, filling only a random part of the
+	 * required blocks in each frame. Once the pinned levels are loaded, the
+	 * LUT entry of every visible block points to a tile. The pinned levels are
+	 * loaded in the first frame, and again for the second source when it is
+	 * rendered after some frames without it (in which its pinned tiles were
+	 * released).
+	 */
+	@Test
+	public void testNoEmptyLutEntries() throws InterruptedException
+	{
+		final List< SyntheticStack > stacks = Arrays.asList(
+				new SyntheticStack( SIZE, 16, NUM_LEVELS, ( l, x, y, z ) -> ( int ) ( 1 + x + 3 * y + 7 * z ) ),
+				new SyntheticStack( SIZE, 16, NUM_LEVELS, ( l, x, y, z ) -> ( int ) ( 1 + 5 * x + y + 2 * z ) ) );
+		final CacheSpec spec = new CacheSpec( Texture.InternalFormat.R16, new int[] { BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE } );
+		final TextureCache cache = new TextureCache( new int[] { 16, 16, 12 }, spec );
+		final MockGpuContext context = new MockGpuContext();
+		final PboChain chain = new PboChain( 5, 100, cache, false );
+		final List< VolumeBlocks > volumes = new ArrayList<>();
+		for ( int i = 0; i < stacks.size(); ++i )
+		{
+			final VolumeBlocks volume = new VolumeBlocks();
+			volume.setPinnedLevels( 3, 0 );
+			volumes.add( volume );
+		}
+
+		final Random random = new Random( 1 );
+		for ( int frame = 0; frame < 12; ++frame )
+		{
+			// the second source is not rendered in frames 3 to 5
+			final int numVolumes = frame >= 3 && frame < 6 ? 1 : 2;
+			final List< VolumeBlocks > rendered = volumes.subList( 0, numVolumes );
+
+			// (re)load pinned levels from afar, later frames are random
+			final boolean load = frame == 0 || frame == 6;
+			final Matrix4f pv = load
+					? view( new Vector3f( 64, 64, -600 ), new Vector3f( 64, 64, 64 ) )
+					: view( randomPoint( random, 300 ), randomPoint( random, 64 ) );
+			final int viewportWidth = load ? 100 : 100 + random.nextInt( 500 );
+
+			final List< FillTask > tasks = new ArrayList<>();
+			for ( int i = 0; i < numVolumes; ++i )
+				volumes.get( i ).init( stacks.get( i ), cache, viewportWidth, pv );
+			VolumeBlocks.assignPinnedLevels( rendered );
+			for ( final VolumeBlocks volume : rendered )
+				tasks.addAll( volume.getFillTasks() );
+
+			// fill everything when loading, and a random part otherwise
+			if ( !load )
+			{
+				Collections.shuffle( tasks, random );
+				final int n = Math.min( random.nextInt( tasks.size() + 1 ), cache.getMaxNumTiles() );
+				tasks.subList( n, tasks.size() ).clear();
+			}
+			assertTrue( tasks.size() <= cache.getMaxNumTiles() );
+			ProcessFillTasks.sequential( cache, chain, context, tasks );
+
+			final int timestamp = cache.nextTimestamp();
+			for ( final VolumeBlocks volume : rendered )
+				volume.makeLut( timestamp );
+			cache.unpinAllExcept( timestamp );
+
+			// the pinned levels of both sources share a quarter of the cache
+			assertEquals( numVolumes == 2 ? EXPECTED_NUM_PINNED_TILES : 584, cache.getNumPinnedTiles() );
+
+			for ( final VolumeBlocks volume : rendered )
+				assertNoEmptyLutEntries( volume, pv, context );
+		}
+	}
+
+	/**
+	 * Check that the LUT entries of all blocks (at base level) with centers
+	 * inside the view frustum point to a tile.
+	 */
+	private static void assertNoEmptyLutEntries( final VolumeBlocks volume, final Matrix4f pv, final MockGpuContext context )
+	{
+		final LookupTextureARGB lut = volume.getLookupTexture();
+		lut.upload( context );
+		final byte[] lutData = context.getTextureData( lut );
+		final Vector3f offset = lut.getOffset3f();
+		final int baseLevel = volume.getBaseLevel();
+		final int scale = 1 << baseLevel;
+		final int gridSize = ( SIZE >> baseLevel ) / BLOCK_SIZE;
+		final Vector4f center = new Vector4f();
+		int numVisible = 0;
+		for ( int gz = 0; gz < gridSize; ++gz )
+			for ( int gy = 0; gy < gridSize; ++gy )
+				for ( int gx = 0; gx < gridSize; ++gx )
+				{
+					// block center in world coordinates (see SyntheticStack level transforms)
+					final float t = 0.5f * ( scale - 1 ) + scale * ( BLOCK_SIZE - 1 ) * 0.5f;
+					pv.transform( center.set( scale * BLOCK_SIZE * gx + t, scale * BLOCK_SIZE * gy + t, scale * BLOCK_SIZE * gz + t, 1 ) );
+					if ( center.w <= 0
+							|| Math.abs( center.x ) > center.w
+							|| Math.abs( center.y ) > center.w
+							|| Math.abs( center.z ) > center.w )
+						continue;
+					++numVisible;
+
+					final int x = gx - ( int ) offset.x;
+					final int y = gy - ( int ) offset.y;
+					final int z = gz - ( int ) offset.z;
+					assertTrue( x >= 0 && x < lut.texWidth() && y >= 0 && y < lut.texHeight() && z >= 0 && z < lut.texDepth() );
+					final int i = 4 * ( x + lut.texWidth() * ( y + lut.texHeight() * z ) );
+					assertNotEquals( "empty LUT entry for block " + gx + ", " + gy + ", " + gz, 0, lutData[ i + 3 ] );
+				}
+		assertTrue( numVisible > 0 );
+	}
+
+	private static Matrix4f view( final Vector3f eye, final Vector3f target )
+	{
+		return new Matrix4f()
+				.setPerspective( ( float ) Math.toRadians( 60 ), 1, 1, 5000 )
+				.lookAt( eye, target, new Vector3f( 0, 1, 0 ) );
+	}
+
+	/**
+	 * Random point at distance {@code <= r} from the volume center.
+	 */
+	private static Vector3f randomPoint( final Random random, final float r )
+	{
+		final Vector3f p = new Vector3f();
+		do
+			p.set( random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1 );
+		while ( p.lengthSquared() > 1 );
+		return p.mul( r ).add( 64, 64, 64 );
+	}
+}
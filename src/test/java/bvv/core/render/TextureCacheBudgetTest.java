@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static bvv.core.render.TextureCacheBudget.RESIZE_COOLDOWN_FRAMES;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TextureCacheBudgetTest
+{
+	private static final double NaN = Double.NaN;
+
+	private static final boolean[] UNCONSTRAINED = { false, false };
+
+	@Test
+	public void testAllocateUnknownDemand()
+	{
+		final TextureCacheBudget budget = new TextureCacheBudget( 1000 );
+		assertArrayEquals( new int[] { 1000, 0 }, budget.update( new int[] { 0, 0 }, new double[] { NaN, 0 }, UNCONSTRAINED ) );
+
+		// allocating the second cache is not delayed by the resize of the first
+		assertArrayEquals( new int[] { 500, 500 }, budget.update( new int[] { 1000, 0 }, new double[] { NaN, NaN }, UNCONSTRAINED ) );
+	}
+
+	@Test
+	public void testKeepSizeIfDemandFits()
+	{
+		final TextureCacheBudget budget = new TextureCacheBudget( 1000 );
+		for ( int frame = 0; frame < 100; ++frame )
+			assertArrayEquals( new int[] { 600, 400 }, budget.update( new int[] { 600, 400 }, new double[] { 100 + frame, 400 }, UNCONSTRAINED ) );
+	}
+
+	@Test
+	public void testGrowToDemand()
+	{
+		final TextureCacheBudget budget = new TextureCacheBudget( 1000 );
+		final int[] size = budget.update( new int[] { 200, 0 }, new double[] { 300, 0 }, UNCONSTRAINED );
+		assertEquals( 1000, size[ 0 ] );
+	}
+
+	@Test
+	public void testConstrainedGrowsIntoFreeBudget()
+	{
+		final TextureCacheBudget budget = new TextureCacheBudget( 400 );
+		int[] size = { 400, 0 };
+		final double[] demand = { 400, 0 };
+		final boolean[] constrained = { true, false };
+		for ( int frame = 0; frame < 2 * RESIZE_COOLDOWN_FRAMES; ++frame )
+			size = budget.update( size, demand, constrained );
+		assertArrayEquals( new int[] { 400, 0 }, size );
+
+		budget.setMaxCacheSizeInMB( 1000 );
+		size = budget.update( size, demand, constrained );
+		assertArrayEquals( new int[] { 1000, 0 }, size );
+	}
+
+	@Test
+	public void testShrinkToReducedBudgetDuringCooldown()
+	{
+		final TextureCacheBudget budget = new TextureCacheBudget( 1000 );
+		int[] size = budget.update( new int[] { 0, 0 }, new double[] { NaN, 0 }, UNCONSTRAINED );
+		budget.setMaxCacheSizeInMB( 500 );
+		size = budget.update( size, new double[] { 800, 0 }, UNCONSTRAINED );
+		assertArrayEquals( new int[] { 500, 0 }, size );
+	}
+
+	@Test
+	public void testCooldown()
+	{
+		final TextureCacheBudget budget = new TextureCacheBudget( 1000 );
+		int[] size = budget.update( new int[] { 0, 0 }, new double[] { NaN, NaN }, UNCONSTRAINED );
+		assertArrayEquals( new int[] { 500, 500 }, size );
+
+		// the first cache needs more, the second one could give it
+		final double[] demand = { 600, 100 };
+		for ( int frame = 1; frame <= RESIZE_COOLDOWN_FRAMES; ++frame )
+			assertArrayEquals( new int[] { 500, 500 }, size = budget.update( size, demand, UNCONSTRAINED ) );
+		size = budget.update( size, demand, UNCONSTRAINED );
+		assertTrue( size[ 0 ] >= 600 );
+		assertTrue( size[ 1 ] >= 100 );
+		assertTrue( size[ 0 ] + size[ 1 ] <= 1000 );
+	}
+
+	@Test
+	public void testMinRelativeGrowth()
+	{
+		final TextureCacheBudget budget = new TextureCacheBudget( 1000 );
+		final int[] size = { 500, 500 };
+
+		// both caches need slightly more than they have: a reshuffle of a
+		// few MB is not worth reallocating both of them
+		assertArrayEquals( size, budget.update( size, new double[] { 505, 500 }, new boolean[] { true, true } ) );
+	}
+
+	/**
+	 * Two caches with randomly fluctuating demands that together often exceed
+	 * the budget. Caches are resized at most once per
+	 * {@link TextureCacheBudget#RESIZE_COOLDOWN_FRAMES}.
+	 */
+	@Test
+	public void testNoThrashing()
+	{
+		final Random random = new Random( 1 );
+		final TextureCacheBudget budget = new TextureCacheBudget( 1000 );
+		int[] size = budget.update( new int[] { 0, 0 }, new double[] { NaN, NaN }, UNCONSTRAINED );
+		int numResizes = 0;
+		int lastResize = 0;
+		final int numFrames = 1000;
+		for ( int frame = 1; frame <= numFrames; ++frame )
+		{
+			// demand after coarsening is at most the cache size
+			final double[] wanted = { 200 + 700 * random.nextDouble(), 200 + 700 * random.nextDouble() };
+			final double[] demand = new double[ 2 ];
+			final boolean[] constrained = new boolean[ 2 ];
+			for ( int i = 0; i < 2; ++i )
+			{
+				constrained[ i ] = wanted[ i ] > size[ i ];
+				demand[ i ] = Math.min( wanted[ i ], size[ i ] );
+			}
+			final int[] newSize = budget.update( size, demand, constrained );
+			assertTrue( newSize[ 0 ] + newSize[ 1 ] <= 1000 );
+			if ( !Arrays.equals( size, newSize ) )
+			{
+				assertTrue( frame - lastResize >= RESIZE_COOLDOWN_FRAMES );
+				++numResizes;
+				lastResize = frame;
+			}
+			size = newSize;
+		}
+		assertTrue( numResizes > 0 );
+		assertTrue( numResizes <= numFrames / RESIZE_COOLDOWN_FRAMES );
+	}
+}
@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * Volume rendering of bdv datasets
+ * %%
+ * Copyright (C) 2018 - 2026 Tobias Pietzsch
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bvv.core.render;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.joml.Matrix4f;
+import org.junit.Test;
+
+import bvv.core.backend.MockGpuContext;
+import bvv.core.backend.Texture;
+import bvv.core.cache.CacheSpec;
+import bvv.core.cache.FillTask;
+import bvv.core.cache.PboChain;
+import bvv.core.cache.ProcessFillTasks;
+import bvv.core.cache.TextureCache;
+import bvv.core.multires.SyntheticStack;
+
+public class VolumeBlocksMakeLutTest
+{
+	@Test
+	public void testParallelMatchesSequential() throws InterruptedException
+	{
+		checkParallelMatchesSequential( false );
+	}
+
+	@Test
+	public void testParallelMatchesSequentialIncremental() throws InterruptedException
+	{
+		checkParallelMatchesSequential( true );
+	}
+
+	/**
+	 * Fill a random subset of the required blocks, then check that
+	 * {@code makeLut} on a {@code ForkJoinPool} produces the same LUT as
+	 * sequential {@code makeLut}, for some random views.
+	 */
+	private static void checkParallelMatchesSequential( final boolean incremental ) throws InterruptedException
+	{
+		final SyntheticStack stack = new SyntheticStack( 128, 4, 4, ( l, x, y, z ) -> ( int ) ( 1 + l + x + 3 * y + 7 * z ) );
+		final TextureCache cache = new TextureCache( new int[] { 24, 24, 24 }, new CacheSpec( Texture.InternalFormat.R16, new int[] { 4, 4, 4 } ) );
+		final MockGpuContext context = new MockGpuContext();
+		final PboChain chain = new PboChain( 5, 100, cache, false );
+		final ForkJoinPool pool = new ForkJoinPool( 4 );
+		final Random random = new Random( 1 );
+		final VolumeBlocks sequential = new VolumeBlocks();
+		final VolumeBlocks parallel = new VolumeBlocks();
+		sequential.setIncremental( incremental );
+		parallel.setIncremental( incremental );
+		try
+		{
+			boolean split = false;
+			for ( int frame = 0; frame < 6; ++frame )
+			{
+				final Matrix4f pv = new Matrix4f()
+						.setPerspective( ( float ) Math.toRadians( 60 ), 1, 1, 5000 )
+						.lookAt( 64 + 16 * random.nextFloat(), 64 + 16 * random.nextFloat(), -50 - 50 * random.nextFloat(), 64, 64, 64, 0, 1, 0 );
+
+				sequential.init( stack, cache, 1000, pv );
+				parallel.init( stack, cache, 1000, pv );
+				final List< FillTask > tasks = new ArrayList<>( sequential.getFillTasks() );
+				parallel.getFillTasks();
+
+				Collections.shuffle( tasks, random );
+				final List< FillTask > subset = tasks.subList( 0, Math.min( tasks.size(), cache.getMaxNumTiles() / 2 + random.nextInt( cache.getMaxNumTiles() / 2 ) ) );
+				ProcessFillTasks.sequential( cache, chain, context, subset, Long.MAX_VALUE );
+
+				final int timestamp = cache.nextTimestamp();
+				final boolean sequentialComplete = sequential.makeLut( timestamp, null );
+				final boolean parallelComplete = parallel.makeLut( timestamp, pool );
+				cache.unpinAllExcept( timestamp );
+				assertEquals( sequentialComplete, parallelComplete );
+				split |= sequential.getRequiredBlockKeys().size() >= 8192;
+
+				final LookupTextureARGB expected = sequential.getLookupTexture();
+				final LookupTextureARGB actual = parallel.getLookupTexture();
+				expected.upload( context );
+				actual.upload( context );
+				assertEquals( expected.texWidth(), actual.texWidth() );
+				assertEquals( expected.texHeight(), actual.texHeight() );
+				assertEquals( expected.texDepth(), actual.texDepth() );
+				assertArrayEquals( context.getTextureData( expected ), context.getTextureData( actual ) );
+			}
+			assertTrue( "not enough required blocks to exercise the parallel split", split );
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+}